@@ -0,0 +1,160 @@
+/*
+-----------------------------------------------------------------------------
+This source file is part of Cell Cloud.
+
+Copyright (c) 2009-2017 Cell Cloud Team (www.cellcloud.net)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+-----------------------------------------------------------------------------
+*/
+
+package net.cellcloud.bench;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 非阻塞接收器的工作线程扩展测试。
+ * 
+ * 使用不同的工作线程数量启动回显服务，多个客户端连接各自保持固定数量的在途消息，
+ * 测量服务端每秒回显的消息数量。客户端使用阻塞 Socket ，按固定帧长统计回显，不解析数据。
+ * 
+ * @author Ambrose Xu
+ * 
+ */
+public final class AcceptorScalingBench {
+
+	private static final int[] WORKERS = { 1, 2, 4, 8 };
+
+	/** 客户端连接数量。 */
+	private static final int CONNECTIONS = 32;
+
+	/** 每个连接的在途消息数量。 */
+	private static final int WINDOW = 16;
+
+	/** 消息长度。 */
+	private static final int MESSAGE_SIZE = 128;
+
+	/** 每种配置的测量时长，单位：毫秒。 */
+	private static final long DURATION = 3000L;
+
+	public static void main(String[] args) throws Exception {
+		Bench.printEnvironment();
+
+		// 全零数据不会与数据标记混淆
+		byte[] frame = new byte[EchoServer.HEAD_MARK.length + MESSAGE_SIZE + EchoServer.TAIL_MARK.length];
+		System.arraycopy(EchoServer.HEAD_MARK, 0, frame, 0, EchoServer.HEAD_MARK.length);
+		System.arraycopy(EchoServer.TAIL_MARK, 0, frame, frame.length - EchoServer.TAIL_MARK.length, EchoServer.TAIL_MARK.length);
+
+		for (int workers : WORKERS) {
+			run(workers, frame);
+		}
+
+		System.exit(0);
+	}
+
+	private static void run(int workers, final byte[] frame) throws Exception {
+		EchoServer server = new EchoServer(workers);
+		final InetSocketAddress address = server.start();
+
+		final AtomicLong echoed = new AtomicLong(0);
+		final CountDownLatch ready = new CountDownLatch(CONNECTIONS);
+		final CountDownLatch finished = new CountDownLatch(CONNECTIONS);
+		final long[] window = new long[2];
+
+		Thread[] clients = new Thread[CONNECTIONS];
+		for (int i = 0; i < CONNECTIONS; ++i) {
+			clients[i] = new Thread("Client-" + i) {
+				@Override
+				public void run() {
+					Socket socket = new Socket();
+					try {
+						socket.setTcpNoDelay(true);
+						socket.connect(address, 10000);
+						OutputStream out = socket.getOutputStream();
+						InputStream in = socket.getInputStream();
+						ready.countDown();
+
+						for (int n = 0; n < WINDOW; ++n) {
+							out.write(frame);
+						}
+						out.flush();
+
+						byte[] buf = new byte[frame.length * WINDOW];
+						long bytes = 0;
+						long frames = 0;
+						while (!Thread.currentThread().isInterrupted()) {
+							int read = in.read(buf);
+							if (read < 0) {
+								break;
+							}
+
+							bytes += read;
+							long complete = bytes / frame.length;
+							if (complete > frames) {
+								// 每收到一条回显补发一条消息
+								for (long n = frames; n < complete; ++n) {
+									out.write(frame);
+								}
+								out.flush();
+								echoed.addAndGet(complete - frames);
+								frames = complete;
+							}
+						}
+					} catch (Exception e) {
+						// 测量结束时关闭连接
+					} finally {
+						try {
+							socket.close();
+						} catch (Exception e) {
+							// Nothing
+						}
+						finished.countDown();
+					}
+				}
+			};
+			clients[i].setDaemon(true);
+			clients[i].start();
+		}
+
+		ready.await();
+		// 预热后开始计数
+		Thread.sleep(1000L);
+		window[0] = echoed.get();
+		long start = System.nanoTime();
+		Thread.sleep(DURATION);
+		window[1] = echoed.get();
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		for (Thread client : clients) {
+			client.interrupt();
+		}
+		server.stop();
+		finished.await();
+
+		System.out.println(String.format(Locale.ROOT, "workers %2d: %10.0f msg/s (%d connections, window %d, %d bytes)",
+				workers, (window[1] - window[0]) / seconds, CONNECTIONS, WINDOW, MESSAGE_SIZE));
+	}
+
+}
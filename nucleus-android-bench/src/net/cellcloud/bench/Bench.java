@@ -0,0 +1,177 @@
+/*
+-----------------------------------------------------------------------------
+This source file is part of Cell Cloud.
+
+Copyright (c) 2009-2017 Cell Cloud Team (www.cellcloud.net)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+-----------------------------------------------------------------------------
+*/
+
+package net.cellcloud.bench;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+
+/**
+ * 基准测试工具。
+ * 
+ * 每项测试先预热，再重复执行若干轮，取最好一轮的每次操作耗时。
+ * 操作结果累加到 {@link #sink} ，避免被即时编译器当作无用代码消除。
+ * 
+ * @author Ambrose Xu
+ * 
+ */
+public final class Bench {
+
+	/** 默认每轮操作次数。 */
+	public static final int DEFAULT_OPS = 200000;
+
+	/** 默认轮数。 */
+	public static final int DEFAULT_ROUNDS = 5;
+
+	/** 累加操作结果。 */
+	public static volatile long sink;
+
+	private Bench() {
+	}
+
+	/**
+	 * 基准测试操作。
+	 */
+	public interface Op {
+
+		/**
+		 * 执行一次操作。
+		 * 
+		 * @param index 指定本轮内的操作序号。
+		 * @return 返回任意结果，用于累加。
+		 * @throws Exception
+		 */
+		public long run(int index) throws Exception;
+
+	}
+
+	/**
+	 * 执行测试并打印结果。
+	 * 
+	 * @param name 指定测试名称。
+	 * @param op 指定操作。
+	 * @return 返回最好一轮的每次操作耗时，单位：纳秒。
+	 * @throws Exception
+	 */
+	public static double run(String name, Op op) throws Exception {
+		return run(name, DEFAULT_OPS, DEFAULT_ROUNDS, op);
+	}
+
+	/**
+	 * 执行测试并打印结果。
+	 * 
+	 * @param name 指定测试名称。
+	 * @param ops 指定每轮操作次数。
+	 * @param rounds 指定轮数。
+	 * @param op 指定操作。
+	 * @return 返回最好一轮的每次操作耗时，单位：纳秒。
+	 * @throws Exception
+	 */
+	public static double run(String name, int ops, int rounds, Op op) throws Exception {
+		long result = 0;
+
+		// 预热
+		for (int i = 0; i < ops; ++i) {
+			result += op.run(i);
+		}
+
+		long best = Long.MAX_VALUE;
+		for (int round = 0; round < rounds; ++round) {
+			long start = System.nanoTime();
+			for (int i = 0; i < ops; ++i) {
+				result += op.run(i);
+			}
+			best = Math.min(best, System.nanoTime() - start);
+		}
+
+		sink += result;
+
+		double nanos = (double) best / ops;
+		report(name, nanos, "ns/op");
+		return nanos;
+	}
+
+	/**
+	 * 执行测试并打印当前线程每次操作分配的字节数。
+	 * 
+	 * 依赖 HotSpot 提供的线程内存分配统计，不支持时抛出 {@link UnsupportedOperationException} 。
+	 * 
+	 * @param name 指定测试名称。
+	 * @param ops 指定操作次数。
+	 * @param op 指定操作。
+	 * @return 返回每次操作分配的字节数。
+	 * @throws Exception
+	 */
+	public static double allocation(String name, int ops, Op op) throws Exception {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+			throw new UnsupportedOperationException("Thread allocated memory is not supported");
+		}
+
+		com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) bean;
+		long id = Thread.currentThread().getId();
+		long result = 0;
+
+		// 预热，同时让统计本身的分配稳定下来
+		for (int i = 0; i < ops; ++i) {
+			result += op.run(i);
+		}
+
+		long start = mx.getThreadAllocatedBytes(id);
+		for (int i = 0; i < ops; ++i) {
+			result += op.run(i);
+		}
+		long allocated = mx.getThreadAllocatedBytes(id) - start;
+
+		sink += result;
+
+		double bytes = (double) allocated / ops;
+		report(name, bytes, "B/op");
+		return bytes;
+	}
+
+	/**
+	 * 按统一格式打印一项结果。
+	 * 
+	 * @param name 指定测试名称。
+	 * @param value 指定数值。
+	 * @param unit 指定单位。
+	 */
+	public static void report(String name, double value, String unit) {
+		System.out.println(String.format(Locale.ROOT, "%-40s %12.1f %s", name, value, unit));
+	}
+
+	/**
+	 * 打印运行环境，便于对比不同机器上的结果。
+	 */
+	public static void printEnvironment() {
+		System.out.println("# java " + System.getProperty("java.version") + " (" + System.getProperty("java.vm.name")
+				+ "), " + System.getProperty("os.name") + " " + System.getProperty("os.arch")
+				+ ", " + Runtime.getRuntime().availableProcessors() + " cpus");
+	}
+
+}
@@ -0,0 +1,105 @@
+/*
+-----------------------------------------------------------------------------
+This source file is part of Cell Cloud.
+
+Copyright (c) 2009-2017 Cell Cloud Team (www.cellcloud.net)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+-----------------------------------------------------------------------------
+*/
+
+package net.cellcloud.bench;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+
+import net.cellcloud.common.Message;
+import net.cellcloud.common.NonblockingAcceptor;
+import net.cellcloud.common.Session;
+
+/**
+ * 回环地址上的回显服务，将收到的每条消息原样写回。
+ * 
+ * @author Ambrose Xu
+ * 
+ */
+public final class EchoServer {
+
+	/** 与会话服务相同的数据标记，接收器只在定义数据标记时解析帧。 */
+	public static final byte[] HEAD_MARK = new byte[] { 0x20, 0x10, 0x11, 0x10 };
+	public static final byte[] TAIL_MARK = new byte[] { 0x19, 0x78, 0x10, 0x04 };
+
+	private final NonblockingAcceptor acceptor;
+	private int port;
+
+	/**
+	 * 构造函数。
+	 * 
+	 * @param workers 指定接收器工作线程数量，为 <code>0</code> 时使用默认值。
+	 */
+	public EchoServer(int workers) {
+		this.acceptor = new NonblockingAcceptor();
+		if (workers > 0) {
+			this.acceptor.setWorkerNum(workers);
+		}
+		this.acceptor.defineDataMark(HEAD_MARK, TAIL_MARK);
+		this.acceptor.setHandler(new HandlerAdapter() {
+			@Override
+			public void messageReceived(Session session, Message message) {
+				acceptor.write(session, new Message(message.get()));
+			}
+		});
+	}
+
+	/**
+	 * 在空闲端口上启动服务。
+	 * 
+	 * @return 返回服务地址。
+	 * @throws IOException
+	 */
+	public InetSocketAddress start() throws IOException {
+		ServerSocket probe = new ServerSocket(0);
+		this.port = probe.getLocalPort();
+		probe.close();
+
+		if (!this.acceptor.bind(new InetSocketAddress("127.0.0.1", this.port))) {
+			throw new IOException("Can not bind port " + this.port);
+		}
+
+		return new InetSocketAddress("127.0.0.1", this.port);
+	}
+
+	/**
+	 * 停止服务。
+	 */
+	public void stop() {
+		this.acceptor.unbind();
+	}
+
+	/**
+	 * 返回接收器。
+	 * 
+	 * @return 返回接收器。
+	 */
+	public NonblockingAcceptor getAcceptor() {
+		return this.acceptor;
+	}
+
+}
@@ -0,0 +1,77 @@
+/*
+-----------------------------------------------------------------------------
+This source file is part of Cell Cloud.
+
+Copyright (c) 2009-2017 Cell Cloud Team (www.cellcloud.net)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+-----------------------------------------------------------------------------
+*/
+
+package net.cellcloud.bench;
+
+import net.cellcloud.common.Message;
+import net.cellcloud.common.MessageHandler;
+import net.cellcloud.common.Session;
+
+/**
+ * 空实现的消息处理器，测试程序只覆盖需要的回调。
+ * 
+ * @author Ambrose Xu
+ * 
+ */
+public class HandlerAdapter implements MessageHandler {
+
+	@Override
+	public void sessionCreated(Session session) {
+	}
+
+	@Override
+	public void sessionDestroyed(Session session) {
+	}
+
+	@Override
+	public void sessionOpened(Session session) {
+	}
+
+	@Override
+	public void sessionClosed(Session session) {
+	}
+
+	@Override
+	public void messageReceived(Session session, Message message) {
+	}
+
+	@Override
+	public void messageSent(Session session, Message message) {
+	}
+
+	@Override
+	public void sessionUnwritable(Session session) {
+	}
+
+	@Override
+	public void sessionWritable(Session session) {
+	}
+
+	@Override
+	public void errorOccurred(int errorCode, Session session, Message message) {
+	}
+
+}
@@ -0,0 +1,258 @@
+/*
+-----------------------------------------------------------------------------
+This source file is part of Cell Cloud.
+
+Copyright (c) 2009-2017 Cell Cloud Team (www.cellcloud.net)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+-----------------------------------------------------------------------------
+*/
+
+package net.cellcloud.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.json.JSONObject;
+
+import net.cellcloud.common.Cryptology;
+import net.cellcloud.common.FrameAccumulator;
+import net.cellcloud.common.Message;
+import net.cellcloud.common.Packet;
+import net.cellcloud.talk.Primitive;
+import net.cellcloud.talk.dialect.ChunkDialect;
+import net.cellcloud.talk.stuff.AdverbialStuff;
+import net.cellcloud.talk.stuff.AttributiveStuff;
+import net.cellcloud.talk.stuff.ComplementStuff;
+import net.cellcloud.talk.stuff.ObjectiveStuff;
+import net.cellcloud.talk.stuff.PredicateStuff;
+import net.cellcloud.talk.stuff.PrimitiveSerializer;
+import net.cellcloud.talk.stuff.SubjectStuff;
+import net.cellcloud.util.ByteUtils;
+
+/**
+ * 公共模块和会话模块热点路径的基准测试。
+ * 
+ * 覆盖数据包编解码、原语序列化、帧提取、简单加密、区块方言和字节转换。
+ * 输入数据固定：数据包 4 个 200 字节的数据段，原语 6 个语素，帧使用 4 字节数据标记。
+ * 
+ * @author Ambrose Xu
+ * 
+ */
+public final class HotPathBench {
+
+	private static final byte[] TAG = new byte[] { 'D', 'I', 'A', 'L' };
+
+	private static final byte[] HEAD_MARK = new byte[] { 0x20, 0x10, 0x11, 0x10 };
+	private static final byte[] TAIL_MARK = new byte[] { 0x19, 0x78, 0x10, 0x04 };
+
+	/** 每次提取的帧数量。 */
+	private static final int FRAMES_PER_EXTRACT = 16;
+
+	private final Random random = new Random(20170601L);
+
+	public static void main(String[] args) throws Exception {
+		Bench.printEnvironment();
+
+		HotPathBench bench = new HotPathBench();
+		bench.packet(1);
+		bench.packet(2);
+		bench.packet(3);
+		bench.primitive();
+		bench.extract();
+		bench.cryptology();
+		bench.chunkDialect();
+		bench.byteUtils();
+	}
+
+	private void packet(int major) throws Exception {
+		final Packet packet = new Packet(TAG, 1, major, 0);
+		for (int i = 0; i < 4; ++i) {
+			packet.appendSegment(this.bytes(200));
+		}
+		if (major == 3) {
+			packet.setFlags(Packet.FLAG_CHECKSUM);
+		}
+
+		final byte[] data = Packet.pack(packet);
+
+		Bench.run("Packet.pack v" + major, new Bench.Op() {
+			@Override
+			public long run(int index) {
+				return Packet.pack(packet).length;
+			}
+		});
+
+		Bench.run("Packet.unpack v" + major, new Bench.Op() {
+			@Override
+			public long run(int index) {
+				return Packet.unpack(data).numSegments();
+			}
+		});
+	}
+
+	private void primitive() throws Exception {
+		final Primitive primitive = new Primitive();
+		primitive.commit(new SubjectStuff("cloud{=:}\\" + this.random.nextInt()));
+		primitive.commit(new PredicateStuff(this.random.nextInt()));
+		primitive.commit(new ObjectiveStuff(this.bytes(200)));
+		primitive.commit(new AttributiveStuff(this.random.nextLong()));
+		primitive.commit(new AdverbialStuff(this.random.nextDouble()));
+		primitive.commit(new ComplementStuff(true));
+
+		String[] names = { "text", "binary" };
+		int[] formats = { PrimitiveSerializer.FORMAT_TEXT, PrimitiveSerializer.FORMAT_BINARY };
+		for (int n = 0; n < formats.length; ++n) {
+			final int format = formats[n];
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			primitive.write(out, format);
+			final byte[] data = out.toByteArray();
+
+			Bench.run("Primitive.write (" + names[n] + ")", new Bench.Op() {
+				@Override
+				public long run(int index) {
+					ByteArrayOutputStream out = new ByteArrayOutputStream(512);
+					primitive.write(out, format);
+					return out.size();
+				}
+			});
+
+			Bench.run("Primitive.read (" + names[n] + ")", new Bench.Op() {
+				@Override
+				public long run(int index) {
+					Primitive result = new Primitive();
+					result.read(new ByteArrayInputStream(data));
+					return result.subjects().size();
+				}
+			});
+		}
+
+		final JSONObject json = new JSONObject();
+		PrimitiveSerializer.write(json, primitive);
+
+		Bench.run("Primitive.write (json)", 50000, Bench.DEFAULT_ROUNDS, new Bench.Op() {
+			@Override
+			public long run(int index) throws Exception {
+				JSONObject out = new JSONObject();
+				PrimitiveSerializer.write(out, primitive);
+				return out.length();
+			}
+		});
+
+		Bench.run("Primitive.read (json)", 50000, Bench.DEFAULT_ROUNDS, new Bench.Op() {
+			@Override
+			public long run(int index) throws Exception {
+				Primitive result = new Primitive();
+				PrimitiveSerializer.read(result, json);
+				return result.subjects().size();
+			}
+		});
+	}
+
+	private void extract() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (int i = 0; i < FRAMES_PER_EXTRACT; ++i) {
+			out.write(HEAD_MARK);
+			out.write(this.bytes(200 + this.random.nextInt(200)));
+			out.write(TAIL_MARK);
+		}
+		final byte[] stream = out.toByteArray();
+		final FrameAccumulator accumulator = new FrameAccumulator();
+		final ArrayList<Message> frames = new ArrayList<Message>(FRAMES_PER_EXTRACT);
+
+		double nanos = Bench.run("FrameAccumulator.extract (16 frames)", 50000, Bench.DEFAULT_ROUNDS, new Bench.Op() {
+			@Override
+			public long run(int index) {
+				accumulator.write(stream, 0, stream.length);
+				accumulator.extract(HEAD_MARK, TAIL_MARK, frames, false);
+				int count = frames.size();
+				frames.clear();
+				return count;
+			}
+		});
+		Bench.report("FrameAccumulator.extract per frame", nanos / FRAMES_PER_EXTRACT, "ns/op");
+	}
+
+	private void cryptology() throws Exception {
+		final Cryptology cryptology = Cryptology.getInstance();
+		final byte[] key = "cellclou".getBytes();
+		final byte[] plaintext = this.bytes(200);
+		final byte[] buffer = plaintext.clone();
+
+		Bench.run("Cryptology.simpleEncrypt", new Bench.Op() {
+			@Override
+			public long run(int index) {
+				return cryptology.simpleEncrypt(plaintext, key).length;
+			}
+		});
+
+		Bench.run("Cryptology.simpleEncrypt (in place)", new Bench.Op() {
+			@Override
+			public long run(int index) {
+				return cryptology.simpleEncrypt(buffer, 0, buffer.length, key) ? 1 : 0;
+			}
+		});
+	}
+
+	private void chunkDialect() throws Exception {
+		final ChunkDialect dialect = new ChunkDialect("bench", "sign", 8192L, 0, 2, this.bytes(4096), 4096);
+		final Primitive primitive = dialect.reconstruct();
+
+		Bench.run("ChunkDialect.reconstruct", new Bench.Op() {
+			@Override
+			public long run(int index) {
+				return dialect.reconstruct().subjects().size();
+			}
+		});
+
+		Bench.run("ChunkDialect.construct", new Bench.Op() {
+			@Override
+			public long run(int index) {
+				ChunkDialect result = new ChunkDialect("bench");
+				result.construct(primitive);
+				return result.getLength();
+			}
+		});
+	}
+
+	private void byteUtils() throws Exception {
+		Bench.run("ByteUtils long round-trip", new Bench.Op() {
+			@Override
+			public long run(int index) {
+				return ByteUtils.toLong(ByteUtils.toBytes((long) index * 0x9E3779B97F4A7C15L));
+			}
+		});
+
+		Bench.run("ByteUtils int round-trip", new Bench.Op() {
+			@Override
+			public long run(int index) {
+				return ByteUtils.toInt(ByteUtils.toBytes(index));
+			}
+		});
+	}
+
+	private byte[] bytes(int length) {
+		byte[] data = new byte[length];
+		this.random.nextBytes(data);
+		return data;
+	}
+
+}
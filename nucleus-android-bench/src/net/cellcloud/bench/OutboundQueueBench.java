@@ -0,0 +1,219 @@
+/*
+-----------------------------------------------------------------------------
+This source file is part of Cell Cloud.
+
+Copyright (c) 2009-2017 Cell Cloud Team (www.cellcloud.net)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+-----------------------------------------------------------------------------
+*/
+
+package net.cellcloud.bench;
+
+import java.util.ArrayList;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.cellcloud.util.MpscArrayQueue;
+
+/**
+ * 发送队列的多生产者单消费者测试。
+ * 
+ * 多个生产者线程写入消息，一个消费者线程取出，对比 {@link MpscArrayQueue} 逐条取出和批量取出、
+ * {@link ConcurrentLinkedQueue} 以及原先使用的 {@link Vector} 加 <code>remove(0)</code> 。
+ * 无界队列通过计数限制积压数量，与有界队列的容量一致。
+ * 
+ * @author Ambrose Xu
+ * 
+ */
+public final class OutboundQueueBench {
+
+	/** 队列容量，与会话发送队列一致。 */
+	private static final int CAPACITY = 1024;
+
+	/** 每轮消息总数。 */
+	private static final int MESSAGES = 2000000;
+
+	private static final int[] PRODUCERS = { 1, 4, 16 };
+
+	/** 批量取出的最大数量。 */
+	private static final int DRAIN_LIMIT = 256;
+
+	public static void main(String[] args) throws Exception {
+		Bench.printEnvironment();
+
+		for (int producers : PRODUCERS) {
+			run("MpscArrayQueue.poll", producers, new MpscQueue(false));
+			run("MpscArrayQueue.drain", producers, new MpscQueue(true));
+			run("ConcurrentLinkedQueue.poll", producers, new LinkedQueue());
+			run("Vector.remove(0)", producers, new VectorQueue());
+		}
+	}
+
+	private static void run(String name, int producers, final Queue queue) throws Exception {
+		// 预热
+		transfer(producers, queue);
+
+		long best = Long.MAX_VALUE;
+		for (int round = 0; round < 3; ++round) {
+			best = Math.min(best, transfer(producers, queue));
+		}
+
+		Bench.report(name + " (" + producers + " producers)", MESSAGES / (best / 1e9) / 1e6, "Mops/s");
+	}
+
+	private static long transfer(int producers, final Queue queue) throws Exception {
+		final int perProducer = MESSAGES / producers;
+		final Object message = new Object();
+
+		Thread[] threads = new Thread[producers];
+		for (int p = 0; p < producers; ++p) {
+			threads[p] = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < perProducer; ++i) {
+						while (!queue.offer(message)) {
+							Thread.yield();
+						}
+					}
+				}
+			};
+		}
+
+		long start = System.nanoTime();
+		for (Thread thread : threads) {
+			thread.start();
+		}
+
+		int total = perProducer * producers;
+		int received = 0;
+		while (received < total) {
+			int n = queue.take();
+			if (n == 0) {
+				Thread.yield();
+			}
+			received += n;
+		}
+		long elapsed = System.nanoTime() - start;
+
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		return elapsed;
+	}
+
+	/**
+	 * 被测队列。
+	 */
+	private interface Queue {
+
+		public boolean offer(Object message);
+
+		/**
+		 * 取出消息，返回取出的数量。
+		 */
+		public int take();
+
+	}
+
+	private static final class MpscQueue implements Queue {
+
+		private final MpscArrayQueue<Object> queue = new MpscArrayQueue<Object>(CAPACITY);
+		private final ArrayList<Object> batch = new ArrayList<Object>(DRAIN_LIMIT);
+		private final boolean drain;
+
+		protected MpscQueue(boolean drain) {
+			this.drain = drain;
+		}
+
+		@Override
+		public boolean offer(Object message) {
+			return this.queue.offer(message);
+		}
+
+		@Override
+		public int take() {
+			if (this.drain) {
+				int n = this.queue.drain(this.batch, DRAIN_LIMIT);
+				this.batch.clear();
+				return n;
+			}
+
+			int n = 0;
+			while (null != this.queue.poll()) {
+				++n;
+			}
+			return n;
+		}
+	}
+
+	private static final class LinkedQueue implements Queue {
+
+		private final ConcurrentLinkedQueue<Object> queue = new ConcurrentLinkedQueue<Object>();
+		private final AtomicInteger backlog = new AtomicInteger(0);
+
+		@Override
+		public boolean offer(Object message) {
+			if (this.backlog.get() >= CAPACITY) {
+				return false;
+			}
+			this.backlog.incrementAndGet();
+			return this.queue.offer(message);
+		}
+
+		@Override
+		public int take() {
+			int n = 0;
+			while (null != this.queue.poll()) {
+				++n;
+			}
+			this.backlog.addAndGet(-n);
+			return n;
+		}
+	}
+
+	private static final class VectorQueue implements Queue {
+
+		private final Vector<Object> queue = new Vector<Object>();
+
+		@Override
+		public boolean offer(Object message) {
+			synchronized (this.queue) {
+				if (this.queue.size() >= CAPACITY) {
+					return false;
+				}
+				this.queue.add(message);
+			}
+			return true;
+		}
+
+		@Override
+		public int take() {
+			int n = 0;
+			while (!this.queue.isEmpty()) {
+				this.queue.remove(0);
+				++n;
+			}
+			return n;
+		}
+	}
+
+}
@@ -0,0 +1,90 @@
+/*
+-----------------------------------------------------------------------------
+This source file is part of Cell Cloud.
+
+Copyright (c) 2009-2017 Cell Cloud Team (www.cellcloud.net)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+-----------------------------------------------------------------------------
+*/
+
+package net.cellcloud.bench;
+
+import net.cellcloud.common.Packet;
+
+/**
+ * 数据包编解码的内存分配测试。
+ * 
+ * v1 数据包的包头和每个段长度都是定长十进制 ASCII 字段，段数量越多，字段越多。
+ * 分别测量 1、4、16 个小段时 v1 打包和解包每次操作的耗时和分配的字节数，并以 v2 作为对照。
+ * 
+ * @author Ambrose Xu
+ * 
+ */
+public final class PacketAllocationBench {
+
+	private static final byte[] TAG = new byte[] { 'D', 'I', 'A', 'L' };
+
+	/** 每段的字节数，使用小段突出包头字段的开销。 */
+	private static final int SEGMENT_SIZE = 32;
+
+	public static void main(String[] args) throws Exception {
+		Bench.printEnvironment();
+
+		int[] segments = { 1, 4, 16 };
+		for (int major = 1; major <= 2; ++major) {
+			for (int n : segments) {
+				measure(major, n);
+			}
+		}
+	}
+
+	private static void measure(int major, int segments) throws Exception {
+		final Packet packet = new Packet(TAG, 1, major, 0);
+		for (int i = 0; i < segments; ++i) {
+			byte[] segment = new byte[SEGMENT_SIZE];
+			for (int n = 0; n < segment.length; ++n) {
+				segment[n] = (byte) ('a' + (i + n) % 26);
+			}
+			packet.appendSegment(segment);
+		}
+
+		final byte[] data = Packet.pack(packet);
+
+		Bench.Op pack = new Bench.Op() {
+			@Override
+			public long run(int index) {
+				return Packet.pack(packet).length;
+			}
+		};
+		Bench.Op unpack = new Bench.Op() {
+			@Override
+			public long run(int index) {
+				return Packet.unpack(data).numSegments();
+			}
+		};
+
+		String name = "v" + major + " x" + segments + " (" + data.length + " bytes)";
+		Bench.run("Packet.pack " + name, pack);
+		Bench.allocation("Packet.pack " + name, Bench.DEFAULT_OPS, pack);
+		Bench.run("Packet.unpack " + name, unpack);
+		Bench.allocation("Packet.unpack " + name, Bench.DEFAULT_OPS, unpack);
+	}
+
+}
@@ -0,0 +1,141 @@
+/*
+-----------------------------------------------------------------------------
+This source file is part of Cell Cloud.
+
+Copyright (c) 2009-2017 Cell Cloud Team (www.cellcloud.net)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+-----------------------------------------------------------------------------
+*/
+
+package net.cellcloud.bench;
+
+import java.net.InetSocketAddress;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import net.cellcloud.common.LatencyHistogram;
+import net.cellcloud.common.Message;
+import net.cellcloud.common.NetworkMonitor;
+import net.cellcloud.common.NonblockingConnector;
+import net.cellcloud.common.Session;
+
+/**
+ * 非阻塞连接器反应器模式与定时器轮询模式的对比测试。
+ * 
+ * 连接器通过回环地址连接回显服务，分别测量一问一答的往返延迟和限定在途消息数量时的吞吐量。
+ * 
+ * @author Ambrose Xu
+ * 
+ */
+public final class ReactorBench {
+
+	/** 消息长度。 */
+	private static final int MESSAGE_SIZE = 256;
+
+	/** 吞吐量测试的在途消息数量。 */
+	private static final int WINDOW = 256;
+
+	public static void main(String[] args) throws Exception {
+		Bench.printEnvironment();
+
+		EchoServer server = new EchoServer(0);
+		InetSocketAddress address = server.start();
+		try {
+			// 模式名称、是否反应器、轮询间隔、往返次数、吞吐量消息数
+			run(address, "reactor", true, 0, 5000, 100000);
+			run(address, "timer 20 ms", false, 20, 100, 20000);
+			run(address, "timer 500 ms", false, 500, 10, 2000);
+		} finally {
+			server.stop();
+		}
+
+		System.exit(0);
+	}
+
+	private static void run(InetSocketAddress address, String mode, boolean reactor, long interval,
+			int roundTrips, int messages) throws Exception {
+		final Semaphore replies = new Semaphore(0);
+		final CountDownLatch opened = new CountDownLatch(1);
+
+		NonblockingConnector connector = new NonblockingConnector(NetworkMonitor.ALWAYS_CONNECTED);
+		connector.setReactorMode(reactor);
+		if (!reactor) {
+			connector.resetInterval(interval);
+		}
+		connector.defineDataMark(EchoServer.HEAD_MARK, EchoServer.TAIL_MARK);
+		connector.setHandler(new HandlerAdapter() {
+			@Override
+			public void sessionOpened(Session session) {
+				opened.countDown();
+			}
+
+			@Override
+			public void messageReceived(Session session, Message message) {
+				replies.release();
+			}
+		});
+
+		if (!connector.connect(address) || !opened.await(10, TimeUnit.SECONDS)) {
+			throw new IllegalStateException("Can not connect " + address);
+		}
+
+		try {
+			// 一问一答
+			LatencyHistogram histogram = new LatencyHistogram();
+			for (int i = 0; i < roundTrips; ++i) {
+				long start = System.nanoTime();
+				connector.write(new Message(new byte[MESSAGE_SIZE]));
+				replies.acquire();
+				histogram.record(System.nanoTime() - start);
+			}
+
+			LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+			System.out.println(String.format(Locale.ROOT, "%-14s round trip: p50 %9.1f us, p99 %9.1f us, mean %9.1f us (%d)",
+					mode, snapshot.getValueAtPercentile(50) / 1000.0, snapshot.getValueAtPercentile(99) / 1000.0,
+					snapshot.getMean() / 1000.0, roundTrips));
+
+			// 限定在途消息数量的吞吐量
+			Semaphore window = new Semaphore(WINDOW);
+			int received = 0;
+			long start = System.nanoTime();
+			for (int i = 0; i < messages; ++i) {
+				while (!window.tryAcquire()) {
+					int n = replies.drainPermits();
+					if (n == 0) {
+						n = 1;
+						replies.acquire();
+					}
+					received += n;
+					window.release(n);
+				}
+				connector.write(new Message(new byte[MESSAGE_SIZE]));
+			}
+			replies.acquire(messages - received);
+			double seconds = (System.nanoTime() - start) / 1e9;
+			System.out.println(String.format(Locale.ROOT, "%-14s throughput: %10.0f msg/s (%d messages, window %d)",
+					mode, messages / seconds, messages, WINDOW));
+		} finally {
+			connector.disconnect();
+		}
+	}
+
+}
@@ -0,0 +1,185 @@
+/*
+-----------------------------------------------------------------------------
+This source file is part of Cell Cloud.
+
+Copyright (c) 2009-2017 Cell Cloud Team (www.cellcloud.net)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+-----------------------------------------------------------------------------
+*/
+
+package net.cellcloud.bench;
+
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import net.cellcloud.common.Message;
+import net.cellcloud.common.NonblockingAcceptor;
+import net.cellcloud.common.Session;
+import net.cellcloud.util.ConcurrentLongHashMap;
+
+/**
+ * 会话索引的并发查找和大量连接下的写入测试。
+ * 
+ * 第一部分在多个线程里并发查找 64 位会话编号，对比 {@link ConcurrentLongHashMap} 和装箱键的
+ * {@link ConcurrentHashMap} 。第二部分在回环地址上建立大量连接，测量接收器向每个会话写消息的耗时。
+ * 连接数量可以通过第一个参数指定，每个连接占用两个文件描述符。
+ * 
+ * @author Ambrose Xu
+ * 
+ */
+public final class SessionMapBench {
+
+	/** 会话数量。 */
+	private static final int SESSIONS = 10000;
+
+	/** 每个线程的查找次数。 */
+	private static final int LOOKUPS = 2000000;
+
+	private static final int[] THREADS = { 1, 4, 16 };
+
+	/** 每个会话写入的消息数量。 */
+	private static final int WRITES_PER_SESSION = 10;
+
+	public static void main(String[] args) throws Exception {
+		Bench.printEnvironment();
+
+		int connections = (args.length > 0) ? Integer.parseInt(args[0]) : SESSIONS;
+
+		final long[] ids = new long[SESSIONS];
+		Random random = new Random(20170601L);
+		ConcurrentLongHashMap<Object> longMap = new ConcurrentLongHashMap<Object>(SESSIONS);
+		ConcurrentHashMap<Long, Object> boxedMap = new ConcurrentHashMap<Long, Object>(SESSIONS);
+		for (int i = 0; i < SESSIONS; ++i) {
+			ids[i] = random.nextLong();
+			longMap.put(ids[i], ids);
+			boxedMap.put(ids[i], ids);
+		}
+
+		for (int threads : THREADS) {
+			lookup("ConcurrentLongHashMap.get", threads, ids, longMap, null);
+			lookup("ConcurrentHashMap<Long>.get", threads, ids, null, boxedMap);
+		}
+
+		write(connections);
+
+		System.exit(0);
+	}
+
+	private static void lookup(String name, int threads, final long[] ids,
+			final ConcurrentLongHashMap<Object> longMap, final ConcurrentHashMap<Long, Object> boxedMap)
+			throws Exception {
+		// 预热
+		run(1, ids, longMap, boxedMap);
+
+		long start = System.nanoTime();
+		run(threads, ids, longMap, boxedMap);
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		Bench.report(name + " (" + threads + " threads)", (double) threads * LOOKUPS / seconds / 1e6, "Mops/s");
+	}
+
+	private static void run(int threads, final long[] ids, final ConcurrentLongHashMap<Object> longMap,
+			final ConcurrentHashMap<Long, Object> boxedMap) throws Exception {
+		Thread[] workers = new Thread[threads];
+		for (int t = 0; t < threads; ++t) {
+			final int seed = t;
+			workers[t] = new Thread() {
+				@Override
+				public void run() {
+					long found = 0;
+					int index = seed * 7919;
+					for (int i = 0; i < LOOKUPS; ++i) {
+						index = (index + 40503) % ids.length;
+						Object value = (null != longMap) ? longMap.get(ids[index]) : boxedMap.get(ids[index]);
+						if (null != value) {
+							++found;
+						}
+					}
+					Bench.sink += found;
+				}
+			};
+			workers[t].start();
+		}
+
+		for (Thread worker : workers) {
+			worker.join();
+		}
+	}
+
+	private static void write(int connections) throws Exception {
+		final LinkedBlockingQueue<Session> opened = new LinkedBlockingQueue<Session>();
+
+		EchoServer server = new EchoServer(0);
+		NonblockingAcceptor acceptor = server.getAcceptor();
+		acceptor.setMaxConnectNum(connections);
+		acceptor.setHandler(new HandlerAdapter() {
+			@Override
+			public void sessionOpened(Session session) {
+				opened.add(session);
+			}
+		});
+		InetSocketAddress address = server.start();
+
+		List<SocketChannel> clients = new ArrayList<SocketChannel>(connections);
+		List<Session> sessions = new ArrayList<Session>(connections);
+		try {
+			for (int i = 0; i < connections; ++i) {
+				clients.add(SocketChannel.open(address));
+			}
+			for (int i = 0; i < connections; ++i) {
+				Session session = opened.poll(30, TimeUnit.SECONDS);
+				if (null == session) {
+					throw new IllegalStateException("Only " + i + " sessions opened");
+				}
+				sessions.add(session);
+			}
+
+			// 消息很小，全部写入后依然不会填满客户端的接收缓存
+			byte[] data = new byte[32];
+			long start = System.nanoTime();
+			for (int n = 0; n < WRITES_PER_SESSION; ++n) {
+				for (int i = 0; i < connections; ++i) {
+					acceptor.write(sessions.get(i), new Message(data));
+				}
+			}
+			long elapsed = System.nanoTime() - start;
+
+			int writes = WRITES_PER_SESSION * connections;
+			System.out.println(String.format(Locale.ROOT, "%-40s %12.1f ns/op (%d connections)",
+					"NonblockingAcceptor.write", (double) elapsed / writes, connections));
+
+			// 等待写出，避免关闭连接时丢弃
+			Thread.sleep(1000L);
+		} finally {
+			for (SocketChannel client : clients) {
+				client.close();
+			}
+			server.stop();
+		}
+	}
+
+}
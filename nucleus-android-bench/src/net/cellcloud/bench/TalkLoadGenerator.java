@@ -0,0 +1,492 @@
+/*
+-----------------------------------------------------------------------------
+This source file is part of Cell Cloud.
+
+Copyright (c) 2009-2017 Cell Cloud Team (www.cellcloud.net)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+-----------------------------------------------------------------------------
+*/
+
+package net.cellcloud.bench;
+
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.cellcloud.common.LatencyHistogram;
+import net.cellcloud.common.LogLevel;
+import net.cellcloud.common.LogManager;
+import net.cellcloud.core.Cellet;
+import net.cellcloud.core.CelletFeature;
+import net.cellcloud.core.CelletVersion;
+import net.cellcloud.core.Nucleus;
+import net.cellcloud.core.NucleusConfig;
+import net.cellcloud.talk.Primitive;
+import net.cellcloud.talk.Speakable;
+import net.cellcloud.talk.Speaker;
+import net.cellcloud.talk.SpeakerDelegate;
+import net.cellcloud.talk.TalkCapacity;
+import net.cellcloud.talk.TalkService;
+import net.cellcloud.talk.TalkServiceFailure;
+import net.cellcloud.talk.dialect.ActionDialect;
+import net.cellcloud.talk.dialect.ChunkDialect;
+import net.cellcloud.talk.stuff.ObjectiveStuff;
+import net.cellcloud.talk.stuff.PrimitiveSerializer;
+import net.cellcloud.talk.stuff.SubjectStuff;
+
+/**
+ * 会话服务负载生成器。
+ * 
+ * 在回环地址上启动会话服务和回显 Cellet ，创建指定数量的 {@link Speaker} 按比例发送原语、
+ * 动作方言和区块方言，统计吞吐量、往返延迟、内存分配速率和线程数量。无需 Android 上下文，
+ * 可在普通 JVM 上运行：
+ * 
+ * <pre>
+ * java net.cellcloud.bench.TalkLoadGenerator speakers=200 duration=30 mix=8:2:0 window=4 payload=256 packet=3 checksum=1 primitive=binary
+ * </pre>
+ * 
+ * @author Ambrose Xu
+ * 
+ */
+public final class TalkLoadGenerator implements SpeakerDelegate {
+
+	private final static int PRIMITIVE = 0;
+	private final static int ACTION = 1;
+	private final static int CHUNK = 2;
+	private final static String[] TYPE_NAMES = { "primitive", "action", "chunk" };
+
+	private final static String ACTION_NAME = "load";
+
+	private int port = 7100;
+	private int speakers = 50;
+	private int duration = 30;
+	private int warmup = 5;
+	private int window = 1;
+	private int payload = 256;
+	private int[] mix = { 8, 2, 0 };
+	private int packetVersion = 3;
+	private boolean checksum = false;
+	private int primitiveFormat = PrimitiveSerializer.FORMAT_TEXT;
+
+	/** 按 Cellet 标识索引的 Speaker 。 */
+	private ConcurrentHashMap<String, Speaker> speakerMap;
+	/** 未应答的请求及其发送时间。 */
+	private ConcurrentHashMap<String, Long> inflight;
+
+	private LatencyHistogram[] latencies;
+	private AtomicLong[] completed;
+	private AtomicLong sequence;
+	private AtomicLong failures;
+
+	private CountDownLatch contacted;
+	private volatile boolean running = false;
+
+	private Random random;
+	private String tracker;
+	private String payloadText;
+	private byte[] payloadData;
+
+	private TalkLoadGenerator() {
+		this.speakerMap = new ConcurrentHashMap<String, Speaker>();
+		this.inflight = new ConcurrentHashMap<String, Long>();
+		this.latencies = new LatencyHistogram[TYPE_NAMES.length];
+		this.completed = new AtomicLong[TYPE_NAMES.length];
+		for (int i = 0; i < TYPE_NAMES.length; ++i) {
+			this.latencies[i] = new LatencyHistogram();
+			this.completed[i] = new AtomicLong(0);
+		}
+		this.sequence = new AtomicLong(0);
+		this.failures = new AtomicLong(0);
+		this.random = new Random();
+	}
+
+	/**
+	 * 解析 <code>key=value</code> 形式的参数。
+	 */
+	private void parse(String[] args) {
+		for (String arg : args) {
+			int index = arg.indexOf('=');
+			if (index <= 0) {
+				continue;
+			}
+
+			String key = arg.substring(0, index);
+			String value = arg.substring(index + 1);
+			if (key.equals("port")) {
+				this.port = Integer.parseInt(value);
+			}
+			else if (key.equals("speakers")) {
+				this.speakers = Integer.parseInt(value);
+			}
+			else if (key.equals("duration")) {
+				this.duration = Integer.parseInt(value);
+			}
+			else if (key.equals("warmup")) {
+				this.warmup = Integer.parseInt(value);
+			}
+			else if (key.equals("window")) {
+				this.window = Math.max(1, Integer.parseInt(value));
+			}
+			else if (key.equals("payload")) {
+				this.payload = Integer.parseInt(value);
+			}
+			else if (key.equals("packet")) {
+				this.packetVersion = Integer.parseInt(value);
+			}
+			else if (key.equals("checksum")) {
+				this.checksum = value.equals("1") || value.equalsIgnoreCase("Y");
+			}
+			else if (key.equals("primitive")) {
+				this.primitiveFormat = value.equalsIgnoreCase("binary")
+						? PrimitiveSerializer.FORMAT_BINARY : PrimitiveSerializer.FORMAT_TEXT;
+			}
+			else if (key.equals("mix")) {
+				String[] parts = value.split(":");
+				for (int i = 0; i < parts.length && i < this.mix.length; ++i) {
+					this.mix[i] = Integer.parseInt(parts[i]);
+				}
+			}
+		}
+
+		StringBuilder buf = new StringBuilder(this.payload);
+		for (int i = 0; i < this.payload; ++i) {
+			buf.append((char) ('a' + (i % 26)));
+		}
+		this.payloadText = buf.toString();
+		this.payloadData = this.payloadText.getBytes();
+	}
+
+	private void run() throws Exception {
+		LogManager.getInstance().setLevel(LogLevel.WARNING);
+
+		NucleusConfig config = new NucleusConfig();
+		Nucleus nucleus = Nucleus.createInstance(config, null);
+		nucleus.startup();
+		this.tracker = nucleus.getTagAsString();
+
+		TalkService talkService = nucleus.getTalkService();
+		talkService.setPort(this.port);
+		talkService.setMaxConnections(this.speakers + 8);
+		talkService.setPacketChecksum(this.checksum);
+		if (!talkService.startup()) {
+			System.err.println("Can not start talk service on port " + this.port);
+			return;
+		}
+
+		// 每个 Speaker 使用独立的 Cellet ，避免同一内核标签下的回显被广播到所有会话
+		for (int i = 0; i < this.speakers; ++i) {
+			EchoCellet cellet = new EchoCellet("LoadTest" + i);
+			nucleus.registerCellet(cellet);
+			cellet.activate();
+		}
+
+		this.contacted = new CountDownLatch(this.speakers);
+		InetSocketAddress address = new InetSocketAddress("127.0.0.1", this.port);
+		ArrayList<String> identifiers = new ArrayList<String>(1);
+		for (int i = 0; i < this.speakers; ++i) {
+			String identifier = "LoadTest" + i;
+			TalkCapacity capacity = new TalkCapacity();
+			capacity.setPacketVersion(this.packetVersion, this.checksum);
+			capacity.setPrimitiveFormat(this.primitiveFormat);
+			Speaker speaker = new Speaker(address, this, config.talk.block, capacity);
+			this.speakerMap.put(identifier, speaker);
+			identifiers.clear();
+			identifiers.add(identifier);
+			speaker.call(identifiers);
+		}
+
+		if (!this.contacted.await(60, TimeUnit.SECONDS)) {
+			System.err.println("Contacted " + (this.speakers - this.contacted.getCount()) + "/" + this.speakers + " speakers");
+		}
+
+		System.out.println("speakers=" + this.speakers + " window=" + this.window + " payload=" + this.payload
+				+ " mix=" + this.mix[0] + ":" + this.mix[1] + ":" + this.mix[2]
+				+ " packet=" + this.packetVersion + (this.checksum ? "+crc" : "")
+				+ " primitive=" + (this.primitiveFormat == PrimitiveSerializer.FORMAT_BINARY ? "binary" : "text"));
+
+		this.running = true;
+		for (String identifier : this.speakerMap.keySet()) {
+			for (int n = 0; n < this.window; ++n) {
+				this.send(identifier);
+			}
+		}
+
+		// 预热后清空统计
+		Thread.sleep(this.warmup * 1000L);
+		this.resetStats();
+
+		AllocationCounter allocation = new AllocationCounter();
+		long startBytes = allocation.total();
+		long start = System.nanoTime();
+		long last = 0;
+		int maxThreads = 0;
+		for (int second = 1; second <= this.duration; ++second) {
+			Thread.sleep(1000L);
+			long total = this.totalCompleted();
+			int threads = Thread.activeCount();
+			maxThreads = Math.max(maxThreads, threads);
+			System.out.println(String.format("[%3ds] %8d rt/s  inflight=%d threads=%d", second, total - last,
+					this.inflight.size(), threads));
+			last = total;
+		}
+		this.running = false;
+
+		double seconds = (System.nanoTime() - start) / 1e9;
+		long allocated = allocation.total() - startBytes;
+		this.report(seconds, allocated, maxThreads);
+
+		for (Speaker speaker : this.speakerMap.values()) {
+			speaker.hangUp();
+		}
+		talkService.shutdown();
+		nucleus.shutdown();
+	}
+
+	private void report(double seconds, long allocated, int maxThreads) {
+		long total = this.totalCompleted();
+		System.out.println();
+		System.out.println(String.format("throughput: %.0f rt/s (%d round trips in %.1fs), failures=%d",
+				total / seconds, total, seconds, this.failures.get()));
+
+		for (int i = 0; i < TYPE_NAMES.length; ++i) {
+			LatencyHistogram.Snapshot s = this.latencies[i].snapshot();
+			if (s.getCount() == 0) {
+				continue;
+			}
+
+			System.out.println(String.format("%-10s n=%-9d mean=%.0fus p50=%dus p90=%dus p99=%dus p999=%dus max=%dus",
+					TYPE_NAMES[i], s.getCount(), s.getMean(), s.getValueAtPercentile(50), s.getValueAtPercentile(90),
+					s.getValueAtPercentile(99), s.getValueAtPercentile(99.9), s.getMax()));
+		}
+
+		if (allocated >= 0) {
+			System.out.println(String.format("allocation: %.1f MB/s, %.0f bytes/rt", allocated / seconds / 1048576.0,
+					total > 0 ? (double) allocated / total : 0.0));
+		}
+		else {
+			System.out.println("allocation: n/a");
+		}
+		System.out.println("threads: " + Thread.activeCount() + " (peak " + maxThreads + ")");
+	}
+
+	private long totalCompleted() {
+		long total = 0;
+		for (AtomicLong c : this.completed) {
+			total += c.get();
+		}
+		return total;
+	}
+
+	private void resetStats() {
+		for (int i = 0; i < TYPE_NAMES.length; ++i) {
+			this.latencies[i].reset();
+			this.completed[i].set(0);
+		}
+		this.failures.set(0);
+	}
+
+	/**
+	 * 按比例选择类型并发送一次请求。
+	 */
+	private void send(String identifier) {
+		if (!this.running) {
+			return;
+		}
+
+		Speaker speaker = this.speakerMap.get(identifier);
+		String key = identifier + "#" + this.sequence.incrementAndGet();
+
+		Primitive primitive = null;
+		switch (this.pickType()) {
+		case ACTION:
+			ActionDialect action = new ActionDialect(this.tracker, ACTION_NAME);
+			action.appendParam("key", key);
+			action.appendParam("data", this.payloadText);
+			primitive = action.reconstruct();
+			break;
+		case CHUNK:
+			ChunkDialect chunk = new ChunkDialect(this.tracker, key, this.payloadData.length, 0, 1,
+					this.payloadData, this.payloadData.length);
+			primitive = chunk.reconstruct();
+			break;
+		default:
+			primitive = new Primitive();
+			primitive.commit(new SubjectStuff(key));
+			primitive.commit(new ObjectiveStuff(this.payloadText));
+			break;
+		}
+
+		this.inflight.put(key, Long.valueOf(System.nanoTime()));
+		if (!speaker.speak(identifier, primitive)) {
+			this.inflight.remove(key);
+			this.failures.incrementAndGet();
+		}
+	}
+
+	private int pickType() {
+		int sum = this.mix[0] + this.mix[1] + this.mix[2];
+		if (sum <= 0) {
+			return PRIMITIVE;
+		}
+
+		int value = this.random.nextInt(sum);
+		for (int i = 0; i < this.mix.length; ++i) {
+			if (value < this.mix[i]) {
+				return i;
+			}
+			value -= this.mix[i];
+		}
+		return PRIMITIVE;
+	}
+
+	@Override
+	public void onDialogue(Speakable speaker, String celletIdentifier, Primitive primitive) {
+		String key = null;
+		int type = PRIMITIVE;
+
+		if (primitive.isDialectal()) {
+			if (primitive.getDialect() instanceof ActionDialect) {
+				key = ((ActionDialect) primitive.getDialect()).getParamAsString("key");
+				type = ACTION;
+			}
+			else if (primitive.getDialect() instanceof ChunkDialect) {
+				key = ((ChunkDialect) primitive.getDialect()).getSign();
+				type = CHUNK;
+			}
+		}
+		else if (null != primitive.subjects() && !primitive.subjects().isEmpty()) {
+			key = primitive.subjects().get(0).getValueAsString();
+		}
+
+		Long time = (null != key) ? this.inflight.remove(key) : null;
+		if (null != time) {
+			this.latencies[type].record((System.nanoTime() - time.longValue()) / 1000L);
+			this.completed[type].incrementAndGet();
+		}
+
+		this.send(celletIdentifier);
+	}
+
+	@Override
+	public void onTalked(Speakable speaker, String celletIdentifier, Primitive primitive) {
+		// Nothing
+	}
+
+	@Override
+	public void onContacted(Speakable speaker, String celletIdentifier) {
+		this.contacted.countDown();
+	}
+
+	@Override
+	public void onQuitted(Speakable speaker, String celletIdentifier) {
+		// Nothing
+	}
+
+	@Override
+	public void onFailed(Speakable speaker, TalkServiceFailure failure) {
+		this.failures.incrementAndGet();
+	}
+
+	public static void main(String[] args) throws Exception {
+		TalkLoadGenerator generator = new TalkLoadGenerator();
+		generator.parse(args);
+		generator.run();
+		System.exit(0);
+	}
+
+	/**
+	 * 回显 Cellet 。将收到的原语或方言原样发回。
+	 */
+	private final static class EchoCellet extends Cellet {
+
+		private EchoCellet(String identifier) {
+			super(new CelletFeature(identifier, new CelletVersion(1, 0, 0)));
+		}
+
+		@Override
+		public void activate() {
+			this.prepare();
+		}
+
+		@Override
+		public void deactivate() {
+			// Nothing
+		}
+
+		@Override
+		public void dialogue(String tag, Primitive primitive) {
+			if (primitive.isDialectal()) {
+				this.talk(tag, primitive.getDialect());
+			}
+			else {
+				this.talk(tag, primitive);
+			}
+		}
+	}
+
+	/**
+	 * 统计 JVM 线程分配的字节数。运行环境不支持时返回 <code>-1</code> 。
+	 */
+	private final static class AllocationCounter {
+
+		private Object bean;
+		private Method allThreadIds;
+		private Method allocatedBytes;
+
+		private AllocationCounter() {
+			// 通过反射访问，避免依赖 Android 上不存在的管理接口
+			try {
+				Class<?> factory = Class.forName("java.lang.management.ManagementFactory");
+				this.bean = factory.getMethod("getThreadMXBean").invoke(null);
+				Class<?> type = Class.forName("com.sun.management.ThreadMXBean");
+				this.allThreadIds = type.getMethod("getAllThreadIds");
+				this.allocatedBytes = type.getMethod("getThreadAllocatedBytes", long[].class);
+			} catch (Exception e) {
+				this.bean = null;
+			}
+		}
+
+		private long total() {
+			if (null == this.bean) {
+				return -1L;
+			}
+
+			try {
+				long[] ids = (long[]) this.allThreadIds.invoke(this.bean);
+				long[] bytes = (long[]) this.allocatedBytes.invoke(this.bean, ids);
+				long sum = 0;
+				for (long b : bytes) {
+					if (b > 0) {
+						sum += b;
+					}
+				}
+				return sum;
+			} catch (Exception e) {
+				return -1L;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,230 @@
+/*
+-----------------------------------------------------------------------------
+This source file is part of Cell Cloud.
+
+Copyright (c) 2009-2017 Cell Cloud Team (www.cellcloud.net)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+-----------------------------------------------------------------------------
+*/
+
+package net.cellcloud.bench;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.cellcloud.common.BlockingConnector;
+import net.cellcloud.common.Message;
+import net.cellcloud.common.NetworkMonitor;
+import net.cellcloud.common.NonblockingAcceptor;
+import net.cellcloud.common.PacketWriter;
+import net.cellcloud.common.Session;
+import net.cellcloud.talk.Primitive;
+import net.cellcloud.talk.TalkDefinition;
+import net.cellcloud.talk.stuff.ObjectiveStuff;
+import net.cellcloud.talk.stuff.PredicateStuff;
+import net.cellcloud.talk.stuff.PrimitiveSerializer;
+import net.cellcloud.talk.stuff.SubjectStuff;
+import net.cellcloud.util.Utils;
+
+/**
+ * 阻塞连接器合并写吞吐量测试。
+ * 
+ * 生产者线程像 Speaker 一样把小原语逐条序列化为对话数据包写入阻塞连接器，
+ * 回环地址上的接收器只统计收到的帧。分别测量不合并、按字节数阈值合并、省电模式延迟合并，
+ * 以及多个省电模式连接器共用少量线程池线程时的吞吐量。
+ * 
+ * @author Ambrose Xu
+ * 
+ */
+public final class WriteCoalescingBench {
+
+	/** 每个连接器的在途消息数量。 */
+	private static final int WINDOW = 256;
+
+	/** 合并写字节数阈值。 */
+	private static final int THRESHOLD = 16 * 1024;
+
+	/** 省电模式的合并等待时间，单位毫秒。 */
+	private static final long DELAY = 20L;
+
+	private static final byte[] NUCLEUS_TAG = Utils.string2Bytes(Utils.randomString(36));
+	private static final byte[] IDENTIFIER = Utils.string2Bytes("Bench");
+
+	private final NonblockingAcceptor acceptor;
+	private final Semaphore received;
+	private int port;
+
+	private WriteCoalescingBench() {
+		this.received = new Semaphore(0);
+		this.acceptor = new NonblockingAcceptor();
+		this.acceptor.defineDataMark(EchoServer.HEAD_MARK, EchoServer.TAIL_MARK);
+		this.acceptor.setMaxConnectNum(64);
+		this.acceptor.setHandler(new HandlerAdapter() {
+			@Override
+			public void messageReceived(Session session, Message message) {
+				received.release();
+			}
+		});
+	}
+
+	public static void main(String[] args) throws Exception {
+		Bench.printEnvironment();
+
+		WriteCoalescingBench bench = new WriteCoalescingBench();
+		InetSocketAddress address = bench.start();
+		try {
+			// 名称、连接器数量、线程池线程数量、字节数阈值、等待时间、每个连接器的消息数
+			bench.run(address, "no coalescing", 1, 4, 1, 0L, 200000);
+			bench.run(address, "coalescing 16 KB", 1, 4, THRESHOLD, 0L, 200000);
+			bench.run(address, "power saving 20 ms", 1, 4, THRESHOLD, DELAY, 200000);
+			bench.run(address, "power saving 20 ms x8", 8, 2, THRESHOLD, DELAY, 50000);
+		} finally {
+			bench.acceptor.unbind();
+		}
+
+		System.exit(0);
+	}
+
+	private InetSocketAddress start() throws IOException {
+		ServerSocket probe = new ServerSocket(0);
+		this.port = probe.getLocalPort();
+		probe.close();
+
+		if (!this.acceptor.bind(new InetSocketAddress("127.0.0.1", this.port))) {
+			throw new IOException("Can not bind port " + this.port);
+		}
+
+		return new InetSocketAddress("127.0.0.1", this.port);
+	}
+
+	private void run(InetSocketAddress address, String name, int connectors, int threads,
+			int threshold, long delay, final int messages) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		final BlockingConnector[] list = new BlockingConnector[connectors];
+		final CountDownLatch opened = new CountDownLatch(connectors);
+
+		for (int i = 0; i < connectors; ++i) {
+			BlockingConnector connector = new BlockingConnector(NetworkMonitor.ALWAYS_CONNECTED, executor);
+			connector.defineDataMark(EchoServer.HEAD_MARK, EchoServer.TAIL_MARK);
+			connector.setWriteCoalescing(threshold, delay);
+			connector.setHandler(new HandlerAdapter() {
+				@Override
+				public void sessionOpened(Session session) {
+					opened.countDown();
+				}
+			});
+			if (!connector.connect(address)) {
+				throw new IllegalStateException("Can not connect " + address);
+			}
+			list[i] = connector;
+		}
+
+		if (!opened.await(10, TimeUnit.SECONDS)) {
+			throw new IllegalStateException("Can not connect " + address);
+		}
+
+		// 预热一轮，不计时
+		this.produce(list, Math.min(messages, 20000));
+
+		long start = System.nanoTime();
+		long bytes = this.produce(list, messages);
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		long total = (long) messages * connectors;
+		System.out.println(String.format(Locale.ROOT, "%-22s %10.0f primitives/s %8.1f MB/s (%d x %d, %d bytes, %d threads)",
+				name, total / seconds, bytes / seconds / 1024 / 1024, connectors, messages,
+				bytes / total, threads));
+
+		for (BlockingConnector connector : list) {
+			connector.disconnect();
+		}
+		executor.shutdown();
+	}
+
+	/**
+	 * 每个连接器一个生产者线程，写入指定数量的原语，等待接收器收齐。
+	 * 
+	 * @return 返回写入的字节数。
+	 */
+	private long produce(final BlockingConnector[] list, final int messages) throws Exception {
+		final Semaphore window = new Semaphore(WINDOW * list.length);
+		final AtomicLong bytes = new AtomicLong(0);
+		Thread[] producers = new Thread[list.length];
+
+		for (int i = 0; i < list.length; ++i) {
+			final BlockingConnector connector = list[i];
+			producers[i] = new Thread() {
+				@Override
+				public void run() {
+					long sum = 0;
+					for (int n = 0; n < messages; ++n) {
+						window.acquireUninterruptibly();
+						Message message = newMessage(n);
+						sum += message.length();
+						connector.write(message);
+					}
+					bytes.addAndGet(sum);
+				}
+			};
+			producers[i].start();
+		}
+
+		// 接收器收到的帧归还窗口
+		int total = messages * list.length;
+		for (int n = 0; n < total; ++n) {
+			this.received.acquire();
+			window.release();
+		}
+
+		for (Thread producer : producers) {
+			producer.join();
+		}
+
+		return bytes.get();
+	}
+
+	/**
+	 * 按 Speaker 的方式把一条小原语序列化为对话数据包。
+	 */
+	private static Message newMessage(int index) {
+		Primitive primitive = new Primitive();
+		primitive.commit(new SubjectStuff("update"));
+		primitive.commit(new PredicateStuff(index));
+		primitive.commit(new ObjectiveStuff("state"));
+
+		PacketWriter writer = new PacketWriter(TalkDefinition.TPT_DIALOGUE, 99, 2, 0, 3,
+				128 + NUCLEUS_TAG.length + IDENTIFIER.length);
+		writer.beginSegment();
+		primitive.write(writer, PrimitiveSerializer.FORMAT_TEXT);
+		writer.endSegment();
+		writer.writeSegment(NUCLEUS_TAG);
+		writer.writeSegment(IDENTIFIER);
+		return writer.toMessage();
+	}
+
+}
@@ -26,6 +26,7 @@ THE SOFTWARE.
 
 package net.cellcloud.common;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -34,13 +35,16 @@ import java.net.Socket;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
 import java.nio.ByteBuffer;
-import java.util.LinkedList;
-import java.util.Queue;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
 
-import net.cellcloud.util.Utils;
+import net.cellcloud.util.MpscArrayQueue;
 import android.content.Context;
 
 /**
@@ -61,19 +65,25 @@ public class BlockingConnector extends MessageService implements MessageConnecto
 		Low
 	}
 
+	/** 待写队列容量。 */
+	private static final int MESSAGE_QUEUE_CAPACITY = 4096;
+
 	/** 缓冲块大小。 */
 	private int block = 65536;
-	/** 单次写数据大小限制（字节），默认 16 KB 。 */
-	private final int writeLimit = 16384;
 
 	/** Socket 超时时间。 */
 	private int soTimeout = 1000;
 	/** 连接超时时间。 */
 	private long connTimeout = 10000L;
 
-	/** 两次阻塞操作之间的时间间隔。 */
+	/** 轮询读模式下两次读操作之间的时间间隔，也是省电模式下合并写的等待时间。 */
 	private long interval = 1000L;
 
+	/** 是否使用阻塞读。 */
+	private boolean blockingRead = true;
+	/** 是否处于省电模式。 */
+	private volatile boolean powerSaving = false;
+
 	/** Socket 句柄。 */
 	private Socket socket = null;
 
@@ -89,24 +99,45 @@ public class BlockingConnector extends MessageService implements MessageConnecto
 	/** Session 会话实例。 */
 	private Session session;
 
-	/** Android 上下文。 */
-	private Context androidContext;
+	/** 网络状态监视器。 */
+	private NetworkMonitor networkMonitor;
 
 	/** 线程池执行器。 */
 	private ExecutorService executor;
-	/** 当前高优先级队列是否正在写数据。 */
-	private AtomicBoolean writingHP;
-	/** 当前低优先级队列是否正在写数据。 */
-	private AtomicBoolean writingLP;
+	/** 当前是否有写任务正在执行。 */
+	private AtomicBoolean writing;
 	/** 高优先级数据写队列。 */
-	private LinkedList<Message> messageQueueHP;
+	private MpscArrayQueue<Message> messageQueueHP;
 	/** 低优先级数据写队列。 */
-	private LinkedList<Message> messageQueueLP;
-	/** 写数据间隔。 */
-	private long writingInterval = 10L;
+	private MpscArrayQueue<Message> messageQueueLP;
+	/** 写队列的消费锁，写任务与清空队列操作互斥。 */
+	private byte[] drainMutex = new byte[0];
+	/** 写任务。 */
+	private Runnable flushTask;
+	/** 写任务是否正在等待延迟写出。等待期间写任务保留写标识，合并写缓存保留已填充的数据。 */
+	private AtomicBoolean flushScheduled;
+	/** 等待中的延迟写出任务。 */
+	private TimerTask delayedFlush;
+	/** 调度和取消延迟写出时使用的互斥量。 */
+	private byte[] delayMutex = new byte[0];
+	/** 当前批次是否已经等待过，仅由写任务访问。 */
+	private boolean flushDelayed = false;
+	/** 合并写缓存，仅由写任务访问。 */
+	private ByteArrayOutputStream writeBuffer;
+	/** 合并写缓存里的消息，仅由写任务访问。 */
+	private ArrayList<Message> writeBatch;
+	/** 合并写的字节数阈值，达到阈值时立即写出。 */
+	private int flushThreshold = 16 * 1024;
+	/** 合并写的最长等待时间，单位毫秒。为 0 时队列清空即写出。 */
+	private long flushDelay = 0L;
+
+	/** 延迟写出定时器，所有连接器共用一个线程。 */
+	private static Timer flushTimer = null;
 
 	/** 接收数据清单。 */
-	private ConcurrentLinkedQueue<byte[]> receivedQueue;
+	private ConcurrentLinkedQueue<Message> receivedQueue;
+	/** 提取帧时使用的临时列表，仅由读线程访问。 */
+	private ArrayList<Message> frames;
 
 	/**
 	 * 构造函数。
@@ -115,13 +146,32 @@ public class BlockingConnector extends MessageService implements MessageConnecto
 	 * @param executor 指定线程池执行器。
 	 */
 	public BlockingConnector(Context androidContext, ExecutorService executor) {
-		this.androidContext = androidContext;
+		this(new AndroidNetworkMonitor(androidContext), executor);
+	}
+
+	/**
+	 * 构造函数。
+	 * 
+	 * @param networkMonitor 指定网络状态监视器。
+	 * @param executor 指定线程池执行器。
+	 */
+	public BlockingConnector(NetworkMonitor networkMonitor, ExecutorService executor) {
+		this.networkMonitor = networkMonitor;
 		this.executor = executor;
-		this.writingHP = new AtomicBoolean(false);
-		this.messageQueueHP = new LinkedList<Message>();
-		this.writingLP = new AtomicBoolean(false);
-		this.messageQueueLP = new LinkedList<Message>();
-		this.receivedQueue = new ConcurrentLinkedQueue<byte[]>();
+		this.writing = new AtomicBoolean(false);
+		this.flushScheduled = new AtomicBoolean(false);
+		this.messageQueueHP = new MpscArrayQueue<Message>(MESSAGE_QUEUE_CAPACITY);
+		this.messageQueueLP = new MpscArrayQueue<Message>(MESSAGE_QUEUE_CAPACITY);
+		this.flushTask = new Runnable() {
+			@Override
+			public void run() {
+				flushMessage();
+			}
+		};
+		this.writeBuffer = new ByteArrayOutputStream(this.flushThreshold);
+		this.writeBatch = new ArrayList<Message>();
+		this.receivedQueue = new ConcurrentLinkedQueue<Message>();
+		this.frames = new ArrayList<Message>();
 	}
 
 	/**
@@ -149,7 +199,7 @@ public class BlockingConnector extends MessageService implements MessageConnecto
 		this.activeClose = false;
 
 		// 判断是否有网络连接
-		if (!Utils.isNetworkConnected(this.androidContext)) {
+		if (!this.networkMonitor.isConnected()) {
 			this.fireErrorOccurred(MessageErrorCode.NO_NETWORK, null);
 			return false;
 		}
@@ -218,30 +268,15 @@ public class BlockingConnector extends MessageService implements MessageConnecto
 
 				running.set(false);
 
-				synchronized (receivedQueue) {
-					receivedQueue.clear();
-				}
+				clearReceivedQueue();
 
-				synchronized (messageQueueHP) {
-					messageQueueHP.clear();
-				}
-				synchronized (messageQueueLP) {
-					messageQueueLP.clear();
-				}
-				writingHP.set(false);
-				writingLP.set(false);
+				clearWriteQueues();
 			}
 		};
 
 		try {
 			// Wifi 网络连接正常，但无法获得正确的网络路由信息时 getHostAddress() 会出错
-			String addr = null;
-			if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.KITKAT) {
-				addr = address.getHostString();
-			}
-			else {
-				addr = address.getAddress().getHostAddress();
-			}
+			String addr = address.getHostString();
 			this.handleThread.setName(new StringBuilder("BlockingConnector[").append(this.handleThread).append("]@")
 					.append(addr).append(":").append(address.getPort()).toString());
 		} catch (Exception e) {
@@ -287,19 +322,9 @@ public class BlockingConnector extends MessageService implements MessageConnecto
 
 		this.spinning = false;
 
-		synchronized (this.messageQueueHP) {
-			this.messageQueueHP.clear();
-		}
-		synchronized (this.messageQueueLP) {
-			this.messageQueueLP.clear();
-		}
-
-		this.writingHP.set(false);
-		this.writingLP.set(false);
+		this.clearWriteQueues();
 
-		synchronized (this.receivedQueue) {
-			this.receivedQueue.clear();
-		}
+		this.clearReceivedQueue();
 
 		if (null != this.socket) {
 			try {
@@ -377,7 +402,7 @@ public class BlockingConnector extends MessageService implements MessageConnecto
 	 */
 	@Override
 	public boolean write(Session session, Message message) {
-		return this.write(session, message, this.messageQueueHP, this.writingHP);
+		return this.write(session, message, this.messageQueueHP);
 	}
 
 	/**
@@ -388,207 +413,427 @@ public class BlockingConnector extends MessageService implements MessageConnecto
 	 */
 	public boolean write(final Message message, BlockingConnectorQueuePriority queuePriority) {
 		if (null == this.session || !this.isConnected()) {
-			Thread thread = new Thread() {
-				@Override
-				public void run() {
-					fireErrorOccurred(MessageErrorCode.SOCKET_FAILED, message);
-				}
-			};
-			thread.setName("ErrorOccurred");
-			thread.start();
+			this.fireErrorOccurredAsync(MessageErrorCode.SOCKET_FAILED, message);
 			return false;
 		}
 
 		if (queuePriority == BlockingConnectorQueuePriority.High) {
-			return this.write(this.session, message, this.messageQueueHP, this.writingHP);
+			return this.write(this.session, message, this.messageQueueHP);
 		}
 		else {
-			return this.write(this.session, message, this.messageQueueLP, this.writingLP);
+			return this.write(this.session, message, this.messageQueueLP);
 		}
 	}
 
-	private boolean write(Session session, final Message message, final LinkedList<Message> messageQueue, final AtomicBoolean writing) {
+	private boolean write(Session session, final Message message, final MpscArrayQueue<Message> messageQueue) {
 		synchronized (this) {
 			if (null == this.socket) {
-				Thread thread = new Thread() {
-					@Override
-					public void run() {
-						fireErrorOccurred(MessageErrorCode.CONNECT_FAILED, message);
-					}
-				};
-				thread.setName("ErrorOccurred");
-				thread.start();
+				this.fireErrorOccurredAsync(MessageErrorCode.CONNECT_FAILED, message);
 				return false;
 			}
 
 			if (this.socket.isClosed() || !this.socket.isConnected()
 				|| this.socket.isInputShutdown() || this.socket.isOutputShutdown()) {
-				Thread thread = new Thread() {
-					@Override
-					public void run() {
-						fireErrorOccurred(MessageErrorCode.SOCKET_FAILED, message);
-					}
-				};
-				thread.setName("ErrorOccurred");
-				thread.start();
+				this.fireErrorOccurredAsync(MessageErrorCode.SOCKET_FAILED, message);
 				return false;
 			}
 
-			if (message.length() > this.writeLimit) {
-				Thread thread = new Thread() {
-					@Override
-					public void run() {
-						fireErrorOccurred(MessageErrorCode.WRITE_OUTOFBOUNDS, message);
-					}
-				};
-				thread.setName("ErrorOccurred");
-				thread.start();
+			if (message.length() > this.session.getMaxMessageSize()) {
+				this.fireErrorOccurredAsync(MessageErrorCode.WRITE_OUTOFBOUNDS, message);
 				return false;
 			}
 		}
 
-		// 判断是否进行加密
-		byte[] skey = session.getSecretKey();
-		if (null != skey) {
-			this.encryptMessage(message, skey);
-		}
+		boolean unwritable = this.markPending(this.session, message);
 
-		synchronized (messageQueue) {
-			messageQueue.add(message);
+		if (!messageQueue.offer(message)) {
+			this.unmarkPending(this.session, message);
+			this.fireErrorOccurredAsync(MessageErrorCode.WRITE_QUEUE_FULL, message);
+			return false;
 		}
 
-		if (!writing.get()) {
-			writing.set(true);
+		if (unwritable) {
+			// 待写数据超过高水位
+			this.fireSessionUnwritable(this.session);
+		}
 
-			this.executor.execute(new Runnable() {
-				@Override
-				public void run() {
-					flushMessage(messageQueue, writing);
-				}
-			});
+		if (this.writing.compareAndSet(false, true)) {
+			this.executor.execute(this.flushTask);
+		}
+		else if (this.flushScheduled.get() && this.session.getPendingBytes() >= this.flushThreshold) {
+			// 待写数据达到阈值，提前结束等待
+			this.resumeFlush();
 		}
 
 		return true;
 	}
 
 	/**
-	 * 将队列里消息写入到 Socket 。
-	 * 该方法会尝试启动数据管理线程将队列的所有消息依次写入 Socket 。
+	 * 设置合并写参数。
+	 * 
+	 * 写任务每次将队列里的所有消息合并为一次写操作。缓存未达到字节数阈值且队列已空时，
+	 * 写任务最多等待指定的时间以合并后续消息。等待由定时器调度，不占用线程池线程。
+	 * 
+	 * @param threshold 指定字节数阈值。
+	 * @param delay 指定最长等待时间，单位毫秒，为 <code>0</code> 时不等待。
 	 */
-	private void flushMessage(final LinkedList<Message> messageQueue, final AtomicBoolean writing) {
-		if (!this.isConnected()) {
-			writing.set(false);
-			this.executor.execute(new Runnable() {
-				@Override
-				public void run() {
-					fireErrorOccurred(MessageErrorCode.CONNECT_FAILED, null);
-				}
-			});
-			return;
+	public void setWriteCoalescing(int threshold, long delay) {
+		this.flushThreshold = Math.max(1, threshold);
+		this.flushDelay = Math.max(0L, delay);
+	}
+
+	/**
+	 * 清空待写队列。被丢弃的消息扣减会话的待写数据。
+	 */
+	private void clearWriteQueues() {
+		ArrayList<Message> discarded = new ArrayList<Message>();
+		this.drainWriteQueues(discarded);
+
+		if (this.cancelFlush()) {
+			// 取回等待延迟写出的批次
+			discarded.addAll(this.writeBatch);
+			this.resetWriteBuffer();
 		}
 
-		Message message = null;
+		this.writing.set(false);
 
-		while (this.isConnected() && writing.get()) {
-			message = null;
+		for (int i = 0, size = discarded.size(); i < size; ++i) {
+			this.unmarkPending(this.session, discarded.get(i));
+		}
+	}
 
-			synchronized (messageQueue) {
-				if (messageQueue.isEmpty()) {
-					writing.set(false);
-					break;
-				}
+	/**
+	 * 取出正在分片以及仍在队列里的消息。
+	 * 
+	 * @param out 指定存放消息的列表。
+	 */
+	private void drainWriteQueues(List<Message> out) {
+		synchronized (this.drainMutex) {
+			if (null != this.session) {
+				this.session.getFragmenter().drain(out);
+			}
+
+			Message message = null;
+			while (null != (message = this.pollMessage())) {
+				out.add(message);
+			}
+		}
+	}
+
+	/**
+	 * 是否有待写数据。
+	 */
+	private boolean hasPendingWrite() {
+		if (this.hasPendingMessage()) {
+			return true;
+		}
+
+		return (null != this.session && !this.session.getFragmenter().isEmpty());
+	}
+
+	/**
+	 * 从队列里取出下一条消息，高优先级队列优先。
+	 */
+	private Message pollMessage() {
+		Message message = this.messageQueueHP.poll();
+		if (null == message) {
+			message = this.messageQueueLP.poll();
+		}
+		return message;
+	}
+
+	/**
+	 * 将队列里的消息填充到合并写缓存，直到队列为空或缓存达到阈值。分片与完整消息交替填充。
+	 * 
+	 * @param fragmenter 指定消息分片器。
+	 * @throws IOException
+	 */
+	private void fillWriteBuffer(MessageFragmenter fragmenter) throws IOException {
+		synchronized (this.drainMutex) {
+			this.fillWriteBuffer(fragmenter, this.writeBuffer);
+		}
+	}
 
-				message = messageQueue.removeFirst();
-			} // #synchronized
+	private void fillWriteBuffer(MessageFragmenter fragmenter, ByteArrayOutputStream buf) throws IOException {
+		boolean fragmentTurn = false;
+
+		while (buf.size() < this.flushThreshold) {
+			// 压缩消息分片期间不取新消息，保证接收顺序与压缩顺序一致
+			if (fragmentTurn || !this.hasPendingMessage() || fragmenter.isOrdered()) {
+				fragmentTurn = false;
+				if (!fragmenter.isEmpty()) {
+					Message last = fragmenter.writeNext(buf);
+					if (null != last) {
+						this.writeBatch.add(last);
+					}
+					continue;
+				}
+			}
 
+			Message message = this.pollMessage();
 			if (null == message) {
-				writing.set(false);
+				break;
+			}
+
+			fragmentTurn = true;
+
+			// 在发送线程里按发送顺序执行过滤器
+			this.getFilterChain().doWrite(this.session, message);
+
+			if (this.session.isFragmentation() && MessageFragmenter.needsFragment(message)) {
+				// 大消息进行分片
+				fragmenter.offer(message);
 				continue;
 			}
 
-			try {
-				OutputStream os = this.socket.getOutputStream();
+			// 直接写入消息引用的数组区间，不复制消息数据
+			message.detach();
+			byte[] data = message.array();
+			int offset = message.offset();
+			int length = message.length();
+			if (this.session.isLengthFraming()) {
+				// 使用长度前缀帧
+				buf.write(MessageService.makeFrameHeader(length));
+				buf.write(data, offset, length);
+			}
+			else if (this.hasDataMark()) {
+				buf.write(this.getHeadMark());
+				buf.write(data, offset, length);
+				buf.write(this.getTailMark());
+			}
+			else {
+				buf.write(data, offset, length);
+			}
 
-				if (this.hasDataMark()) {
-					byte[] data = message.get();
-					byte[] head = this.getHeadMark();
-					byte[] tail = this.getTailMark();
-					byte[] pd = new byte[data.length + head.length + tail.length];
-					System.arraycopy(head, 0, pd, 0, head.length);
-					System.arraycopy(data, 0, pd, head.length, data.length);
-					System.arraycopy(tail, 0, pd, head.length + data.length, tail.length);
+			this.writeBatch.add(message);
+		}
+	}
 
-					os.write(pd);
-					os.flush();
+	/**
+	 * 队列里是否有消息。
+	 */
+	private boolean hasPendingMessage() {
+		return !this.messageQueueHP.isEmpty() || !this.messageQueueLP.isEmpty();
+	}
 
-					if (null != this.handler) {
-						this.handler.messageSent(this.session, message);
+	/**
+	 * 将队列里消息写入到 Socket 。
+	 * 每次将队列里的所有消息合并写入，直到队列为空。同一时刻只有一个写任务在执行。
+	 */
+	private void flushMessage() {
+		if (!this.isConnected()) {
+			this.writing.set(false);
+			if (!this.writeBatch.isEmpty()) {
+				// 等待延迟写出期间连接已断开
+				this.failWriteBatch(false);
+				this.resetWriteBuffer();
+				return;
+			}
+			this.fireErrorOccurred(MessageErrorCode.CONNECT_FAILED, null);
+			return;
+		}
+
+		MessageFragmenter fragmenter = this.session.getFragmenter();
+		ByteArrayOutputStream buf = this.writeBuffer;
+		boolean parked = false;
+
+		while (this.isConnected()) {
+			try {
+				this.fillWriteBuffer(fragmenter);
+
+				if (buf.size() > 0 && buf.size() < this.flushThreshold && this.flushDelay > 0 && !this.flushDelayed
+						&& !this.hasPendingWrite()) {
+					// 等待后续消息以合并写出，保留本批次并交由定时器恢复写任务
+					this.flushDelayed = true;
+					parked = true;
+					break;
+				}
+
+				if (buf.size() == 0) {
+					// 没有待写数据，结束任务。重新检查以免遗漏释放标识前写入的消息
+					this.writing.set(false);
+					if (this.hasPendingWrite() && this.writing.compareAndSet(false, true)) {
+						continue;
 					}
+					break;
 				}
-				else {
-					os.write(message.get());
-					os.flush();
 
+				OutputStream os = this.socket.getOutputStream();
+				buf.writeTo(os);
+				os.flush();
+
+				for (int i = 0, size = this.writeBatch.size(); i < size; ++i) {
+					Message sent = this.writeBatch.get(i);
+					this.markSent(this.session, sent);
 					if (null != this.handler) {
-						this.handler.messageSent(this.session, message);
+						this.handler.messageSent(this.session, sent);
 					}
 				}
-
-				// sleep
-				Thread.sleep(this.writingInterval);
 			} catch (SocketException e) {
-				writing.set(false);
 				Logger.log(this.getClass(), e, LogLevel.INFO);
-
-				final Message srcMessage = message;
-				this.executor.execute(new Runnable() {
-					@Override
-					public void run() {
-						// 关闭连接
-						disconnect();
-
-						fireErrorOccurred(MessageErrorCode.WRITE_FAILED, srcMessage);
-					}
-				});
+				this.failWriteBatch(true);
+				break;
 			} catch (IOException e) {
-				writing.set(false);
 				Logger.log(this.getClass(), e, LogLevel.WARNING);
-
-				final Message srcMessage = message;
-				this.executor.execute(new Runnable() {
-					@Override
-					public void run() {
-						fireErrorOccurred(MessageErrorCode.WRITE_FAILED, srcMessage);
-					}
-				});
+				this.failWriteBatch(false);
+				break;
 			} catch (Exception e) {
-				writing.set(false);
 				Logger.log(this.getClass(), e, LogLevel.ERROR);
+				this.failWriteBatch(false);
+				break;
+			} finally {
+				if (!parked) {
+					this.resetWriteBuffer();
+					buf = this.writeBuffer;
+				}
+			}
+		}
 
-				final Message srcMessage = message;
-				this.executor.execute(new Runnable() {
-					@Override
-					public void run() {
-						fireErrorOccurred(MessageErrorCode.WRITE_FAILED, srcMessage);
-					}
-				});
+		if (parked) {
+			this.scheduleFlush();
+			return;
+		}
+
+		if (!this.isConnected()) {
+			this.writing.set(false);
+		}
+	}
+
+	/**
+	 * 清空合并写缓存和本批次的消息。
+	 */
+	private void resetWriteBuffer() {
+		this.writeBatch.clear();
+		this.flushDelayed = false;
+
+		if (this.writeBuffer.size() > this.flushThreshold * 4) {
+			// 避免合并写缓存长期占用过多内存
+			this.writeBuffer = new ByteArrayOutputStream(this.flushThreshold);
+		}
+		else {
+			this.writeBuffer.reset();
+		}
+	}
+
+	/**
+	 * 在合并写的最长等待时间后恢复写任务。写任务在等待期间保留写标识。
+	 */
+	private void scheduleFlush() {
+		TimerTask task = new TimerTask() {
+			@Override
+			public void run() {
+				resumeFlush();
+			}
+		};
+
+		synchronized (this.delayMutex) {
+			this.delayedFlush = task;
+			this.flushScheduled.set(true);
+			BlockingConnector.getFlushTimer().schedule(task, this.flushDelay);
+		}
+	}
+
+	/**
+	 * 结束等待，将写任务重新提交到线程池。定时器到期和待写数据达到阈值时调用，只有一方生效。
+	 */
+	private void resumeFlush() {
+		if (!this.cancelFlush()) {
+			return;
+		}
+
+		try {
+			this.executor.execute(this.flushTask);
+		} catch (RejectedExecutionException e) {
+			// 线程池已关闭，在当前线程回收本批次，不能让异常终止共用的定时器线程
+			Logger.log(this.getClass(), e, LogLevel.WARNING);
+
+			ArrayList<Message> discarded = new ArrayList<Message>(this.writeBatch);
+			this.resetWriteBuffer();
+			this.drainWriteQueues(discarded);
+			this.writing.set(false);
+
+			for (int i = 0, size = discarded.size(); i < size; ++i) {
+				this.unmarkPending(this.session, discarded.get(i));
 			}
 		}
+	}
 
-		if (!messageQueue.isEmpty()) {
-			writing.set(true);
-			this.executor.execute(new Runnable() {
-				@Override
-				public void run() {
-					flushMessage(messageQueue, writing);
-				}
-			});
+	/**
+	 * 取消等待中的延迟写出。
+	 * 
+	 * @return 如果写任务正在等待并由调用者取回返回 <code>true</code> 。
+	 */
+	private boolean cancelFlush() {
+		if (!this.flushScheduled.get()) {
+			return false;
+		}
+
+		synchronized (this.delayMutex) {
+			// 等待调度完成，避免取消尚未提交到定时器的任务
+			if (!this.flushScheduled.compareAndSet(true, false)) {
+				return false;
+			}
+
+			this.delayedFlush.cancel();
+			this.delayedFlush = null;
+		}
+		return true;
+	}
+
+	/**
+	 * 返回延迟写出定时器。
+	 */
+	private static synchronized Timer getFlushTimer() {
+		if (null == flushTimer) {
+			flushTimer = new Timer("BlockingConnectorFlushTimer", true);
+		}
+		return flushTimer;
+	}
+
+	/**
+	 * 写数据失败时回调错误。
+	 * 
+	 * 本批次、正在分片以及仍在队列里的消息都不会再被发送，
+	 * 一并扣减待写数据并逐条回调错误，避免消息滞留在队列里。
+	 * 
+	 * @param close 指定是否关闭连接。
+	 */
+	private void failWriteBatch(final boolean close) {
+		this.writing.set(false);
+
+		final ArrayList<Message> failed = new ArrayList<Message>(this.writeBatch);
+		this.drainWriteQueues(failed);
+
+		for (int i = 0, size = failed.size(); i < size; ++i) {
+			this.unmarkPending(this.session, failed.get(i));
 		}
+
+		this.executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				// 先回调错误，关闭连接后不再回调
+				if (failed.isEmpty()) {
+					fireErrorOccurred(MessageErrorCode.WRITE_FAILED, null);
+				}
+				else {
+					for (int i = 0, size = failed.size(); i < size; ++i) {
+						fireErrorOccurred(MessageErrorCode.WRITE_FAILED, failed.get(i));
+					}
+				}
+
+				if (close) {
+					// 关闭连接
+					disconnect();
+				}
+			}
+		});
 	}
 
 	/**
 	 * 重置守护线程空闲间隔时间，单位：毫秒。
 	 * 
+	 * 阻塞读模式下数据到达即处理，该间隔只作为省电模式下合并写的等待时间；轮询读模式下为两次读操作之间的间隔。
+	 * 
 	 * @param value 设置间隔。
 	 */
 	public void resetInterval(long value) {
@@ -598,11 +843,58 @@ public class BlockingConnector extends MessageService implements MessageConnecto
 
 		this.interval = value;
 
+		if (this.powerSaving) {
+			this.flushDelay = value;
+		}
+
 		if (Logger.isDebugLevel()) {
 			Logger.d(this.getClass(), "Reset interval : " + value);
 		}
 	}
 
+	/**
+	 * 设置是否使用阻塞读。在下一次连接时生效。
+	 * 
+	 * 阻塞读由专用线程在 Socket 输入流上阻塞等待，帧接收完整后立即交由处理器处理，
+	 * Socket 超时只用于检查连接状态。轮询读在每次未读到数据时休眠指定的间隔。
+	 * 
+	 * @param value 指定 <code>true</code> 使用阻塞读，<code>false</code> 使用轮询读。
+	 */
+	public void setBlockingRead(boolean value) {
+		this.blockingRead = value;
+	}
+
+	/**
+	 * 是否使用阻塞读。
+	 * 
+	 * @return 如果使用阻塞读返回 <code>true</code> 。
+	 */
+	public boolean isBlockingRead() {
+		return this.blockingRead;
+	}
+
+	/**
+	 * 设置省电模式。
+	 * 
+	 * 省电模式不影响数据接收，只延迟合并发送数据，最长等待时间为 {@link #resetInterval(long)} 设置的间隔，
+	 * 以减少网络模块被唤醒的次数。
+	 * 
+	 * @param value 指定是否启用省电模式。
+	 */
+	public void setPowerSaving(boolean value) {
+		this.powerSaving = value;
+		this.flushDelay = value ? this.interval : 0L;
+	}
+
+	/**
+	 * 是否处于省电模式。
+	 * 
+	 * @return 如果处于省电模式返回 <code>true</code> 。
+	 */
+	public boolean isPowerSaving() {
+		return this.powerSaving;
+	}
+
 	/**
 	 * 回调 {@link MessageHandler#sessionCreated(Session)} 。
 	 */
@@ -615,6 +907,8 @@ public class BlockingConnector extends MessageService implements MessageConnecto
 	 * 回调 {@link MessageHandler#sessionOpened(Session)} 。
 	 */
 	private void fireSessionOpened() {
+		this.recordConnect(this.session);
+
 		if (null != this.handler) {
 			this.handler.sessionOpened(this.session);
 		}
@@ -644,14 +938,18 @@ public class BlockingConnector extends MessageService implements MessageConnecto
 			this.socket = null;
 		}
 
-		synchronized (this.messageQueueHP) {
-			this.messageQueueHP.clear();
-		}
-		synchronized (this.messageQueueLP) {
-			this.messageQueueLP.clear();
-		}
-		this.writingHP.set(false);
-		this.writingLP.set(false);
+		this.clearWriteQueues();
+	}
+	/**
+	 * 在线程池里回调 {@link MessageHandler#errorOccurred(int, Session, Message)} 。
+	 */
+	private void fireErrorOccurredAsync(final int errorCode, final Message message) {
+		this.executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				fireErrorOccurred(errorCode, message);
+			}
+		});
 	}
 	/**
 	 * 回调 {@link MessageHandler#errorOccurred(int, Session)} 。
@@ -680,6 +978,13 @@ public class BlockingConnector extends MessageService implements MessageConnecto
 
 		Socket socket = this.socket;
 
+		if (this.blockingRead && null != socket) {
+			this.loopRead(socket);
+			this.spinning = false;
+			Logger.i(this.getClass(), "Quit loop dispatch");
+			return;
+		}
+
 		ByteBuffer bytes = ByteBuffer.allocate(this.block);
 		byte[] buf = new byte[8192];
 
@@ -791,6 +1096,12 @@ public class BlockingConnector extends MessageService implements MessageConnecto
 
 			data = null;
 			bytes.clear();
+
+			if (this.hasDataMark() && this.session.getAccumulator().isOversized()) {
+				// 对端发送了超过协商长度的数据，退出循环后关闭连接
+				this.fireErrorOccurred(MessageErrorCode.READ_OUTOFBOUNDS, null);
+				break;
+			}
 		}
 
 		this.spinning = false;
@@ -802,6 +1113,67 @@ public class BlockingConnector extends MessageService implements MessageConnecto
 		Logger.i(this.getClass(), "Quit loop dispatch");
 	}
 
+	/**
+	 * 阻塞读循环。在输入流上阻塞等待数据，直接读入帧累加器，帧接收完整后立即处理。
+	 * 
+	 * @param socket 指定 Socket 。
+	 */
+	private void loopRead(Socket socket) {
+		InputStream inputStream = null;
+		try {
+			inputStream = socket.getInputStream();
+		} catch (IOException e) {
+			Logger.log(BlockingConnector.class, e, LogLevel.WARNING);
+			return;
+		}
+
+		FrameAccumulator accumulator = this.hasDataMark() ? this.session.getAccumulator() : null;
+		byte[] buf = (null == accumulator) ? new byte[8192] : null;
+
+		while (this.spinning && null != this.socket) {
+			int length = 0;
+			try {
+				if (null != accumulator) {
+					length = accumulator.read(inputStream);
+				}
+				else {
+					length = inputStream.read(buf);
+				}
+			} catch (SocketTimeoutException e) {
+				// 超时只用于检查连接状态
+				continue;
+			} catch (SocketException e) {
+				Logger.i(BlockingConnector.class, "Socket closed");
+				break;
+			} catch (Exception e) {
+				Logger.log(BlockingConnector.class, e, LogLevel.DEBUG);
+				break;
+			}
+
+			if (length < 0) {
+				// 对端关闭连接
+				break;
+			}
+			else if (length == 0) {
+				continue;
+			}
+
+			if (null != accumulator) {
+				this.dispatchFrames(accumulator);
+				if (accumulator.isOversized()) {
+					// 对端发送了超过协商长度的数据，退出循环后关闭连接
+					this.fireErrorOccurred(MessageErrorCode.READ_OUTOFBOUNDS, null);
+					break;
+				}
+			}
+			else {
+				byte[] data = new byte[length];
+				System.arraycopy(buf, 0, data, 0, length);
+				this.process(data);
+			}
+		}
+	}
+
 	/**
 	 * 评估指定容量所需要的扩容数据。
 	 * 新的容量会按照步长进行线性增长。
@@ -819,6 +1191,18 @@ public class BlockingConnector extends MessageService implements MessageConnecto
 		return newValue;
 	}
 
+	/**
+	 * 清空接收队列并归还池化缓冲。
+	 */
+	private void clearReceivedQueue() {
+		synchronized (this.receivedQueue) {
+			Message message = null;
+			while ((message = this.receivedQueue.poll()) != null) {
+				message.release();
+			}
+		}
+	}
+
 	/**
 	 * 执行数据解析操作。
 	 * 
@@ -827,38 +1211,15 @@ public class BlockingConnector extends MessageService implements MessageConnecto
 	private void process(byte[] data) {
 		// 根据数据标志获取数据
 		if (this.hasDataMark()) {
-			// 数据递归提取
-			this.extract(this.receivedQueue, data);
-
-			if (!this.receivedQueue.isEmpty()) {
-				this.executor.execute(new Runnable() {
-					@Override
-					public void run() {
-						synchronized (receivedQueue) {
-							byte[] bytes = null;
-							while ((bytes = receivedQueue.poll()) != null) {
-								Message message = new Message(bytes);
-
-								byte[] skey = session.getSecretKey();
-								if (null != skey) {
-									decryptMessage(message, skey);
-								}
-
-								if (null != handler) {
-									handler.messageReceived(session, message);
-								}
-							}
-						} // #synchronized
-					}
-				});
-			}
+			FrameAccumulator accumulator = this.session.getAccumulator();
+			accumulator.write(data, 0, data.length);
+			this.dispatchFrames(accumulator);
 		}
 		else {
 			final Message message = new Message(data);
 
-			byte[] skey = this.session.getSecretKey();
-			if (null != skey) {
-				this.decryptMessage(message, skey);
+			if (!this.processRead(this.session, message)) {
+				return;
 			}
 
 			this.executor.execute(new Runnable() {
@@ -875,397 +1236,35 @@ public class BlockingConnector extends MessageService implements MessageConnecto
 	}
 
 	/**
-	 * 进行数据提取并输出。
+	 * 提取帧累加器里所有完整的帧，交由执行器处理。
 	 * 
-	 * @param out 输出的数据列表。
-	 * @param data 源数据。
+	 * @param accumulator 指定帧累加器。
 	 */
-	private void extract(final Queue<byte[]> output, final byte[] data) {
-		final byte[] headMark = this.getHeadMark();
-		final byte[] tailMark = this.getTailMark();
-
-		byte[] real = data;
-		if (this.session.cacheCursor > 0) {
-			real = new byte[this.session.cacheCursor + data.length];
-			System.arraycopy(this.session.cache, 0, real, 0, this.session.cacheCursor);
-			System.arraycopy(data, 0, real, this.session.cacheCursor, data.length);
-			// 重置缓存
-			this.session.resetCache();
-		}
-
-		int index = 0;
-		final int len = real.length;
-		int headPos = -1;
-		int tailPos = -1;
-		int ret = -1;
-
-		ret = compareBytes(headMark, 0, real, index, headMark.length);
-		if (0 == ret) {
-			// 有头标签
-			index = headMark.length;
-			// 记录数据位置头
-			headPos = index;
-			// 判断是否有尾标签，依次计数
-			ret = -1;
-			while (index < len) {
-				if (real[index] == tailMark[0]) {
-					ret = compareBytes(tailMark, 0, real, index, tailMark.length);
-					if (0 == ret) {
-						// 找到尾标签
-						tailPos = index;
-						break;
-					}
-					else if (1 == ret) {
-						// 越界
-						break;
-					}
-					else {
-						// 未找到尾标签
-						++index;
-					}
-				}
-				else {
-					++index;
-				}
-			}
-
-			if (headPos > 0 && tailPos > 0) {
-				byte[] outBytes = new byte[tailPos - headPos];
-				System.arraycopy(real, headPos, outBytes, 0, outBytes.length);
-				output.add(outBytes);
-
-				int newLen = len - tailPos - tailMark.length;
-				if (newLen > 0) {
-					byte[] newBytes = new byte[newLen];
-					System.arraycopy(real, tailPos + tailMark.length, newBytes, 0, newLen);
-
-					// 递归
-					extract(output, newBytes);
-				}
-			}
-			else {
-				// 没有尾标签，仅进行缓存
-				if (len + this.session.cacheCursor > this.session.getCacheSize()) {
-					// 缓存扩容
-					this.session.resetCacheSize(len + this.session.cacheCursor);
-				}
-
-				System.arraycopy(real, 0, this.session.cache, this.session.cacheCursor, len);
-				this.session.cacheCursor += len;
-			}
-		}
-		else if (-1 == ret){
-			// 没有头标签
-			// 尝试查找
-			ret = -1;
-			while (index < len) {
-				if (real[index] == headMark[0]) {
-					ret = compareBytes(headMark, 0, real, index, headMark.length);
-					if (0 == ret) {
-						// 找到头标签
-						headPos = index;
-						break;
-					}
-					else if (1 == ret) {
-						// 越界
-						break;
-					}
-					else {
-						// 未找到头标签
-						++index;
-					}
-				}
-				else {
-					++index;
-				}
-			}
-
-			if (headPos > 0) {
-				// 找到头标签
-				byte[] newBytes = new byte[len - headPos];
-				System.arraycopy(real, headPos, newBytes, 0, newBytes.length);
-
-				// 递归
-				extract(output, newBytes);
-			}
-			else {
-				// 没有找到头标签，尝试判断结束位置
-				byte backwardOne = real[len - 1];
-				byte backwardTwo = real[len - 2];
-				byte backwardThree = real[len - 3];
-				int pos = -1;
-				int cplen = 0;
-				if (headMark[0] == backwardOne) {
-					pos = len - 1;
-					cplen = 1;
-				}
-				else if (headMark[0] == backwardTwo && headMark[1] == backwardOne) {
-					pos = len - 2;
-					cplen = 2;
-				}
-				else if (headMark[0] == backwardThree && headMark[1] == backwardTwo && headMark[2] == backwardOne) {
-					pos = len - 3;
-					cplen = 3;
-				}
-
-				if (pos >= 0) {
-					// 有可能是数据头，进行缓存
-					if (cplen + this.session.cacheCursor > this.session.getCacheSize()) {
-						// 缓存扩容
-						this.session.resetCacheSize(cplen + this.session.cacheCursor);
-					}
-
-					System.arraycopy(real, pos, this.session.cache, this.session.cacheCursor, cplen);
-					this.session.cacheCursor += cplen;
-				}
-			}
-
-			/*
-			// 尝试找到头标签
-			byte[] markBuf = new byte[headMark.length];
-			int searchIndex = 0;
-			int searchCounts = 0;
-			do {
-				// 判断数据是否越界
-				if (searchIndex + headMark.length > len) {
-					// 越界，删除索引之前的所有数据
-					byte[] newReal = new byte[len - searchIndex];
-					System.arraycopy(real, searchIndex, newReal, 0, newReal.length);
-
-					if (this.session.cacheCursor + newReal.length > this.session.getCacheSize()) {
-						// 重置 cache 大小
-						this.session.resetCacheSize(this.session.cacheCursor + newReal.length);
-					}
-					System.arraycopy(newReal, 0, this.session.cache, this.session.cacheCursor, newReal.length);
-					this.session.cacheCursor += newReal.length;
-					// 退出循环
-					break;
-				}
-
-				// 复制数据到待测试缓存
-				System.arraycopy(real, searchIndex, markBuf, 0, headMark.length);
-
-				for (int i = 0; i < markBuf.length; ++i) {
-					if (markBuf[i] == headMark[i]) {
-						++searchCounts;
-					}
-					else {
-						break;
-					}
-				}
-
-				if (searchCounts == headMark.length) {
-					// 找到 head mark
-					byte[] newReal = new byte[len - searchIndex];
-					System.arraycopy(real, searchIndex, newReal, 0, newReal.length);
-					extract(out, newReal);
-					return;
-				}
-
-				// 更新索引
-				++searchIndex;
-
-				// 重置计数
-				searchCounts = 0;
-			} while (searchIndex < len);
-			*/
-		}
-		else {
-			// 数据越界，直接缓存
-			if (this.session.cacheCursor + real.length > this.session.getCacheSize()) {
-				// 重置 cache 大小
-				this.session.resetCacheSize(this.session.cacheCursor + real.length);
-			}
-			System.arraycopy(real, 0, this.session.cache, this.session.cacheCursor, real.length);
-			this.session.cacheCursor += real.length;
-		}
-	}
-	/*private void extract(final LinkedList<byte[]> out, final byte[] data) {
-		final byte[] headMark = this.getHeadMark();
-		final byte[] tailMark = this.getTailMark();
-
-		byte[] real = data;
-		if (this.session.cacheCursor > 0) {
-			real = new byte[this.session.cacheCursor + data.length];
-			System.arraycopy(this.session.cache, 0, real, 0, this.session.cacheCursor);
-			System.arraycopy(data, 0, real, this.session.cacheCursor, data.length);
-			this.session.cacheCursor = 0;
-		}
-
-		// 当数据小于标签长度时直接缓存
-		if (real.length < headMark.length) {
-			if (this.session.cacheCursor + real.length > this.session.getCacheSize()) {
-				// 重置 cache 大小
-				this.session.resetCacheSize(this.session.cacheCursor + real.length);
-			}
-			System.arraycopy(real, 0, this.session.cache, this.session.cacheCursor, real.length);
-			this.session.cacheCursor += real.length;
-			return;
-		}
-
-		int index = 0;
-		int len = real.length;
-		int headPos = -1;
-		int tailPos = -1;
-
-		if (0 == compareBytes(headMark, 0, real, index, headMark.length)) {
-			// 有头标签
-			index += headMark.length;
-			// 记录数据位置头
-			headPos = index;
-			// 判断是否有尾标签，依次计数
-			int ret = -1;
-			while (index < len) {
-				if (real[index] == tailMark[0]) {
-					ret = compareBytes(tailMark, 0, real, index, tailMark.length);
-					if (0 == ret) {
-						// 找到尾标签
-						tailPos = index;
-						break;
-					}
-					else if (1 == ret) {
-						// 越界
-						break;
-					}
-					else {
-						// 未找到尾标签
-						++index;
-					}
-				}
-				else {
-					++index;
-				}
-			}
-
-			if (headPos > 0 && tailPos > 0) {
-				byte[] outBytes = new byte[tailPos - headPos];
-				System.arraycopy(real, headPos, outBytes, 0, tailPos - headPos);
-				out.add(outBytes);
-
-				int newLen = len - tailPos - tailMark.length;
-				if (newLen > 0) {
-					byte[] newBytes = new byte[newLen];
-					System.arraycopy(real, tailPos + tailMark.length, newBytes, 0, newLen);
-
-					// 递归
-					extract(out, newBytes);
-				}
-			}
-			else {
-				// 没有尾标签
-				// 仅进行缓存
-				if (len + this.session.cacheCursor > this.session.getCacheSize()) {
-					// 缓存扩容
-					this.session.resetCacheSize(len + this.session.cacheCursor);
-				}
-
-				System.arraycopy(real, 0, this.session.cache, this.session.cacheCursor, len);
-				this.session.cacheCursor += len;
-			}
-		}
-		else {
-			// 没有头标签
-			// 尝试找到头标签
-			byte[] markBuf = new byte[headMark.length];
-			int searchIndex = 0;
-			int searchCounts = 0;
-			do {
-				// 判断数据是否越界
-				if (searchIndex + headMark.length > len) {
-					// 越界，删除索引之前的所有数据
-					byte[] newReal = new byte[len - searchIndex];
-					System.arraycopy(real, searchIndex, newReal, 0, newReal.length);
-
-					if (this.session.cacheCursor + newReal.length > this.session.getCacheSize()) {
-						// 重置 cache 大小
-						this.session.resetCacheSize(this.session.cacheCursor + newReal.length);
-					}
-					System.arraycopy(newReal, 0, this.session.cache, this.session.cacheCursor, newReal.length);
-					this.session.cacheCursor += newReal.length;
-					// 退出循环
-					break;
-				}
+	private void dispatchFrames(FrameAccumulator accumulator) {
+		// 一次提取所有完整的帧，帧数据复制到池化缓冲后交由执行器处理
+		int count = accumulator.extract(this.getHeadMark(), this.getTailMark(), this.frames, true);
+		this.recordFrameErrors(this.session, accumulator.pollErrors());
+		if (count > 0) {
+			this.receivedQueue.addAll(this.frames);
+			this.frames.clear();
 
-				// 复制数据到待测试缓存
-				System.arraycopy(real, searchIndex, markBuf, 0, headMark.length);
-
-				for (int i = 0; i < markBuf.length; ++i) {
-					if (markBuf[i] == headMark[i]) {
-						++searchCounts;
-					}
-					else {
-						break;
-					}
-				}
+			this.executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					synchronized (receivedQueue) {
+						Message message = null;
+						while ((message = receivedQueue.poll()) != null) {
+							if (processRead(session, message) && null != handler) {
+								handler.messageReceived(session, message);
+							}
 
-				if (searchCounts == headMark.length) {
-					// 找到 head mark
-					byte[] newReal = new byte[len - searchIndex];
-					System.arraycopy(real, searchIndex, newReal, 0, newReal.length);
-					extract(out, newReal);
-					return;
+							// 归还池化缓冲
+							message.release();
+						}
+					} // #synchronized
 				}
-
-				// 更新索引
-				++searchIndex;
-
-				// 重置计数
-				searchCounts = 0;
-			} while (searchIndex < len);
-		}
-
-//		byte[] newBytes = new byte[len - headMark.length];
-//		System.arraycopy(real, headMark.length, newBytes, 0, newBytes.length);
-//		extract(out, newBytes);
-	}*/
-
-	/**
-	 * 比较两个字节数组内容。
-	 * 
-	 * @param b1 待比较数组1
-	 * @param offsetB1 待比较数组1的数据位置偏移。
-	 * @param b2 待比较数组2
-	 * @param offsetB2 待比较数组2的数据位置偏移。
-	 * @param length 比较操作的数据长度。
-	 * @return 返回 <code>0</code> 表示匹配，<code>-1</code> 表示不匹配，<code>1</code> 表示越界
-	 */
-	private int compareBytes(byte[] b1, int offsetB1, byte[] b2, int offsetB2, int length) {
-		for (int i = 0; i < length; ++i) {
-			// FIXME XJW 2015-12-30 判断数组越界
-			if (offsetB1 + i >= b1.length || offsetB2 + i >= b2.length) {
-				return 1;
-			}
-
-			if (b1[offsetB1 + i] != b2[offsetB2 + i]) {
-				return -1;
-			}
+			});
 		}
-
-		return 0;
-	}
-
-	/**
-	 * 使用密钥加密数据。
-	 * 
-	 * @param message 待加密的消息。
-	 * @param key 加密操作使用的密钥。
-	 */
-	private void encryptMessage(Message message, byte[] key) {
-		byte[] plaintext = message.get();
-		byte[] ciphertext = Cryptology.getInstance().simpleEncrypt(plaintext, key);
-		message.set(ciphertext);
-	}
-
-	/**
-	 * 使用密钥解密数据。
-	 * 
-	 * @param message 待解密的消息。
-	 * @param key 解密操作使用的密钥。
-	 */
-	private void decryptMessage(Message message, byte[] key) {
-		byte[] ciphertext = message.get();
-		byte[] plaintext = Cryptology.getInstance().simpleDecrypt(ciphertext, key);
-		message.set(plaintext);
 	}
 
 }
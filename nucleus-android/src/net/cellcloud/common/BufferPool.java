@@ -0,0 +1,322 @@
+/*
+-----------------------------------------------------------------------------
+This source file is part of Cell Cloud.
+
+Copyright (c) 2009-2017 Cell Cloud Team (www.cellcloud.net)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+-----------------------------------------------------------------------------
+*/
+
+package net.cellcloud.common;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 分级缓冲池。
+ * 
+ * 按 2 的幂次划分容量等级，每个线程持有少量本地缓存，其余缓冲存放在全局队列里，
+ * 全局队列缓存的总字节数有上限。超过最大等级的请求直接分配且不回收。
+ * 
+ * @author Ambrose Xu
+ * 
+ */
+public final class BufferPool {
+
+	/** 最小等级的位移，即 256 字节。 */
+	private static final int MIN_SHIFT = 8;
+	/** 最大等级的位移，即 1 MB 。 */
+	private static final int MAX_SHIFT = 20;
+	/** 等级数量。 */
+	private static final int NUM_CLASSES = MAX_SHIFT - MIN_SHIFT + 1;
+
+	/** 线程本地缓存的最大等级位移，即 64 KB 。 */
+	private static final int THREAD_CACHE_MAX_SHIFT = 16;
+	/** 线程本地缓存的等级数量。 */
+	private static final int THREAD_CACHE_CLASSES = THREAD_CACHE_MAX_SHIFT - MIN_SHIFT + 1;
+	/** 线程本地缓存每个等级的缓冲数量。 */
+	private static final int THREAD_CACHE_DEPTH = 4;
+
+	/** 堆内存缓冲池。 */
+	private static final BufferPool heapPool = new BufferPool(false, 32L * 1024L * 1024L);
+	/** 直接内存缓冲池。 */
+	private static final BufferPool directPool = new BufferPool(true, 16L * 1024L * 1024L);
+
+	/** 是否分配直接内存。 */
+	private final boolean direct;
+	/** 全局队列最多缓存的字节数。 */
+	private final long maxPooledBytes;
+	/** 全局队列当前缓存的字节数。 */
+	private final AtomicLong pooledBytes = new AtomicLong(0);
+
+	/** 每个等级的全局队列。 */
+	private final ConcurrentLinkedQueue<ByteBuffer>[] queues;
+
+	/** 线程本地缓存。 */
+	private final ThreadLocal<ThreadCache> threadCache = new ThreadLocal<ThreadCache>() {
+		@Override
+		protected ThreadCache initialValue() {
+			return new ThreadCache();
+		}
+	};
+
+	/** 命中次数。 */
+	private final AtomicLong hits = new AtomicLong(0);
+	/** 未命中次数。 */
+	private final AtomicLong misses = new AtomicLong(0);
+	/** 已借出未归还的缓冲数量。 */
+	private final AtomicLong outstanding = new AtomicLong(0);
+
+	/**
+	 * 构造函数。
+	 * 
+	 * @param direct 是否分配直接内存。
+	 * @param maxPooledBytes 全局队列最多缓存的字节数。
+	 */
+	@SuppressWarnings("unchecked")
+	public BufferPool(boolean direct, long maxPooledBytes) {
+		this.direct = direct;
+		this.maxPooledBytes = maxPooledBytes;
+		this.queues = (ConcurrentLinkedQueue<ByteBuffer>[]) new ConcurrentLinkedQueue<?>[NUM_CLASSES];
+		for (int i = 0; i < NUM_CLASSES; ++i) {
+			this.queues[i] = new ConcurrentLinkedQueue<ByteBuffer>();
+		}
+	}
+
+	/**
+	 * 返回共享的堆内存缓冲池。
+	 * 
+	 * @return 返回共享的堆内存缓冲池。
+	 */
+	public static BufferPool getHeapPool() {
+		return BufferPool.heapPool;
+	}
+
+	/**
+	 * 返回共享的直接内存缓冲池。
+	 * 
+	 * @return 返回共享的直接内存缓冲池。
+	 */
+	public static BufferPool getDirectPool() {
+		return BufferPool.directPool;
+	}
+
+	/**
+	 * 借出缓冲。返回的缓冲已清空，容量不小于指定大小。
+	 * 
+	 * @param size 指定需要的最小容量。
+	 * @return 返回缓冲。
+	 */
+	public ByteBuffer borrow(int size) {
+		this.outstanding.incrementAndGet();
+
+		int index = BufferPool.classIndex(size);
+		if (index < 0) {
+			// 超出最大等级，直接分配
+			this.misses.incrementAndGet();
+			return this.allocate(size);
+		}
+
+		ByteBuffer buffer = null;
+
+		if (index < THREAD_CACHE_CLASSES) {
+			buffer = this.threadCache.get().poll(index);
+		}
+
+		if (null == buffer) {
+			buffer = this.queues[index].poll();
+			if (null != buffer) {
+				this.pooledBytes.addAndGet(-buffer.capacity());
+			}
+		}
+
+		if (null == buffer) {
+			this.misses.incrementAndGet();
+			return this.allocate(1 << (index + MIN_SHIFT));
+		}
+
+		this.hits.incrementAndGet();
+		buffer.clear();
+		return buffer;
+	}
+
+	/**
+	 * 归还缓冲。归还后调用者不能再使用该缓冲。
+	 * 
+	 * @param buffer 指定归还的缓冲。
+	 */
+	public void release(ByteBuffer buffer) {
+		if (null == buffer) {
+			return;
+		}
+
+		this.outstanding.decrementAndGet();
+
+		if (buffer.isDirect() != this.direct) {
+			return;
+		}
+
+		int capacity = buffer.capacity();
+		int index = BufferPool.classIndex(capacity);
+		if (index < 0 || (1 << (index + MIN_SHIFT)) != capacity) {
+			// 非池化容量，丢弃
+			return;
+		}
+
+		if (index < THREAD_CACHE_CLASSES && this.threadCache.get().offer(index, buffer)) {
+			return;
+		}
+
+		if (this.pooledBytes.addAndGet(capacity) > this.maxPooledBytes) {
+			// 超出上限，丢弃
+			this.pooledBytes.addAndGet(-capacity);
+			return;
+		}
+
+		this.queues[index].offer(buffer);
+	}
+
+	/**
+	 * 清空全局队列里缓存的缓冲。
+	 */
+	public void trim() {
+		for (int i = 0; i < NUM_CLASSES; ++i) {
+			ByteBuffer buffer = null;
+			while ((buffer = this.queues[i].poll()) != null) {
+				this.pooledBytes.addAndGet(-buffer.capacity());
+			}
+		}
+	}
+
+	/**
+	 * 是否分配直接内存。
+	 * 
+	 * @return 如果分配直接内存返回 <code>true</code> 。
+	 */
+	public boolean isDirect() {
+		return this.direct;
+	}
+
+	/**
+	 * 返回命中次数。
+	 * 
+	 * @return 返回从缓存里成功借出的次数。
+	 */
+	public long getHits() {
+		return this.hits.get();
+	}
+
+	/**
+	 * 返回未命中次数。
+	 * 
+	 * @return 返回需要新分配内存的次数。
+	 */
+	public long getMisses() {
+		return this.misses.get();
+	}
+
+	/**
+	 * 返回已借出未归还的缓冲数量。
+	 * 
+	 * @return 返回已借出未归还的缓冲数量。
+	 */
+	public long getOutstanding() {
+		return this.outstanding.get();
+	}
+
+	/**
+	 * 返回全局队列当前缓存的字节数。
+	 * 
+	 * @return 返回全局队列当前缓存的字节数。
+	 */
+	public long getPooledBytes() {
+		return this.pooledBytes.get();
+	}
+
+	/**
+	 * 返回全局队列最多缓存的字节数。
+	 * 
+	 * @return 返回全局队列最多缓存的字节数。
+	 */
+	public long getMaxPooledBytes() {
+		return this.maxPooledBytes;
+	}
+
+	private ByteBuffer allocate(int capacity) {
+		return this.direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+	}
+
+	/**
+	 * 计算指定大小对应的等级索引。
+	 * 
+	 * @param size 指定大小。
+	 * @return 返回等级索引，超出最大等级返回 <code>-1</code> 。
+	 */
+	private static int classIndex(int size) {
+		if (size <= (1 << MIN_SHIFT)) {
+			return 0;
+		}
+
+		int shift = 32 - Integer.numberOfLeadingZeros(size - 1);
+		if (shift > MAX_SHIFT) {
+			return -1;
+		}
+
+		return shift - MIN_SHIFT;
+	}
+
+	/**
+	 * 线程本地缓存。
+	 */
+	private static final class ThreadCache {
+
+		private final ByteBuffer[][] stacks = new ByteBuffer[THREAD_CACHE_CLASSES][THREAD_CACHE_DEPTH];
+		private final int[] sizes = new int[THREAD_CACHE_CLASSES];
+
+		private ThreadCache() {
+		}
+
+		private ByteBuffer poll(int index) {
+			int size = this.sizes[index];
+			if (size == 0) {
+				return null;
+			}
+
+			--size;
+			ByteBuffer buffer = this.stacks[index][size];
+			this.stacks[index][size] = null;
+			this.sizes[index] = size;
+			return buffer;
+		}
+
+		private boolean offer(int index, ByteBuffer buffer) {
+			int size = this.sizes[index];
+			if (size == THREAD_CACHE_DEPTH) {
+				return false;
+			}
+
+			this.stacks[index][size] = buffer;
+			this.sizes[index] = size + 1;
+			return true;
+		}
+	}
+
+}
@@ -0,0 +1,68 @@
+/*
+-----------------------------------------------------------------------------
+This source file is part of Cell Cloud.
+
+Copyright (c) 2009-2017 Cell Cloud Team (www.cellcloud.net)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+-----------------------------------------------------------------------------
+*/
+
+package net.cellcloud.common;
+
+/**
+ * 加密过滤器。会话激活密钥后对消息数据进行原地加解密，不分配新的数组。
+ * 
+ * 待发送消息的数据数组会被直接修改，因此消息写入后调用者不应再使用原数组。
+ * 
+ * @author Ambrose Xu
+ * 
+ */
+public final class CipherFilter implements MessageFilter {
+
+	/** 过滤器名。 */
+	public final static String NAME = "cipher";
+
+	public CipherFilter() {
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void filterWrite(Session session, Message message) {
+		byte[] key = session.getSecretKey();
+		if (null != key) {
+			Cryptology.getInstance().simpleEncrypt(message.array(), message.offset(), message.length(), key);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean filterRead(Session session, Message message) {
+		byte[] key = session.getSecretKey();
+		if (null != key) {
+			Cryptology.getInstance().simpleDecrypt(message.array(), message.offset(), message.length(), key);
+		}
+		return true;
+	}
+
+}
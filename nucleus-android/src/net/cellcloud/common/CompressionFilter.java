@@ -0,0 +1,63 @@
+/*
+-----------------------------------------------------------------------------
+This source file is part of Cell Cloud.
+
+Copyright (c) 2009-2017 Cell Cloud Team (www.cellcloud.net)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+-----------------------------------------------------------------------------
+*/
+
+package net.cellcloud.common;
+
+/**
+ * 压缩过滤器。按会话设置的算法压缩待发送消息，接收时识别并解压压缩数据，数据损坏的消息被丢弃。
+ * 
+ * @author Ambrose Xu
+ * 
+ */
+public final class CompressionFilter implements MessageFilter {
+
+	/** 过滤器名。 */
+	public final static String NAME = "compression";
+
+	public CompressionFilter() {
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void filterWrite(Session session, Message message) {
+		session.compress(message);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean filterRead(Session session, Message message) {
+		if (!session.decompress(message)) {
+			Logger.w(CompressionFilter.class, "Drop corrupted compressed message from " + session.getAddress());
+			return false;
+		}
+		return true;
+	}
+
+}
@@ -96,6 +96,59 @@ public final class Cryptology {
 		return out;
 	}
 
+	/**
+	 * 简单加密操作，在原数组上进行。密钥长度为 8 位。
+	 * 
+	 * @param data 指定存储明文的数组，加密后存储密文。
+	 * @param offset 指定数据偏移。
+	 * @param length 指定数据长度。
+	 * @param key 指定密钥。
+	 * @return 密钥长度不正确时返回 <code>false</code> 。
+	 */
+	public boolean simpleEncrypt(byte[] data, int offset, int length, byte[] key) {
+		if (key.length != 8)
+			return false;
+
+		// 密文与明文逐字节对应，加密与解密为相同的异或运算
+		byte mask = simpleMask(key);
+		for (int i = offset, end = offset + length; i < end; ++i) {
+			data[i] ^= mask;
+		}
+
+		return true;
+	}
+
+	/**
+	 * 简单解密操作，在原数组上进行。密钥长度为 8 位。
+	 * 
+	 * @param data 指定存储密文的数组，解密后存储明文。
+	 * @param offset 指定数据偏移。
+	 * @param length 指定数据长度。
+	 * @param key 指定密钥。
+	 * @return 密钥长度不正确时返回 <code>false</code> 。
+	 */
+	public boolean simpleDecrypt(byte[] data, int offset, int length, byte[] key) {
+		return this.simpleEncrypt(data, offset, length, key);
+	}
+
+	/**
+	 * 计算简单加解密使用的异或掩码。
+	 */
+	private static byte simpleMask(byte[] key) {
+		int keyCode = 11 + key[0];
+		keyCode -= key[1];
+		keyCode += key[2];
+		keyCode -= key[3];
+		keyCode += key[4];
+		keyCode -= key[5];
+		keyCode += key[6];
+		keyCode -= key[7];
+
+		byte cc = (byte) (keyCode % 8);
+		byte parity = (byte) (((keyCode % 2) == 0) ? 2 : 1);
+		return (byte) (cc ^ parity);
+	}
+
 	/**
 	 * 简单解密操作。密钥长度为 8 位。
 	 * 
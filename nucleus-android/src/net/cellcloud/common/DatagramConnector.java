@@ -118,6 +118,8 @@ public class DatagramConnector extends MessageService implements MessageConnecto
 					handler.sessionCreated(session);
 				}
 
+				recordConnect(session);
+
 				if (null != handler) {
 					handler.sessionOpened(session);
 				}
@@ -220,10 +222,17 @@ public class DatagramConnector extends MessageService implements MessageConnecto
 			return false;
 		}
 
+		boolean unwritable = this.markPending(this.session, message);
+
 		synchronized (this.writeQueue) {
 			this.writeQueue.addLast(message);
 		}
 
+		if (unwritable) {
+			// 待写数据超过高水位
+			this.fireSessionUnwritable(this.session);
+		}
+
 		if (!this.writing.get()) {
 			this.writing.set(true);
 
@@ -266,17 +275,20 @@ public class DatagramConnector extends MessageService implements MessageConnecto
 
 							// 发送
 							socket.send(dp);
+							markSent(DatagramConnector.this.session, msg);
 
 							if (null != handler) {
 								handler.messageSent(DatagramConnector.this.session, msg);
 							}
 						} catch (SocketException e) {
 							Logger.log(this.getClass(), e, LogLevel.ERROR);
+							unmarkPending(DatagramConnector.this.session, msg);
 							if (null != handler) {
 								handler.errorOccurred(MessageErrorCode.SOCKET_FAILED, DatagramConnector.this.session, message);
 							}
 						} catch (IOException e) {
 							Logger.log(this.getClass(), e, LogLevel.ERROR);
+							unmarkPending(DatagramConnector.this.session, msg);
 							if (null != handler) {
 								handler.errorOccurred(MessageErrorCode.WRITE_FAILED, DatagramConnector.this.session, message);
 							}
@@ -326,6 +338,7 @@ public class DatagramConnector extends MessageService implements MessageConnecto
 			byte[] data = new byte[dp.getLength()];
 			System.arraycopy(dp.getData(), 0, data, 0, dp.getLength());
 			Message message = new Message(data);
+			this.recordReceived(this.session, message);
 			if (null != this.handler) {
 				this.handler.messageReceived(this.session, message);
 			}
@@ -0,0 +1,744 @@
+/*
+-----------------------------------------------------------------------------
+This source file is part of Cell Cloud.
+
+Copyright (c) 2009-2017 Cell Cloud Team (www.cellcloud.net)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+-----------------------------------------------------------------------------
+*/
+
+package net.cellcloud.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.List;
+
+/**
+ * 帧累加器。
+ * 
+ * 使用可增长的环形缓冲累积从网络接收的数据，一次遍历提取所有完整的帧。
+ * 同时识别数据标记帧和长度前缀帧，提取的帧优先以缓冲切片的形式返回，不进行复制。
+ * 消息分片帧按流编号重组，消息的所有分片到达后作为一个完整的帧输出。
+ * 缓冲容量按 2 的幂次增长，在持续低占用后减半，避免频繁扩缩。
+ * 
+ * @author Ambrose Xu
+ * 
+ */
+public final class FrameAccumulator {
+
+	/** 默认初始容量。 */
+	private static final int INITIAL_CAPACITY = 2048;
+
+	/** 单次读操作期望的最小可用空间。 */
+	private static final int MIN_READ_SPACE = 1024;
+
+	/** 连续低占用多少次后进行缩容。 */
+	private static final int SHRINK_THRESHOLD = 16;
+
+	/** 环形缓冲。 */
+	private byte[] buffer;
+
+	/** 缓冲的 NIO 视图，用于直接从通道读取。 */
+	private ByteBuffer view;
+
+	/** 读位置。 */
+	private int head;
+
+	/** 可读字节数。 */
+	private int size;
+
+	/** 尾标识的续扫位置，相对于读位置。 */
+	private int scanFrom;
+
+	/** 连续低占用计数。 */
+	private int lowWatermarkCount;
+
+	/** 初始容量。 */
+	private final int initialCapacity;
+
+	/** 复制帧时使用的缓冲池。 */
+	private final BufferPool pool;
+
+	/** 允许同时重组的最大消息数量，与发送端同时交错发送的消息数量一致。 */
+	private static final int MAX_PARTIALS = MessageFragmenter.MAX_ACTIVE_STREAMS;
+
+	/** 分片帧数据里流编号和消息总长度两个变长整数的最大长度。 */
+	private static final int MAX_FRAGMENT_HEADER = 10;
+
+	/** 正在重组的分片消息，数量很少，按流编号顺序查找。 */
+	private Partial[] partials;
+
+	/** 正在重组的分片消息数量。 */
+	private int numPartials;
+
+	/** 允许接收的最大消息长度，可由其他线程设置。 */
+	private volatile int maxMessageSize;
+
+	/** 是否收到了超过最大消息长度的数据。 */
+	private boolean oversized;
+
+	/** 丢弃数据的次数。 */
+	private int errors;
+
+	/**
+	 * 构造函数。
+	 */
+	public FrameAccumulator() {
+		this(INITIAL_CAPACITY);
+	}
+
+	/**
+	 * 构造函数。
+	 * 
+	 * @param initialCapacity 指定初始容量，会被调整为 2 的幂次。
+	 */
+	public FrameAccumulator(int initialCapacity) {
+		int capacity = INITIAL_CAPACITY;
+		while (capacity < initialCapacity) {
+			capacity <<= 1;
+		}
+		this.initialCapacity = capacity;
+		this.buffer = new byte[capacity];
+		this.view = ByteBuffer.wrap(this.buffer);
+		this.head = 0;
+		this.size = 0;
+		this.scanFrom = 0;
+		this.lowWatermarkCount = 0;
+		this.pool = BufferPool.getHeapPool();
+		this.partials = null;
+		this.numPartials = 0;
+		this.maxMessageSize = MessageService.MAX_FRAME_LENGTH;
+		this.oversized = false;
+		this.errors = 0;
+	}
+
+	/**
+	 * 设置允许接收的最大消息长度。
+	 * 
+	 * 长度前缀帧和重组的分片消息超过该长度时停止提取帧，{@link #isOversized()} 返回 <code>true</code> ，
+	 * 调用者应当关闭连接。该限制不作用于数据标记帧。
+	 * 
+	 * @param size 指定最大消息长度。
+	 */
+	public void setMaxMessageSize(int size) {
+		this.maxMessageSize = size;
+	}
+
+	/**
+	 * 是否收到了超过最大消息长度的数据。
+	 * 
+	 * @return 如果收到了超过最大消息长度的数据返回 <code>true</code> 。
+	 */
+	public boolean isOversized() {
+		return this.oversized;
+	}
+
+	/**
+	 * 返回上次调用以来丢弃数据的次数并清零。
+	 * 
+	 * @return 返回丢弃数据的次数。
+	 */
+	public int pollErrors() {
+		int value = this.errors;
+		this.errors = 0;
+		return value;
+	}
+
+	/**
+	 * 返回当前累积的字节数。
+	 * 
+	 * @return 返回当前累积的字节数。
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * 返回缓冲容量。
+	 * 
+	 * @return 返回缓冲容量。
+	 */
+	public int capacity() {
+		return this.buffer.length;
+	}
+
+	/**
+	 * 清空累积的数据。
+	 */
+	public void clear() {
+		this.head = 0;
+		this.size = 0;
+		this.scanFrom = 0;
+
+		for (int i = 0; i < this.numPartials; ++i) {
+			if (null != this.partials[i].message) {
+				this.partials[i].message.release();
+			}
+			this.partials[i] = null;
+		}
+		this.numPartials = 0;
+		this.oversized = false;
+	}
+
+	/**
+	 * 追加数据。
+	 * 
+	 * @param data 指定数据。
+	 * @param offset 指定数据偏移。
+	 * @param length 指定数据长度。
+	 */
+	public void write(byte[] data, int offset, int length) {
+		this.adjustCapacity(length);
+
+		int capacity = this.buffer.length;
+		int tail = (this.head + this.size) & (capacity - 1);
+		int first = Math.min(length, capacity - tail);
+		System.arraycopy(data, offset, this.buffer, tail, first);
+		if (first < length) {
+			System.arraycopy(data, offset + first, this.buffer, 0, length - first);
+		}
+
+		this.size += length;
+	}
+
+	/**
+	 * 从通道读取数据到缓冲。
+	 * 
+	 * @param channel 指定通道。
+	 * @return 返回读取的字节数，通道关闭时返回 <code>-1</code> 。
+	 * @throws IOException
+	 */
+	public int read(ReadableByteChannel channel) throws IOException {
+		this.adjustCapacity(MIN_READ_SPACE);
+
+		int tail = (this.head + this.size) & (this.buffer.length - 1);
+		this.view.limit(tail + this.contiguousSpace(tail));
+		this.view.position(tail);
+
+		int read = channel.read(this.view);
+		if (read > 0) {
+			this.size += read;
+		}
+
+		return read;
+	}
+
+	/**
+	 * 从输入流读取数据到缓冲。
+	 * 
+	 * @param input 指定输入流。
+	 * @return 返回读取的字节数，流结束时返回 <code>-1</code> 。
+	 * @throws IOException
+	 */
+	public int read(InputStream input) throws IOException {
+		this.adjustCapacity(MIN_READ_SPACE);
+
+		int tail = (this.head + this.size) & (this.buffer.length - 1);
+
+		int read = input.read(this.buffer, tail, this.contiguousSpace(tail));
+		if (read > 0) {
+			this.size += read;
+		}
+
+		return read;
+	}
+
+	/**
+	 * 提取所有完整的帧。
+	 * 
+	 * 当 <code>detach</code> 为 <code>false</code> 时，连续存储的帧以缓冲切片的形式返回，
+	 * 切片在下一次写入或读取数据前有效；跨越缓冲边界的帧以及 <code>detach</code> 为 <code>true</code> 时
+	 * 返回的帧存储在池化缓冲里，使用完毕后应调用 {@link Message#release()} 。
+	 * 
+	 * @param headMark 指定头标识，没有数据标记时为 <code>null</code> 。
+	 * @param tailMark 指定尾标识，没有数据标记时为 <code>null</code> 。
+	 * @param out 指定输出帧的列表。
+	 * @param detach 指定是否将帧复制到独立的缓冲。
+	 * @return 返回提取的帧数量。
+	 */
+	public int extract(byte[] headMark, byte[] tailMark, List<Message> out, boolean detach) {
+		int count = 0;
+
+		while (this.size > 0 && !this.oversized) {
+			byte first = this.byteAt(0);
+
+			if (first == MessageService.FRAME_MAGIC || first == MessageService.FRAGMENT_MAGIC) {
+				// 长度前缀帧或消息分片帧
+				long header = this.parseFrameHeader(0);
+				if (header == MessageService.FRAME_INCOMPLETE) {
+					break;
+				}
+				else if (header != MessageService.FRAME_INVALID) {
+					int headerLength = (int) (header >>> 32);
+					int frameLength = (int) header;
+					if (frameLength > ((first == MessageService.FRAME_MAGIC) ? this.maxMessageSize
+							: this.maxMessageSize + MAX_FRAGMENT_HEADER)) {
+						// 不等待数据接收完整，避免为超长的帧缓存数据
+						Logger.w(FrameAccumulator.class, "Frame exceeds max message size: " + frameLength);
+						this.oversized = true;
+						break;
+					}
+
+					if (this.size - headerLength < frameLength) {
+						// 数据未接收完整
+						break;
+					}
+
+					if (first == MessageService.FRAME_MAGIC) {
+						out.add(this.slice(headerLength, frameLength, detach));
+						++count;
+					}
+					else {
+						Message message = this.reassemble(headerLength, frameLength);
+						if (null != message) {
+							out.add(message);
+							++count;
+						}
+					}
+
+					this.skip(headerLength + frameLength);
+					continue;
+				}
+			}
+			else if (null != headMark && first == headMark[0]) {
+				int ret = this.match(headMark, 0);
+				if (ret > 0) {
+					// 头标识未接收完整
+					break;
+				}
+				else if (ret == 0) {
+					// 查找尾标识
+					int tailPos = this.findTail(tailMark, Math.max(headMark.length, this.scanFrom));
+					if (tailPos < 0) {
+						break;
+					}
+
+					out.add(this.slice(headMark.length, tailPos - headMark.length, detach));
+					this.skip(tailPos + tailMark.length);
+					++count;
+					continue;
+				}
+			}
+
+			// 丢弃无法识别的数据，直到下一个可能的帧起始位置
+			++this.errors;
+			this.skip(this.findFrameStart(headMark));
+		}
+
+		if (this.size == 0) {
+			this.head = 0;
+		}
+
+		return count;
+	}
+
+	/**
+	 * 返回指定位置的字节。
+	 * 
+	 * @param index 指定相对于读位置的索引。
+	 * @return 返回字节。
+	 */
+	private byte byteAt(int index) {
+		return this.buffer[(this.head + index) & (this.buffer.length - 1)];
+	}
+
+	/**
+	 * 匹配标识。
+	 * 
+	 * @param mark 指定标识。
+	 * @param index 指定相对于读位置的索引。
+	 * @return 匹配返回 <code>0</code> ，不匹配返回 <code>-1</code> ，数据不足以判断时返回 <code>1</code> 。
+	 */
+	private int match(byte[] mark, int index) {
+		for (int i = 0; i < mark.length; ++i) {
+			if (index + i >= this.size) {
+				return 1;
+			}
+
+			if (this.byteAt(index + i) != mark[i]) {
+				return -1;
+			}
+		}
+
+		return 0;
+	}
+
+	/**
+	 * 查找尾标识。未找到时记录续扫位置。
+	 * 
+	 * @param tailMark 指定尾标识。
+	 * @param from 指定开始查找的位置。
+	 * @return 返回尾标识的位置，未找到返回 <code>-1</code> 。
+	 */
+	private int findTail(byte[] tailMark, int from) {
+		byte t0 = tailMark[0];
+		for (int i = from; i < this.size; ++i) {
+			if (this.byteAt(i) == t0) {
+				int ret = this.match(tailMark, i);
+				if (ret == 0) {
+					return i;
+				}
+				else if (ret > 0) {
+					// 尾标识未接收完整，下次从此处继续
+					this.scanFrom = i;
+					return -1;
+				}
+			}
+		}
+
+		this.scanFrom = this.size;
+		return -1;
+	}
+
+	/**
+	 * 查找下一个可能的帧起始位置。
+	 * 
+	 * @param headMark 指定头标识。
+	 * @return 返回可能的帧起始位置，没有找到时返回可读字节数。
+	 */
+	private int findFrameStart(byte[] headMark) {
+		for (int i = 1; i < this.size; ++i) {
+			byte b = this.byteAt(i);
+			if ((b == MessageService.FRAME_MAGIC || b == MessageService.FRAGMENT_MAGIC)
+				&& this.parseFrameHeader(i) != MessageService.FRAME_INVALID) {
+				return i;
+			}
+			else if (null != headMark && b == headMark[0] && this.match(headMark, i) >= 0) {
+				return i;
+			}
+		}
+
+		return this.size;
+	}
+
+	/**
+	 * 解析长度前缀帧的帧头。
+	 * 
+	 * @param index 指定相对于读位置的索引。
+	 * @return 同 {@link MessageService#parseFrameHeader(byte[], int, int)} 。
+	 */
+	private long parseFrameHeader(int index) {
+		int value = 0;
+		int shift = 0;
+		int cursor = index + 1;
+		while (true) {
+			if (cursor >= this.size) {
+				return MessageService.FRAME_INCOMPLETE;
+			}
+
+			if (shift > 28) {
+				return MessageService.FRAME_INVALID;
+			}
+
+			byte b = this.byteAt(cursor++);
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				break;
+			}
+
+			shift += 7;
+		}
+
+		if (value < 0 || value > MessageService.MAX_FRAME_LENGTH) {
+			return MessageService.FRAME_INVALID;
+		}
+
+		return ((long) (cursor - index) << 32) | value;
+	}
+
+	/**
+	 * 重组消息分片。
+	 * 
+	 * 消息缓冲随分片到达按倍数增长，不按帧头声明的总长度预先分配。
+	 * 
+	 * @param offset 指定分片帧数据相对于读位置的偏移。
+	 * @param length 指定分片帧数据长度。
+	 * @return 如果消息的所有分片均已到达返回完整的消息，否则返回 <code>null</code> 。
+	 */
+	private Message reassemble(int offset, int length) {
+		int end = offset + length;
+
+		// 流编号和消息总长度
+		long header = this.parseVarint(offset, end);
+		if (header < 0) {
+			++this.errors;
+			return null;
+		}
+		int streamId = (int) header;
+		int cursor = (int) (header >>> 32);
+
+		header = this.parseVarint(cursor, end);
+		if (header < 0) {
+			++this.errors;
+			return null;
+		}
+		int totalLength = (int) header;
+		cursor = (int) (header >>> 32);
+
+		int fragmentLength = end - cursor;
+
+		if (null == this.partials) {
+			this.partials = new Partial[MAX_PARTIALS];
+		}
+
+		int index = 0;
+		while (index < this.numPartials && this.partials[index].streamId != streamId) {
+			++index;
+		}
+
+		Partial partial = null;
+		if (index < this.numPartials) {
+			partial = this.partials[index];
+			if (partial.totalLength != totalLength || partial.filled + fragmentLength > totalLength) {
+				// 分片数据与消息不一致，丢弃整条消息
+				Logger.w(FrameAccumulator.class, "Fragment mismatch, stream: " + streamId);
+				++this.errors;
+				this.discardPartial(index);
+				return null;
+			}
+		}
+		else {
+			if (totalLength > this.maxMessageSize || this.numPartials >= MAX_PARTIALS) {
+				// 对端没有遵守协商的消息长度或者交错发送的消息数量
+				Logger.w(FrameAccumulator.class, "Fragment exceeds limits, stream: " + streamId + ", length: " + totalLength);
+				this.oversized = true;
+				return null;
+			}
+
+			if (totalLength <= 0 || fragmentLength > totalLength) {
+				Logger.w(FrameAccumulator.class, "Discard fragment, stream: " + streamId + ", length: " + totalLength);
+				++this.errors;
+				return null;
+			}
+
+			partial = new Partial(streamId, totalLength);
+			this.partials[this.numPartials++] = partial;
+		}
+
+		// 容量不足时扩容，新容量至少翻倍且不超过消息总长度
+		int required = partial.filled + fragmentLength;
+		int current = (null == partial.message) ? 0 : partial.message.length();
+		if (required > current) {
+			int grown = Math.min(totalLength, Math.max(required, Math.max(current << 1, MessageFragmenter.FRAGMENT_SIZE << 1)));
+			Message message = new Message(this.pool, grown);
+			if (null != partial.message) {
+				System.arraycopy(partial.message.array(), partial.message.offset(), message.array(), message.offset(), partial.filled);
+				partial.message.release();
+			}
+			partial.message = message;
+		}
+
+		Message message = partial.message;
+		int capacity = this.buffer.length;
+		int start = (this.head + cursor) & (capacity - 1);
+		int first = Math.min(fragmentLength, capacity - start);
+		int dest = message.offset() + partial.filled;
+		System.arraycopy(this.buffer, start, message.array(), dest, first);
+		if (first < fragmentLength) {
+			System.arraycopy(this.buffer, 0, message.array(), dest + first, fragmentLength - first);
+		}
+		partial.filled += fragmentLength;
+
+		if (partial.filled == totalLength) {
+			// 最后一次扩容以总长度为上限，此时缓冲长度与消息长度一致
+			return this.removePartial(index);
+		}
+
+		return null;
+	}
+
+	/**
+	 * 解析变长整数。
+	 * 
+	 * @param index 指定相对于读位置的起始索引。
+	 * @param end 指定结束索引。
+	 * @return 高 32 位为变长整数之后的索引，低 32 位为数值。数据不完整或者无效时返回 <code>-1</code> 。
+	 */
+	private long parseVarint(int index, int end) {
+		int value = 0;
+		int shift = 0;
+		int cursor = index;
+		while (true) {
+			if (cursor >= end || shift > 28) {
+				return -1;
+			}
+
+			byte b = this.byteAt(cursor++);
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				break;
+			}
+
+			shift += 7;
+		}
+
+		return ((long) cursor << 32) | (value & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * 丢弃指定索引的重组消息并归还其缓冲。
+	 * 
+	 * @param index 指定索引。
+	 */
+	private void discardPartial(int index) {
+		Message message = this.removePartial(index);
+		if (null != message) {
+			message.release();
+		}
+	}
+
+	/**
+	 * 移除指定索引的重组消息，由最后一条消息填补位置。
+	 * 
+	 * @param index 指定索引。
+	 * @return 返回被移除的重组消息的缓冲，尚未分配时返回 <code>null</code> 。
+	 */
+	private Message removePartial(int index) {
+		Partial partial = this.partials[index];
+		--this.numPartials;
+		this.partials[index] = this.partials[this.numPartials];
+		this.partials[this.numPartials] = null;
+		return partial.message;
+	}
+
+	/**
+	 * 生成帧消息。
+	 * 
+	 * @param offset 指定相对于读位置的偏移。
+	 * @param length 指定帧长度。
+	 * @param detach 指定是否复制到独立的缓冲。
+	 * @return 返回帧消息。
+	 */
+	private Message slice(int offset, int length, boolean detach) {
+		int capacity = this.buffer.length;
+		int start = (this.head + offset) & (capacity - 1);
+
+		if (!detach && start + length <= capacity) {
+			// 连续存储，直接返回切片
+			return new Message(this.buffer, start, length);
+		}
+
+		Message message = new Message(this.pool, length);
+		int first = Math.min(length, capacity - start);
+		System.arraycopy(this.buffer, start, message.array(), message.offset(), first);
+		if (first < length) {
+			System.arraycopy(this.buffer, 0, message.array(), message.offset() + first, length - first);
+		}
+		return message;
+	}
+
+	/**
+	 * 跳过指定长度的数据。
+	 * 
+	 * @param length 指定长度。
+	 */
+	private void skip(int length) {
+		this.head = (this.head + length) & (this.buffer.length - 1);
+		this.size -= length;
+		this.scanFrom = 0;
+	}
+
+	/**
+	 * 返回从指定位置开始的连续可写空间。
+	 * 
+	 * @param tail 指定写位置。
+	 * @return 返回连续可写空间大小。
+	 */
+	private int contiguousSpace(int tail) {
+		if (this.size == 0) {
+			return this.buffer.length - tail;
+		}
+
+		return (tail >= this.head) ? this.buffer.length - tail : this.head - tail;
+	}
+
+	/**
+	 * 根据需要写入的数据量调整容量。空间不足时成倍扩容，持续低占用时减半缩容。
+	 * 
+	 * @param required 指定需要的可用空间。
+	 */
+	private void adjustCapacity(int required) {
+		int capacity = this.buffer.length;
+
+		if (this.size == 0) {
+			this.head = 0;
+		}
+
+		if (capacity - this.size < required) {
+			int newCapacity = capacity;
+			while (newCapacity - this.size < required) {
+				newCapacity <<= 1;
+			}
+			this.resize(newCapacity);
+			this.lowWatermarkCount = 0;
+			return;
+		}
+
+		if (capacity > this.initialCapacity && this.size + required < (capacity >> 2)) {
+			if (++this.lowWatermarkCount >= SHRINK_THRESHOLD) {
+				this.resize(capacity >> 1);
+				this.lowWatermarkCount = 0;
+			}
+		}
+		else {
+			this.lowWatermarkCount = 0;
+		}
+	}
+
+	/**
+	 * 重新分配缓冲并将数据移动到缓冲头部。
+	 * 
+	 * @param newCapacity 指定新容量。
+	 */
+	private void resize(int newCapacity) {
+		byte[] newBuffer = new byte[newCapacity];
+		int capacity = this.buffer.length;
+		int first = Math.min(this.size, capacity - this.head);
+		System.arraycopy(this.buffer, this.head, newBuffer, 0, first);
+		if (first < this.size) {
+			System.arraycopy(this.buffer, 0, newBuffer, first, this.size - first);
+		}
+
+		this.buffer = newBuffer;
+		this.view = ByteBuffer.wrap(newBuffer);
+		this.head = 0;
+	}
+
+	/**
+	 * 正在重组的消息。
+	 */
+	private static final class Partial {
+
+		protected final int streamId;
+		protected final int totalLength;
+		protected Message message;
+		protected int filled;
+
+		protected Partial(int streamId, int totalLength) {
+			this.streamId = streamId;
+			this.totalLength = totalLength;
+			this.message = null;
+			this.filled = 0;
+		}
+	}
+
+}
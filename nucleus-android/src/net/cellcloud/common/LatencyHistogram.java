@@ -0,0 +1,211 @@
+/*
+-----------------------------------------------------------------------------
+This source file is part of Cell Cloud.
+
+Copyright (c) 2009-2017 Cell Cloud Team (www.cellcloud.net)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+-----------------------------------------------------------------------------
+*/
+
+package net.cellcloud.common;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 延迟直方图。
+ * 
+ * 采用与 HdrHistogram 相同的对数线性分桶：每个 2 的幂次区间再均分为 16 个子桶，
+ * 相对误差不超过 6.25% 。记录操作只进行原子加法，不加锁。
+ * 
+ * @author Ambrose Xu
+ * 
+ */
+public final class LatencyHistogram {
+
+	/** 子桶位数。 */
+	private final static int SUB_BUCKET_BITS = 4;
+	/** 子桶数量。 */
+	private final static int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	/** 桶数量，覆盖全部非负 long 值。 */
+	private final static int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts;
+	private final StripedCounter total;
+	private final StripedCounter sum;
+	private final AtomicLong max;
+
+	public LatencyHistogram() {
+		this.counts = new AtomicLongArray(BUCKETS);
+		this.total = new StripedCounter();
+		this.sum = new StripedCounter();
+		this.max = new AtomicLong(0);
+	}
+
+	/**
+	 * 记录一个数值。
+	 * 
+	 * @param value 指定数值，负数按 0 记录。
+	 */
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+
+		this.counts.incrementAndGet(bucketIndex(value));
+		this.total.increment();
+		this.sum.add(value);
+
+		long current = this.max.get();
+		while (value > current) {
+			if (this.max.compareAndSet(current, value)) {
+				break;
+			}
+			current = this.max.get();
+		}
+	}
+
+	/**
+	 * 重置直方图。
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; ++i) {
+			this.counts.set(i, 0);
+		}
+		this.total.reset();
+		this.sum.reset();
+		this.max.set(0);
+	}
+
+	/**
+	 * 生成当前数据的快照。
+	 * 
+	 * @return
+	 */
+	public Snapshot snapshot() {
+		long[] copy = new long[BUCKETS];
+		long count = 0;
+		for (int i = 0; i < BUCKETS; ++i) {
+			copy[i] = this.counts.get(i);
+			count += copy[i];
+		}
+		return new Snapshot(copy, count, this.sum.sum(), this.max.get());
+	}
+
+	/**
+	 * 计算数值所在的桶。
+	 */
+	private static int bucketIndex(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	/**
+	 * 返回桶内数值的上界。
+	 */
+	private static long bucketUpperBound(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+
+		int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		int sub = index % SUB_BUCKETS;
+		int shift = exponent - SUB_BUCKET_BITS;
+		return (((long) (SUB_BUCKETS + sub)) << shift) + (1L << shift) - 1;
+	}
+
+	/**
+	 * 直方图快照。
+	 */
+	public final static class Snapshot {
+
+		private final long[] counts;
+		private final long count;
+		private final long sum;
+		private final long max;
+
+		private Snapshot(long[] counts, long count, long sum, long max) {
+			this.counts = counts;
+			this.count = count;
+			this.sum = sum;
+			this.max = max;
+		}
+
+		/**
+		 * 返回记录数量。
+		 * 
+		 * @return
+		 */
+		public long getCount() {
+			return this.count;
+		}
+
+		/**
+		 * 返回最大值。
+		 * 
+		 * @return
+		 */
+		public long getMax() {
+			return this.max;
+		}
+
+		/**
+		 * 返回平均值。
+		 * 
+		 * @return
+		 */
+		public double getMean() {
+			return (this.count > 0) ? ((double) this.sum / (double) this.count) : 0;
+		}
+
+		/**
+		 * 返回指定百分位的数值。
+		 * 
+		 * @param percentile 指定百分位，取值范围 0 到 100 。
+		 * @return 返回该百分位所在桶的上界，不超过最大值。
+		 */
+		public long getValueAtPercentile(double percentile) {
+			if (this.count == 0) {
+				return 0;
+			}
+
+			long target = (long) Math.ceil(this.count * Math.min(100.0, Math.max(0.0, percentile)) / 100.0);
+			if (target < 1) {
+				target = 1;
+			}
+
+			long seen = 0;
+			for (int i = 0; i < this.counts.length; ++i) {
+				seen += this.counts[i];
+				if (seen >= target) {
+					return Math.min(bucketUpperBound(i), this.max);
+				}
+			}
+
+			return this.max;
+		}
+	}
+
+}
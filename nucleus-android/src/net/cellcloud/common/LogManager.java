@@ -28,6 +28,7 @@ package net.cellcloud.common;
 
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.Locale;
 
 import android.util.Log;
@@ -60,7 +61,13 @@ public final class LogManager {
 		this.handles = new ArrayList<LogHandle>();
 		this.level = LogLevel.DEBUG;
 
-		this.handles.add(createAndroidHandle());
+		// 非 Android 虚拟机上输出到控制台
+		if ("Dalvik".equals(System.getProperty("java.vm.name"))) {
+			this.handles.add(createAndroidHandle());
+		}
+		else {
+			this.handles.add(createConsoleHandle());
+		}
 	}
 
 	/**
@@ -214,4 +221,50 @@ public final class LogManager {
 		};
 	}
 
+	/**
+	 * 创建控制台日志处理器。
+	 * 
+	 * @return 返回日志处理器。
+	 */
+	public static LogHandle createConsoleHandle() {
+		return new LogHandle() {
+
+			private String name = "CellConsoleLog";
+
+			@Override
+			public String getName() {
+				return this.name;
+			}
+
+			@Override
+			public void logDebug(String tag, String log) {
+				System.out.println(this.format("D", tag, log));
+			}
+
+			@Override
+			public void logInfo(String tag, String log) {
+				System.out.println(this.format("I", tag, log));
+			}
+
+			@Override
+			public void logWarning(String tag, String log) {
+				System.err.println(this.format("W", tag, log));
+			}
+
+			@Override
+			public void logError(String tag, String log) {
+				System.err.println(this.format("E", tag, log));
+			}
+
+			private String format(String level, String tag, String log) {
+				StringBuilder buf = new StringBuilder();
+				synchronized (timeFormat) {
+					buf.append(timeFormat.format(new Date()));
+				}
+				buf.append(" [").append(level).append("] ").append(tag).append(": ").append(log);
+				return buf.toString();
+			}
+		};
+	}
+
 }
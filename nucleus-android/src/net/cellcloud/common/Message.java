@@ -26,6 +26,8 @@ THE SOFTWARE.
 
 package net.cellcloud.common;
 
+import java.nio.ByteBuffer;
+
 /**
  * 消息描述类。
  * 
@@ -34,10 +36,25 @@ package net.cellcloud.common;
  */
 public class Message {
 
+	private static final byte[] EMPTY = new byte[0];
+
 	private byte[] data;
+	private int offset;
+	private int length;
+
+	/** 数据所在的池化缓冲，非池化消息为 <code>null</code> 。 */
+	private ByteBuffer buffer;
+	/** 池化缓冲所属的缓冲池。 */
+	private BufferPool pool;
 
 	private Object context;
 
+	/** 计入会话待写数据的长度。 */
+	private int pendingLength;
+
+	/** 进入发送队列的时间，单位：纳秒。未记录指标时为 <code>0</code> 。 */
+	private long queuedTime;
+
 	/**
 	 * 构造函数。
 	 * 
@@ -45,24 +62,91 @@ public class Message {
 	 */
 	public Message(byte[] data) {
 		this.data = data;
+		this.offset = 0;
+		this.length = data.length;
+	}
+
+	/**
+	 * 构造函数。消息数据为指定数组的一部分，不进行复制。
+	 * 
+	 * @param data 指定存储消息数据的数组。
+	 * @param offset 指定消息数据偏移。
+	 * @param length 指定消息数据长度。
+	 */
+	public Message(byte[] data, int offset, int length) {
+		this.data = data;
+		this.offset = offset;
+		this.length = length;
+	}
+
+	/**
+	 * 构造函数。从缓冲池借出指定长度的缓冲，由调用者通过 {@link #array()} 和 {@link #offset()} 填充数据。
+	 * 
+	 * @param pool 指定缓冲池，必须是堆内存缓冲池。
+	 * @param length 指定数据长度。
+	 */
+	public Message(BufferPool pool, int length) {
+		this.pool = pool;
+		this.buffer = pool.borrow(length);
+		this.data = this.buffer.array();
+		this.offset = this.buffer.arrayOffset();
+		this.length = length;
+	}
+
+	/**
+	 * 构造函数。从缓冲池借出缓冲并复制指定数据。
+	 * 
+	 * @param pool 指定缓冲池，必须是堆内存缓冲池。
+	 * @param source 指定源数据。
+	 * @param offset 指定源数据偏移。
+	 * @param length 指定数据长度。
+	 */
+	public Message(BufferPool pool, byte[] source, int offset, int length) {
+		this(pool, length);
+		System.arraycopy(source, offset, this.data, this.offset, length);
 	}
 
 	/**
 	 * 返回消息数据。
 	 * 
+	 * 对于池化消息，此方法会将数据复制到独立的数组并归还池化缓冲。
+	 * 
 	 * @return 返回消息数据。
 	 */
 	public byte[] get() {
+		if (this.offset != 0 || this.length != this.data.length) {
+			byte[] copy = new byte[this.length];
+			System.arraycopy(this.data, this.offset, copy, 0, this.length);
+			this.release();
+			this.data = copy;
+			this.offset = 0;
+		}
+
 		return this.data;
 	}
 
+	/**
+	 * 将池化消息的数据复制到独立的数组并归还池化缓冲。非池化消息调用此方法无效果，
+	 * 引用数组一部分的消息也不会被复制。
+	 * 
+	 * 池化缓冲在处理器返回后会被归还，消息需要进入发送队列时先调用此方法。
+	 */
+	public void detach() {
+		if (null != this.buffer) {
+			this.get();
+		}
+	}
+
 	/**
 	 * 设置新数据。
 	 * 
 	 * @param newData 新的消息数据。
 	 */
-	protected void set(byte[] newData) {
+	public void set(byte[] newData) {
+		this.release();
 		this.data = newData;
+		this.offset = 0;
+		this.length = newData.length;
 	}
 
 	/**
@@ -71,7 +155,84 @@ public class Message {
 	 * @return 返回消息数据长度。
 	 */
 	public int length() {
-		return this.data.length;
+		return this.length;
+	}
+
+	/**
+	 * 返回存储消息数据的数组，数据从 {@link #offset()} 开始，长度为 {@link #length()} 。
+	 * 
+	 * @return 返回存储消息数据的数组。
+	 */
+	public byte[] array() {
+		return this.data;
+	}
+
+	/**
+	 * 返回消息数据在数组里的偏移。
+	 * 
+	 * @return 返回消息数据在数组里的偏移。
+	 */
+	public int offset() {
+		return this.offset;
+	}
+
+	/**
+	 * 是否是池化消息。
+	 * 
+	 * @return 如果消息数据存储在池化缓冲里返回 <code>true</code> 。
+	 */
+	public boolean isPooled() {
+		return (null != this.buffer);
+	}
+
+	/**
+	 * 归还池化缓冲。归还后消息数据不再可用。非池化消息调用此方法无效果。
+	 */
+	public void release() {
+		if (null != this.buffer) {
+			this.pool.release(this.buffer);
+			this.buffer = null;
+			this.pool = null;
+			this.data = EMPTY;
+			this.offset = 0;
+			this.length = 0;
+		}
+	}
+
+	/**
+	 * 记录计入会话待写数据的长度。消息在发送前可能被压缩，扣减时使用记录的长度。
+	 * 
+	 * @param length 指定长度。
+	 */
+	protected void setPendingLength(int length) {
+		this.pendingLength = length;
+	}
+
+	/**
+	 * 返回计入会话待写数据的长度。
+	 * 
+	 * @return
+	 */
+	protected int getPendingLength() {
+		return this.pendingLength;
+	}
+
+	/**
+	 * 记录进入发送队列的时间。
+	 * 
+	 * @param nanos 指定以纳秒为单位的时间。
+	 */
+	protected void setQueuedTime(long nanos) {
+		this.queuedTime = nanos;
+	}
+
+	/**
+	 * 返回进入发送队列的时间。
+	 * 
+	 * @return
+	 */
+	protected long getQueuedTime() {
+		return this.queuedTime;
 	}
 
 	/**
@@ -0,0 +1,632 @@
+/*
+-----------------------------------------------------------------------------
+This source file is part of Cell Cloud.
+
+Copyright (c) 2009-2017 Cell Cloud Team (www.cellcloud.net)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+-----------------------------------------------------------------------------
+*/
+
+package net.cellcloud.common;
+
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 会话消息压缩器。
+ * 
+ * 压缩后的消息以 {@link #MAGIC} 开头，随后是算法编号和原始长度，接收端据此识别并解压，
+ * 无需预先知道对端是否启用压缩。发送和接收各自维护流式字典，同一会话内重复出现的内容
+ * 可以被后续消息引用，因此压缩和解压必须分别按照消息在连接上的顺序进行。
+ * 
+ * @author Ambrose Xu
+ * 
+ */
+public final class MessageCompressor {
+
+	/** 不压缩。 */
+	public final static int NONE = 0;
+	/** Deflate 算法，压缩率较高。 */
+	public final static int DEFLATE = 1;
+	/** LZ 算法，速度较快。 */
+	public final static int LZ = 2;
+
+	/** 默认的压缩阈值，小于该长度的消息不压缩。 */
+	public final static int DEFAULT_THRESHOLD = 64;
+
+	/** 压缩数据标识。 */
+	public final static byte MAGIC = (byte) 0xC7;
+
+	/** 压缩数据头长度：标识、算法、原始长度。 */
+	private final static int HEADER_LENGTH = 6;
+
+	/** LZ 字典窗口大小。 */
+	private final static int WINDOW = 65535;
+	/** LZ 最短匹配长度。 */
+	private final static int MIN_MATCH = 4;
+	/** LZ 哈希表位数。 */
+	private final static int HASH_LOG = 14;
+	/** LZ 编码器绝对位置重置阈值。 */
+	private final static int REBASE_LIMIT = 1 << 30;
+
+	/** 发送数据使用的算法。 */
+	private volatile int algorithm = NONE;
+	/** 压缩阈值。 */
+	private volatile int threshold = DEFAULT_THRESHOLD;
+
+	private Deflater deflater;
+	private Inflater inflater;
+	private byte[] deflateBuffer;
+
+	/** LZ 编码字典。 */
+	private byte[] encodeWindow;
+	/** LZ 编码字典长度。 */
+	private int encodeLength = 0;
+	/** LZ 编码字典首字节的绝对位置。 */
+	private int encodeBase = 0;
+	/** LZ 编码哈希表，存储绝对位置加一。 */
+	private int[] hashTable;
+
+	/** LZ 解码字典。 */
+	private byte[] decodeWindow;
+	/** LZ 解码字典长度。 */
+	private int decodeLength = 0;
+
+	/** 参与压缩的原始字节数。 */
+	private volatile long rawBytes = 0;
+	/** 压缩后的字节数。 */
+	private volatile long compressedBytes = 0;
+	/** 压缩耗时，单位：纳秒。 */
+	private volatile long compressTime = 0;
+	/** 解压前的字节数。 */
+	private volatile long inflatedInput = 0;
+	/** 解压后的字节数。 */
+	private volatile long inflatedOutput = 0;
+	/** 解压耗时，单位：纳秒。 */
+	private volatile long decompressTime = 0;
+
+	public MessageCompressor() {
+	}
+
+	/**
+	 * 设置发送数据使用的算法和压缩阈值。
+	 * 
+	 * @param algorithm 指定算法，{@link #NONE} 表示不压缩。
+	 * @param threshold 指定压缩阈值。
+	 */
+	public void setAlgorithm(int algorithm, int threshold) {
+		this.algorithm = (algorithm == DEFLATE || algorithm == LZ) ? algorithm : NONE;
+		this.threshold = Math.max(threshold, HEADER_LENGTH + 1);
+	}
+
+	/**
+	 * 返回发送数据使用的算法。
+	 * 
+	 * @return
+	 */
+	public int getAlgorithm() {
+		return this.algorithm;
+	}
+
+	/**
+	 * 返回压缩阈值。
+	 * 
+	 * @return
+	 */
+	public int getThreshold() {
+		return this.threshold;
+	}
+
+	/**
+	 * 返回压缩率，即压缩后字节数与原始字节数之比。
+	 * 
+	 * @return
+	 */
+	public double getCompressionRatio() {
+		long raw = this.rawBytes;
+		return (raw > 0) ? ((double) this.compressedBytes / (double) raw) : 1.0;
+	}
+
+	/**
+	 * 返回参与压缩的原始字节数。
+	 * 
+	 * @return
+	 */
+	public long getRawBytes() {
+		return this.rawBytes;
+	}
+
+	/**
+	 * 返回压缩后的字节数。
+	 * 
+	 * @return
+	 */
+	public long getCompressedBytes() {
+		return this.compressedBytes;
+	}
+
+	/**
+	 * 返回压缩耗时，单位：纳秒。
+	 * 
+	 * @return
+	 */
+	public long getCompressTime() {
+		return this.compressTime;
+	}
+
+	/**
+	 * 返回解压后的字节数。
+	 * 
+	 * @return
+	 */
+	public long getInflatedBytes() {
+		return this.inflatedOutput;
+	}
+
+	/**
+	 * 返回解压耗时，单位：纳秒。
+	 * 
+	 * @return
+	 */
+	public long getDecompressTime() {
+		return this.decompressTime;
+	}
+
+	/**
+	 * 判断消息是否是压缩数据。
+	 * 
+	 * @param message 指定消息。
+	 * @return
+	 */
+	public static boolean isCompressed(Message message) {
+		if (message.length() < HEADER_LENGTH) {
+			return false;
+		}
+
+		byte[] data = message.array();
+		int off = message.offset();
+		return (data[off] == MAGIC && (data[off + 1] == DEFLATE || data[off + 1] == LZ));
+	}
+
+	/**
+	 * 按当前算法压缩消息。未启用压缩或消息长度小于阈值时不处理。
+	 * 
+	 * @param message 指定消息。
+	 */
+	public void compress(Message message) {
+		int algorithm = this.algorithm;
+		int length = message.length();
+		if (algorithm == NONE || length < this.threshold) {
+			return;
+		}
+
+		long time = System.nanoTime();
+
+		byte[] out = null;
+		if (algorithm == DEFLATE) {
+			out = this.deflate(message.array(), message.offset(), length);
+		}
+		else {
+			out = this.encodeLZ(message.array(), message.offset(), length);
+		}
+
+		if (null == out) {
+			// 压缩无收益，保持原始数据
+			this.rawBytes += length;
+			this.compressedBytes += length;
+		}
+		else {
+			this.rawBytes += length;
+			this.compressedBytes += out.length;
+			message.set(out);
+		}
+
+		this.compressTime += System.nanoTime() - time;
+	}
+
+	/**
+	 * 解压消息。消息不是压缩数据时不处理。
+	 * 
+	 * @param message 指定消息。
+	 * @return 如果数据损坏返回 <code>false</code> 。
+	 */
+	public boolean decompress(Message message) {
+		if (!isCompressed(message)) {
+			return true;
+		}
+
+		long time = System.nanoTime();
+
+		byte[] data = message.array();
+		int off = message.offset();
+		int length = message.length();
+		int rawLength = readInt(data, off + 2);
+		if (rawLength < 0) {
+			return false;
+		}
+
+		byte[] out = null;
+		if (data[off + 1] == DEFLATE) {
+			out = this.inflate(data, off + HEADER_LENGTH, length - HEADER_LENGTH, rawLength);
+		}
+		else {
+			out = this.decodeLZ(data, off + HEADER_LENGTH, length - HEADER_LENGTH, rawLength);
+		}
+
+		if (null == out) {
+			return false;
+		}
+
+		this.inflatedInput += length;
+		this.inflatedOutput += rawLength;
+		message.set(out);
+
+		this.decompressTime += System.nanoTime() - time;
+		return true;
+	}
+
+	/**
+	 * 使用 Deflate 压缩数据。每条消息以同步刷新结束，字典在消息之间保留。
+	 */
+	private byte[] deflate(byte[] data, int offset, int length) {
+		if (null == this.deflater) {
+			this.deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+			this.deflateBuffer = new byte[4096];
+		}
+
+		byte[] buf = this.deflateBuffer;
+		int pos = HEADER_LENGTH;
+
+		this.deflater.setInput(data, offset, length);
+		while (true) {
+			int n = this.deflater.deflate(buf, pos, buf.length - pos, Deflater.SYNC_FLUSH);
+			pos += n;
+			if (pos < buf.length) {
+				break;
+			}
+
+			byte[] larger = new byte[buf.length * 2];
+			System.arraycopy(buf, 0, larger, 0, pos);
+			buf = larger;
+		}
+
+		if (buf.length <= 65536) {
+			this.deflateBuffer = buf;
+		}
+
+		// 字典状态已经更新，即使压缩无收益也必须发送压缩数据
+		byte[] out = new byte[pos];
+		System.arraycopy(buf, HEADER_LENGTH, out, HEADER_LENGTH, pos - HEADER_LENGTH);
+		writeHeader(out, DEFLATE, length);
+		return out;
+	}
+
+	/**
+	 * 解压 Deflate 数据。
+	 */
+	private byte[] inflate(byte[] data, int offset, int length, int rawLength) {
+		if (null == this.inflater) {
+			this.inflater = new Inflater(true);
+		}
+
+		byte[] out = new byte[rawLength];
+		this.inflater.setInput(data, offset, length);
+		try {
+			int pos = 0;
+			while (pos < rawLength) {
+				int n = this.inflater.inflate(out, pos, rawLength - pos);
+				if (n == 0 && (this.inflater.needsInput() || this.inflater.needsDictionary() || this.inflater.finished())) {
+					return null;
+				}
+				pos += n;
+			}
+		} catch (DataFormatException e) {
+			Logger.log(MessageCompressor.class, e, LogLevel.WARNING);
+			return null;
+		}
+
+		return out;
+	}
+
+	/**
+	 * 使用 LZ 算法压缩数据。匹配可以引用之前压缩过的消息内容。
+	 * 
+	 * 序列格式：令牌（高 4 位字面量长度，低 4 位匹配长度减 4）、扩展字面量长度、字面量、
+	 * 偏移（2 字节小端）、扩展匹配长度。最后一个序列只有字面量。
+	 * 
+	 * @return 压缩无收益时返回 <code>null</code> 。
+	 */
+	private byte[] encodeLZ(byte[] data, int offset, int length) {
+		if (null == this.hashTable) {
+			this.hashTable = new int[1 << HASH_LOG];
+			this.encodeWindow = new byte[WINDOW * 2];
+		}
+
+		this.prepareEncodeWindow(length);
+
+		byte[] buf = this.encodeWindow;
+		int[] table = this.hashTable;
+		int base = this.encodeBase;
+		int start = this.encodeLength;
+		int end = start + length;
+		System.arraycopy(data, offset, buf, start, length);
+
+		// 最坏情况下全部为字面量
+		byte[] out = new byte[HEADER_LENGTH + length + length / 255 + 16];
+		int op = HEADER_LENGTH;
+		int anchor = start;
+		int i = start;
+
+		while (i + MIN_MATCH <= end) {
+			int seq = readIntLE(buf, i);
+			int h = (seq * -1640531535) >>> (32 - HASH_LOG);
+			int ref = table[h] - 1 - base;
+			table[h] = base + i + 1;
+
+			if (ref < 0 || ref >= i || i - ref > WINDOW || readIntLE(buf, ref) != seq) {
+				++i;
+				continue;
+			}
+
+			int matchLength = MIN_MATCH;
+			while (i + matchLength < end && buf[ref + matchLength] == buf[i + matchLength]) {
+				++matchLength;
+			}
+
+			op = writeSequence(out, op, buf, anchor, i - anchor, i - ref, matchLength);
+			if (op < 0 || op >= length) {
+				return null;
+			}
+
+			i += matchLength;
+			anchor = i;
+		}
+
+		op = writeSequence(out, op, buf, anchor, end - anchor, 0, 0);
+		if (op < 0 || op >= length) {
+			return null;
+		}
+
+		// 压缩数据被采用，更新字典
+		this.encodeLength = end;
+
+		byte[] result = new byte[op];
+		System.arraycopy(out, 0, result, 0, op);
+		writeHeader(result, LZ, length);
+		return result;
+	}
+
+	/**
+	 * 保证编码字典之后有足够空间放置待压缩数据，必要时只保留最近窗口内的数据。
+	 */
+	private void prepareEncodeWindow(int length) {
+		if (this.encodeLength + length <= this.encodeWindow.length) {
+			return;
+		}
+
+		int keep = Math.min(this.encodeLength, WINDOW);
+		int drop = this.encodeLength - keep;
+		System.arraycopy(this.encodeWindow, drop, this.encodeWindow, 0, keep);
+		this.encodeLength = keep;
+		this.encodeBase += drop;
+
+		if (keep + length > this.encodeWindow.length) {
+			byte[] larger = new byte[keep + length + WINDOW];
+			System.arraycopy(this.encodeWindow, 0, larger, 0, keep);
+			this.encodeWindow = larger;
+		}
+
+		if (this.encodeBase > REBASE_LIMIT) {
+			// 重置绝对位置，丢弃哈希表里的旧位置
+			Arrays.fill(this.hashTable, 0);
+			this.encodeBase = 0;
+		}
+	}
+
+	/**
+	 * 解压 LZ 数据。
+	 */
+	private byte[] decodeLZ(byte[] data, int offset, int length, int rawLength) {
+		if (null == this.decodeWindow) {
+			this.decodeWindow = new byte[WINDOW * 2];
+		}
+
+		if (this.decodeLength + rawLength > this.decodeWindow.length) {
+			int keep = Math.min(this.decodeLength, WINDOW);
+			int size = Math.max(this.decodeWindow.length, keep + rawLength);
+			byte[] window = (size == this.decodeWindow.length) ? this.decodeWindow : new byte[size];
+			System.arraycopy(this.decodeWindow, this.decodeLength - keep, window, 0, keep);
+			this.decodeWindow = window;
+			this.decodeLength = keep;
+		}
+
+		byte[] buf = this.decodeWindow;
+		int start = this.decodeLength;
+		int end = start + rawLength;
+		int op = start;
+		int ip = offset;
+		int ipEnd = offset + length;
+
+		while (ip < ipEnd) {
+			int token = data[ip++] & 0xFF;
+
+			// 字面量
+			int literals = token >>> 4;
+			if (literals == 15) {
+				int b;
+				do {
+					if (ip >= ipEnd) {
+						return null;
+					}
+					b = data[ip++] & 0xFF;
+					literals += b;
+				} while (b == 255);
+			}
+
+			if (ip + literals > ipEnd || op + literals > end) {
+				return null;
+			}
+			System.arraycopy(data, ip, buf, op, literals);
+			ip += literals;
+			op += literals;
+
+			if (ip >= ipEnd) {
+				// 最后一个序列
+				break;
+			}
+
+			// 匹配
+			if (ip + 2 > ipEnd) {
+				return null;
+			}
+			int distance = (data[ip] & 0xFF) | ((data[ip + 1] & 0xFF) << 8);
+			ip += 2;
+
+			int matchLength = token & 0x0F;
+			if (matchLength == 15) {
+				int b;
+				do {
+					if (ip >= ipEnd) {
+						return null;
+					}
+					b = data[ip++] & 0xFF;
+					matchLength += b;
+				} while (b == 255);
+			}
+			matchLength += MIN_MATCH;
+
+			int ref = op - distance;
+			if (distance == 0 || ref < 0 || op + matchLength > end) {
+				return null;
+			}
+
+			for (int i = 0; i < matchLength; ++i) {
+				buf[op + i] = buf[ref + i];
+			}
+			op += matchLength;
+		}
+
+		if (op != end) {
+			return null;
+		}
+
+		this.decodeLength = end;
+
+		byte[] out = new byte[rawLength];
+		System.arraycopy(buf, start, out, 0, rawLength);
+		return out;
+	}
+
+	/**
+	 * 写入一个 LZ 序列。
+	 * 
+	 * @return 返回写入后的位置，空间不足时返回 <code>-1</code> 。
+	 */
+	private static int writeSequence(byte[] out, int op, byte[] src, int literalStart, int literals,
+			int distance, int matchLength) {
+		if (op + 1 + literals / 255 + 1 + literals + 2 + (matchLength / 255) + 1 > out.length) {
+			return -1;
+		}
+
+		int tokenPos = op++;
+		int token = 0;
+
+		if (literals >= 15) {
+			token = 15 << 4;
+			int rest = literals - 15;
+			while (rest >= 255) {
+				out[op++] = (byte) 255;
+				rest -= 255;
+			}
+			out[op++] = (byte) rest;
+		}
+		else {
+			token = literals << 4;
+		}
+
+		System.arraycopy(src, literalStart, out, op, literals);
+		op += literals;
+
+		if (matchLength > 0) {
+			out[op++] = (byte) distance;
+			out[op++] = (byte) (distance >>> 8);
+
+			int rest = matchLength - MIN_MATCH;
+			if (rest >= 15) {
+				token |= 15;
+				rest -= 15;
+				while (rest >= 255) {
+					out[op++] = (byte) 255;
+					rest -= 255;
+				}
+				out[op++] = (byte) rest;
+			}
+			else {
+				token |= rest;
+			}
+		}
+
+		out[tokenPos] = (byte) token;
+		return op;
+	}
+
+	private static void writeHeader(byte[] out, int algorithm, int rawLength) {
+		out[0] = MAGIC;
+		out[1] = (byte) algorithm;
+		out[2] = (byte) (rawLength >>> 24);
+		out[3] = (byte) (rawLength >>> 16);
+		out[4] = (byte) (rawLength >>> 8);
+		out[5] = (byte) rawLength;
+	}
+
+	private static int readInt(byte[] data, int offset) {
+		return ((data[offset] & 0xFF) << 24) | ((data[offset + 1] & 0xFF) << 16)
+				| ((data[offset + 2] & 0xFF) << 8) | (data[offset + 3] & 0xFF);
+	}
+
+	private static int readIntLE(byte[] data, int offset) {
+		return (data[offset] & 0xFF) | ((data[offset + 1] & 0xFF) << 8)
+				| ((data[offset + 2] & 0xFF) << 16) | ((data[offset + 3] & 0xFF) << 24);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder buf = new StringBuilder();
+		buf.append("algorithm=");
+		buf.append(this.algorithm == DEFLATE ? "deflate" : (this.algorithm == LZ ? "lz" : "none"));
+		buf.append(" ratio=");
+		buf.append(String.format("%.3f", this.getCompressionRatio()));
+		buf.append(" raw=");
+		buf.append(this.rawBytes);
+		buf.append(" compressed=");
+		buf.append(this.compressedBytes);
+		buf.append(" compressTime=");
+		buf.append(this.compressTime / 1000000L);
+		buf.append("ms inflated=");
+		buf.append(this.inflatedOutput);
+		buf.append(" decompressTime=");
+		buf.append(this.decompressTime / 1000000L);
+		buf.append("ms");
+		return buf.toString();
+	}
+
+}
@@ -66,6 +66,10 @@ public final class MessageErrorCode {
 	public static final int READ_FAILED = 404;
 	/** 写数据越界 */
 	public static final int WRITE_OUTOFBOUNDS = 405;
+	/** 待写队列已满。 */
+	public static final int WRITE_QUEUE_FULL = 406;
+	/** 接收的消息超过允许的最大长度。 */
+	public static final int READ_OUTOFBOUNDS = 408;
 
 	/** 无网络连接。 */
 	public static final int NO_NETWORK = 700;
@@ -0,0 +1,56 @@
+/*
+-----------------------------------------------------------------------------
+This source file is part of Cell Cloud.
+
+Copyright (c) 2009-2017 Cell Cloud Team (www.cellcloud.net)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+-----------------------------------------------------------------------------
+*/
+
+package net.cellcloud.common;
+
+/**
+ * 消息过滤器。过滤器按顺序组成 {@link MessageFilterChain} ，发送消息时正序执行，接收消息时逆序执行。
+ * 
+ * 过滤器直接操作消息的数据数组，可以原地修改数据，也可以通过 {@link Message#set(byte[])} 替换数据。
+ * 
+ * @author Ambrose Xu
+ * 
+ */
+public interface MessageFilter {
+
+	/**
+	 * 处理待发送的消息。在发送线程里按消息的发送顺序调用。
+	 * 
+	 * @param session 指定会话。
+	 * @param message 指定消息。
+	 */
+	public void filterWrite(Session session, Message message);
+
+	/**
+	 * 处理接收到的消息。按消息的接收顺序调用。
+	 * 
+	 * @param session 指定会话。
+	 * @param message 指定消息。
+	 * @return 返回 <code>false</code> 时丢弃该消息，后续过滤器和处理器不再处理。
+	 */
+	public boolean filterRead(Session session, Message message);
+
+}
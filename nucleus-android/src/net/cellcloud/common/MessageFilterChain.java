@@ -0,0 +1,199 @@
+/*
+-----------------------------------------------------------------------------
+This source file is part of Cell Cloud.
+
+Copyright (c) 2009-2017 Cell Cloud Team (www.cellcloud.net)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+-----------------------------------------------------------------------------
+*/
+
+package net.cellcloud.common;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 消息过滤器链。
+ * 
+ * 链的修改采用写时复制，执行过滤时不加锁。默认包含压缩过滤器和加密过滤器，
+ * 发送时先压缩后加密，接收时先解密后解压。
+ * 
+ * @author Ambrose Xu
+ * 
+ */
+public final class MessageFilterChain {
+
+	private final static Entry[] EMPTY = new Entry[0];
+
+	/** 过滤器列表。 */
+	private volatile Entry[] entries = EMPTY;
+
+	public MessageFilterChain() {
+	}
+
+	/**
+	 * 在链首添加过滤器。已存在同名过滤器时先移除。
+	 * 
+	 * @param name 指定过滤器名。
+	 * @param filter 指定过滤器。
+	 */
+	public synchronized void addFirst(String name, MessageFilter filter) {
+		this.remove(name);
+		this.insert(0, name, filter);
+	}
+
+	/**
+	 * 在链尾添加过滤器。已存在同名过滤器时先移除。
+	 * 
+	 * @param name 指定过滤器名。
+	 * @param filter 指定过滤器。
+	 */
+	public synchronized void addLast(String name, MessageFilter filter) {
+		this.remove(name);
+		this.insert(this.entries.length, name, filter);
+	}
+
+	/**
+	 * 在指定过滤器之前添加过滤器。未找到指定过滤器时添加到链尾。
+	 * 
+	 * @param baseName 指定作为基准的过滤器名。
+	 * @param name 指定过滤器名。
+	 * @param filter 指定过滤器。
+	 */
+	public synchronized void addBefore(String baseName, String name, MessageFilter filter) {
+		this.remove(name);
+		int index = this.indexOf(baseName);
+		this.insert(index >= 0 ? index : this.entries.length, name, filter);
+	}
+
+	/**
+	 * 移除指定名称的过滤器。
+	 * 
+	 * @param name 指定过滤器名。
+	 * @return 返回被移除的过滤器，未找到时返回 <code>null</code> 。
+	 */
+	public synchronized MessageFilter remove(String name) {
+		int index = this.indexOf(name);
+		if (index < 0) {
+			return null;
+		}
+
+		Entry[] current = this.entries;
+		Entry[] list = new Entry[current.length - 1];
+		System.arraycopy(current, 0, list, 0, index);
+		System.arraycopy(current, index + 1, list, index, current.length - index - 1);
+		this.entries = list;
+		return current[index].filter;
+	}
+
+	/**
+	 * 返回指定名称的过滤器。
+	 * 
+	 * @param name 指定过滤器名。
+	 * @return 未找到时返回 <code>null</code> 。
+	 */
+	public MessageFilter get(String name) {
+		Entry[] current = this.entries;
+		for (int i = 0; i < current.length; ++i) {
+			if (current[i].name.equals(name)) {
+				return current[i].filter;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * 按顺序返回所有过滤器名。
+	 * 
+	 * @return
+	 */
+	public List<String> getNames() {
+		Entry[] current = this.entries;
+		ArrayList<String> list = new ArrayList<String>(current.length);
+		for (int i = 0; i < current.length; ++i) {
+			list.add(current[i].name);
+		}
+		return list;
+	}
+
+	/**
+	 * 正序执行过滤器处理待发送的消息。
+	 * 
+	 * @param session 指定会话。
+	 * @param message 指定消息。
+	 */
+	public void doWrite(Session session, Message message) {
+		Entry[] current = this.entries;
+		for (int i = 0; i < current.length; ++i) {
+			current[i].filter.filterWrite(session, message);
+		}
+	}
+
+	/**
+	 * 逆序执行过滤器处理接收到的消息。
+	 * 
+	 * @param session 指定会话。
+	 * @param message 指定消息。
+	 * @return 消息被某个过滤器丢弃时返回 <code>false</code> 。
+	 */
+	public boolean doRead(Session session, Message message) {
+		Entry[] current = this.entries;
+		for (int i = current.length - 1; i >= 0; --i) {
+			if (!current[i].filter.filterRead(session, message)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private int indexOf(String name) {
+		Entry[] current = this.entries;
+		for (int i = 0; i < current.length; ++i) {
+			if (current[i].name.equals(name)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private void insert(int index, String name, MessageFilter filter) {
+		Entry[] current = this.entries;
+		Entry[] list = new Entry[current.length + 1];
+		System.arraycopy(current, 0, list, 0, index);
+		list[index] = new Entry(name, filter);
+		System.arraycopy(current, index, list, index + 1, current.length - index);
+		this.entries = list;
+	}
+
+	/**
+	 * 过滤器条目。
+	 */
+	private final static class Entry {
+
+		private final String name;
+		private final MessageFilter filter;
+
+		private Entry(String name, MessageFilter filter) {
+			this.name = name;
+			this.filter = filter;
+		}
+	}
+
+}
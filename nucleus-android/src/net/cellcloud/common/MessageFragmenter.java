@@ -0,0 +1,242 @@
+/*
+-----------------------------------------------------------------------------
+This source file is part of Cell Cloud.
+
+Copyright (c) 2009-2017 Cell Cloud Team (www.cellcloud.net)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+-----------------------------------------------------------------------------
+*/
+
+package net.cellcloud.common;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 消息分片器。
+ * 
+ * 将超过分片长度的消息拆分为若干分片帧发送，接收端由 {@link FrameAccumulator} 重组。
+ * 最多 {@link #MAX_ACTIVE_STREAMS} 条正在分片的消息以轮转方式交错发送，其余消息按顺序等待，
+ * 调用者在分片之间插入小消息，避免大消息阻塞其他对话。接收端据此限制同时重组的消息数量。
+ * 
+ * 压缩后的消息例外：压缩器的流式字典跨消息保持状态，接收端必须按压缩顺序解压，
+ * 因此 {@link #isOrdered()} 返回 <code>true</code> 时调用者不能再取出新消息，
+ * 直到该消息的分片全部发送。
+ * 
+ * @author Ambrose Xu
+ * 
+ */
+public final class MessageFragmenter {
+
+	/** 分片数据长度。 */
+	public final static int FRAGMENT_SIZE = 8192;
+
+	/** 同时交错发送的最大消息数量。 */
+	public final static int MAX_ACTIVE_STREAMS = 2;
+
+	/** 流编号上限。 */
+	private final static int MAX_STREAM_ID = 0x0FFFFFFF;
+
+	/** 正在分片发送的消息。 */
+	private final ArrayList<Stream> streams;
+
+	/** 轮转位置。 */
+	private int turn;
+
+	/** 下一个流编号。 */
+	private int nextStreamId;
+
+	/** 正在分片的压缩消息数量。 */
+	private int orderedCount;
+
+	/**
+	 * 构造函数。
+	 */
+	public MessageFragmenter() {
+		this.streams = new ArrayList<Stream>(2);
+		this.turn = 0;
+		this.nextStreamId = 1;
+		this.orderedCount = 0;
+	}
+
+	/**
+	 * 判断消息是否需要分片。
+	 * 
+	 * @param message 指定消息。
+	 * @return 如果消息长度超过分片长度返回 <code>true</code> 。
+	 */
+	public static boolean needsFragment(Message message) {
+		return message.length() > FRAGMENT_SIZE;
+	}
+
+	/**
+	 * 是否没有正在分片的消息。
+	 * 
+	 * @return 如果没有正在分片的消息返回 <code>true</code> 。
+	 */
+	public synchronized boolean isEmpty() {
+		return this.streams.isEmpty();
+	}
+
+	/**
+	 * 是否有正在分片的压缩消息。此时后续消息必须等待该消息发送完毕，以保证接收顺序与压缩顺序一致。
+	 * 
+	 * @return 如果有正在分片的压缩消息返回 <code>true</code> 。
+	 */
+	public synchronized boolean isOrdered() {
+		return this.orderedCount > 0;
+	}
+
+	/**
+	 * 添加待分片发送的消息。消息应当已经经过过滤器处理。
+	 * 
+	 * @param message 指定消息。
+	 */
+	public synchronized void offer(Message message) {
+		int streamId = this.nextStreamId;
+		this.nextStreamId = (streamId >= MAX_STREAM_ID) ? 1 : streamId + 1;
+		Stream stream = new Stream(streamId, message);
+		if (stream.ordered) {
+			++this.orderedCount;
+		}
+		this.streams.add(stream);
+	}
+
+	/**
+	 * 将下一个分片追加到待写游标。
+	 * 
+	 * @param cursor 指定待写游标。
+	 * @return 如果追加了分片返回 <code>true</code> 。
+	 */
+	public synchronized boolean appendNext(OutputCursor cursor) {
+		Stream stream = this.nextStream();
+		if (null == stream) {
+			return false;
+		}
+
+		int length = stream.nextLength();
+		byte[] header = MessageService.makeFragmentHeader(stream.id, stream.length, length);
+		cursor.append(stream.message, header, stream.data, stream.offset + stream.position, length, stream.position + length == stream.length);
+		this.advance(stream, length);
+		return true;
+	}
+
+	/**
+	 * 将下一个分片写入输出流。
+	 * 
+	 * @param os 指定输出流。
+	 * @return 如果写出的是消息的最后一个分片，返回该消息，否则返回 <code>null</code> 。
+	 * @throws IOException
+	 */
+	public synchronized Message writeNext(OutputStream os) throws IOException {
+		Stream stream = this.nextStream();
+		if (null == stream) {
+			return null;
+		}
+
+		int length = stream.nextLength();
+		byte[] header = MessageService.makeFragmentHeader(stream.id, stream.length, length);
+		os.write(header);
+		os.write(stream.data, stream.offset + stream.position, length);
+
+		this.advance(stream, length);
+		return (stream.position == stream.length) ? stream.message : null;
+	}
+
+	/**
+	 * 取出所有正在分片的消息并清空分片器。用于写失败时回收尚未发送完的消息。
+	 * 
+	 * @param out 指定存放消息的列表。
+	 */
+	public synchronized void drain(List<Message> out) {
+		for (int i = 0, size = this.streams.size(); i < size; ++i) {
+			out.add(this.streams.get(i).message);
+		}
+		this.clear();
+	}
+
+	/**
+	 * 清空所有正在分片的消息。
+	 */
+	public synchronized void clear() {
+		this.streams.clear();
+		this.turn = 0;
+		this.orderedCount = 0;
+	}
+
+	private Stream nextStream() {
+		if (this.streams.isEmpty()) {
+			return null;
+		}
+
+		// 只在前面的若干条消息之间轮转，后面的消息在前面的消息发送完毕后依次补上
+		if (this.turn >= Math.min(this.streams.size(), MAX_ACTIVE_STREAMS)) {
+			this.turn = 0;
+		}
+
+		return this.streams.get(this.turn);
+	}
+
+	private void advance(Stream stream, int length) {
+		stream.position += length;
+		if (stream.position == stream.length) {
+			// 最后一个分片，轮转位置自然指向下一条消息
+			this.streams.remove(this.turn);
+			if (stream.ordered) {
+				--this.orderedCount;
+			}
+		}
+		else {
+			++this.turn;
+		}
+	}
+
+	/**
+	 * 分片流。
+	 */
+	private static final class Stream {
+
+		protected final int id;
+		protected final Message message;
+		protected final byte[] data;
+		protected final int offset;
+		protected final int length;
+		protected final boolean ordered;
+		protected int position;
+
+		protected Stream(int id, Message message) {
+			this.id = id;
+			this.message = message;
+			message.detach();
+			this.data = message.array();
+			this.offset = message.offset();
+			this.length = message.length();
+			this.ordered = MessageCompressor.isCompressed(message);
+			this.position = 0;
+		}
+
+		protected int nextLength() {
+			return Math.min(FRAGMENT_SIZE, this.length - this.position);
+		}
+	}
+
+}
@@ -65,6 +65,9 @@ public interface MessageHandler {
 	/**
 	 * 接收到消息。
 	 * 
+	 * 消息可能存储在池化缓冲里，回调返回后即被归还。
+	 * 如果需要在回调之外使用消息数据，应在回调内调用 {@link Message#get()} 获得独立的数据数组。
+	 * 
 	 * @param session 接收消息的会话。
 	 * @param message 接收的消息。
 	 */
@@ -78,6 +81,21 @@ public interface MessageHandler {
 	 */
 	public void messageSent(Session session, Message message);
 
+	/**
+	 * 会话待写数据超过高水位，变为不可写。此后应暂停写入，直到收到
+	 * {@link #sessionWritable(Session)} 回调。
+	 * 
+	 * @param session 变为不可写的会话。
+	 */
+	public void sessionUnwritable(Session session);
+
+	/**
+	 * 会话待写数据回落到低水位以下，恢复为可写。
+	 * 
+	 * @param session 恢复可写的会话。
+	 */
+	public void sessionWritable(Session session);
+
 	/**
 	 * 发生错误。
 	 * 
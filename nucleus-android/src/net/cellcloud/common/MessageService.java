@@ -34,11 +34,36 @@ package net.cellcloud.common;
  */
 public abstract class MessageService {
 
+	/** 长度前缀帧的起始标识。 */
+	public final static byte FRAME_MAGIC = (byte) 0xCE;
+	/** 长度前缀帧允许的最大数据长度。 */
+	public final static int MAX_FRAME_LENGTH = 64 * 1024 * 1024;
+	/** 消息分片帧的起始标识。 */
+	public final static byte FRAGMENT_MAGIC = (byte) 0xCF;
+	/** 未协商时允许发送的最大消息长度。 */
+	public final static int DEFAULT_MAX_MESSAGE_SIZE = 16384;
+	/** 默认的待写数据低水位。 */
+	public final static int DEFAULT_LOW_WATERMARK = 256 * 1024;
+	/** 默认的待写数据高水位。 */
+	public final static int DEFAULT_HIGH_WATERMARK = 1024 * 1024;
+	/** 解析帧头时数据不完整。 */
+	public final static long FRAME_INCOMPLETE = -1L;
+	/** 解析帧头时数据无效。 */
+	public final static long FRAME_INVALID = -2L;
+
 	protected MessageHandler handler;
 	protected MessageInterceptor interceptor;
 	private byte[] headMark;
 	private byte[] tailMark;
 	private int maxConnectNum;
+	private volatile int lowWatermark = DEFAULT_LOW_WATERMARK;
+	private volatile int highWatermark = DEFAULT_HIGH_WATERMARK;
+	/** 消息过滤器链。 */
+	private final MessageFilterChain filterChain;
+	/** 传输指标，未启用时为 <code>null</code> 。 */
+	private volatile TransportMetrics metrics;
+	/** 传输指标在注册表里的名称。 */
+	private String metricsName;
 
 	/**
 	 * 
@@ -49,6 +74,16 @@ public abstract class MessageService {
 		this.headMark = null;
 		this.tailMark = null;
 		this.maxConnectNum = 32;
+
+		// 发送时先压缩后加密
+		this.filterChain = new MessageFilterChain();
+		this.filterChain.addLast(CompressionFilter.NAME, new CompressionFilter());
+		this.filterChain.addLast(CipherFilter.NAME, new CipherFilter());
+
+		MetricsRegistry registry = MetricsRegistry.getInstance();
+		if (registry.isEnabled()) {
+			this.enableMetrics(registry.nextName(this.getClass().getSimpleName()));
+		}
 	}
 
 	/**
@@ -87,6 +122,243 @@ public abstract class MessageService {
 		this.interceptor = interceptor;
 	}
 
+	/**
+	 * 返回消息过滤器链。发送消息时正序执行，接收消息时逆序执行。
+	 * 
+	 * @return
+	 */
+	public MessageFilterChain getFilterChain() {
+		return this.filterChain;
+	}
+
+	/**
+	 * 启用传输指标并注册到 {@link MetricsRegistry} 。已启用时返回已有的指标。
+	 * 
+	 * @param name 指定注册使用的指标名。
+	 * @return 返回传输指标。
+	 */
+	public synchronized TransportMetrics enableMetrics(String name) {
+		if (null != this.metrics) {
+			return this.metrics;
+		}
+
+		TransportMetrics value = new TransportMetrics();
+		MetricsRegistry.getInstance().register(name, value);
+		this.metricsName = name;
+		this.metrics = value;
+		return value;
+	}
+
+	/**
+	 * 停用传输指标并从 {@link MetricsRegistry} 注销。
+	 */
+	public synchronized void disableMetrics() {
+		if (null == this.metrics) {
+			return;
+		}
+
+		MetricsRegistry.getInstance().unregister(this.metricsName);
+		this.metricsName = null;
+		this.metrics = null;
+	}
+
+	/**
+	 * 返回传输指标。未启用时返回 <code>null</code> 。
+	 * 
+	 * @return
+	 */
+	public TransportMetrics getMetrics() {
+		return this.metrics;
+	}
+
+	/**
+	 * 设置会话待写数据的低水位和高水位。
+	 * 
+	 * 会话待写数据达到高水位后变为不可写，回落到低水位以下后恢复为可写。
+	 * 
+	 * @param low 指定以字节为单位的低水位。
+	 * @param high 指定以字节为单位的高水位。
+	 */
+	public void setWriteWatermarks(int low, int high) {
+		if (low < 0 || high <= low) {
+			return;
+		}
+
+		this.lowWatermark = low;
+		this.highWatermark = high;
+	}
+
+	/**
+	 * 返回待写数据低水位。
+	 * 
+	 * @return
+	 */
+	public int getLowWatermark() {
+		return this.lowWatermark;
+	}
+
+	/**
+	 * 返回待写数据高水位。
+	 * 
+	 * @return
+	 */
+	public int getHighWatermark() {
+		return this.highWatermark;
+	}
+
+	/**
+	 * 消息进入发送队列时累计会话的待写数据。
+	 * 
+	 * @param session 指定会话。
+	 * @param message 指定进入队列的消息。
+	 * @return 如果会话因此变为不可写返回 <code>true</code> 。
+	 */
+	protected boolean markPending(Session session, Message message) {
+		int length = message.length();
+		message.setPendingLength(length);
+		boolean unwritable = session.increasePending(length, this.highWatermark);
+
+		TransportMetrics metrics = this.metrics;
+		if (null != metrics) {
+			message.setQueuedTime(System.nanoTime());
+			TransportMetrics sessionMetrics = session.ensureMetrics();
+			metrics.recordQueued(length);
+			sessionMetrics.recordQueued(length);
+			if (unwritable) {
+				metrics.recordWriteStall();
+				sessionMetrics.recordWriteStall();
+			}
+		}
+
+		return unwritable;
+	}
+
+	/**
+	 * 会话待写数据超过高水位时回调 {@link MessageHandler#sessionUnwritable(Session)} 。
+	 * 在 {@link #markPending(Session, Message)} 返回 <code>true</code> 且消息成功入队后调用。
+	 * 
+	 * @param session 指定会话。
+	 */
+	protected void fireSessionUnwritable(Session session) {
+		if (null != this.handler) {
+			this.handler.sessionUnwritable(session);
+		}
+	}
+
+	/**
+	 * 消息被丢弃时扣减会话的待写数据。会话恢复为可写时回调
+	 * {@link MessageHandler#sessionWritable(Session)} 。
+	 * 
+	 * @param session 指定会话。
+	 * @param message 指定离开队列的消息。
+	 */
+	protected void unmarkPending(Session session, Message message) {
+		this.releasePending(session, message, false);
+	}
+
+	/**
+	 * 消息发送完成时扣减会话的待写数据并记录发送指标。会话恢复为可写时回调
+	 * {@link MessageHandler#sessionWritable(Session)} 。
+	 * 
+	 * @param session 指定会话。
+	 * @param message 指定已发送的消息。
+	 */
+	protected void markSent(Session session, Message message) {
+		this.releasePending(session, message, true);
+	}
+
+	private void releasePending(Session session, Message message, boolean sent) {
+		long queuedTime = message.getQueuedTime();
+		if (queuedTime != 0) {
+			// 仅统计入队时已记录的消息，保证队列深度不出现负值
+			message.setQueuedTime(0);
+			int pending = message.getPendingLength();
+			TransportMetrics metrics = this.metrics;
+			TransportMetrics sessionMetrics = session.getMetrics();
+			long latency = sent ? System.nanoTime() - queuedTime : -1L;
+			if (null != metrics) {
+				metrics.recordDequeued(pending);
+				if (sent) {
+					metrics.recordSent(message.length(), latency);
+				}
+				else {
+					metrics.recordWriteFailure();
+				}
+			}
+			if (null != sessionMetrics) {
+				sessionMetrics.recordDequeued(pending);
+				if (sent) {
+					sessionMetrics.recordSent(message.length(), latency);
+				}
+				else {
+					sessionMetrics.recordWriteFailure();
+				}
+			}
+		}
+
+		if (session.decreasePending(message.getPendingLength(), this.lowWatermark)) {
+			if (null != this.handler) {
+				this.handler.sessionWritable(session);
+			}
+		}
+	}
+
+	/**
+	 * 记录接收到的消息。
+	 * 
+	 * @param session 指定会话。
+	 * @param message 指定接收到的消息。
+	 */
+	protected void recordReceived(Session session, Message message) {
+		TransportMetrics metrics = this.metrics;
+		if (null != metrics) {
+			int length = message.length();
+			metrics.recordReceived(length);
+			session.ensureMetrics().recordReceived(length);
+		}
+	}
+
+	/**
+	 * 记录接收到的消息后执行过滤器链的读处理。
+	 * 
+	 * @param session 指定会话。
+	 * @param message 指定接收到的消息。
+	 * @return 返回 <code>false</code> 表示消息被丢弃。
+	 */
+	protected boolean processRead(Session session, Message message) {
+		this.recordReceived(session, message);
+		return this.filterChain.doRead(session, message);
+	}
+
+	/**
+	 * 记录帧解析时丢弃数据的次数。
+	 * 
+	 * @param session 指定会话。
+	 * @param count 指定次数。
+	 */
+	protected void recordFrameErrors(Session session, int count) {
+		TransportMetrics metrics = this.metrics;
+		if (null != metrics && count > 0) {
+			metrics.recordFrameErrors(count);
+			session.ensureMetrics().recordFrameErrors(count);
+		}
+	}
+
+	/**
+	 * 记录会话建立连接。
+	 * 
+	 * @param session 指定会话。
+	 */
+	protected void recordConnect(Session session) {
+		TransportMetrics metrics = this.metrics;
+		if (null != metrics) {
+			metrics.recordConnect();
+			if (null != session) {
+				session.ensureMetrics().recordConnect();
+			}
+		}
+	}
+
 	/**
 	 * 定义消息传输时使用的数据标记。默认无标记。
 	 * 
@@ -125,6 +397,119 @@ public abstract class MessageService {
 		return this.tailMark;
 	}
 
+	/**
+	 * 生成长度前缀帧的帧头。帧头由起始标识和 varint 编码的数据长度组成。
+	 * 
+	 * @param length 指定帧数据长度。
+	 * @return 返回帧头数据。
+	 */
+	public static byte[] makeFrameHeader(int length) {
+		byte[] header = new byte[1 + varintSize(length)];
+		header[0] = FRAME_MAGIC;
+		writeVarint(header, 1, length);
+		return header;
+	}
+
+	/**
+	 * 生成消息分片帧的帧头。帧数据由 varint 编码的流编号、消息总长度以及分片数据组成，
+	 * 帧头包含帧数据中分片数据之前的部分。
+	 * 
+	 * @param streamId 指定分片所属的流编号。
+	 * @param totalLength 指定消息总长度。
+	 * @param length 指定本分片的数据长度。
+	 * @return 返回帧头数据。
+	 */
+	public static byte[] makeFragmentHeader(int streamId, int totalLength, int length) {
+		int prefix = varintSize(streamId) + varintSize(totalLength);
+		int frameLength = prefix + length;
+
+		byte[] header = new byte[1 + varintSize(frameLength) + prefix];
+		header[0] = FRAGMENT_MAGIC;
+		int index = writeVarint(header, 1, frameLength);
+		index = writeVarint(header, index, streamId);
+		writeVarint(header, index, totalLength);
+		return header;
+	}
+
+	/**
+	 * 计算 varint 编码长度。
+	 * 
+	 * @param value 指定数值。
+	 * @return 返回编码后的字节数。
+	 */
+	protected static int varintSize(int value) {
+		int size = 1;
+		value >>>= 7;
+		while (value != 0) {
+			++size;
+			value >>>= 7;
+		}
+		return size;
+	}
+
+	/**
+	 * 以 varint 编码写入数值。
+	 * 
+	 * @param dest 指定目标数组。
+	 * @param index 指定写入位置。
+	 * @param value 指定数值。
+	 * @return 返回写入后的位置。
+	 */
+	protected static int writeVarint(byte[] dest, int index, int value) {
+		while ((value & ~0x7F) != 0) {
+			dest[index++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		dest[index++] = (byte) value;
+		return index;
+	}
+
+	/**
+	 * 解析长度前缀帧的帧头。
+	 * 
+	 * @param data 指定数据。
+	 * @param offset 指定帧头起始位置。
+	 * @param limit 指定有效数据的结束位置。
+	 * @return 返回值的高 32 位为帧头长度，低 32 位为帧数据长度。
+	 * 数据不足时返回 {@link #FRAME_INCOMPLETE} ，数据错误时返回 {@link #FRAME_INVALID} 。
+	 */
+	public static long parseFrameHeader(byte[] data, int offset, int limit) {
+		if (offset >= limit) {
+			return FRAME_INCOMPLETE;
+		}
+
+		if (data[offset] != FRAME_MAGIC) {
+			return FRAME_INVALID;
+		}
+
+		int value = 0;
+		int shift = 0;
+		int index = offset + 1;
+		while (true) {
+			if (index >= limit) {
+				return FRAME_INCOMPLETE;
+			}
+
+			if (shift > 28) {
+				return FRAME_INVALID;
+			}
+
+			byte b = data[index++];
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				break;
+			}
+
+			shift += 7;
+		}
+
+		if (value < 0 || value > MAX_FRAME_LENGTH) {
+			return FRAME_INVALID;
+		}
+
+		return ((long) (index - offset) << 32) | value;
+	}
+
 	/**
 	 * 设置最大连接数。
 	 * 
@@ -0,0 +1,117 @@
+/*
+-----------------------------------------------------------------------------
+This source file is part of Cell Cloud.
+
+Copyright (c) 2009-2017 Cell Cloud Team (www.cellcloud.net)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+-----------------------------------------------------------------------------
+*/
+
+package net.cellcloud.common;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 流量统计过滤器。统计经过该过滤器的消息数量和字节数。
+ * 
+ * 放在链首时统计应用层数据，放在链尾时统计压缩和加密后的数据。
+ * 
+ * @author Ambrose Xu
+ * 
+ */
+public final class MetricsFilter implements MessageFilter {
+
+	/** 过滤器名。 */
+	public final static String NAME = "metrics";
+
+	private AtomicLong writtenMessages = new AtomicLong(0);
+	private AtomicLong writtenBytes = new AtomicLong(0);
+	private AtomicLong readMessages = new AtomicLong(0);
+	private AtomicLong readBytes = new AtomicLong(0);
+
+	public MetricsFilter() {
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void filterWrite(Session session, Message message) {
+		this.writtenMessages.incrementAndGet();
+		this.writtenBytes.addAndGet(message.length());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean filterRead(Session session, Message message) {
+		this.readMessages.incrementAndGet();
+		this.readBytes.addAndGet(message.length());
+		return true;
+	}
+
+	/**
+	 * 返回发送的消息数量。
+	 * 
+	 * @return
+	 */
+	public long getWrittenMessages() {
+		return this.writtenMessages.get();
+	}
+
+	/**
+	 * 返回发送的字节数。
+	 * 
+	 * @return
+	 */
+	public long getWrittenBytes() {
+		return this.writtenBytes.get();
+	}
+
+	/**
+	 * 返回接收的消息数量。
+	 * 
+	 * @return
+	 */
+	public long getReadMessages() {
+		return this.readMessages.get();
+	}
+
+	/**
+	 * 返回接收的字节数。
+	 * 
+	 * @return
+	 */
+	public long getReadBytes() {
+		return this.readBytes.get();
+	}
+
+	/**
+	 * 重置统计数据。
+	 */
+	public void reset() {
+		this.writtenMessages.set(0);
+		this.writtenBytes.set(0);
+		this.readMessages.set(0);
+		this.readBytes.set(0);
+	}
+
+}
@@ -0,0 +1,157 @@
+/*
+-----------------------------------------------------------------------------
+This source file is part of Cell Cloud.
+
+Copyright (c) 2009-2017 Cell Cloud Team (www.cellcloud.net)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+-----------------------------------------------------------------------------
+*/
+
+package net.cellcloud.common;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 传输指标注册表。
+ * 
+ * 启用后新创建的消息服务自动记录指标并注册到此处。未启用时消息服务不记录任何指标，
+ * 记录点只有一次空引用判断。
+ * 
+ * @author Ambrose Xu
+ * 
+ */
+public final class MetricsRegistry {
+
+	private final static MetricsRegistry instance = new MetricsRegistry();
+
+	/** 新创建的服务是否自动启用指标。 */
+	private volatile boolean enabled = false;
+
+	/** 已注册的指标。 */
+	private ConcurrentHashMap<String, TransportMetrics> metrics;
+
+	/** 自动命名序号。 */
+	private AtomicInteger sequence;
+
+	private MetricsRegistry() {
+		this.metrics = new ConcurrentHashMap<String, TransportMetrics>();
+		this.sequence = new AtomicInteger(0);
+	}
+
+	/**
+	 * 返回注册表实例。
+	 * 
+	 * @return
+	 */
+	public static MetricsRegistry getInstance() {
+		return instance;
+	}
+
+	/**
+	 * 设置新创建的服务是否自动启用指标。已创建的服务通过 {@link MessageService#enableMetrics(String)} 启用。
+	 * 
+	 * @param enabled
+	 */
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	/**
+	 * 新创建的服务是否自动启用指标。
+	 * 
+	 * @return
+	 */
+	public boolean isEnabled() {
+		return this.enabled;
+	}
+
+	/**
+	 * 注册指标。
+	 * 
+	 * @param name 指定指标名。
+	 * @param metrics 指定指标。
+	 */
+	public void register(String name, TransportMetrics metrics) {
+		this.metrics.put(name, metrics);
+	}
+
+	/**
+	 * 注销指标。
+	 * 
+	 * @param name 指定指标名。
+	 */
+	public void unregister(String name) {
+		this.metrics.remove(name);
+	}
+
+	/**
+	 * 返回指定名称的指标。
+	 * 
+	 * @param name 指定指标名。
+	 * @return
+	 */
+	public TransportMetrics get(String name) {
+		return this.metrics.get(name);
+	}
+
+	/**
+	 * 生成所有指标的快照。
+	 * 
+	 * @return 返回按指标名排序的快照。
+	 */
+	public Map<String, Map<String, Long>> snapshot() {
+		TreeMap<String, Map<String, Long>> result = new TreeMap<String, Map<String, Long>>();
+		for (Map.Entry<String, TransportMetrics> e : this.metrics.entrySet()) {
+			result.put(e.getKey(), e.getValue().snapshot());
+		}
+		return result;
+	}
+
+	/**
+	 * 以文本形式导出所有指标，每行格式为 <code>指标名.项 值</code> 。
+	 * 
+	 * @return
+	 */
+	public String export() {
+		StringBuilder buf = new StringBuilder();
+		for (Map.Entry<String, Map<String, Long>> e : this.snapshot().entrySet()) {
+			for (Map.Entry<String, Long> item : e.getValue().entrySet()) {
+				buf.append(e.getKey());
+				buf.append('.');
+				buf.append(item.getKey());
+				buf.append(' ');
+				buf.append(item.getValue().longValue());
+				buf.append('\n');
+			}
+		}
+		return buf.toString();
+	}
+
+	/**
+	 * 生成自动注册使用的指标名。
+	 */
+	protected String nextName(String prefix) {
+		return prefix + "-" + this.sequence.incrementAndGet();
+	}
+
+}
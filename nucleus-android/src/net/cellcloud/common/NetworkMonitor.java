@@ -0,0 +1,68 @@
+/*
+-----------------------------------------------------------------------------
+This source file is part of Cell Cloud.
+
+Copyright (c) 2009-2017 Cell Cloud Team (www.cellcloud.net)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+-----------------------------------------------------------------------------
+*/
+
+package net.cellcloud.common;
+
+/**
+ * 网络状态监视器。
+ * 
+ * 连接器通过监视器判断网络是否可用，使其不依赖 Android 上下文。
+ * 
+ * @author Ambrose Xu
+ * 
+ */
+public interface NetworkMonitor {
+
+	/**
+	 * 始终认为网络可用的监视器。用于没有 Android 上下文的运行环境。
+	 */
+	public final static NetworkMonitor ALWAYS_CONNECTED = new NetworkMonitor() {
+		@Override
+		public boolean isConnected() {
+			return true;
+		}
+
+		@Override
+		public boolean isConnectedOrConnecting() {
+			return true;
+		}
+	};
+
+	/**
+	 * 网络是否已连接。
+	 * 
+	 * @return 如果网络可用返回 <code>true</code> 。
+	 */
+	public boolean isConnected();
+
+	/**
+	 * 网络是否已连接或者正在连接。
+	 * 
+	 * @return 如果网络已连接或者正在连接返回 <code>true</code> 。
+	 */
+	public boolean isConnectedOrConnecting();
+
+}
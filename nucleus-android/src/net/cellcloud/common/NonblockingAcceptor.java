@@ -35,13 +35,16 @@ import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.util.Collection;
 import java.util.Iterator;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+
+import net.cellcloud.util.ConcurrentLongHashMap;
 
 
 /**
  * 非阻塞网络接收器。
  * 
+ * 接收器线程只负责接受连接，新连接按轮转方式分配给拥有独立选择器的工作线程，
+ * 连接的数据读写均由所属的工作线程完成。
+ * 
  * @author Ambrose Xu
  * 
  */
@@ -61,16 +64,19 @@ public class NonblockingAcceptor extends MessageService implements MessageAccept
 	// 工作线程数组
 	private NonblockingAcceptorWorker[] workers;
 	private int workerNum;
+	// 下一个分配连接的工作线程
+	private int nextWorker;
 
-	// 存储 Session 的 Map
-	private ConcurrentHashMap<Integer, NonblockingAcceptorSession> sessions;
+	// 存储 Session 的 Map ，键为 Session ID
+	private ConcurrentLongHashMap<NonblockingAcceptorSession> sessions;
 
 	public NonblockingAcceptor() {
 		this.spinning = false;
 		this.running = false;
-		this.sessions = new ConcurrentHashMap<Integer, NonblockingAcceptorSession>();
-		// 默认 4 线程
-		this.workerNum = 4;
+		this.sessions = new ConcurrentLongHashMap<NonblockingAcceptorSession>();
+		// 默认与处理器核心数相同
+		this.workerNum = Math.max(1, Runtime.getRuntime().availableProcessors());
+		this.nextWorker = 0;
 	}
 
 	@Override
@@ -83,10 +89,16 @@ public class NonblockingAcceptor extends MessageService implements MessageAccept
 		// 创建工作线程
 		if (null == this.workers) {
 			// 创建工作线程
-			this.workers = new NonblockingAcceptorWorker[this.workerNum];
-			for (int i = 0; i < this.workerNum; ++i) {
-				this.workers[i] = new NonblockingAcceptorWorker(this);
+			NonblockingAcceptorWorker[] workers = new NonblockingAcceptorWorker[this.workerNum];
+			try {
+				for (int i = 0; i < this.workerNum; ++i) {
+					workers[i] = new NonblockingAcceptorWorker(this);
+				}
+			} catch (IOException e) {
+				Logger.log(NonblockingAcceptor.class, e, LogLevel.ERROR);
+				return false;
 			}
+			this.workers = workers;
 		}
 
 		// 打开 Socket channel 并绑定服务
@@ -194,19 +206,23 @@ public class NonblockingAcceptor extends MessageService implements MessageAccept
 			}
 
 			int stoppedCount = 0;
-			while (stoppedCount != this.workerNum) {
+			while (stoppedCount != this.workers.length) {
 				try {
-					Thread.sleep(100);
+					Thread.sleep(10);
 				} catch (InterruptedException e) {
 					Logger.log(NonblockingAcceptor.class, e, LogLevel.DEBUG);
 				}
 
+				stoppedCount = 0;
 				for (NonblockingAcceptorWorker worker : this.workers) {
 					if (!worker.isWorking()) {
 						++stoppedCount;
 					}
 				}
 			}
+
+			// 线程不能重复启动，下次绑定时重新创建
+			this.workers = null;
 		}
 
 		// 控制主线程超时退出
@@ -252,36 +268,62 @@ public class NonblockingAcceptor extends MessageService implements MessageAccept
 
 	@Override
 	public void close(Session session) {
-		Iterator<NonblockingAcceptorSession> iter = this.sessions.values().iterator();
-		while (iter.hasNext()) {
-			NonblockingAcceptorSession nas = iter.next();
-			if (nas.getId().longValue() == session.getId().longValue()) {
-				if (null == nas.socket) {
-					break;
-				}
+		NonblockingAcceptorSession nas = this.findSession(session);
+		if (null == nas || null == nas.socket) {
+			return;
+		}
 
-				try {
-					nas.socket.close();
-				} catch (IOException e) {
-					Logger.log(NonblockingAcceptor.class, e, LogLevel.DEBUG);
-				}
-				break;
-			}
+		try {
+			nas.socket.close();
+		} catch (IOException e) {
+			Logger.log(NonblockingAcceptor.class, e, LogLevel.DEBUG);
 		}
 	}
 
 	@Override
 	public boolean write(Session session, Message message) {
-		Iterator<NonblockingAcceptorSession> iter = this.sessions.values().iterator();
-		while (iter.hasNext()) {
-			NonblockingAcceptorSession nas = iter.next();
-			if (nas.getId().longValue() == session.getId().longValue()) {
-				nas.messages.add(message);
-				return true;
-			}
+		NonblockingAcceptorSession nas = this.findSession(session);
+		if (null == nas || null == nas.socket) {
+			return false;
+		}
+
+		if (message.length() > nas.getMaxMessageSize()) {
+			this.fireErrorOccurred(nas, MessageErrorCode.WRITE_OUTOFBOUNDS);
+			return false;
+		}
+
+		boolean unwritable = this.markPending(nas, message);
+
+		if (!nas.messages.offer(message)) {
+			this.unmarkPending(nas, message);
+			this.fireErrorOccurred(nas, MessageErrorCode.WRITE_QUEUE_FULL);
+			return false;
+		}
+
+		if (unwritable) {
+			// 待写数据超过高水位
+			this.fireSessionUnwritable(nas);
+		}
+
+		// 通知工作线程发送
+		nas.worker.pushSendSession(nas);
+		return true;
+	}
+
+	/**
+	 * 查找 Session 对应的接收器会话。
+	 * 
+	 * 由本接收器创建的 Session 本身即是接收器会话，无需查找。
+	 * 
+	 * @param session
+	 * @return
+	 */
+	private NonblockingAcceptorSession findSession(Session session) {
+		if (session instanceof NonblockingAcceptorSession && session.getService() == this) {
+			return (NonblockingAcceptorSession) session;
 		}
 
-		return false;
+		return this.sessions.get(session.getId().longValue());
 	}
 
 	/**
@@ -357,19 +399,7 @@ public class NonblockingAcceptor extends MessageService implements MessageAccept
 			return;
 		}
 
-		boolean exist = false;
-
-		Iterator<Map.Entry<Integer, NonblockingAcceptorSession>> iter = this.sessions.entrySet().iterator();
-		while (iter.hasNext()) {
-			Map.Entry<Integer, NonblockingAcceptorSession> entry = iter.next();
-			Integer hashCode = entry.getKey();
-			NonblockingAcceptorSession nas = entry.getValue();
-			if (nas.getId().longValue() == session.getId().longValue()) {
-				this.sessions.remove(hashCode);
-				exist = true;
-				break;
-			}
-		}
+		boolean exist = (null != this.sessions.remove(session.getId().longValue()));
 
 		if (exist) {
 			this.fireSessionDestroyed(session);
@@ -460,6 +490,10 @@ public class NonblockingAcceptor extends MessageService implements MessageAccept
 	 * @param message
 	 */
 	protected void fireMessageReceived(Session session, Message message) {
+		if (!this.processRead(session, message)) {
+			return;
+		}
+
 		if (null != this.interceptor && this.interceptor.interceptMessage(session, message)) {
 			return;
 		}
@@ -476,6 +510,8 @@ public class NonblockingAcceptor extends MessageService implements MessageAccept
 	 * @param message
 	 */
 	protected void fireMessageSent(Session session, Message message) {
+		this.markSent(session, message);
+
 		if (null != this.handler) {
 			this.handler.messageSent(session, message);
 		}
@@ -505,15 +541,9 @@ public class NonblockingAcceptor extends MessageService implements MessageAccept
 					it.remove();
 
 					try {
-						if (key.isAcceptable()) {
+						if (key.isValid() && key.isAcceptable()) {
 							accept(key);
 						}
-						if (key.isValid() && key.isReadable()) {
-							receive(key);
-						}
-						if (key.isValid() && key.isWritable()) {
-							send(key);
-						}
 					}
 					catch (Exception e) {
 						if (this.spinning) {
@@ -526,11 +556,6 @@ public class NonblockingAcceptor extends MessageService implements MessageAccept
 					}
 				}
 			} // # if
-
-			try {
-				Thread.sleep(1);
-			} catch (InterruptedException e) {
-			}
 		} // # while
 	}
 
@@ -551,7 +576,6 @@ public class NonblockingAcceptor extends MessageService implements MessageAccept
 			}
 
 			clientChannel.configureBlocking(false);
-			clientChannel.register(this.selector, SelectionKey.OP_READ | SelectionKey.OP_WRITE);
 
 			// 创建 Session
 			InetSocketAddress address = new InetSocketAddress(clientChannel.socket().getInetAddress().getHostAddress(),
@@ -561,17 +585,21 @@ public class NonblockingAcceptor extends MessageService implements MessageAccept
 			session.socket = clientChannel.socket();
 
 			// 为 Session 选择工作线程
-			int index = (int)(session.getId() % this.workerNum);
-			session.worker = this.workers[index];
+			NonblockingAcceptorWorker[] workers = this.workers;
+			session.worker = workers[this.nextWorker];
+			this.nextWorker = (this.nextWorker + 1) % workers.length;
 
 			// 记录
-			this.sessions.put(clientChannel.socket().hashCode(), session);
+			this.sessions.put(session.getId().longValue(), session);
 
 			// 回调事件
 			this.fireSessionCreated(session);
 
 			// 回调事件
 			this.fireSessionOpened(session);
+
+			// 由工作线程接管连接的读写
+			session.worker.pushRegisterSession(session);
 		} catch (IOException e) {
 			// Nothing
 		} catch (Exception e) {
@@ -579,60 +607,4 @@ public class NonblockingAcceptor extends MessageService implements MessageAccept
 		}
 	}
 
-	/**
-	 * 处理 Read 。
-	 * 
-	 * @param key
-	 */
-	private void receive(SelectionKey key) {
-		SocketChannel channel = (SocketChannel) key.channel();
-
-		if (!channel.isConnected()) {
-			return;
-		}
-
-		NonblockingAcceptorSession session = this.sessions.get(channel.socket().hashCode());
-		if (null == session) {
-			if (Logger.isDebugLevel()) {
-				Logger.d(NonblockingAcceptor.class, "Not found session");
-			}
-			return;
-		}
-
-		// 推入 Worker
-		session.selectionKey = key;
-		session.worker.pushReceiveSession(session);
-
-		if (key.isValid())
-			key.interestOps(key.interestOps() | SelectionKey.OP_READ);
-	}
-
-	/**
-	 * 处理 Write 。
-	 * 
-	 * @param key
-	 */
-	private void send(SelectionKey key) {
-		SocketChannel channel = (SocketChannel) key.channel();
-
-		if (!channel.isConnected()) {
-			return;
-		}
-
-		NonblockingAcceptorSession session = this.sessions.get(channel.socket().hashCode());
-		if (null == session) {
-			if (Logger.isDebugLevel()) {
-				Logger.d(NonblockingAcceptor.class, "Not found session");
-			}
-			return;
-		}
-
-		// 推入 Worker
-		session.selectionKey = key;
-		session.worker.pushSendSession(session);
-
-		if (key.isValid())
-			key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
-	}
-
 }
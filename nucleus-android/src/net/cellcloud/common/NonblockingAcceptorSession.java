@@ -29,7 +29,9 @@ package net.cellcloud.common;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.nio.channels.SelectionKey;
-import java.util.Vector;
+import java.util.ArrayDeque;
+
+import net.cellcloud.util.MpscArrayQueue;
 
 /**
  * 非阻塞网络接收器会话。
@@ -39,10 +41,17 @@ import java.util.Vector;
  */
 public class NonblockingAcceptorSession extends Session {
 
+	// 待发送消息队列容量
+	private static final int MESSAGE_QUEUE_CAPACITY = 1024;
+
 	private int block;
 
-	// 待发送消息列表
-	protected Vector<Message> messages = new Vector<Message>();
+	// 待发送消息队列，由工作线程消费
+	protected MpscArrayQueue<Message> messages = new MpscArrayQueue<Message>(MESSAGE_QUEUE_CAPACITY);
+	// 已从队列批量取出、尚未填充到游标的消息，仅由工作线程访问
+	protected ArrayDeque<Message> staged = new ArrayDeque<Message>();
+	// 待写数据游标，仅由工作线程访问
+	protected OutputCursor cursor = new OutputCursor();
 
 	protected SelectionKey selectionKey = null;
 	protected Socket socket = null;
@@ -28,39 +28,63 @@ package net.cellcloud.common;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Vector;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * 非阻塞网络接收器工作线程。
  * 
+ * 每个工作线程拥有独立的选择器，接收器将新连接分配给工作线程后，
+ * 该连接的读、解析和写均在此线程内完成，线程在选择器上阻塞等待事件。
+ * 
  * @author Ambrose Xu
  * 
  */
 public final class NonblockingAcceptorWorker extends Thread {
 
-	// 控制线程生命周期的条件变量
-	private byte[] mutex = new byte[0];
 	// 是否处于自旋
-	private boolean spinning = false;
+	private volatile boolean spinning = false;
 	// 是否正在工作
-	private boolean working = false;
+	private volatile boolean working = false;
 
 	private NonblockingAcceptor acceptor;
 
-	// 需要执行接收数据任务的 Session 列表
-	private Vector<NonblockingAcceptorSession> receiveSessions = new Vector<NonblockingAcceptorSession>();
-	// 需要执行发送数据任务的 Session 列表
-	private Vector<NonblockingAcceptorSession> sendSessions = new Vector<NonblockingAcceptorSession>();
+	// 工作线程的选择器
+	private Selector selector;
+
+	// 等待注册到选择器的 Session
+	private ConcurrentLinkedQueue<NonblockingAcceptorSession> registerSessions = new ConcurrentLinkedQueue<NonblockingAcceptorSession>();
+	// 有新消息待发送的 Session
+	private ConcurrentLinkedQueue<NonblockingAcceptorSession> sendSessions = new ConcurrentLinkedQueue<NonblockingAcceptorSession>();
+	// 是否已请求唤醒选择器
+	private AtomicBoolean wakeupRequested = new AtomicBoolean(false);
+
+	// 已完成发送的消息
+	private ArrayList<Message> sentMessages = new ArrayList<Message>();
+
+	// 已提取的消息
+	private ArrayList<Message> receivedMessages = new ArrayList<Message>();
+
+	// 缓冲池
+	private BufferPool pool = BufferPool.getHeapPool();
 
 	/**
 	 * 构造函数。
 	 * 
 	 * @param acceptor
+	 * @throws IOException
 	 */
-	public NonblockingAcceptorWorker(NonblockingAcceptor acceptor) {
+	public NonblockingAcceptorWorker(NonblockingAcceptor acceptor) throws IOException {
 		this.acceptor = acceptor;
+		this.selector = Selector.open();
 		this.setName("NonblockingAcceptorWorker@" + this.toString());
 	}
 
@@ -68,47 +92,71 @@ public final class NonblockingAcceptorWorker extends Thread {
 	public void run() {
 		this.working = true;
 		this.spinning = true;
-		NonblockingAcceptorSession session = null;
 
 		while (this.spinning) {
-			// 如果没有任务，则线程 wait
-			synchronized (this.mutex) {
-				if (this.receiveSessions.isEmpty()
-					&& this.sendSessions.isEmpty()
-					&& this.spinning) {
-					try {
-						this.mutex.wait();
-					} catch (InterruptedException e) {
-						Logger.log(NonblockingAcceptorWorker.class, e, LogLevel.DEBUG);
-					}
-				}
+			try {
+				this.selector.select();
+			} catch (IOException e) {
+				Logger.log(NonblockingAcceptorWorker.class, e, LogLevel.WARNING);
+				break;
+			} catch (Exception e) {
+				Logger.log(NonblockingAcceptorWorker.class, e, LogLevel.DEBUG);
+				break;
 			}
 
-			if (!this.receiveSessions.isEmpty()) {
-				// 执行接收数据任务，并移除已执行的 Session
-				session = this.receiveSessions.remove(0);
-				if (null != session.socket) {
-					processReceive(session);
-				}
+			this.wakeupRequested.set(false);
+
+			if (!this.spinning) {
+				break;
 			}
 
-			if (!this.sendSessions.isEmpty()) {
-				// 执行发送数据任务，并移除已执行的 Session
-				session = this.sendSessions.remove(0);
-				if (null != session.socket) {
-					processSend(session);
+			// 注册新连接
+			this.processRegister();
+
+			// 处理事件
+			Iterator<SelectionKey> it = this.selector.selectedKeys().iterator();
+			while (it.hasNext()) {
+				SelectionKey key = it.next();
+				it.remove();
+
+				NonblockingAcceptorSession session = (NonblockingAcceptorSession) key.attachment();
+				try {
+					if (key.isValid() && key.isReadable()) {
+						this.processReceive(session);
+					}
+					if (key.isValid() && key.isWritable()) {
+						this.processSend(session);
+					}
+				} catch (CancelledKeyException e) {
+					// 连接已关闭
+					Logger.log(NonblockingAcceptorWorker.class, e, LogLevel.DEBUG);
+				} catch (Exception e) {
+					Logger.log(NonblockingAcceptorWorker.class, e, LogLevel.WARNING);
 				}
 			}
 
-			try {
-				Thread.sleep(10);
-			} catch (InterruptedException e) {
-				// Nothing
+			// 发送新消息
+			NonblockingAcceptorSession session = null;
+			while (null != (session = this.sendSessions.poll())) {
+				if (null != session.socket && null != session.selectionKey) {
+					try {
+						this.processSend(session);
+					} catch (CancelledKeyException e) {
+						Logger.log(NonblockingAcceptorWorker.class, e, LogLevel.DEBUG);
+					}
+				}
 			}
+		}
 
-			Thread.yield();
+		try {
+			this.selector.close();
+		} catch (IOException e) {
+			Logger.log(NonblockingAcceptorWorker.class, e, LogLevel.DEBUG);
 		}
 
+		this.registerSessions.clear();
+		this.sendSessions.clear();
+
 		this.working = false;
 	}
 
@@ -120,9 +168,7 @@ public final class NonblockingAcceptorWorker extends Thread {
 	protected void stopSpinning(boolean blockingCheck) {
 		this.spinning = false;
 
-		synchronized (this.mutex) {
-			this.mutex.notifyAll();
-		}
+		this.selector.wakeup();
 
 		if (blockingCheck) {
 			while (this.working) {
@@ -145,75 +191,115 @@ public final class NonblockingAcceptorWorker extends Thread {
 	}
 
 	/**
-	 * 返回当前未处理的接收任务 Session 数量。
+	 * 返回当前未处理的发送任务 Session 数量。
 	 * 
 	 * @return
 	 */
-	protected int getReceiveSessionNum() {
-		return this.receiveSessions.size();
+	protected int getSendSessionNum() {
+		return this.sendSessions.size();
 	}
 
 	/**
-	 * 返回当前未处理的发送任务 Session 数量。
+	 * 将新连接的 Session 分配给此工作线程。
 	 * 
-	 * @return
+	 * @param session
 	 */
-	protected int getSendSessionNum() {
-		return this.sendSessions.size();
+	protected void pushRegisterSession(NonblockingAcceptorSession session) {
+		this.registerSessions.offer(session);
+		this.wakeup();
 	}
 
 	/**
-	 * 添加执行接收数据的 Session 。
+	 * 通知 Session 有新消息待发送。
 	 * 
 	 * @param session
 	 */
-	protected void pushReceiveSession(NonblockingAcceptorSession session) {
+	protected void pushSendSession(NonblockingAcceptorSession session) {
 		if (!this.spinning) {
 			return;
 		}
 
-		this.receiveSessions.add(session);
+		this.sendSessions.offer(session);
+		this.wakeup();
+	}
+
+	/**
+	 * 唤醒选择器。
+	 */
+	private void wakeup() {
+		if (this.wakeupRequested.compareAndSet(false, true)) {
+			this.selector.wakeup();
+		}
+	}
+
+	/**
+	 * 将等待注册的 Session 注册到选择器。
+	 */
+	private void processRegister() {
+		NonblockingAcceptorSession session = null;
+		while (null != (session = this.registerSessions.poll())) {
+			SocketChannel channel = session.socket.getChannel();
+			try {
+				session.selectionKey = channel.register(this.selector, SelectionKey.OP_READ, session);
+			} catch (ClosedChannelException e) {
+				Logger.log(NonblockingAcceptorWorker.class, e, LogLevel.DEBUG);
+				this.acceptor.eraseSession(session);
+				continue;
+			}
 
-		synchronized (this.mutex) {
-			this.mutex.notifyAll();
+			if (!session.messages.isEmpty()) {
+				// 注册前已写入的消息
+				this.processSend(session);
+			}
 		}
 	}
 
 	/**
-	 * 添加执行发送数据的 Session 。
+	 * 关闭连接并移除 Session 。
 	 * 
 	 * @param session
+	 * @param channel
 	 */
-	protected void pushSendSession(NonblockingAcceptorSession session) {
-		if (!this.spinning) {
-			return;
+	private void closeSession(NonblockingAcceptorSession session, SocketChannel channel) {
+		if (null != session.socket) {
+			this.acceptor.fireSessionClosed(session);
 		}
 
-		if (session.messages.isEmpty()) {
-			return;
+		this.discardPending(session);
+
+		try {
+			if (channel.isOpen())
+				channel.close();
+		} catch (IOException ioe) {
+			Logger.log(NonblockingAcceptorWorker.class, ioe, LogLevel.DEBUG);
 		}
 
-		this.sendSessions.add(session);
+		// 移除 Session
+		this.acceptor.eraseSession(session);
 
-		synchronized (this.mutex) {
-			this.mutex.notifyAll();
-		}
+		session.selectionKey.cancel();
 	}
 
 	/**
-	 * 从所有列表中移除指定的 Session 。
+	 * 回收游标、分片器和队列里尚未发送的消息，扣减会话的待写数据。
 	 * 
 	 * @param session
 	 */
-	private void removeSession(NonblockingAcceptorSession session) {
-		boolean exist = this.receiveSessions.remove(session);
-		while (exist) {
-			exist = this.receiveSessions.remove(session);
+	private void discardPending(NonblockingAcceptorSession session) {
+		ArrayList<Message> discarded = new ArrayList<Message>();
+
+		session.cursor.drain(discarded);
+		session.getFragmenter().drain(discarded);
+		discarded.addAll(session.staged);
+		session.staged.clear();
+
+		Message message = null;
+		while (null != (message = session.messages.poll())) {
+			discarded.add(message);
 		}
 
-		exist = this.sendSessions.remove(session);
-		while (exist) {
-			exist = this.sendSessions.remove(session);
+		for (int i = 0, size = discarded.size(); i < size; ++i) {
+			this.acceptor.unmarkPending(session, discarded.get(i));
 		}
 	}
 
@@ -229,82 +315,60 @@ public final class NonblockingAcceptorWorker extends Thread {
 			return;
 		}
 
-		int read = 0;
-		do {
-			// 创建读缓存。
-			ByteBuffer buf = ByteBuffer.allocate(session.getBlock());
+		// 有数据标记时直接读入帧累加器，否则从缓冲池借出读缓存
+		FrameAccumulator accumulator = this.acceptor.hasDataMark() ? session.getAccumulator() : null;
+		ByteBuffer buf = (null == accumulator) ? this.pool.borrow(session.getBlock()) : null;
 
-			synchronized (session) {
+		try {
+			int read = 0;
+			do {
 				try {
-					if (channel.isOpen())
-						read = channel.read(buf);
-					else
+					if (!channel.isOpen())
 						read = -1;
+					else if (null != accumulator)
+						read = accumulator.read(channel);
+					else {
+						buf.clear();
+						read = channel.read(buf);
+					}
 				} catch (IOException e) {
 					if (Logger.isDebugLevel()) {
 						Logger.d(this.getClass(), "Remote host has closed the connection.");
 					}
 
-					if (null != session.socket) {
-						this.acceptor.fireSessionClosed(session);
-					}
-
-					try {
-						if (channel.isOpen())
-							channel.close();
-					} catch (IOException ioe) {
-						Logger.log(NonblockingAcceptorWorker.class, ioe, LogLevel.DEBUG);
-					}
-
-					// 移除 Session
-					this.acceptor.eraseSession(session);
-					this.removeSession(session);
-
-					session.selectionKey.cancel();
-
-					buf = null;
-
+					this.closeSession(session, channel);
 					return;
 				}
 
 				if (read == 0) {
-					buf = null;
 					break;
 				}
 				else if (read == -1) {
-					if (null != session.socket) {
-						this.acceptor.fireSessionClosed(session);
-					}
-
-					try {
-						if (channel.isOpen())
-							channel.close();
-					} catch (IOException ioe) {
-						Logger.log(NonblockingAcceptorWorker.class, ioe, LogLevel.DEBUG);
-					}
-
-					// 移除 Session
-					this.acceptor.eraseSession(session);
-					this.removeSession(session);
-
-					session.selectionKey.cancel();
-
-					buf = null;
-
+					this.closeSession(session, channel);
 					return;
 				}
 
-				buf.flip();
-
-				byte[] array = new byte[read];
-				buf.get(array);
-
-				// 解析数据
-				this.parse(session, array);
-
-				buf = null;
+				if (null != accumulator) {
+					// 提取累加器里的完整帧
+					if (!this.parse(session, accumulator)) {
+						// 对端发送了超过协商长度的数据
+						this.acceptor.fireErrorOccurred(session, MessageErrorCode.READ_OUTOFBOUNDS);
+						this.closeSession(session, channel);
+						return;
+					}
+				}
+				else {
+					// 直接解析读缓存里的数据
+					Message message = new Message(this.pool, buf.array(), buf.arrayOffset(), read);
+					this.acceptor.fireMessageReceived(session, message);
+					message.release();
+				}
+			} while (read > 0);
+		} finally {
+			if (null != buf) {
+				this.pool.release(buf);
 			}
-		} while (read > 0);
+		}
 	}
 
 	/**
@@ -319,77 +383,120 @@ public final class NonblockingAcceptorWorker extends Thread {
 			return;
 		}
 
-		if (!session.messages.isEmpty()) {
-			// 有消息，进行发送
-			Message message = null;
+		byte[] head = this.acceptor.hasDataMark() ? this.acceptor.getHeadMark() : null;
+		byte[] tail = this.acceptor.hasDataMark() ? this.acceptor.getTailMark() : null;
 
-			synchronized (session) {
-				while (!session.messages.isEmpty()) {
-					try {
-						message = session.messages.remove(0);
-					} catch (IndexOutOfBoundsException e) {
-						break;
-					}
+		// 只有工作线程消费会话的发送队列和游标，不需要同步
+		OutputCursor cursor = session.cursor;
+		ArrayDeque<Message> staged = session.staged;
+		MessageFragmenter fragmenter = session.getFragmenter();
+		boolean fragmentTurn = false;
+		boolean failed = false;
 
-					// 创建写缓存
-					ByteBuffer buf = null;
-
-					// 根据是否有数据掩码组装数据包
-					if (this.acceptor.hasDataMark()) {
-						byte[] data = message.get();
-						byte[] head = this.acceptor.getHeadMark();
-						byte[] tail = this.acceptor.getTailMark();
-						byte[] pd = new byte[data.length + head.length + tail.length];
-						System.arraycopy(head, 0, pd, 0, head.length);
-						System.arraycopy(data, 0, pd, head.length, data.length);
-						System.arraycopy(tail, 0, pd, head.length + data.length, tail.length);
-						buf = ByteBuffer.wrap(pd);
+		try {
+			do {
+				// 将队列里的消息填充到游标，批量写出。分片与完整消息交替填充
+				while (cursor.hasRoom()) {
+					boolean queued = !staged.isEmpty() || !session.messages.isEmpty();
+
+					// 压缩消息分片期间不取新消息，保证接收顺序与压缩顺序一致
+					if (fragmentTurn || !queued || fragmenter.isOrdered()) {
+						fragmentTurn = false;
+						if (fragmenter.appendNext(cursor)) {
+							continue;
+						}
+						else if (!queued) {
+							break;
+						}
 					}
-					else {
-						buf = ByteBuffer.wrap(message.get());
+
+					if (staged.isEmpty() && session.messages.drain(staged, cursor.room()) == 0) {
+						break;
 					}
 
-					try {
-						channel.write(buf);
-					} catch (IOException e) {
-						Logger.log(NonblockingAcceptorWorker.class, e, LogLevel.WARNING);
+					fragmentTurn = true;
+
+					Message message = null;
+					while (cursor.hasRoom() && !fragmenter.isOrdered() && null != (message = staged.poll())) {
+						this.acceptor.getFilterChain().doWrite(session, message);
+
+						if (session.isFragmentation() && MessageFragmenter.needsFragment(message)) {
+							// 大消息进行分片
+							fragmenter.offer(message);
+						}
+						else if (session.isLengthFraming()) {
+							// 使用长度前缀帧
+							cursor.append(message, MessageService.makeFrameHeader(message.length()), null);
+						}
+						else {
+							cursor.append(message, head, tail);
+						}
 					}
+				}
+
+				if (cursor.isEmpty()) {
+					break;
+				}
 
-					buf = null;
+				cursor.flush(channel, this.sentMessages);
 
-					// 回调事件
-					this.acceptor.fireMessageSent(session, message);
+				if (!this.sentMessages.isEmpty()) {
+					for (int i = 0, size = this.sentMessages.size(); i < size; ++i) {
+						// 回调事件
+						this.acceptor.fireMessageSent(session, this.sentMessages.get(i));
+					}
+					this.sentMessages.clear();
 				}
-			} //# synchronized
+				// 内核缓存已满时等待下一次可写事件续写
+			} while (cursor.isEmpty());
+		} catch (IOException e) {
+			Logger.log(NonblockingAcceptorWorker.class, e, LogLevel.WARNING);
+			this.sentMessages.clear();
+			// 连接已不可写，关闭会话
+			failed = true;
+		}
+
+		// 有未写完的数据时关注可写事件，否则取消
+		SelectionKey key = session.selectionKey;
+		if (!failed && key.isValid()) {
+			if (cursor.isEmpty() && staged.isEmpty() && session.messages.isEmpty() && fragmenter.isEmpty()) {
+				key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+			}
+			else {
+				key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+			}
+		}
+
+		if (failed) {
+			this.acceptor.fireErrorOccurred(session, MessageErrorCode.WRITE_FAILED);
+			this.closeSession(session, channel);
 		}
 	}
 
 	/**
+	 * 从帧累加器里提取所有完整的帧并回调。
 	 * 
 	 * @param session
-	 * @param data
+	 * @param accumulator
+	 * @return 收到超过最大消息长度的数据时返回 <code>false</code> 。
 	 */
-	private void parse(NonblockingAcceptorSession session, byte[] data) {
-		// 根据数据标志获取数据
-		if (this.acceptor.hasDataMark()) {
-			ArrayList<byte[]> out = new ArrayList<byte[]>(2);
-			// 进行递归提取
-			this.extract(out, session, data);
-
-			if (!out.isEmpty()) {
-				for (byte[] bytes : out) {
-					Message message = new Message(bytes);
-					this.acceptor.fireMessageReceived(session, message);
-				}
-
-				out.clear();
+	private boolean parse(NonblockingAcceptorSession session, FrameAccumulator accumulator) {
+		ArrayList<Message> out = this.receivedMessages;
+		accumulator.extract(this.acceptor.getHeadMark(), this.acceptor.getTailMark(), out, false);
+		this.acceptor.recordFrameErrors(session, accumulator.pollErrors());
+
+		if (!out.isEmpty()) {
+			for (int i = 0, size = out.size(); i < size; ++i) {
+				Message message = out.get(i);
+				this.acceptor.fireMessageReceived(session, message);
+				// 归还池化缓冲
+				message.release();
 			}
-			out = null;
-		}
-		else {
-			Message message = new Message(data);
-			this.acceptor.fireMessageReceived(session, message);
+
+			out.clear();
 		}
+
+		return !accumulator.isOversized();
 	}
 
 	/**
@@ -476,168 +583,4 @@ public final class NonblockingAcceptorWorker extends Thread {
 		}
 	}
 
-	/**
-	 * 数据提取并输出。
-	 * 
-	 * @param out
-	 * @param session
-	 * @param data
-	 */
-	private void extract(final ArrayList<byte[]> out, final NonblockingAcceptorSession session, final byte[] data) {
-		final byte[] headMark = this.acceptor.getHeadMark();
-		final byte[] tailMark = this.acceptor.getTailMark();
-
-		// 当数据小于标签长度时直接缓存
-//		if (data.length < headMark.length) {
-//			if (session.cacheCursor + data.length > session.getCacheSize()) {
-//				// 重置 cache 大小
-//				session.resetCacheSize(session.cacheCursor + data.length);
-//			}
-//			System.arraycopy(data, 0, session.cache, session.cacheCursor, data.length);
-//			session.cacheCursor += data.length;
-//			return;
-//		}
-
-		byte[] real = data;
-		if (session.cacheCursor > 0) {
-			real = new byte[session.cacheCursor + data.length];
-			System.arraycopy(session.cache, 0, real, 0, session.cacheCursor);
-			System.arraycopy(data, 0, real, session.cacheCursor, data.length);
-			session.cacheCursor = 0;
-		}
-
-		// 当数据小于标签长度时直接缓存
-		if (real.length < headMark.length) {
-			if (session.cacheCursor + real.length > session.getCacheSize()) {
-				// 重置 cache 大小
-				session.resetCacheSize(session.cacheCursor + real.length);
-			}
-			System.arraycopy(real, 0, session.cache, session.cacheCursor, real.length);
-			session.cacheCursor += real.length;
-			return;
-		}
-
-		int index = 0;
-		int len = real.length;
-		int headPos = -1;
-		int tailPos = -1;
-
-		if (compareBytes(headMark, 0, real, index, headMark.length)) {
-			// 有头标签
-			index += headMark.length;
-			// 记录数据位置头
-			headPos = index;
-			// 判断是否有尾标签
-			while (index < len) {
-//				if (real[index] == tailMark[0]) {
-					if (compareBytes(tailMark, 0, real, index, tailMark.length)) {
-						// 找到尾标签
-						tailPos = index;
-						break;
-					}
-					else {
-						++index;
-					}
-//				}
-//				else {
-//					++index;
-//				}
-			}
-
-			if (headPos > 0 && tailPos > 0) {
-				byte[] outBytes = new byte[tailPos - headPos];
-				System.arraycopy(real, headPos, outBytes, 0, tailPos - headPos);
-				out.add(outBytes);
-
-				int newLen = len - tailPos - tailMark.length;
-				if (newLen > 0) {
-					byte[] newBytes = new byte[newLen];
-					System.arraycopy(real, tailPos + tailMark.length, newBytes, 0, newLen);
-
-					// 递归
-					extract(out, session, newBytes);
-				}
-			}
-			else {
-				// 没有尾标签
-				// 仅进行缓存
-				if (len + session.cacheCursor > session.getCacheSize()) {
-					// 缓存扩容
-					session.resetCacheSize(len + session.cacheCursor);
-				}
-
-				System.arraycopy(real, 0, session.cache, session.cacheCursor, len);
-				session.cacheCursor += len;
-			}
-		}
-		else {
-			// 没有头标签
-			// 尝试找到头标签
-			byte[] markBuf = new byte[headMark.length];
-			int searchIndex = 0;
-			int searchCounts = 0;
-			do {
-				// 判断数据是否越界
-				if (searchIndex + headMark.length > len) {
-					// 越界，删除索引之前的所有数据
-					byte[] newReal = new byte[len - searchIndex];
-					System.arraycopy(real, searchIndex, newReal, 0, newReal.length);
-
-					if (session.cacheCursor + newReal.length > session.getCacheSize()) {
-						// 重置 cache 大小
-						session.resetCacheSize(session.cacheCursor + newReal.length);
-					}
-					System.arraycopy(newReal, 0, session.cache, session.cacheCursor, newReal.length);
-					session.cacheCursor += newReal.length;
-					// 退出循环
-					break;
-				}
-
-				// 复制数据到待测试缓存
-				System.arraycopy(real, searchIndex, markBuf, 0, headMark.length);
-
-				for (int i = 0; i < markBuf.length; ++i) {
-					if (markBuf[i] == headMark[i]) {
-						++searchCounts;
-					}
-					else {
-						break;
-					}
-				}
-
-				if (searchCounts == headMark.length) {
-					// 找到 head mark
-					byte[] newReal = new byte[len - searchIndex];
-					System.arraycopy(real, searchIndex, newReal, 0, newReal.length);
-					extract(out, session, newReal);
-					return;
-				}
-
-				// 更新索引
-				++searchIndex;
-
-				// 重置计数
-				searchCounts = 0;
-			} while (searchIndex < len);
-		}
-
-//		byte[] newBytes = new byte[len - headMark.length];
-//		System.arraycopy(real, headMark.length, newBytes, 0, newBytes.length);
-//		extract(out, session, newBytes);
-	}
-
-	private boolean compareBytes(byte[] b1, int offsetB1, byte[] b2, int offsetB2, int length) {
-		for (int i = 0; i < length; ++i) {
-			// FIXME XJW 2015-12-30 判断数组越界
-			if (offsetB1 + i >= b1.length || offsetB2 + i >= b2.length) {
-				return false;
-			}
-
-			if (b1[offsetB1 + i] != b2[offsetB2 + i]) {
-				return false;
-			}
-		}
-		return true;
-	}
-
 }
@@ -32,14 +32,16 @@ import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
-import java.util.Vector;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-import net.cellcloud.util.Utils;
+import net.cellcloud.util.MpscArrayQueue;
 import android.content.Context;
 
 
@@ -51,9 +53,11 @@ import android.content.Context;
  */
 public class NonblockingConnector extends MessageService implements MessageConnector {
 
+	// 待发送消息队列容量
+	private static final int MESSAGE_QUEUE_CAPACITY = 4096;
+
 	// 缓冲块大小
 	private int block = 32768;
-	private final int writeLimit = 16384;
 
 	private InetSocketAddress address;
 	private long connectTimeout;
@@ -67,21 +71,50 @@ public class NonblockingConnector extends MessageService implements MessageConne
 	private long timerInterval = 500;
 	private volatile boolean running = false;
 
-	// 待发送消息列表
-	private Vector<Message> messages;
+	/** 是否使用反应器模式。反应器模式下由专用 I/O 线程阻塞在 select 上，否则使用定时器轮询。 */
+	private boolean reactorMode = true;
+	/** 反应器循环是否正在运行。 */
+	private volatile boolean spinning = false;
+	/** 是否已请求唤醒选择器。 */
+	private final AtomicBoolean wakeupRequested = new AtomicBoolean(false);
+
+	// 待发送消息队列，由 I/O 线程消费
+	private MpscArrayQueue<Message> messages;
+	// 已从队列批量取出、尚未填充到游标的消息
+	private ArrayDeque<Message> staged;
+	// 待写数据游标
+	private OutputCursor cursor;
+	// 已完成发送的消息
+	private ArrayList<Message> sentMessages;
+	// 已提取的消息
+	private LinkedList<Message> receivedMessages;
+	// 缓冲池
+	private BufferPool pool = BufferPool.getHeapPool();
 
 	private boolean closed = false;
 
-	private Context androidContext;
+	private NetworkMonitor networkMonitor;
 
 	/**
 	 * 
 	 * @param androidContext
 	 */
 	public NonblockingConnector(Context androidContext) {
-		this.androidContext = androidContext;
+		this(new AndroidNetworkMonitor(androidContext));
+	}
+
+	/**
+	 * 
+	 * @param networkMonitor 指定网络状态监视器。
+	 */
+	public NonblockingConnector(NetworkMonitor networkMonitor) {
+		this.networkMonitor = networkMonitor;
 		this.connectTimeout = 15000;
-		this.messages = new Vector<Message>();
+		this.messages = new MpscArrayQueue<Message>(MESSAGE_QUEUE_CAPACITY);
+		this.staged = new ArrayDeque<Message>();
+		this.cursor = new OutputCursor();
+		this.sentMessages = new ArrayList<Message>();
+		this.receivedMessages = new LinkedList<Message>();
 	}
 
 	/**
@@ -104,7 +137,7 @@ public class NonblockingConnector extends MessageService implements MessageConne
 		System.setProperty("java.net.preferIPv6Addresses", "false");
 
 		// 判断是否有网络连接
-		if (!Utils.isNetworkConnected(this.androidContext)) {
+		if (!this.networkMonitor.isConnected()) {
 			this.fireErrorOccurred(MessageErrorCode.NO_NETWORK);
 			return false;
 		}
@@ -138,6 +171,8 @@ public class NonblockingConnector extends MessageService implements MessageConne
 
 		// 状态初始化
 		this.messages.clear();
+		this.staged.clear();
+		this.cursor.clear();
 		this.address = address;
 
 		try {
@@ -368,18 +403,57 @@ public class NonblockingConnector extends MessageService implements MessageConne
 			return false;
 		}
 
-		if (message.length() > this.writeLimit) {
+		if (message.length() > this.session.getMaxMessageSize()) {
 			this.fireErrorOccurred(MessageErrorCode.WRITE_OUTOFBOUNDS);
 			return false;
 		}
 
-		this.messages.add(message);
+		boolean unwritable = this.markPending(this.session, message);
+
+		if (!this.messages.offer(message)) {
+			this.unmarkPending(this.session, message);
+			this.fireErrorOccurred(MessageErrorCode.WRITE_QUEUE_FULL);
+			return false;
+		}
+
+		if (unwritable) {
+			// 待写数据超过高水位
+			this.fireSessionUnwritable(this.session);
+		}
+
+		if (this.reactorMode) {
+			// 唤醒 I/O 线程设置写事件
+			if (this.wakeupRequested.compareAndSet(false, true)) {
+				Selector selector = this.selector;
+				if (null != selector) {
+					selector.wakeup();
+				}
+			}
+		}
 
 		return true;
 	}
 
 	/**
-	 * 重置休眠间隔。
+	 * 设置是否使用反应器模式。在下一次连接时生效。
+	 * 
+	 * @param value 指定 <code>true</code> 使用专用 I/O 线程阻塞选择，<code>false</code> 使用定时器轮询。
+	 */
+	public void setReactorMode(boolean value) {
+		this.reactorMode = value;
+	}
+
+	/**
+	 * 是否使用反应器模式。
+	 * 
+	 * @return 如果使用反应器模式返回 <code>true</code> 。
+	 */
+	public boolean isReactorMode() {
+		return this.reactorMode;
+	}
+
+	/**
+	 * 重置休眠间隔。仅在定时器轮询模式下有效。
 	 * 
 	 * @param value
 	 */
@@ -390,6 +464,10 @@ public class NonblockingConnector extends MessageService implements MessageConne
 
 		this.timerInterval = value;
 
+		if (this.reactorMode) {
+			return;
+		}
+
 		if (null != this.handleTimer) {
 			this.handleTimer.cancel();
 			this.handleTimer.purge();
@@ -407,6 +485,8 @@ public class NonblockingConnector extends MessageService implements MessageConne
 		}
 	}
 	private void fireSessionOpened() {
+		this.recordConnect(this.session);
+
 		if (null != this.handler) {
 			this.closed = false;
 			this.handler.sessionOpened(this.session);
@@ -426,8 +506,11 @@ public class NonblockingConnector extends MessageService implements MessageConne
 		}
 	}
 	private void fireErrorOccurred(int errorCode) {
+		this.fireErrorOccurred(errorCode, null);
+	}
+	private void fireErrorOccurred(int errorCode, Message message) {
 		if (null != this.handler) {
-			this.handler.errorOccurred(errorCode, this.session, null);
+			this.handler.errorOccurred(errorCode, this.session, message);
 		}
 	}
 
@@ -440,6 +523,12 @@ public class NonblockingConnector extends MessageService implements MessageConne
 	private void loopDispatch(Runnable endingCallback) throws Exception {
 		this.endingCallback = endingCallback;
 
+		if (this.reactorMode) {
+			// 当前线程即为 I/O 线程
+			this.reactorLoop();
+			return;
+		}
+
 		if (null != this.handleTimer) {
 			return;
 		}
@@ -449,6 +538,53 @@ public class NonblockingConnector extends MessageService implements MessageConne
 		this.handleTimer.scheduleAtFixedRate(this.createTask(), 1000, this.timerInterval);
 	}
 
+	/**
+	 * 反应器事件循环。阻塞在选择器上，直到有 I/O 事件或者被写操作唤醒。
+	 */
+	private void reactorLoop() {
+		this.spinning = true;
+
+		long deadline = System.currentTimeMillis() + this.connectTimeout;
+
+		while (this.spinning) {
+			try {
+				long timeout = 0;
+				if (!this.channel.isConnected()) {
+					timeout = deadline - System.currentTimeMillis();
+					if (timeout <= 0) {
+						// 连接超时
+						this.cleanup();
+						this.fireErrorOccurred(MessageErrorCode.CONNECT_TIMEOUT);
+						this.stopLoop();
+						break;
+					}
+				}
+				else {
+					// 仅在有待发送数据时关注写事件
+					this.wakeupRequested.set(false);
+					if (this.hasPendingOutput()) {
+						SelectionKey key = this.channel.keyFor(this.selector);
+						if (null != key && key.isValid() && (key.interestOps() & SelectionKey.OP_WRITE) == 0) {
+							key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+						}
+					}
+				}
+
+				if (this.selector.select(timeout) > 0 && this.spinning) {
+					if (!this.processSelectedKeys()) {
+						break;
+					}
+				}
+			} catch (Exception exception) {
+				if (this.spinning) {
+					this.stopLoop();
+					Logger.log(NonblockingConnector.class, exception, LogLevel.DEBUG);
+				}
+				break;
+			}
+		}
+	}
+
 	/**
 	 * 创建定时器任务。
 	 * 
@@ -464,41 +600,52 @@ public class NonblockingConnector extends MessageService implements MessageConne
 
 				try {
 					if (selector.select(channel.isConnected() ? 0 : connectTimeout) > 0) {
-						Set<SelectionKey> keys = selector.selectedKeys();
-						Iterator<SelectionKey> it = keys.iterator();
-						while (it.hasNext()) {
-							SelectionKey key = (SelectionKey) it.next();
-							it.remove();
-
-							// 当前通道选择器产生连接已经准备就绪事件，并且客户端套接字通道尚未连接到服务端套接字通道
-							if (key.isConnectable()) {
-								if (!doConnect(key)) {
-									// 停止循环
-									stopLoop();
-									return;
-								}
-								else {
-									// 连接成功，打开 Session
-									fireSessionOpened();
-								}
-							}
-							if (key.isValid() && key.isReadable()) {
-								receive(key);
-							}
-							if (key.isValid() && key.isWritable()) {
-								send(key);
-							}
-						} //# while
+						processSelectedKeys();
 					}
 				} catch (Exception exception) {
 					stopLoop();
-					Logger.log(handleTimer.getClass(), exception, LogLevel.DEBUG);
+					Logger.log(NonblockingConnector.class, exception, LogLevel.DEBUG);
 				}
 			}
 		};
 		return task;
 	}
 
+	/**
+	 * 处理已选择的事件键。
+	 * 
+	 * @return 如果循环需要终止返回 <code>false</code> 。
+	 */
+	private boolean processSelectedKeys() {
+		Set<SelectionKey> keys = this.selector.selectedKeys();
+		Iterator<SelectionKey> it = keys.iterator();
+		while (it.hasNext()) {
+			SelectionKey key = (SelectionKey) it.next();
+			it.remove();
+
+			// 当前通道选择器产生连接已经准备就绪事件，并且客户端套接字通道尚未连接到服务端套接字通道
+			if (key.isConnectable()) {
+				if (!this.doConnect(key)) {
+					// 停止循环
+					this.stopLoop();
+					return false;
+				}
+				else {
+					// 连接成功，打开 Session
+					this.fireSessionOpened();
+				}
+			}
+			if (key.isValid() && key.isReadable()) {
+				this.receive(key);
+			}
+			if (key.isValid() && key.isWritable()) {
+				this.send(key);
+			}
+		} //# while
+
+		return this.reactorMode ? this.spinning : true;
+	}
+
 	private void stopLoop() {
 		if (null != this.handleTimer) {
 			this.handleTimer.cancel();
@@ -506,6 +653,13 @@ public class NonblockingConnector extends MessageService implements MessageConne
 			this.handleTimer = null;
 		}
 
+		if (this.spinning) {
+			this.spinning = false;
+			if (null != this.selector) {
+				this.selector.wakeup();
+			}
+		}
+
 		// 关闭会话
 		this.fireSessionClosed();
 
@@ -544,7 +698,13 @@ public class NonblockingConnector extends MessageService implements MessageConne
 
 		if (key.isValid()) {
 			key.interestOps(key.interestOps() & ~SelectionKey.OP_CONNECT);
-			key.interestOps(key.interestOps() | SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+			if (this.reactorMode && !this.hasPendingOutput()) {
+				// 反应器模式下仅在有待发送数据时关注写事件
+				key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+			}
+			else {
+				key.interestOps(key.interestOps() | SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+			}
 		}
 
 		return true;
@@ -557,55 +717,61 @@ public class NonblockingConnector extends MessageService implements MessageConne
 			return;
 		}
 
-		int read = 0;
-		do {
-			ByteBuffer readBuffer = ByteBuffer.allocate(this.block);
-			try {
-				read = channel.read(readBuffer);
-			} catch (IOException e) {
-				fireSessionClosed();
-
-				// 清理
-				this.cleanup();
-				// 不能继续进行数据接收
-				this.stopLoop();
-				readBuffer = null;
-				return;
-			}
+		// 有数据标记时直接读入帧累加器，否则从缓冲池借出读缓存
+		FrameAccumulator accumulator = this.hasDataMark() ? this.session.getAccumulator() : null;
+		ByteBuffer readBuffer = (null == accumulator) ? this.pool.borrow(this.block) : null;
 
-			if (read == 0) {
-				readBuffer = null;
-				break;
-			}
-			else if (read == -1) {
-				fireSessionClosed();
-
-				// 清理
-				this.cleanup();
-				// 不能继续进行数据接收
-				this.stopLoop();
-				readBuffer = null;
-				return;
-			}
+		try {
+			int read = 0;
+			do {
+				try {
+					if (null != accumulator) {
+						read = accumulator.read(channel);
+					}
+					else {
+						readBuffer.clear();
+						read = channel.read(readBuffer);
+					}
+				} catch (IOException e) {
+					// 不能继续进行数据接收
+					this.closeSession();
+					return;
+				}
 
-			readBuffer.flip();
+				if (read == 0) {
+					break;
+				}
+				else if (read == -1) {
+					// 不能继续进行数据接收
+					this.closeSession();
+					return;
+				}
 
-			// 数据读取
-			byte[] array = new byte[read];
-			readBuffer.get(array);
+				// 处理数据
+				try {
+					if (null != accumulator) {
+						this.processFrames(accumulator);
+					}
+					else {
+						this.process(readBuffer.array(), readBuffer.arrayOffset(), read);
+					}
+				} catch (Exception e) {
+					Logger.log(NonblockingConnector.class, e, LogLevel.WARNING);
+				}
 
-			// 处理数据
-			try {
-				this.process(array);
-			} catch (ArrayIndexOutOfBoundsException e) {
-				this.session.cacheCursor = 0;
-				Logger.log(NonblockingConnector.class, e, LogLevel.WARNING);
-			} catch (Exception e) {
-				Logger.log(NonblockingConnector.class, e, LogLevel.WARNING);
+				if (null != accumulator && accumulator.isOversized()) {
+					// 对端发送了超过协商长度的数据
+					fireErrorOccurred(MessageErrorCode.READ_OUTOFBOUNDS);
+					// 不能继续进行数据接收
+					this.closeSession();
+					return;
+				}
+			} while (read > 0);
+		} finally {
+			if (null != readBuffer) {
+				this.pool.release(readBuffer);
 			}
-
-			readBuffer = null;
-		} while (read > 0);
+		}
 
 		if (key.isValid()) {
 			key.interestOps(key.interestOps() | SelectionKey.OP_READ);
@@ -620,93 +786,187 @@ public class NonblockingConnector extends MessageService implements MessageConne
 			return;
 		}
 
+		boolean failed = false;
+
 		try {
-			if (!this.messages.isEmpty()) {
-				// 有消息，进行发送
-
-				Message message = null;
-				for (int i = 0, len = this.messages.size(); i < len; ++i) {
-					try {
-						message = this.messages.remove(0);
-					} catch (IndexOutOfBoundsException e) {
-						break;
-					}
+			byte[] head = this.hasDataMark() ? this.getHeadMark() : null;
+			byte[] tail = this.hasDataMark() ? this.getTailMark() : null;
+
+			MessageFragmenter fragmenter = this.session.getFragmenter();
+			boolean fragmentTurn = false;
 
-					byte[] skey = this.session.getSecretKey();
-					if (null != skey) {
-						this.encryptMessage(message, skey);
+			do {
+				// 将队列里的消息填充到游标，批量写出。分片与完整消息交替填充
+				while (this.cursor.hasRoom()) {
+					boolean queued = !this.staged.isEmpty() || !this.messages.isEmpty();
+
+					// 压缩消息分片期间不取新消息，保证接收顺序与压缩顺序一致
+					if (fragmentTurn || !queued || fragmenter.isOrdered()) {
+						fragmentTurn = false;
+						if (fragmenter.appendNext(this.cursor)) {
+							continue;
+						}
+						else if (!queued) {
+							break;
+						}
 					}
 
-					ByteBuffer writeBuffer = null;
-					if (this.hasDataMark()) {
-						byte[] data = message.get();
-						byte[] head = this.getHeadMark();
-						byte[] tail = this.getTailMark();
-						byte[] pd = new byte[data.length + head.length + tail.length];
-						System.arraycopy(head, 0, pd, 0, head.length);
-						System.arraycopy(data, 0, pd, head.length, data.length);
-						System.arraycopy(tail, 0, pd, head.length + data.length, tail.length);
-						writeBuffer = ByteBuffer.wrap(pd);
+					if (this.staged.isEmpty() && this.messages.drain(this.staged, this.cursor.room()) == 0) {
+						break;
 					}
-					else {
-						writeBuffer = ByteBuffer.wrap(message.get());
+
+					fragmentTurn = true;
+
+					Message message = null;
+					while (this.cursor.hasRoom() && !fragmenter.isOrdered() && null != (message = this.staged.poll())) {
+						this.getFilterChain().doWrite(this.session, message);
+
+						if (this.session.isFragmentation() && MessageFragmenter.needsFragment(message)) {
+							// 大消息进行分片
+							fragmenter.offer(message);
+						}
+						else if (this.session.isLengthFraming()) {
+							// 使用长度前缀帧
+							this.cursor.append(message, MessageService.makeFrameHeader(message.length()), null);
+						}
+						else {
+							this.cursor.append(message, head, tail);
+						}
 					}
+				}
 
-					channel.write(writeBuffer);
+				if (this.cursor.isEmpty()) {
+					break;
+				}
 
-					writeBuffer = null;
+				this.cursor.flush(channel, this.sentMessages);
 
-					if (null != this.handler) {
-						this.handler.messageSent(this.session, message);
+				if (!this.sentMessages.isEmpty()) {
+					for (int i = 0, size = this.sentMessages.size(); i < size; ++i) {
+						Message sent = this.sentMessages.get(i);
+						this.markSent(this.session, sent);
+						if (null != this.handler) {
+							this.handler.messageSent(this.session, sent);
+						}
 					}
+					this.sentMessages.clear();
 				}
-			}
+				// 内核缓存已满时等待下一次可写事件续写
+			} while (this.cursor.isEmpty());
 		} catch (IOException e) {
 			Logger.log(NonblockingConnector.class, e, LogLevel.WARNING);
+			this.sentMessages.clear();
+			// 连接已不可写，关闭会话
+			failed = true;
+		}
+
+		if (failed) {
+			ArrayList<Message> discarded = this.discardPending();
+			if (discarded.isEmpty()) {
+				this.fireErrorOccurred(MessageErrorCode.WRITE_FAILED);
+			}
+			else {
+				for (int i = 0, size = discarded.size(); i < size; ++i) {
+					this.fireErrorOccurred(MessageErrorCode.WRITE_FAILED, discarded.get(i));
+				}
+			}
+
+			// 关闭选择器后不再产生可写事件
+			this.closeSession();
+			return;
 		}
 
 		if (key.isValid()) {
-			key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+			if (this.reactorMode && !this.hasPendingOutput()) {
+				// 没有待发送数据，取消写事件
+				key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+			}
+			else {
+				key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+			}
 		}
 	}
 
-	private void process(byte[] data) {
-		// 根据数据标志获取数据
-		if (this.hasDataMark()) {
-			LinkedList<byte[]> out = new LinkedList<byte[]>();
-			// 数据递归提取
-			this.extract(out, data);
+	/**
+	 * 关闭连接，丢弃尚未发送的数据并终止事件循环。
+	 */
+	private void closeSession() {
+		fireSessionClosed();
 
-			if (!out.isEmpty()) {
-				for (byte[] bytes : out) {
-					Message message = new Message(bytes);
+		this.discardPending();
 
-					byte[] skey = this.session.getSecretKey();
-					if (null != skey) {
-						this.decryptMessage(message, skey);
-					}
+		// 清理
+		this.cleanup();
+		this.stopLoop();
+	}
 
-					if (null != this.handler) {
-						this.handler.messageReceived(this.session, message);
-					}
+	/**
+	 * 回收游标、分片器和队列里尚未发送的消息，扣减会话的待写数据。
+	 * 
+	 * @return 返回被丢弃的消息。
+	 */
+	private ArrayList<Message> discardPending() {
+		ArrayList<Message> discarded = new ArrayList<Message>();
+
+		this.cursor.drain(discarded);
+		this.session.getFragmenter().drain(discarded);
+		discarded.addAll(this.staged);
+		this.staged.clear();
+
+		Message message = null;
+		while (null != (message = this.messages.poll())) {
+			discarded.add(message);
+		}
+
+		for (int i = 0, size = discarded.size(); i < size; ++i) {
+			this.unmarkPending(this.session, discarded.get(i));
+		}
+
+		return discarded;
+	}
+
+	/**
+	 * 是否有待发送的数据。
+	 * 
+	 * @return
+	 */
+	private boolean hasPendingOutput() {
+		return !this.messages.isEmpty() || !this.staged.isEmpty() || !this.cursor.isEmpty()
+			|| (null != this.session && !this.session.getFragmenter().isEmpty());
+	}
+
+	/**
+	 * 从帧累加器里提取所有完整的帧并回调。
+	 * 
+	 * @param accumulator
+	 */
+	private void processFrames(FrameAccumulator accumulator) {
+		LinkedList<Message> out = this.receivedMessages;
+		accumulator.extract(this.getHeadMark(), this.getTailMark(), out, false);
+		this.recordFrameErrors(this.session, accumulator.pollErrors());
+
+		if (!out.isEmpty()) {
+			for (Message message : out) {
+				if (this.processRead(this.session, message) && null != this.handler) {
+					this.handler.messageReceived(this.session, message);
 				}
 
-				out.clear();
+				// 归还池化缓冲
+				message.release();
 			}
-			out = null;
+
+			out.clear();
 		}
-		else {
-			Message message = new Message(data);
+	}
 
-			byte[] skey = this.session.getSecretKey();
-			if (null != skey) {
-				this.decryptMessage(message, skey);
-			}
+	private void process(byte[] data, int offset, int length) {
+		Message message = new Message(this.pool, data, offset, length);
 
-			if (null != this.handler) {
-				this.handler.messageReceived(this.session, message);
-			}
+		if (this.processRead(this.session, message) && null != this.handler) {
+			this.handler.messageReceived(this.session, message);
 		}
+
+		message.release();
 	}
 
 	/**
@@ -795,196 +1055,4 @@ public class NonblockingConnector extends MessageService implements MessageConne
 		}
 	}
 
-	/**
-	 * 数据提取并输出。
-	 * 
-	 * @param out
-	 * @param data
-	 */
-	private void extract(LinkedList<byte[]> out, byte[] data) {
-		final byte[] headMark = this.getHeadMark();
-		final byte[] tailMark = this.getTailMark();
-
-		// 当数据小于标签长度时直接缓存
-//		if (data.length < headMark.length) {
-//			if (this.session.cacheCursor + data.length > this.session.getCacheSize()) {
-//				// 重置 cache 大小
-//				this.session.resetCacheSize(this.session.cacheCursor + data.length);
-//			}
-//			System.arraycopy(data, 0, this.session.cache, this.session.cacheCursor, data.length);
-//			this.session.cacheCursor += data.length;
-//			return;
-//		}
-
-		byte[] real = data;
-		if (this.session.cacheCursor > 0) {
-			real = new byte[this.session.cacheCursor + data.length];
-			System.arraycopy(this.session.cache, 0, real, 0, this.session.cacheCursor);
-			System.arraycopy(data, 0, real, this.session.cacheCursor, data.length);
-			this.session.cacheCursor = 0;
-		}
-
-		// 当数据小于标签长度时直接缓存
-		if (real.length < headMark.length) {
-			if (this.session.cacheCursor + real.length > this.session.getCacheSize()) {
-				// 重置 cache 大小
-				this.session.resetCacheSize(this.session.cacheCursor + real.length);
-			}
-			System.arraycopy(real, 0, this.session.cache, this.session.cacheCursor, real.length);
-			this.session.cacheCursor += real.length;
-			return;
-		}
-
-		int index = 0;
-		int len = real.length;
-		int headPos = -1;
-		int tailPos = -1;
-
-		if (0 == compareBytes(headMark, 0, real, index, headMark.length)) {
-			// 有头标签
-			index += headMark.length;
-			// 记录数据位置头
-			headPos = index;
-			// 判断是否有尾标签，依次计数
-			int ret = -1;
-			while (index < len) {
-				if (real[index] == tailMark[0]) {
-					ret = compareBytes(tailMark, 0, real, index, tailMark.length);
-					if (0 == ret) {
-						// 找到尾标签
-						tailPos = index;
-						break;
-					}
-					else if (1 == ret) {
-						// 越界
-						break;
-					}
-					else {
-						// 未找到尾标签
-						++index;
-					}
-				}
-				else {
-					++index;
-				}
-			}
-
-			if (headPos > 0 && tailPos > 0) {
-				byte[] outBytes = new byte[tailPos - headPos];
-				System.arraycopy(real, headPos, outBytes, 0, tailPos - headPos);
-				out.add(outBytes);
-
-				int newLen = len - tailPos - tailMark.length;
-				if (newLen > 0) {
-					byte[] newBytes = new byte[newLen];
-					System.arraycopy(real, tailPos + tailMark.length, newBytes, 0, newLen);
-
-					// 递归
-					extract(out, newBytes);
-				}
-			}
-			else {
-				// 没有尾标签
-				// 仅进行缓存
-				if (len + this.session.cacheCursor > this.session.getCacheSize()) {
-					// 缓存扩容
-					this.session.resetCacheSize(len + this.session.cacheCursor);
-				}
-
-				System.arraycopy(real, 0, this.session.cache, this.session.cacheCursor, len);
-				this.session.cacheCursor += len;
-			}
-		}
-		else {
-			// 没有头标签
-			// 尝试找到头标签
-			byte[] markBuf = new byte[headMark.length];
-			int searchIndex = 0;
-			int searchCounts = 0;
-			do {
-				// 判断数据是否越界
-				if (searchIndex + headMark.length > len) {
-					// 越界，删除索引之前的所有数据
-					byte[] newReal = new byte[len - searchIndex];
-					System.arraycopy(real, searchIndex, newReal, 0, newReal.length);
-
-					if (this.session.cacheCursor + newReal.length > this.session.getCacheSize()) {
-						// 重置 cache 大小
-						this.session.resetCacheSize(this.session.cacheCursor + newReal.length);
-					}
-					System.arraycopy(newReal, 0, this.session.cache, this.session.cacheCursor, newReal.length);
-					this.session.cacheCursor += newReal.length;
-					// 退出循环
-					break;
-				}
-
-				// 复制数据到待测试缓存
-				System.arraycopy(real, searchIndex, markBuf, 0, headMark.length);
-
-				for (int i = 0; i < markBuf.length; ++i) {
-					if (markBuf[i] == headMark[i]) {
-						++searchCounts;
-					}
-					else {
-						break;
-					}
-				}
-
-				if (searchCounts == headMark.length) {
-					// 找到 head mark
-					byte[] newReal = new byte[len - searchIndex];
-					System.arraycopy(real, searchIndex, newReal, 0, newReal.length);
-					extract(out, newReal);
-					return;
-				}
-
-				// 更新索引
-				++searchIndex;
-
-				// 重置计数
-				searchCounts = 0;
-			} while (searchIndex < len);
-		}
-
-//		byte[] newBytes = new byte[len - headMark.length];
-//		System.arraycopy(real, headMark.length, newBytes, 0, newBytes.length);
-//		extract(out, newBytes);
-	}
-
-	/**
-	 * 
-	 * @param b1
-	 * @param offsetB1
-	 * @param b2
-	 * @param offsetB2
-	 * @param length
-	 * @return 0 表示匹配，-1 表示不匹配，1 表示越界
-	 */
-	private int compareBytes(byte[] b1, int offsetB1, byte[] b2, int offsetB2, int length) {
-		for (int i = 0; i < length; ++i) {
-			// FIXME XJW 2015-12-30 判断数组越界
-			if (offsetB1 + i >= b1.length || offsetB2 + i >= b2.length) {
-				return 1;
-			}
-
-			if (b1[offsetB1 + i] != b2[offsetB2 + i]) {
-				return -1;
-			}
-		}
-
-		return 0;
-	}
-
-	private void encryptMessage(Message message, byte[] key) {
-		byte[] plaintext = message.get();
-		byte[] ciphertext = Cryptology.getInstance().simpleEncrypt(plaintext, key);
-		message.set(ciphertext);
-	}
-
-	private void decryptMessage(Message message, byte[] key) {
-		byte[] ciphertext = message.get();
-		byte[] plaintext = Cryptology.getInstance().simpleDecrypt(ciphertext, key);
-		message.set(plaintext);
-	}
-
 }
@@ -0,0 +1,239 @@
+/*
+-----------------------------------------------------------------------------
+This source file is part of Cell Cloud.
+
+Copyright (c) 2009-2017 Cell Cloud Team (www.cellcloud.net)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+-----------------------------------------------------------------------------
+*/
+
+package net.cellcloud.common;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.List;
+
+/**
+ * 会话待写数据游标。
+ * 
+ * 记录已取出但尚未被内核完全接收的数据缓冲，使用集中写一次写出多条消息，
+ * 并在下一次可写事件时从中断位置续写。数据标识与消息数据作为独立缓冲写出，不进行复制。
+ * 
+ * @author Ambrose Xu
+ * 
+ */
+public final class OutputCursor {
+
+	/** 单次集中写最多使用的缓冲数量。 */
+	private static final int MAX_BUFFERS = 64;
+
+	/** 单次集中写最多批量的字节数。 */
+	private static final int MAX_BATCH_BYTES = 256 * 1024;
+
+	/** 待写缓冲。 */
+	private final ByteBuffer[] buffers = new ByteBuffer[MAX_BUFFERS];
+
+	/** 缓冲对应的消息，仅在消息的最后一个缓冲位置记录。 */
+	private final Message[] owners = new Message[MAX_BUFFERS];
+
+	/** 第一个未写完的缓冲位置。 */
+	private int position = 0;
+
+	/** 已填充的缓冲数量。 */
+	private int limit = 0;
+
+	/** 当前批次的字节数。 */
+	private int batchBytes = 0;
+
+	/**
+	 * 构造函数。
+	 */
+	public OutputCursor() {
+	}
+
+	/**
+	 * 是否没有待写数据。
+	 * 
+	 * @return 如果所有数据都已写出返回 <code>true</code> 。
+	 */
+	public boolean isEmpty() {
+		return this.position == this.limit;
+	}
+
+	/**
+	 * 是否还能追加一条消息。
+	 * 
+	 * @return 如果本批次还能追加消息返回 <code>true</code> 。
+	 */
+	public boolean hasRoom() {
+		if (this.position > 0) {
+			this.compact();
+		}
+
+		return (this.limit + 3 <= MAX_BUFFERS) && (this.batchBytes < MAX_BATCH_BYTES);
+	}
+
+	/**
+	 * 返回本批次还能追加的完整消息数量。
+	 * 
+	 * @return 返回还能追加的消息数量。
+	 */
+	public int room() {
+		if (!this.hasRoom()) {
+			return 0;
+		}
+
+		return (MAX_BUFFERS - this.limit) / 3;
+	}
+
+	/**
+	 * 追加消息。
+	 * 
+	 * @param message 指定待写消息。
+	 * @param head 指定头标识，没有标识时为 <code>null</code> 。
+	 * @param tail 指定尾标识，没有标识时为 <code>null</code> 。
+	 */
+	public void append(Message message, byte[] head, byte[] tail) {
+		if (null != head) {
+			this.buffers[this.limit++] = ByteBuffer.wrap(head);
+			this.batchBytes += head.length;
+		}
+
+		// 直接包装消息引用的数组区间，不复制消息数据
+		message.detach();
+		this.buffers[this.limit++] = ByteBuffer.wrap(message.array(), message.offset(), message.length());
+		this.batchBytes += message.length();
+
+		if (null != tail) {
+			this.buffers[this.limit++] = ByteBuffer.wrap(tail);
+			this.batchBytes += tail.length;
+		}
+
+		this.owners[this.limit - 1] = message;
+	}
+
+	/**
+	 * 追加消息分片。
+	 * 
+	 * @param message 指定分片所属的消息。
+	 * @param header 指定分片帧头。
+	 * @param data 指定消息数据。
+	 * @param offset 指定分片数据在消息数据里的偏移。
+	 * @param length 指定分片数据长度。
+	 * @param last 指定是否是消息的最后一个分片，最后一个分片写完时消息视为写完。
+	 */
+	public void append(Message message, byte[] header, byte[] data, int offset, int length, boolean last) {
+		this.buffers[this.limit++] = ByteBuffer.wrap(header);
+		this.buffers[this.limit++] = ByteBuffer.wrap(data, offset, length);
+		this.batchBytes += header.length + length;
+
+		if (last) {
+			this.owners[this.limit - 1] = message;
+		}
+	}
+
+	/**
+	 * 将待写数据集中写入通道。
+	 * 
+	 * @param channel 指定写入的通道。
+	 * @param completed 用于输出已经完整写出的消息。
+	 * @return 返回本次写入的字节数。
+	 * @throws IOException
+	 */
+	public long flush(GatheringByteChannel channel, List<Message> completed) throws IOException {
+		if (this.position == this.limit) {
+			return 0;
+		}
+
+		long written = channel.write(this.buffers, this.position, this.limit - this.position);
+
+		while (this.position < this.limit && !this.buffers[this.position].hasRemaining()) {
+			Message owner = this.owners[this.position];
+			if (null != owner) {
+				completed.add(owner);
+				this.owners[this.position] = null;
+			}
+
+			this.buffers[this.position] = null;
+			++this.position;
+		}
+
+		if (this.position == this.limit) {
+			this.position = 0;
+			this.limit = 0;
+			this.batchBytes = 0;
+		}
+
+		return written;
+	}
+
+	/**
+	 * 取出尚未写完的消息并清空所有待写数据。用于写失败时回收消息。
+	 * 
+	 * @param out 指定存放消息的列表。
+	 */
+	public void drain(List<Message> out) {
+		for (int i = this.position; i < this.limit; ++i) {
+			if (null != this.owners[i]) {
+				out.add(this.owners[i]);
+			}
+		}
+
+		this.clear();
+	}
+
+	/**
+	 * 清空所有待写数据。
+	 */
+	public void clear() {
+		for (int i = 0; i < this.limit; ++i) {
+			this.buffers[i] = null;
+			this.owners[i] = null;
+		}
+
+		this.position = 0;
+		this.limit = 0;
+		this.batchBytes = 0;
+	}
+
+	/**
+	 * 将未写完的缓冲移动到数组头部。
+	 */
+	private void compact() {
+		int remaining = this.limit - this.position;
+		int bytes = 0;
+		for (int i = 0; i < remaining; ++i) {
+			ByteBuffer buf = this.buffers[this.position + i];
+			this.buffers[i] = buf;
+			this.owners[i] = this.owners[this.position + i];
+			bytes += buf.remaining();
+		}
+		for (int i = remaining; i < this.limit; ++i) {
+			this.buffers[i] = null;
+			this.owners[i] = null;
+		}
+
+		this.position = 0;
+		this.limit = remaining;
+		this.batchBytes = bytes;
+	}
+
+}
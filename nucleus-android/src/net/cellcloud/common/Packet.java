@@ -26,9 +26,10 @@ THE SOFTWARE.
 
 package net.cellcloud.common;
 
-import java.util.ArrayList;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 
-import net.cellcloud.util.ByteUtils;
+import net.cellcloud.util.CRC32C;
 
 
 /**
@@ -37,6 +38,27 @@ import net.cellcloud.util.ByteUtils;
  * @author Ambrose Xu
  * 
  * @remarks
+ * ------------- 3.X 版本数据格式定义 ------------
+ * 数据包字段，单位 byte：
+ * <code>
+ * +--|-00-|-01-|-02-|-03-|-04-|-05-|-06-|-07-+
+ * |--+---------------------------------------+
+ * |01| VER| FLG|        TAG        |   SN    |
+ * |--+---------------------------------------+
+ * |02|   SN    | SMN | SML{1} | ... | SML{n} |
+ * |--+---------------------------------------+
+ * |03|  SMD{1}  |  ...  |  SMD{n}  |  CRC    |
+ * |--+---------------------------------------+
+ * </code>
+ * 说明：
+ * VER - 版本描述，固定为 3
+ * FLG - 标志位，见 {@link #FLAG_CHECKSUM} 等
+ * SN - 32 位包序号，可用于请求与应答的对应
+ * SMN 和 SML - 使用变长整数编码，每字节低 7 位为数据，最高位表示后续还有字节
+ * CRC - 可选的 CRC-32C 校验和，覆盖之前的全部数据，仅在设置 {@link #FLAG_CHECKSUM} 时存在
+ * 
+ * <p>
+ * 
  * ------------- 2.X 版本数据格式定义 ------------
  * 数据包字段，单位 byte：
  * <code>
@@ -117,6 +139,26 @@ public final class Packet {
 	/** 数据段数据长度描述字段占用字节数。 */
 	protected static final int PFB_SEGMENT_LENGTH = 4;
 
+	/** 3.X 版本标志字段占用字节数。 */
+	protected static final int PV3_FLAGS = 1;
+	/** 3.X 版本序号字段占用字节数。 */
+	protected static final int PV3_SN = 4;
+	/** 3.X 版本校验和字段占用字节数。 */
+	protected static final int PV3_CHECKSUM = 4;
+	/** 3.X 版本固定包头长度。 */
+	protected static final int PV3_HEADER = PFB_VERSION + PV3_FLAGS + PFB_TAG + PV3_SN;
+	/** 变长整数最大占用字节数。 */
+	protected static final int VARINT_MAX = 5;
+
+	/** 标志位：包尾携带 CRC-32C 校验和。 */
+	public static final int FLAG_CHECKSUM = 0x01;
+	/** 标志位：数据段经过压缩。保留，暂未使用。 */
+	public static final int FLAG_COMPRESSED = 0x02;
+	/** 标志位：数据包是分片。保留，暂未使用。 */
+	public static final int FLAG_FRAGMENT = 0x04;
+	/** 当前能够处理的标志位。 */
+	private static final int SUPPORTED_FLAGS = FLAG_CHECKSUM;
+
 	/** 包标签。 */
 	private byte[] tag;
 	/** 包序号。 */
@@ -125,9 +167,17 @@ public final class Packet {
 	private int major;
 	/** 包副版本号。 */
 	private int minor;
-
-	/** 包数据段数据。 */
-	private ArrayList<byte[]> segments;
+	/** 包标志位，仅 3.X 版本有效。 */
+	private int flags;
+
+	/** 包数据段所在的数组。 */
+	private byte[][] segmentData;
+	/** 包数据段在数组里的起始位置。 */
+	private int[] segmentOffsets;
+	/** 包数据段长度。 */
+	private int[] segmentLengths;
+	/** 包数据段数量。 */
+	private int segmentNum;
 
 	/**
 	 * 构造函数。
@@ -136,11 +186,7 @@ public final class Packet {
 	 * @param sn
 	 */
 	public Packet(byte[] tag, int sn) {
-		this.tag = tag;
-		this.sn = sn;
-		this.major = 2;
-		this.minor = 0;
-		this.segments = new ArrayList<byte[]>();
+		this(tag, sn, 2, 0);
 	}
 
 	/**
@@ -152,11 +198,27 @@ public final class Packet {
 	 * @param minor
 	 */
 	public Packet(byte[] tag, int sn, int major, int minor) {
+		this(tag, sn, major, minor, 4);
+	}
+
+	/**
+	 * 构造函数。
+	 * 
+	 * @param tag
+	 * @param sn
+	 * @param major
+	 * @param minor
+	 * @param capacity 指定初始的数据段容量。
+	 */
+	private Packet(byte[] tag, int sn, int major, int minor, int capacity) {
 		this.tag = tag;
 		this.sn = sn;
 		this.major = major;
 		this.minor = minor;
-		this.segments = new ArrayList<byte[]>();
+		this.segmentData = new byte[capacity][];
+		this.segmentOffsets = new int[capacity];
+		this.segmentLengths = new int[capacity];
+		this.segmentNum = 0;
 	}
 
 	/**
@@ -186,6 +248,24 @@ public final class Packet {
 		return this.minor;
 	}
 
+	/**
+	 * 获得包标志位。
+	 * 
+	 * @return 返回包标志位。
+	 */
+	public int getFlags() {
+		return this.flags;
+	}
+
+	/**
+	 * 设置包标志位。仅 3.X 版本的数据包会写入标志位。
+	 * 
+	 * @param flags 指定标志位。
+	 */
+	public void setFlags(int flags) {
+		this.flags = flags;
+	}
+
 	/**
 	 * 获得包序号。
 	 * 
@@ -201,20 +281,115 @@ public final class Packet {
 	 * @param segment
 	 */
 	public void appendSegment(byte[] segment) {
-		this.segments.add(segment);
+		this.appendSegment(segment, 0, segment.length);
+	}
+
+	/**
+	 * 添加数据段。数据段引用指定数组的一部分，不复制数据。
+	 * 
+	 * @param data 指定数据段所在的数组。
+	 * @param offset 指定数据段的起始位置。
+	 * @param length 指定数据段长度。
+	 */
+	public void appendSegment(byte[] data, int offset, int length) {
+		if (this.segmentNum == this.segmentData.length) {
+			int capacity = Math.max(4, this.segmentNum << 1);
+			byte[][] newData = new byte[capacity][];
+			int[] newOffsets = new int[capacity];
+			int[] newLengths = new int[capacity];
+			System.arraycopy(this.segmentData, 0, newData, 0, this.segmentNum);
+			System.arraycopy(this.segmentOffsets, 0, newOffsets, 0, this.segmentNum);
+			System.arraycopy(this.segmentLengths, 0, newLengths, 0, this.segmentNum);
+			this.segmentData = newData;
+			this.segmentOffsets = newOffsets;
+			this.segmentLengths = newLengths;
+		}
+
+		this.segmentData[this.segmentNum] = data;
+		this.segmentOffsets[this.segmentNum] = offset;
+		this.segmentLengths[this.segmentNum] = length;
+		++this.segmentNum;
 	}
 
 	/**
 	 * 获得指定索引的数据段。
 	 * 
+	 * 数据段只引用数组的一部分时复制为独立的数组，需要避免复制时使用
+	 * {@link #getSegmentArray(int)} 、 {@link #getSegmentOffset(int)} 和 {@link #getSegmentLength(int)} 。
+	 * 
 	 * @param index
 	 * @return
 	 */
 	public byte[] getSegment(int index) {
-		if (index < 0 || index >= this.segments.size())
+		if (index < 0 || index >= this.segmentNum)
 			return null;
 
-		return this.segments.get(index);
+		byte[] data = this.segmentData[index];
+		int offset = this.segmentOffsets[index];
+		int length = this.segmentLengths[index];
+		if (offset == 0 && length == data.length) {
+			return data;
+		}
+
+		// 复制后替换视图，避免重复复制
+		byte[] segment = new byte[length];
+		System.arraycopy(data, offset, segment, 0, length);
+		this.segmentData[index] = segment;
+		this.segmentOffsets[index] = 0;
+		return segment;
+	}
+
+	/**
+	 * 获得指定索引的数据段所在的数组。
+	 * 
+	 * @param index
+	 * @return
+	 */
+	public byte[] getSegmentArray(int index) {
+		return this.segmentData[index];
+	}
+
+	/**
+	 * 获得指定索引的数据段在数组里的起始位置。
+	 * 
+	 * @param index
+	 * @return
+	 */
+	public int getSegmentOffset(int index) {
+		return this.segmentOffsets[index];
+	}
+
+	/**
+	 * 获得指定索引的数据段长度。
+	 * 
+	 * @param index
+	 * @return
+	 */
+	public int getSegmentLength(int index) {
+		return this.segmentLengths[index];
+	}
+
+	/**
+	 * 将所有数据段复制到包自有的一个数组。
+	 * 
+	 * 通过 {@link #unpack(byte[], int, int)} 得到的包引用调用者的数组，
+	 * 需要在该数组被修改或者回收之后继续使用包时调用此方法。
+	 */
+	public void detach() {
+		int total = 0;
+		for (int i = 0; i < this.segmentNum; ++i) {
+			total += this.segmentLengths[i];
+		}
+
+		byte[] owned = new byte[total];
+		int cursor = 0;
+		for (int i = 0; i < this.segmentNum; ++i) {
+			int length = this.segmentLengths[i];
+			System.arraycopy(this.segmentData[i], this.segmentOffsets[i], owned, cursor, length);
+			this.segmentData[i] = owned;
+			this.segmentOffsets[i] = cursor;
+			cursor += length;
+		}
 	}
 
 	/**
@@ -223,7 +398,7 @@ public final class Packet {
 	 * @return 返回数据段数量。
 	 */
 	public int numSegments() {
-		return this.segments.size();
+		return this.segmentNum;
 	}
 
 	/**
@@ -232,30 +407,174 @@ public final class Packet {
 	 * @return 返回包的数据负载长度。
 	 */
 	public int getPayloadLength() {
-		if (this.segments.isEmpty()) {
-			return 0;
+		if (this.segmentNum == 0) {
+			return (this.major == 3) ? 1 : 0;
 		}
 
 		int len = 0;
 
-		if (this.major == 2) {
-			for (int i = 0, size = this.segments.size(); i < size; ++i) {
+		if (this.major == 3) {
+			len = varintLength(this.segmentNum);
+			for (int i = 0; i < this.segmentNum; ++i) {
+				len += varintLength(this.segmentLengths[i]);
+				len += this.segmentLengths[i];
+			}
+		}
+		else if (this.major == 2) {
+			for (int i = 0; i < this.segmentNum; ++i) {
 				len += PFB_SEGMENT_LENGTH;
-				len += this.segments.get(i).length;
+				len += this.segmentLengths[i];
 			}
 		}
 		else {
 			len = PSL_SEGMENT_NUM;
 
-			for (int i = 0, size = this.segments.size(); i < size; ++i) {
+			for (int i = 0; i < this.segmentNum; ++i) {
 				len += PSL_SEGMENT_LENGTH;
-				len += this.segments.get(i).length;
+				len += this.segmentLengths[i];
 			}
 		}
 
 		return len;
 	}
 
+	/**
+	 * 生成 2.X 版本数据包的包头，包括版本、标签、序号、数据段数量和各数据段长度。
+	 * 包头之后依次连接各数据段数据即为完整的数据包。
+	 * 
+	 * @param packet
+	 * @return
+	 */
+	public static byte[] packHeader(Packet packet) {
+		int smn = packet.segmentNum;
+		byte[] header = new byte[PFB_VERSION + PFB_RES + PFB_TAG + PFB_SN + PFB_SEGMENT_NUM + smn * PFB_SEGMENT_LENGTH];
+		writeHeader(packet, header);
+		return header;
+	}
+
+	/**
+	 * 返回 2.X 版本数据包的缓冲序列，首个缓冲为包头，其后为各数据段的视图。
+	 * 可直接用于聚合写。
+	 * 
+	 * @param packet
+	 * @return
+	 */
+	public static ByteBuffer[] packBuffers(Packet packet) {
+		int smn = packet.segmentNum;
+		ByteBuffer[] buffers = new ByteBuffer[smn + 1];
+		buffers[0] = ByteBuffer.wrap(packHeader(packet));
+		for (int i = 0; i < smn; ++i) {
+			buffers[i + 1] = ByteBuffer.wrap(packet.segmentData[i], packet.segmentOffsets[i], packet.segmentLengths[i]);
+		}
+		return buffers;
+	}
+
+	/**
+	 * 计算序列化后的数据包长度。
+	 * 
+	 * @param packet
+	 * @return
+	 */
+	public static int packedLength(Packet packet) {
+		if (packet.major == 3) {
+			return PV3_HEADER + packet.getPayloadLength() + (((packet.flags & FLAG_CHECKSUM) != 0) ? PV3_CHECKSUM : 0);
+		}
+		else if (packet.major == 2) {
+			return PFB_VERSION + PFB_RES + PFB_TAG + PFB_SN + PFB_SEGMENT_NUM + packet.getPayloadLength();
+		}
+		else {
+			return PSL_TAG + PSL_VERSION + PSL_SN + PSL_PAYLOAD_LENGTH + packet.getPayloadLength();
+		}
+	}
+
+	/**
+	 * 将数据包直接序列化到指定缓冲，从缓冲当前位置开始写入。
+	 * 
+	 * @param packet
+	 * @param buffer 指定目标缓冲，剩余空间不能小于 {@link #packedLength(Packet)} 。
+	 * @return 返回写入的字节数。
+	 * @throws BufferOverflowException 缓冲剩余空间不足时抛出。
+	 */
+	public static int packInto(Packet packet, ByteBuffer buffer) {
+		if (packet.major != 2) {
+			if (packet.major == 3 && buffer.hasArray()) {
+				// 直接写入缓冲的数组
+				int length = packedLength(packet);
+				if (buffer.remaining() < length) {
+					throw new BufferOverflowException();
+				}
+				writeV3(packet, buffer.array(), buffer.arrayOffset() + buffer.position());
+				buffer.position(buffer.position() + length);
+				return length;
+			}
+
+			byte[] data = pack(packet);
+			buffer.put(data);
+			return data.length;
+		}
+
+		int start = buffer.position();
+
+		buffer.put((byte) packet.major);
+		buffer.put((byte) packet.minor);
+		buffer.put(packet.tag, 0, PFB_TAG);
+		// 按网络字节序逐字节写入，不依赖缓冲的字节序设置
+		buffer.put((byte) (packet.sn >> 8));
+		buffer.put((byte) packet.sn);
+		buffer.put((byte) (packet.segmentNum >> 8));
+		buffer.put((byte) packet.segmentNum);
+
+		for (int i = 0; i < packet.segmentNum; ++i) {
+			int length = packet.segmentLengths[i];
+			buffer.put((byte) (length >> 24));
+			buffer.put((byte) (length >> 16));
+			buffer.put((byte) (length >> 8));
+			buffer.put((byte) length);
+		}
+
+		for (int i = 0; i < packet.segmentNum; ++i) {
+			buffer.put(packet.segmentData[i], packet.segmentOffsets[i], packet.segmentLengths[i]);
+		}
+
+		return buffer.position() - start;
+	}
+
+	/**
+	 * 写入 2.X 版本包头。
+	 * 
+	 * @return 返回包头长度。
+	 */
+	private static int writeHeader(Packet packet, byte[] data) {
+		// 填写 VER 和 RES
+		data[0] = (byte) packet.major;
+		data[1] = (byte) packet.minor;
+		int dataCursor = PFB_VERSION + PFB_RES;
+
+		// 填写 TAG
+		System.arraycopy(packet.tag, 0, data, dataCursor, PFB_TAG);
+		dataCursor += PFB_TAG;
+
+		// 填写 SN
+		data[dataCursor++] = (byte) (packet.sn >> 8);
+		data[dataCursor++] = (byte) packet.sn;
+
+		// 填写 SMN
+		int smn = packet.segmentNum;
+		data[dataCursor++] = (byte) (smn >> 8);
+		data[dataCursor++] = (byte) smn;
+
+		// 填写动态的数据段长度
+		for (int i = 0; i < smn; ++i) {
+			int length = packet.segmentLengths[i];
+			data[dataCursor++] = (byte) (length >> 24);
+			data[dataCursor++] = (byte) (length >> 16);
+			data[dataCursor++] = (byte) (length >> 8);
+			data[dataCursor++] = (byte) length;
+		}
+
+		return dataCursor;
+	}
+
 	/**
 	 * 将指定的包序列化为字节数组。
 	 * 
@@ -263,119 +582,154 @@ public final class Packet {
 	 * @return
 	 */
 	public static byte[] pack(Packet packet) {
-		if (packet.major == 2) {
-			// 计算数据长度
-			int payloadSize = packet.getPayloadLength();
-			int totalSize = PFB_VERSION + PFB_RES + PFB_TAG + PFB_SN + PFB_SEGMENT_NUM + payloadSize;
-			byte[] data = new byte[totalSize];
-			int dataCursor = 0;
-
-			// 填写 VER 和 RES
-			byte major = (byte) packet.major;
-			byte minor = (byte) packet.minor;
-			data[0] = major;
-			data[1] = minor;
-			// 更新游标
-			dataCursor = PFB_VERSION + PFB_RES;
+		switch (packet.major) {
+		case 3:
+			return packV3(packet);
+		case 2:
+			return packV2(packet);
+		default:
+			return packV1(packet);
+		}
+	}
 
-			// 填写 TAG
-			System.arraycopy(packet.tag, 0, data, dataCursor, PFB_TAG);
-			// 更新游标
-			dataCursor += PFB_TAG;
+	/**
+	 * 序列化 3.X 版本数据包。
+	 */
+	private static byte[] packV3(Packet packet) {
+		byte[] data = new byte[packedLength(packet)];
+		writeV3(packet, data, 0);
+		return data;
+	}
 
-			// 填写 SN
-			short pSN = (short) packet.sn;
-			byte[] snBytes = ByteUtils.toBytes(pSN);
-			System.arraycopy(snBytes, 0, data, dataCursor, PFB_SN);
-			// 更新游标
-			dataCursor += PFB_SN;
+	/**
+	 * 将 3.X 版本数据包写入指定数组，校验和在写入过程中逐段计算。
+	 * 
+	 * @return 返回写入的字节数。
+	 */
+	private static int writeV3(Packet packet, byte[] data, int offset) {
+		boolean checksum = (packet.flags & FLAG_CHECKSUM) != 0;
+		int cursor = offset;
+
+		// 填写 VER 和 FLG
+		data[cursor++] = 3;
+		data[cursor++] = (byte) packet.flags;
+
+		// 填写 TAG
+		System.arraycopy(packet.tag, 0, data, cursor, PFB_TAG);
+		cursor += PFB_TAG;
+
+		// 填写 SN
+		cursor = writeInt(packet.sn, data, cursor);
+
+		// 填写 SMN 和 SML
+		int smn = packet.segmentNum;
+		cursor = writeVarint(smn, data, cursor);
+		for (int i = 0; i < smn; ++i) {
+			cursor = writeVarint(packet.segmentLengths[i], data, cursor);
+		}
 
-			// 填写 SMN
-			short smn = (short) packet.segments.size();
-			byte[] smnBytes = ByteUtils.toBytes(smn);
-			System.arraycopy(smnBytes, 0, data, dataCursor, PFB_SEGMENT_NUM);
-			// 更新游标
-			dataCursor += PFB_SEGMENT_NUM;
-
-			if (smn > 0) {
-				// 填写动态的数据段长度
-				for (short i = 0; i < smn; ++i) {
-					int length = packet.segments.get(i).length;
-					byte[] lenBytes = ByteUtils.toBytes(length);
-					System.arraycopy(lenBytes, 0, data, dataCursor, PFB_SEGMENT_LENGTH);
-					// 更新游标
-					dataCursor += PFB_SEGMENT_LENGTH;
-				}
+		CRC32C crc = null;
+		if (checksum) {
+			crc = new CRC32C();
+			crc.update(data, offset, cursor - offset);
+		}
 
-				// 填写动态的数据段数据
-				for (short i = 0; i < smn; ++i) {
-					byte[] sd = packet.segments.get(i);
-					System.arraycopy(sd, 0, data, dataCursor, sd.length);
-					// 更新游标
-					dataCursor += sd.length;
-				}
+		// 填写 SMD
+		for (int i = 0; i < smn; ++i) {
+			int length = packet.segmentLengths[i];
+			System.arraycopy(packet.segmentData[i], packet.segmentOffsets[i], data, cursor, length);
+			if (checksum) {
+				// 源数据刚被读取，在缓存里计算校验和
+				crc.update(packet.segmentData[i], packet.segmentOffsets[i], length);
 			}
+			cursor += length;
+		}
 
-			return data;
+		// 填写 CRC
+		if (checksum) {
+			cursor = writeInt((int) crc.getValue(), data, cursor);
 		}
-		else {
-			int ssNum = packet.numSegments();
-
-			// 计算总长度
-			int bodyLength = PSL_SEGMENT_NUM + (ssNum * PSL_SEGMENT_LENGTH);
-			int totalLength = PSL_TAG + PSL_VERSION + PSL_SN + PSL_PAYLOAD_LENGTH + bodyLength;
-			for (int i = 0; i < ssNum; ++i) {
-				totalLength += packet.getSegment(i).length;
-				bodyLength += packet.getSegment(i).length;
-			}
 
-			byte[] data = new byte[totalLength];
+		return cursor - offset;
+	}
+
+	/**
+	 * 序列化 2.X 版本数据包。
+	 */
+	private static byte[] packV2(Packet packet) {
+		// 计算数据长度
+		int payloadSize = packet.getPayloadLength();
+		int totalSize = PFB_VERSION + PFB_RES + PFB_TAG + PFB_SN + PFB_SEGMENT_NUM + payloadSize;
+		byte[] data = new byte[totalSize];
+
+		// 包头直接写入输出数组
+		int dataCursor = writeHeader(packet, data);
+
+		// 填写动态的数据段数据
+		for (int i = 0, smn = packet.segmentNum; i < smn; ++i) {
+			int length = packet.segmentLengths[i];
+			System.arraycopy(packet.segmentData[i], packet.segmentOffsets[i], data, dataCursor, length);
+			// 更新游标
+			dataCursor += length;
+		}
 
-			// 填写 Tag
-			System.arraycopy(packet.getTag(), 0, data, 0, PSL_TAG);
+		return data;
+	}
 
-			// 填写 Version
-			String sMinor = fastFormatNumber(packet.getMinorVersion(), 2);
-			String sMajor = fastFormatNumber(packet.getMajorVersion(), 2);
-			System.arraycopy(sMinor.getBytes(), 0, data, PSL_TAG, 2);
-			System.arraycopy(sMajor.getBytes(), 0, data, PSL_TAG + 2, 2);
+	/**
+	 * 序列化 1.X 版本数据包。
+	 */
+	private static byte[] packV1(Packet packet) {
+		int ssNum = packet.segmentNum;
 
-			// 填写 SN
-			String sVersion = fastFormatNumber(packet.getSequenceNumber(), PSL_SN);
-			System.arraycopy(sVersion.getBytes(), 0, data, PSL_TAG + PSL_VERSION, PSL_SN);
+		// 计算总长度
+		int bodyLength = PSL_SEGMENT_NUM + (ssNum * PSL_SEGMENT_LENGTH);
+		for (int i = 0; i < ssNum; ++i) {
+			bodyLength += packet.segmentLengths[i];
+		}
 
-			// 填写 Body 段长度
-			String sLength = fastFormatNumber(bodyLength, PSL_PAYLOAD_LENGTH);
-			System.arraycopy(sLength.getBytes(), 0, data, PSL_TAG + PSL_VERSION + PSL_SN, PSL_PAYLOAD_LENGTH);
+		byte[] data = new byte[PSL_TAG + PSL_VERSION + PSL_SN + PSL_PAYLOAD_LENGTH + bodyLength];
 
-			// 填写 Body 子段
-			// 子段格式打包
-			String sSubNum = fastFormatNumber(ssNum, PSL_SEGMENT_NUM);
-			System.arraycopy(sSubNum.getBytes(), 0, data, PSL_TAG + PSL_VERSION + PSL_SN + PSL_PAYLOAD_LENGTH, PSL_SEGMENT_NUM);
+		// 填写 Tag
+		System.arraycopy(packet.tag, 0, data, 0, PSL_TAG);
+		int cursor = PSL_TAG;
 
-			int begin = PSL_TAG + PSL_VERSION + PSL_SN + PSL_PAYLOAD_LENGTH + PSL_SEGMENT_NUM;
+		// 填写 Version
+		formatDecimal(packet.minor, data, cursor, 2);
+		formatDecimal(packet.major, data, cursor + 2, 2);
+		cursor += PSL_VERSION;
 
-			// 填充各子段长度
-			for (int i = 0; i < ssNum; ++i) {
-				int length = packet.getSegment(i).length;
-				String sLen = fastFormatNumber(length, PSL_SEGMENT_LENGTH);
-				System.arraycopy(sLen.getBytes(), 0, data, begin, PSL_SEGMENT_LENGTH);
-				begin += PSL_SEGMENT_LENGTH;
-			}
+		// 填写 SN
+		formatDecimal(packet.sn, data, cursor, PSL_SN);
+		cursor += PSL_SN;
 
-			// 填充各子段数据
-			for (int i = 0; i < ssNum; ++i) {
-				byte[] subData = packet.getSegment(i);
-				System.arraycopy(subData, 0, data, begin, subData.length);
-				begin += subData.length;
-			}
+		// 填写 Body 段长度
+		formatDecimal(bodyLength, data, cursor, PSL_PAYLOAD_LENGTH);
+		cursor += PSL_PAYLOAD_LENGTH;
 
-			/* 2.X 版本开始不使用 BODY
-			System.arraycopy(packet.body, 0, data, PSL_TAG + PSL_VERSION + PSL_SN + PSL_BODY_LENGTH, packet.body.length);
-			*/
+		// 填写 Body 子段
+		// 子段格式打包
+		formatDecimal(ssNum, data, cursor, PSL_SEGMENT_NUM);
+		cursor += PSL_SEGMENT_NUM;
 
-			return data;
+		// 填充各子段长度
+		for (int i = 0; i < ssNum; ++i) {
+			formatDecimal(packet.segmentLengths[i], data, cursor, PSL_SEGMENT_LENGTH);
+			cursor += PSL_SEGMENT_LENGTH;
 		}
+
+		// 填充各子段数据
+		for (int i = 0; i < ssNum; ++i) {
+			int length = packet.segmentLengths[i];
+			System.arraycopy(packet.segmentData[i], packet.segmentOffsets[i], data, cursor, length);
+			cursor += length;
+		}
+
+		/* 2.X 版本开始不使用 BODY
+		System.arraycopy(packet.body, 0, data, PSL_TAG + PSL_VERSION + PSL_SN + PSL_BODY_LENGTH, packet.body.length);
+		*/
+
+		return data;
 	}
 
 	/**
@@ -387,216 +741,404 @@ public final class Packet {
 	 */
 	public static Packet unpack(byte[] data)
 			throws NumberFormatException, ArrayIndexOutOfBoundsException {
-		byte flag = data[0];
-		if (flag == 2) {
-			int totalSize = data.length;
-			if (totalSize < PFB_VERSION + PFB_RES + PFB_TAG + PFB_SN + PFB_SEGMENT_NUM) {
-				// 数据不完整
-				return null;
-			}
+		return unpack(data, 0, data.length);
+	}
 
-			int dataCursor = 0;
+	/**
+	 * 将指定的数据反序列化为包对象。
+	 * 
+	 * 包的数据段直接引用指定数组，不复制数据。在包使用完之前不能修改或者回收该数组。
+	 * 
+	 * @param data 指定数据所在的数组。
+	 * @param offset 指定数据起始位置。
+	 * @param length 指定数据长度。
+	 * @return
+	 * @throws NumberFormatException
+	 */
+	public static Packet unpack(byte[] data, int offset, int length)
+			throws NumberFormatException, ArrayIndexOutOfBoundsException {
+		if (length <= 0) {
+			return null;
+		}
 
-			// 解析版本号
-			int major = data[0];
-			int minor = data[1];
-			// 更新游标
-			dataCursor = 2;
+		// 按版本字节选择解码器
+		switch (data[offset]) {
+		case 3:
+			return unpackV3(data, offset, length);
+		case 2:
+			return unpackV2(data, offset, length);
+		default:
+			return unpackV1(data, offset, length);
+		}
+	}
 
-			// 解析 TAG
-			byte[] tag = new byte[PFB_TAG];
-			System.arraycopy(data, dataCursor, tag, 0, PFB_TAG);
-			// 更新游标
-			dataCursor += PFB_TAG;
+	/**
+	 * 反序列化 3.X 版本数据包。
+	 */
+	private static Packet unpackV3(byte[] data, int offset, int length) {
+		if (length < PV3_HEADER + 1) {
+			// 数据不完整
+			return null;
+		}
 
-			// 解析 SN
-			byte[] snBytes = new byte[PFB_SN];
-			System.arraycopy(data, dataCursor, snBytes, 0, PFB_SN);
-			int sn = ByteUtils.toShort(snBytes);
-			// 更新游标
-			dataCursor += PFB_SN;
+		int end = offset + length;
+		int cursor = offset + PFB_VERSION;
 
-			// 解析 SMN
-			byte[] smnBytes = new byte[PFB_SEGMENT_NUM];
-			System.arraycopy(data, dataCursor, smnBytes, 0, PFB_SEGMENT_NUM);
-			short smn = ByteUtils.toShort(smnBytes);
-			// 更新游标
-			dataCursor += PFB_SEGMENT_NUM;
-
-			// 创建数据包
-			Packet packet = new Packet(tag, sn, major, minor);
-
-			if (smn > 0) {
-				// 解析动态数据段长度
-				int[] segmentLengths = new int[smn];
-				for (short i = 0; i < smn; ++i) {
-					byte[] lenBytes = new byte[PFB_SEGMENT_LENGTH];
-					System.arraycopy(data, dataCursor, lenBytes, 0, PFB_SEGMENT_LENGTH);
-					segmentLengths[i] = ByteUtils.toInt(lenBytes);
-					// 更新游标
-					dataCursor += PFB_SEGMENT_LENGTH;
-				}
+		// 解析 FLG
+		int flags = data[cursor] & 0xFF;
+		cursor += PV3_FLAGS;
+		if ((flags & ~SUPPORTED_FLAGS) != 0) {
+			Logger.w(Packet.class, "Unsupported packet flags : " + flags);
+			return null;
+		}
 
-				// 解析动态数据段数据
-				for (short i = 0; i < smn; ++i) {
-					int length = segmentLengths[i];
-					byte[] segment = new byte[length];
-					System.arraycopy(data, dataCursor, segment, 0, length);
-					packet.appendSegment(segment);
-					// 更新游标
-					dataCursor += length;
-				}
+		// 校验 CRC
+		if ((flags & FLAG_CHECKSUM) != 0) {
+			if (length < PV3_HEADER + 1 + PV3_CHECKSUM) {
+				return null;
+			}
 
-				segmentLengths = null;
+			end -= PV3_CHECKSUM;
+			if (CRC32C.compute(data, offset, end - offset) != readInt(data, end)) {
+				Logger.w(Packet.class, "Packet checksum mismatch");
+				return null;
 			}
+		}
 
-			return packet;
+		// 解析 TAG
+		byte[] tag = new byte[PFB_TAG];
+		System.arraycopy(data, cursor, tag, 0, PFB_TAG);
+		cursor += PFB_TAG;
+
+		// 解析 SN
+		int sn = readInt(data, cursor);
+		cursor += PV3_SN;
+
+		// 解析 SMN
+		long varint = readVarint(data, cursor, end);
+		int smn = (int) varint;
+		// 每个数据段长度至少占用一个字节
+		if (varint < 0 || smn > end - cursor) {
+			Logger.w(Packet.class, "Packet segment number exception");
+			return null;
 		}
-		else {
-			int datalen = data.length;
-			if (datalen < PSL_TAG + PSL_VERSION + PSL_SN + PSL_PAYLOAD_LENGTH) {
+		cursor += (int) (varint >>> 32);
+
+		// 创建数据包
+		Packet packet = new Packet(tag, sn, 3, 0, smn > 0 ? smn : 1);
+		packet.flags = flags;
+
+		// 解析 SML
+		for (int i = 0; i < smn; ++i) {
+			varint = readVarint(data, cursor, end);
+			if (varint < 0) {
+				Logger.w(Packet.class, "Packet segment length exception");
 				return null;
 			}
+			packet.segmentLengths[i] = (int) varint;
+			cursor += (int) (varint >>> 32);
+		}
 
-			// 解析 Tag
-			byte[] bTag = new byte[PSL_TAG];
-			System.arraycopy(data, 0, bTag, 0, PSL_TAG);
-
-			// 解析 Version
-			byte[] bMinor = new byte[2];
-			byte[] bMajor = new byte[2];
-			System.arraycopy(data, PSL_TAG, bMinor, 0, 2);
-			System.arraycopy(data, PSL_TAG + 2, bMajor, 0, 2);
-			int minor = 0;
-			int major = 0;
-			try {
-				minor = Integer.parseInt(new String(bMinor));
-				major = Integer.parseInt(new String(bMajor));
-			} catch (NumberFormatException e) {
-				Logger.log(Packet.class, e, LogLevel.ERROR);
+		// 数据段引用原数组
+		for (int i = 0; i < smn; ++i) {
+			int segmentLength = packet.segmentLengths[i];
+			if (segmentLength > end - cursor) {
+				Logger.w(Packet.class, "Packet segment length exception : " + segmentLength);
 				return null;
 			}
 
-			// 解析 SN
-			byte[] bSN = new byte[PSL_SN];
-			System.arraycopy(data, PSL_TAG + PSL_VERSION, bSN, 0, PSL_SN);
-			int sn = Integer.parseInt(new String(bSN));
+			packet.segmentData[i] = data;
+			packet.segmentOffsets[i] = cursor;
+			cursor += segmentLength;
+		}
+		packet.segmentNum = smn;
 
-			// 解析 Body 段长度
-			byte[] bBodyLength = new byte[PSL_PAYLOAD_LENGTH];
-			System.arraycopy(data, PSL_TAG + PSL_VERSION + PSL_SN,
-					bBodyLength, 0, PSL_PAYLOAD_LENGTH);
-			int bodyLength = Integer.parseInt(new String(bBodyLength));
+		if (cursor != end) {
+			// 数据段之后不能有多余数据，否则清除校验标志位即可绕过校验
+			Logger.w(Packet.class, "Packet length exception : " + (end - cursor) + " trailing bytes");
+			return null;
+		}
 
-			// 创建实例
-			Packet packet = new Packet(bTag, sn, major, minor);
+		return packet;
+	}
 
-			if (datalen > PSL_TAG + PSL_VERSION + PSL_SN + PSL_PAYLOAD_LENGTH) {
-				// 确认有 BODY 段，校验 BODY 段长度
-				if ((datalen - (PSL_TAG + PSL_VERSION + PSL_SN + PSL_PAYLOAD_LENGTH)) != bodyLength) {
-					Logger.w(Packet.class, "Packet length exception : bytes-length=" + datalen + " body-length=" + bodyLength);
-				}
+	/**
+	 * 反序列化 2.X 版本数据包。
+	 */
+	private static Packet unpackV2(byte[] data, int offset, int length) {
+		if (length < PFB_VERSION + PFB_RES + PFB_TAG + PFB_SN + PFB_SEGMENT_NUM) {
+			// 数据不完整
+			return null;
+		}
 
-				int begin = PSL_TAG + PSL_VERSION + PSL_SN + PSL_PAYLOAD_LENGTH;
-
-				// 判断是否符合子段分割形式
-				byte[] bSubNum = new byte[PSL_SEGMENT_NUM];
-				System.arraycopy(data, begin, bSubNum, 0, PSL_SEGMENT_NUM);
-				// 判断是否是数字
-				for (int i = 0; i < PSL_SEGMENT_NUM; ++i) {
-					if (false == Character.isDigit(bSubNum[i])) {
-						// 不是数字，直接使用 Body
-						byte[] body = new byte[bodyLength];
-						System.arraycopy(data, begin, body, 0, bodyLength);
-						/* 2.x 版本开始不再提供直接设置负载数据的方式
-						 * packet.setBody(body);
-						 */
-						return packet;
-					}
+		int end = offset + length;
+		int dataCursor = offset;
+
+		// 解析版本号
+		int major = data[dataCursor];
+		int minor = data[dataCursor + 1];
+		// 更新游标
+		dataCursor += 2;
+
+		// 解析 TAG
+		byte[] tag = new byte[PFB_TAG];
+		System.arraycopy(data, dataCursor, tag, 0, PFB_TAG);
+		// 更新游标
+		dataCursor += PFB_TAG;
+
+		// 解析 SN
+		int sn = (short) (((data[dataCursor] & 0xFF) << 8) | (data[dataCursor + 1] & 0xFF));
+		// 更新游标
+		dataCursor += PFB_SN;
+
+		// 解析 SMN
+		short smn = (short) (((data[dataCursor] & 0xFF) << 8) | (data[dataCursor + 1] & 0xFF));
+		// 更新游标
+		dataCursor += PFB_SEGMENT_NUM;
+
+		// 创建数据包
+		Packet packet = new Packet(tag, sn, major, minor, smn > 0 ? smn : 1);
+
+		if (smn > 0) {
+			// 数据段数据紧随全部数据段长度之后
+			int lengthCursor = dataCursor;
+			dataCursor += smn * PFB_SEGMENT_LENGTH;
+
+			for (short i = 0; i < smn; ++i) {
+				int segmentLength = ((data[lengthCursor] & 0xFF) << 24)
+						| ((data[lengthCursor + 1] & 0xFF) << 16)
+						| ((data[lengthCursor + 2] & 0xFF) << 8)
+						| (data[lengthCursor + 3] & 0xFF);
+				lengthCursor += PFB_SEGMENT_LENGTH;
+
+				if (segmentLength < 0 || segmentLength > end - dataCursor) {
+					throw new ArrayIndexOutOfBoundsException("Segment length out of bounds: " + segmentLength);
 				}
 
-				// 解析子段数量
-				int subNum = Integer.parseInt(new String(bSubNum));
-				bSubNum = null;
+				packet.appendSegment(data, dataCursor, segmentLength);
+				// 更新游标
+				dataCursor += segmentLength;
+			}
+		}
+
+		return packet;
+	}
 
-				int[] subsegmentLengthArray = new int[subNum];
-				begin += PSL_SEGMENT_NUM;
+	/**
+	 * 反序列化 1.X 版本数据包。
+	 */
+	private static Packet unpackV1(byte[] data, int offset, int length) {
+		int end = offset + length;
+		if (length < PSL_TAG + PSL_VERSION + PSL_SN + PSL_PAYLOAD_LENGTH) {
+			return null;
+		}
 
-				// 解析子段长度
-				for (int i = 0; i < subNum; ++i) {
-					byte[] bSubLength = new byte[PSL_SEGMENT_LENGTH];
-					System.arraycopy(data, begin, bSubLength, 0, PSL_SEGMENT_LENGTH);
-					subsegmentLengthArray[i] = Integer.parseInt(new String(bSubLength));
-					begin += PSL_SEGMENT_LENGTH;
-					bSubLength = null;
-				}
+		// 解析 Tag
+		byte[] bTag = new byte[PSL_TAG];
+		System.arraycopy(data, offset, bTag, 0, PSL_TAG);
+		int cursor = offset + PSL_TAG;
 
-				// 解析子段数据
-				for (int i = 0; i < subNum; ++i) {
-					int length = subsegmentLengthArray[i];
-					byte[] subsegment = new byte[length];
-					System.arraycopy(data, begin, subsegment, 0, length);
-					begin += length;
+		// 解析 Version
+		int minor = parseDecimal(data, cursor, 2, end);
+		int major = parseDecimal(data, cursor + 2, 2, end);
+		cursor += PSL_VERSION;
 
-					// 添加子段
-					packet.appendSegment(subsegment);
-				}
+		// 解析 SN
+		int sn = parseDecimal(data, cursor, PSL_SN, end);
+		cursor += PSL_SN;
+
+		// 解析 Body 段长度
+		int bodyLength = parseDecimal(data, cursor, PSL_PAYLOAD_LENGTH, end);
+		cursor += PSL_PAYLOAD_LENGTH;
+
+		if (minor < 0 || major < 0 || sn < 0 || bodyLength < 0) {
+			Logger.w(Packet.class, "Packet header format error");
+			return null;
+		}
+
+		if (end == cursor) {
+			// 没有 BODY 段
+			return new Packet(bTag, sn, major, minor);
+		}
+
+		// 确认有 BODY 段，校验 BODY 段长度
+		if (end - cursor != bodyLength) {
+			Logger.w(Packet.class, "Packet length exception : bytes-length=" + length + " body-length=" + bodyLength);
+		}
+
+		// 判断是否符合子段分割形式
+		int subNum = parseDecimal(data, cursor, PSL_SEGMENT_NUM, end);
+		if (subNum < 0) {
+			// 不是数字，直接使用 Body
+			/* 2.x 版本开始不再提供直接设置负载数据的方式
+			 * packet.setBody(body);
+			 */
+			return new Packet(bTag, sn, major, minor);
+		}
+		cursor += PSL_SEGMENT_NUM;
+
+		// 创建实例
+		Packet packet = new Packet(bTag, sn, major, minor, subNum > 0 ? subNum : 1);
+
+		// 子段数据紧随全部子段长度之后
+		int lengthCursor = cursor;
+		cursor += subNum * PSL_SEGMENT_LENGTH;
+		if (cursor > end) {
+			Logger.w(Packet.class, "Packet segment number exception : " + subNum);
+			return null;
+		}
+
+		// 解析子段，子段引用原数组
+		for (int i = 0; i < subNum; ++i) {
+			int segmentLength = parseDecimal(data, lengthCursor, PSL_SEGMENT_LENGTH, end);
+			lengthCursor += PSL_SEGMENT_LENGTH;
+
+			if (segmentLength < 0 || segmentLength > end - cursor) {
+				Logger.w(Packet.class, "Packet segment length exception : " + segmentLength);
+				return null;
 			}
 
-			return packet;
+			packet.appendSegment(data, cursor, segmentLength);
+			cursor += segmentLength;
 		}
+
+		return packet;
 	}
 
-	private static String fastFormatNumber(int number, int limit) {
-		switch (limit) {
-		case 2:
-			if (number < 10) {
-				return "0" + number;
-			}
-			else {
-				return Integer.toString(number);
-			}
-		case 4:
-			if (number < 10) {
-				return "000" + number;
-			}
-			else if (number >= 10 && number < 100) {
-				return "00" + number;
-			}
-			else if (number >= 100 && number < 1000) {
-				return "0" + number;
-			}
-			else {
-				return Integer.toString(number);
-			}
-		case 8:
-			if (number < 10) {
-				return "0000000" + number;
-			}
-			else if (number >= 10 && number < 100) {
-				return "000000" + number;
-			}
-			else if (number >= 100 && number < 1000) {
-				return "00000" + number;
-			}
-			else if (number >= 1000 && number < 10000) {
-				return "0000" + number;
-			}
-			else if (number >= 10000 && number < 100000) {
-				return "000" + number;
+	/**
+	 * 计算变长整数编码后的字节数。
+	 * 
+	 * @param value 指定非负数值。
+	 * @return 返回字节数。
+	 */
+	protected static int varintLength(int value) {
+		if (value < (1 << 7)) {
+			return 1;
+		}
+		else if (value < (1 << 14)) {
+			return 2;
+		}
+		else if (value < (1 << 21)) {
+			return 3;
+		}
+		else if (value < (1 << 28)) {
+			return 4;
+		}
+		return VARINT_MAX;
+	}
+
+	/**
+	 * 按变长整数格式写入非负数值。
+	 * 
+	 * @return 返回写入后的位置。
+	 */
+	protected static int writeVarint(int value, byte[] dest, int offset) {
+		int cursor = offset;
+		while ((value & ~0x7F) != 0) {
+			dest[cursor++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		dest[cursor++] = (byte) value;
+		return cursor;
+	}
+
+	/**
+	 * 读取变长整数。
+	 * 
+	 * @param data 指定数据数组。
+	 * @param offset 指定读取位置。
+	 * @param end 指定有效数据的结束位置。
+	 * @return 低 32 位为数值，高 32 位为占用的字节数。数据越界或者数值超出 <code>int</code> 范围时返回 <code>-1</code> 。
+	 */
+	private static long readVarint(byte[] data, int offset, int end) {
+		int value = 0;
+		for (int i = 0; i < VARINT_MAX; ++i) {
+			if (offset + i >= end) {
+				return -1;
 			}
-			else if (number >= 100000 && number < 1000000) {
-				return "00" + number;
+
+			int b = data[offset + i];
+			if (i == VARINT_MAX - 1 && (b & 0xF8) != 0) {
+				// 第 5 个字节只能携带最高 3 位
+				return -1;
 			}
-			else if (number >= 1000000 && number < 10000000) {
-				return "0" + number;
+			value |= (b & 0x7F) << (7 * i);
+			if ((b & 0x80) == 0) {
+				return ((long) (i + 1) << 32) | value;
 			}
-			else {
-				return Integer.toString(number);
+		}
+		return -1;
+	}
+
+	/**
+	 * 按网络字节序写入 32 位整数。
+	 * 
+	 * @return 返回写入后的位置。
+	 */
+	protected static int writeInt(int value, byte[] dest, int offset) {
+		dest[offset] = (byte) (value >> 24);
+		dest[offset + 1] = (byte) (value >> 16);
+		dest[offset + 2] = (byte) (value >> 8);
+		dest[offset + 3] = (byte) value;
+		return offset + 4;
+	}
+
+	/**
+	 * 按网络字节序读取 32 位整数。
+	 */
+	private static int readInt(byte[] data, int offset) {
+		return ((data[offset] & 0xFF) << 24) | ((data[offset + 1] & 0xFF) << 16)
+				| ((data[offset + 2] & 0xFF) << 8) | (data[offset + 3] & 0xFF);
+	}
+
+	/**
+	 * 将数值按定长十进制格式写入数组，不足位数时高位补零。
+	 * 
+	 * @param value 指定数值。
+	 * @param dest 指定目标数组。
+	 * @param offset 指定写入位置。
+	 * @param width 指定字段宽度。
+	 * @throws IllegalArgumentException 数值为负数或者超出字段宽度时抛出。
+	 */
+	private static void formatDecimal(int value, byte[] dest, int offset, int width) {
+		if (value < 0) {
+			throw new IllegalArgumentException("Negative field value: " + value);
+		}
+
+		int remaining = value;
+		for (int i = offset + width - 1; i >= offset; --i) {
+			dest[i] = (byte) ('0' + (remaining % 10));
+			remaining /= 10;
+		}
+
+		if (remaining != 0) {
+			throw new IllegalArgumentException("Field value " + value + " exceeds " + width + " digits");
+		}
+	}
+
+	/**
+	 * 解析定长十进制格式的字段。
+	 * 
+	 * @param data 指定数据数组。
+	 * @param offset 指定字段位置。
+	 * @param width 指定字段宽度。
+	 * @param end 指定有效数据的结束位置。
+	 * @return 返回字段数值。字段越界或者包含非数字字符时返回 <code>-1</code> 。
+	 */
+	private static int parseDecimal(byte[] data, int offset, int width, int end) {
+		if (width > end - offset) {
+			return -1;
+		}
+
+		int value = 0;
+		for (int i = offset, limit = offset + width; i < limit; ++i) {
+			int digit = data[i] - '0';
+			if (digit < 0 || digit > 9) {
+				return -1;
 			}
-		default:
-			return Integer.toString(number);
+			value = value * 10 + digit;
 		}
+		return value;
 	}
 
 }
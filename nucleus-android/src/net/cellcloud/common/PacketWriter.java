@@ -0,0 +1,331 @@
+/*
+-----------------------------------------------------------------------------
+This source file is part of Cell Cloud.
+
+Copyright (c) 2009-2017 Cell Cloud Team (www.cellcloud.net)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+-----------------------------------------------------------------------------
+*/
+
+package net.cellcloud.common;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import net.cellcloud.util.CRC32C;
+
+/**
+ * 数据包写入器。直接按 2.X 或 3.X 版本格式将数据段写入一个缓冲。
+ * 
+ * 写入器预留包头空间，数据段数据通过 {@link OutputStream} 接口写在包头之后。
+ * 2.X 版本在每个数据段结束时回填该段的长度；3.X 版本的数据段长度为变长编码，
+ * 包头在 {@link #toMessage()} 时紧贴数据段写在预留空间的末尾。
+ * 全部数据段写完后通过 {@link #toMessage()} 将缓冲交给连接器，不产生中间数组。
+ * 
+ * @author Ambrose Xu
+ * 
+ */
+public final class PacketWriter extends OutputStream {
+
+	/** 数据段数据默认预留的容量。 */
+	private static final int DEFAULT_PAYLOAD_CAPACITY = 256;
+
+	/** 数据缓冲。 */
+	private byte[] buf;
+	/** 已写入数据的长度。 */
+	private int count;
+	/** 预留的包头长度，数据段数据从此位置开始。 */
+	private final int headerLength;
+
+	/** 包标签。 */
+	private final byte[] tag;
+	/** 包序号。 */
+	private final int sn;
+	/** 包主版本号。 */
+	private final int major;
+	/** 包标志位，仅 3.X 版本有效。 */
+	private int flags;
+
+	/** 数据段数量。 */
+	private final int segmentNum;
+	/** 3.X 版本的数据段长度。 */
+	private final int[] segmentLengths;
+	/** 当前数据段索引。 */
+	private int segmentIndex;
+	/** 当前数据段的起始位置，没有正在写入的数据段时为 <code>-1</code> 。 */
+	private int segmentStart;
+
+	/** 已生成的消息。 */
+	private Message message;
+
+	/**
+	 * 构造函数。
+	 * 
+	 * @param tag 指定包标签。
+	 * @param sn 指定包序号。
+	 * @param segmentNum 指定数据段数量。
+	 */
+	public PacketWriter(byte[] tag, int sn, int segmentNum) {
+		this(tag, sn, 2, 0, segmentNum, DEFAULT_PAYLOAD_CAPACITY);
+	}
+
+	/**
+	 * 构造函数。
+	 * 
+	 * @param tag 指定包标签。
+	 * @param sn 指定包序号。
+	 * @param major 指定主版本号，支持 2 和 3 。
+	 * @param minor 指定副版本号。
+	 * @param segmentNum 指定数据段数量。
+	 * @param payloadCapacity 指定预计的数据段数据总长度，准确的预计值可以避免缓冲扩容。
+	 */
+	public PacketWriter(byte[] tag, int sn, int major, int minor, int segmentNum, int payloadCapacity) {
+		if (major != 2 && major != 3) {
+			throw new IllegalArgumentException("Unsupported packet version: " + major);
+		}
+
+		this.tag = tag;
+		this.sn = sn;
+		this.major = major;
+		this.flags = 0;
+		this.segmentNum = segmentNum;
+		this.segmentIndex = 0;
+		this.segmentStart = -1;
+
+		if (major == 3) {
+			// 按变长编码的最大长度预留包头和校验和
+			this.headerLength = Packet.PV3_HEADER + (segmentNum + 1) * Packet.VARINT_MAX;
+			this.segmentLengths = new int[segmentNum];
+			this.buf = new byte[this.headerLength + Math.max(0, payloadCapacity) + Packet.PV3_CHECKSUM];
+			this.count = this.headerLength;
+			return;
+		}
+
+		this.headerLength = Packet.PFB_VERSION + Packet.PFB_RES + Packet.PFB_TAG + Packet.PFB_SN
+				+ Packet.PFB_SEGMENT_NUM + segmentNum * Packet.PFB_SEGMENT_LENGTH;
+		this.segmentLengths = null;
+		this.buf = new byte[this.headerLength + Math.max(0, payloadCapacity)];
+
+		// 填写 VER 和 RES
+		this.buf[0] = (byte) major;
+		this.buf[1] = (byte) minor;
+		int cursor = Packet.PFB_VERSION + Packet.PFB_RES;
+
+		// 填写 TAG
+		System.arraycopy(tag, 0, this.buf, cursor, Packet.PFB_TAG);
+		cursor += Packet.PFB_TAG;
+
+		// 填写 SN
+		this.buf[cursor++] = (byte) (sn >> 8);
+		this.buf[cursor++] = (byte) sn;
+
+		// 填写 SMN
+		this.buf[cursor++] = (byte) (segmentNum >> 8);
+		this.buf[cursor++] = (byte) segmentNum;
+
+		// 数据段长度在数据段结束时回填
+		this.count = this.headerLength;
+	}
+
+	/**
+	 * 设置包标志位。仅 3.X 版本有效，取值见 {@link Packet#FLAG_CHECKSUM} 等。
+	 * 
+	 * @param flags 指定标志位。
+	 */
+	public void setFlags(int flags) {
+		this.flags = flags;
+	}
+
+	/**
+	 * 开始写入下一个数据段。
+	 */
+	public void beginSegment() {
+		if (this.segmentStart >= 0) {
+			throw new IllegalStateException("Segment " + this.segmentIndex + " is not ended");
+		}
+		if (this.segmentIndex >= this.segmentNum) {
+			throw new IllegalStateException("Too many segments, expected " + this.segmentNum);
+		}
+
+		this.segmentStart = this.count;
+	}
+
+	/**
+	 * 结束当前数据段，回填数据段长度。
+	 */
+	public void endSegment() {
+		if (this.segmentStart < 0) {
+			throw new IllegalStateException("No segment is begun");
+		}
+
+		int length = this.count - this.segmentStart;
+		if (this.major == 3) {
+			this.segmentLengths[this.segmentIndex] = length;
+		}
+		else {
+			int cursor = Packet.PFB_VERSION + Packet.PFB_RES + Packet.PFB_TAG + Packet.PFB_SN
+					+ Packet.PFB_SEGMENT_NUM + this.segmentIndex * Packet.PFB_SEGMENT_LENGTH;
+			Packet.writeInt(length, this.buf, cursor);
+		}
+
+		++this.segmentIndex;
+		this.segmentStart = -1;
+	}
+
+	/**
+	 * 写入一个完整的数据段。
+	 * 
+	 * @param segment 指定数据段数据。
+	 */
+	public void writeSegment(byte[] segment) {
+		this.writeSegment(segment, 0, segment.length);
+	}
+
+	/**
+	 * 写入一个完整的数据段。
+	 * 
+	 * @param data 指定数据段所在的数组。
+	 * @param offset 指定数据段起始位置。
+	 * @param length 指定数据段长度。
+	 */
+	public void writeSegment(byte[] data, int offset, int length) {
+		this.beginSegment();
+		this.write(data, offset, length);
+		this.endSegment();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void write(int b) {
+		this.ensureCapacity(this.count + 1);
+		this.buf[this.count++] = (byte) b;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void write(byte[] b, int off, int len) {
+		this.ensureCapacity(this.count + len);
+		System.arraycopy(b, off, this.buf, this.count, len);
+		this.count += len;
+	}
+
+	/**
+	 * 返回缓冲已使用的长度，包括预留的包头空间。
+	 * 
+	 * @return 返回缓冲已使用的长度。
+	 */
+	public int size() {
+		return this.count;
+	}
+
+	/**
+	 * 生成消息。消息直接引用写入器的缓冲，生成消息后不能再写入数据。
+	 * 
+	 * @return 返回包含完整数据包的消息。
+	 */
+	public Message toMessage() {
+		if (null != this.message) {
+			return this.message;
+		}
+
+		this.checkCompleted();
+
+		if (this.major == 3) {
+			this.message = this.finishV3();
+		}
+		else {
+			this.message = new Message(this.buf, 0, this.count);
+		}
+
+		return this.message;
+	}
+
+	/**
+	 * 将完整数据包复制到指定缓冲，从缓冲当前位置开始写入。
+	 * 
+	 * @param buffer 指定目标缓冲。
+	 * @return 返回写入的字节数。
+	 */
+	public int writeTo(ByteBuffer buffer) {
+		Message message = this.toMessage();
+		buffer.put(message.array(), message.offset(), message.length());
+		return message.length();
+	}
+
+	/**
+	 * 在预留空间末尾写入 3.X 版本包头，并在包尾追加校验和。
+	 */
+	private Message finishV3() {
+		int smn = this.segmentNum;
+		int length = Packet.PV3_HEADER + Packet.varintLength(smn);
+		for (int i = 0; i < smn; ++i) {
+			length += Packet.varintLength(this.segmentLengths[i]);
+		}
+
+		int start = this.headerLength - length;
+		int cursor = start;
+
+		// 填写 VER 和 FLG
+		this.buf[cursor++] = 3;
+		this.buf[cursor++] = (byte) this.flags;
+
+		// 填写 TAG
+		System.arraycopy(this.tag, 0, this.buf, cursor, Packet.PFB_TAG);
+		cursor += Packet.PFB_TAG;
+
+		// 填写 SN
+		cursor = Packet.writeInt(this.sn, this.buf, cursor);
+
+		// 填写 SMN 和 SML
+		cursor = Packet.writeVarint(smn, this.buf, cursor);
+		for (int i = 0; i < smn; ++i) {
+			cursor = Packet.writeVarint(this.segmentLengths[i], this.buf, cursor);
+		}
+
+		// 填写 CRC
+		if ((this.flags & Packet.FLAG_CHECKSUM) != 0) {
+			this.ensureCapacity(this.count + Packet.PV3_CHECKSUM);
+			int crc = CRC32C.compute(this.buf, start, this.count - start);
+			this.count = Packet.writeInt(crc, this.buf, this.count);
+		}
+
+		return new Message(this.buf, start, this.count - start);
+	}
+
+	private void checkCompleted() {
+		if (this.segmentStart >= 0 || this.segmentIndex != this.segmentNum) {
+			throw new IllegalStateException("Packet is incomplete: " + this.segmentIndex + "/" + this.segmentNum + " segments");
+		}
+	}
+
+	private void ensureCapacity(int minCapacity) {
+		if (minCapacity > this.buf.length) {
+			int newCapacity = Math.max(this.buf.length << 1, minCapacity);
+			byte[] newBuf = new byte[newCapacity];
+			System.arraycopy(this.buf, 0, newBuf, 0, this.count);
+			this.buf = newBuf;
+		}
+	}
+
+}
@@ -0,0 +1,187 @@
+/*
+-----------------------------------------------------------------------------
+This source file is part of Cell Cloud.
+
+Copyright (c) 2009-2017 Cell Cloud Team (www.cellcloud.net)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+-----------------------------------------------------------------------------
+*/
+
+package net.cellcloud.common;
+
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.util.ArrayList;
+
+/**
+ * 可靠数据报接收器。
+ * 
+ * 在 UDP 端口上接收 {@link ReliableDatagramConnector} 的连接，每个对端地址对应一个会话。
+ * 
+ * @author Ambrose Xu
+ * 
+ */
+public class ReliableDatagramAcceptor extends ReliableDatagramService implements MessageAcceptor {
+
+	/** 绑定地址。 */
+	private InetSocketAddress bindAddress;
+
+	/**
+	 * 构造函数。
+	 */
+	public ReliableDatagramAcceptor() {
+		super();
+	}
+
+	/**
+	 * 设置数据缓存块大小。
+	 * 
+	 * @param size 指定数据块大小。
+	 */
+	public void setBlockSize(int size) {
+		this.block = size;
+	}
+
+	/**
+	 * 返回绑定地址。
+	 * 
+	 * @return 返回绑定地址，未绑定时返回 <code>null</code> 。
+	 */
+	public InetSocketAddress getBindAddress() {
+		return this.bindAddress;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean bind(int port) {
+		return this.bind(new InetSocketAddress("0.0.0.0", port));
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized boolean bind(InetSocketAddress address) {
+		if (null != this.socket) {
+			return false;
+		}
+
+		try {
+			this.socket = new DatagramSocket(address);
+			this.socket.setReceiveBufferSize(this.block * 4);
+			this.socket.setSendBufferSize(this.block * 4);
+			this.socket.setSoTimeout(1000);
+		} catch (SocketException e) {
+			Logger.log(ReliableDatagramAcceptor.class, e, LogLevel.ERROR);
+			if (null != this.socket) {
+				this.socket.close();
+				this.socket = null;
+			}
+			this.fireErrorOccurred(MessageErrorCode.BIND_FAILED, null, null);
+			return false;
+		}
+
+		this.bindAddress = new InetSocketAddress(address.getAddress(), this.socket.getLocalPort());
+		this.startThreads("ReliableDatagramAcceptor");
+		return true;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized void unbind() {
+		if (null == this.socket) {
+			return;
+		}
+
+		ArrayList<ReliableDatagramSession> list = new ArrayList<ReliableDatagramSession>(this.sessions.values());
+		for (ReliableDatagramSession session : list) {
+			this.closeSession(session, 0, true);
+		}
+
+		this.stopThreads();
+		this.socket = null;
+		this.bindAddress = null;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void close(Session session) {
+		ReliableDatagramSession rds = this.findSession(session);
+		if (null != rds) {
+			this.closeSession(rds, 0, true);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected void processHandshake(byte type, int conv, byte[] data, int offset, int length, InetSocketAddress address) {
+		if (type != ReliableDatagramSession.TYPE_SYN) {
+			return;
+		}
+
+		ReliableDatagramSession session = this.sessions.get(address);
+		if (null != session) {
+			if (session.getConv() == conv) {
+				// 应答丢失，对端重发了连接请求
+				byte[] synack = session.makeControl(ReliableDatagramSession.TYPE_SYNACK, null);
+				this.transmit(session, synack, synack.length);
+				return;
+			}
+
+			// 对端重新建立连接
+			this.closeSession(session, 0, false);
+		}
+
+		if (this.sessions.size() >= this.getMaxConnectNum()) {
+			Logger.w(ReliableDatagramAcceptor.class, "Too many connections, refuse " + address.toString());
+			return;
+		}
+
+		session = new ReliableDatagramSession(this, address, conv, ReliableDatagramSession.STATE_CONNECTING);
+		this.initSession(session);
+
+		int size = length - ReliableDatagramSession.HEADER_LENGTH;
+		if (size > 0) {
+			byte[] handshakeData = new byte[size];
+			System.arraycopy(data, offset + ReliableDatagramSession.HEADER_LENGTH, handshakeData, 0, size);
+			session.setHandshakeData(handshakeData);
+		}
+
+		session.open(System.nanoTime());
+		this.sessions.put(address, session);
+
+		byte[] synack = session.makeControl(ReliableDatagramSession.TYPE_SYNACK, null);
+		this.transmit(session, synack, synack.length);
+
+		this.fireSessionCreated(session);
+		this.fireSessionOpened(session);
+		this.wakeupPump();
+	}
+
+}
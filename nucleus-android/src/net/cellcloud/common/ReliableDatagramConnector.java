@@ -0,0 +1,231 @@
+/*
+-----------------------------------------------------------------------------
+This source file is part of Cell Cloud.
+
+Copyright (c) 2009-2017 Cell Cloud Team (www.cellcloud.net)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+-----------------------------------------------------------------------------
+*/
+
+package net.cellcloud.common;
+
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+
+import net.cellcloud.util.Utils;
+
+/**
+ * 可靠数据报连接器。
+ * 
+ * 通过 UDP 与 {@link ReliableDatagramAcceptor} 建立连接，提供按流有序的可靠消息传输。
+ * 丢包只阻塞所在流的消息递交，适用于丢包较多的移动网络。
+ * 
+ * @author Ambrose Xu
+ * 
+ */
+public class ReliableDatagramConnector extends ReliableDatagramService implements MessageConnector {
+
+	/** 会话实例。 */
+	private ReliableDatagramSession session;
+
+	/** 连接超时时间，单位毫秒。 */
+	private long connectTimeout = 10000L;
+
+	/** 连接请求携带的握手数据。 */
+	private byte[] handshakeData;
+
+	/**
+	 * 构造函数。
+	 */
+	public ReliableDatagramConnector() {
+		super();
+	}
+
+	/**
+	 * 设置连接请求携带的握手数据。接收器可以通过 {@link ReliableDatagramSession#getHandshakeData()} 获得该数据。
+	 * 
+	 * @param data 指定握手数据。
+	 */
+	public void setHandshakeData(byte[] data) {
+		this.handshakeData = data;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized boolean connect(InetSocketAddress address) {
+		if (null != this.socket) {
+			return false;
+		}
+
+		try {
+			this.socket = new DatagramSocket();
+			this.socket.setReceiveBufferSize(this.block + this.block);
+			this.socket.setSendBufferSize(this.block + this.block);
+			this.socket.setSoTimeout(1000);
+			this.socket.connect(address);
+		} catch (SocketException e) {
+			Logger.log(ReliableDatagramConnector.class, e, LogLevel.WARNING);
+			if (null != this.socket) {
+				this.socket.close();
+				this.socket = null;
+			}
+			this.fireErrorOccurred(MessageErrorCode.SOCKET_FAILED, null, null);
+			return false;
+		}
+
+		ReliableDatagramSession session = new ReliableDatagramSession(this, address,
+				(int) Utils.randomLong(), ReliableDatagramSession.STATE_CONNECTING);
+		this.initSession(session);
+		session.setHandshakeData(this.handshakeData);
+		session.connecting(System.nanoTime(), this.connectTimeout);
+		this.session = session;
+		this.sessions.put(address, session);
+
+		this.fireSessionCreated(session);
+
+		this.startThreads("ReliableDatagramConnector");
+		return true;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void disconnect() {
+		ReliableDatagramSession session = this.session;
+		if (null != session) {
+			this.closeSession(session, 0, true);
+		}
+
+		this.shutdown();
+	}
+
+	/**
+	 * 关闭 Socket 并停止收发线程。
+	 */
+	private synchronized void shutdown() {
+		if (null == this.socket) {
+			return;
+		}
+
+		this.stopThreads();
+		this.socket = null;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean isConnected() {
+		ReliableDatagramSession session = this.session;
+		return (null != session && session.isOpen());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void setConnectTimeout(long timeout) {
+		this.connectTimeout = timeout;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void setBlockSize(int size) {
+		this.block = size;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Session getSession() {
+		return this.session;
+	}
+
+	/**
+	 * 向当前连接写入消息。
+	 * 
+	 * @param message 指定消息。
+	 * @return 如果消息进入发送队列返回 <code>true</code> 。
+	 */
+	public boolean write(Message message) {
+		return this.write(this.session, message, STREAM_DEFAULT);
+	}
+
+	/**
+	 * 向当前连接的指定流写入消息。
+	 * 
+	 * @param message 指定消息。
+	 * @param stream 指定流编号。
+	 * @return 如果消息进入发送队列返回 <code>true</code> 。
+	 */
+	public boolean write(Message message, int stream) {
+		return this.write(this.session, message, stream);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected void processHandshake(byte type, int conv, byte[] data, int offset, int length, InetSocketAddress address) {
+		ReliableDatagramSession session = this.session;
+		if (type != ReliableDatagramSession.TYPE_SYNACK || null == session || session.getConv() != conv) {
+			return;
+		}
+
+		boolean opened = false;
+		synchronized (session) {
+			opened = session.open(System.nanoTime());
+		}
+
+		if (opened) {
+			this.recordConnect(session);
+			this.fireSessionOpened(session);
+			this.wakeupPump();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected void sessionRemoved(final ReliableDatagramSession session) {
+		if (session != this.session) {
+			return;
+		}
+
+		// 会话在收发线程里关闭时，在新线程里停止收发线程
+		Thread thread = new Thread() {
+			@Override
+			public void run() {
+				shutdown();
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+}
@@ -0,0 +1,540 @@
+/*
+-----------------------------------------------------------------------------
+This source file is part of Cell Cloud.
+
+Copyright (c) 2009-2017 Cell Cloud Team (www.cellcloud.net)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+-----------------------------------------------------------------------------
+*/
+
+package net.cellcloud.common;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 可靠数据报服务。
+ * 
+ * 在 UDP 之上提供按流有序、可靠的消息传输，连接器和接收器共用同一套收发流程：
+ * 接收线程复用同一个缓存接收数据报并分发给对应的会话；发送线程按会话的拥塞窗口和节拍发送数据，
+ * 并处理重传、延迟确认和空闲探测。
+ * 
+ * @author Ambrose Xu
+ * 
+ */
+public abstract class ReliableDatagramService extends MessageService {
+
+	/** 默认流编号。 */
+	public final static int STREAM_DEFAULT = 0;
+
+	/** 接收缓存大小。 */
+	private final static int RECEIVE_BUFFER_SIZE = 65536;
+
+	/** 数据报 Socket 。 */
+	protected DatagramSocket socket;
+
+	/** 会话映射，键为对端地址。 */
+	protected ConcurrentHashMap<InetSocketAddress, ReliableDatagramSession> sessions;
+
+	/** 数据报发送器。 */
+	private DatagramSender sender;
+
+	/** Socket 收发缓存大小。 */
+	protected int block = 65536;
+
+	/** 会话空闲超时时间，单位毫秒。 */
+	private long idleTimeout = 30000L;
+
+	private volatile boolean running = false;
+	private Thread receiveThread;
+	private Thread pumpThread;
+	/** 是否有待发送线程处理的事件。 */
+	private AtomicBoolean pumpSignal;
+
+	/**
+	 * 构造函数。
+	 */
+	public ReliableDatagramService() {
+		super();
+		this.sessions = new ConcurrentHashMap<InetSocketAddress, ReliableDatagramSession>();
+		this.pumpSignal = new AtomicBoolean(false);
+		this.sender = new DatagramSender() {
+			@Override
+			public void send(DatagramSocket socket, DatagramPacket packet) throws IOException {
+				socket.send(packet);
+			}
+		};
+	}
+
+	/**
+	 * 设置数据报发送器。用于替换底层发送操作，例如模拟丢包和乱序。
+	 * 
+	 * @param sender 指定发送器。
+	 */
+	public void setDatagramSender(DatagramSender sender) {
+		if (null != sender) {
+			this.sender = sender;
+		}
+	}
+
+	/**
+	 * 设置会话空闲超时时间。超过该时间未收到对端任何数据时关闭会话。
+	 * 
+	 * @param timeout 指定以毫秒为单位的超时时间。
+	 */
+	public void setIdleTimeout(long timeout) {
+		this.idleTimeout = timeout;
+	}
+
+	/**
+	 * 返回会话空闲超时时间。
+	 * 
+	 * @return 返回以毫秒为单位的超时时间。
+	 */
+	public long getIdleTimeout() {
+		return this.idleTimeout;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean write(Session session, Message message) {
+		return this.write(session, message, STREAM_DEFAULT);
+	}
+
+	/**
+	 * 向指定会话的指定流写入消息。同一个流上的消息按写入顺序递交，不同流之间互不阻塞。
+	 * 
+	 * @param session 指定会话。
+	 * @param message 指定消息。
+	 * @param stream 指定流编号，取值范围为 <code>0</code> 到 {@link ReliableDatagramSession#STREAM_NUM} 减 1 。
+	 * @return 如果消息进入发送队列返回 <code>true</code> 。
+	 */
+	public boolean write(Session session, Message message, int stream) {
+		ReliableDatagramSession rds = this.findSession(session);
+		if (null == rds || rds.isClosed()) {
+			this.fireErrorOccurred(MessageErrorCode.STATE_ERROR, session, message);
+			return false;
+		}
+
+		if (stream < 0 || stream >= ReliableDatagramSession.STREAM_NUM) {
+			this.fireErrorOccurred(MessageErrorCode.STATE_ERROR, rds, message);
+			return false;
+		}
+
+		if (message.length() > rds.getMaxMessageSize()) {
+			this.fireErrorOccurred(MessageErrorCode.WRITE_OUTOFBOUNDS, rds, message);
+			return false;
+		}
+
+		// 各流独立投递，会话不启用压缩，过滤器可以在调用线程里执行
+		this.getFilterChain().doWrite(rds, message);
+
+		boolean unwritable = this.markPending(rds, message);
+
+		if (!rds.offer(message, stream)) {
+			this.unmarkPending(rds, message);
+			this.fireErrorOccurred(MessageErrorCode.WRITE_QUEUE_FULL, rds, message);
+			return false;
+		}
+
+		if (unwritable) {
+			// 待写数据超过高水位
+			this.fireSessionUnwritable(rds);
+		}
+
+		this.wakeupPump();
+		return true;
+	}
+
+	/**
+	 * 查找 Session 对应的可靠数据报会话。
+	 * 
+	 * @param session 指定会话。
+	 * @return 返回可靠数据报会话，没有找到时返回 <code>null</code> 。
+	 */
+	protected ReliableDatagramSession findSession(Session session) {
+		if (null == session) {
+			return null;
+		}
+
+		if (session instanceof ReliableDatagramSession && session.getService() == this) {
+			return (ReliableDatagramSession) session;
+		}
+
+		ReliableDatagramSession rds = this.sessions.get(session.getAddress());
+		if (null != rds && rds.getId().longValue() == session.getId().longValue()) {
+			return rds;
+		}
+
+		return null;
+	}
+
+	/**
+	 * 启动收发线程。
+	 * 
+	 * @param name 指定线程名前缀。
+	 */
+	protected void startThreads(String name) {
+		this.running = true;
+
+		this.receiveThread = new Thread(name + "-Receive") {
+			@Override
+			public void run() {
+				loopReceive();
+			}
+		};
+		this.receiveThread.setDaemon(true);
+
+		this.pumpThread = new Thread(name + "-Pump") {
+			@Override
+			public void run() {
+				loopPump();
+			}
+		};
+		this.pumpThread.setDaemon(true);
+
+		this.receiveThread.start();
+		this.pumpThread.start();
+	}
+
+	/**
+	 * 停止收发线程并关闭 Socket 。
+	 */
+	protected void stopThreads() {
+		this.running = false;
+
+		DatagramSocket socket = this.socket;
+		if (null != socket) {
+			socket.close();
+		}
+
+		Thread current = Thread.currentThread();
+		Thread pump = this.pumpThread;
+		if (null != pump) {
+			LockSupport.unpark(pump);
+			if (pump != current) {
+				try {
+					pump.join(1000L);
+				} catch (InterruptedException e) {
+					// Nothing
+				}
+			}
+		}
+
+		Thread receive = this.receiveThread;
+		if (null != receive && receive != current) {
+			try {
+				receive.join(1000L);
+			} catch (InterruptedException e) {
+				// Nothing
+			}
+		}
+
+		this.pumpThread = null;
+		this.receiveThread = null;
+	}
+
+	/**
+	 * 是否正在运行。
+	 */
+	public boolean isRunning() {
+		return this.running;
+	}
+
+	/**
+	 * 通知发送线程处理会话。
+	 */
+	protected void wakeupPump() {
+		if (this.pumpSignal.compareAndSet(false, true)) {
+			Thread pump = this.pumpThread;
+			if (null != pump) {
+				LockSupport.unpark(pump);
+			}
+		}
+	}
+
+	/**
+	 * 发送数据报。
+	 * 
+	 * @param session 指定目标会话。
+	 * @param data 指定数据。
+	 * @param length 指定数据长度。
+	 */
+	protected void transmit(ReliableDatagramSession session, byte[] data, int length) {
+		DatagramSocket socket = this.socket;
+		if (null == socket) {
+			return;
+		}
+
+		try {
+			this.sender.send(socket, new DatagramPacket(data, 0, length, session.getAddress()));
+		} catch (IOException e) {
+			if (this.running) {
+				Logger.log(ReliableDatagramService.class, e, LogLevel.DEBUG);
+			}
+		}
+	}
+
+	/**
+	 * 处理连接请求和连接应答。
+	 * 
+	 * @param type 指定数据报类型。
+	 * @param conv 指定连接编号。
+	 * @param data 指定数据。
+	 * @param offset 指定数据报起始位置。
+	 * @param length 指定数据报长度。
+	 * @param address 指定对端地址。
+	 */
+	protected abstract void processHandshake(byte type, int conv, byte[] data, int offset, int length, InetSocketAddress address);
+
+	/**
+	 * 创建会话后对会话进行初始化。
+	 * 
+	 * @param session 指定新会话。
+	 */
+	protected void initSession(ReliableDatagramSession session) {
+		session.setIdleTimeout(this.idleTimeout);
+		session.setMaxMessageSize(MessageService.MAX_FRAME_LENGTH);
+	}
+
+	/**
+	 * 关闭会话。
+	 * 
+	 * @param session 指定会话。
+	 * @param errorCode 指定需报告的错误码，为 <code>0</code> 时不报告错误。
+	 * @param notifyPeer 指定是否通知对端关闭。
+	 */
+	protected void closeSession(ReliableDatagramSession session, int errorCode, boolean notifyPeer) {
+		boolean wasOpen = session.isOpen();
+		if (!session.markClosed()) {
+			return;
+		}
+
+		this.sessions.remove(session.getAddress(), session);
+
+		if (notifyPeer && wasOpen) {
+			byte[] fin = session.makeControl(ReliableDatagramSession.TYPE_FIN, null);
+			this.transmit(session, fin, fin.length);
+		}
+
+		synchronized (session) {
+			session.clearQueues();
+		}
+
+		if (errorCode != 0) {
+			this.fireErrorOccurred(errorCode, session, null);
+		}
+
+		if (null != this.handler) {
+			if (wasOpen) {
+				this.handler.sessionClosed(session);
+			}
+			this.handler.sessionDestroyed(session);
+		}
+
+		this.sessionRemoved(session);
+	}
+
+	/**
+	 * 会话关闭后的回调。
+	 * 
+	 * @param session 指定已关闭的会话。
+	 */
+	protected void sessionRemoved(ReliableDatagramSession session) {
+		// Nothing
+	}
+
+	/**
+	 * 回调会话已建立。
+	 */
+	protected void fireSessionOpened(ReliableDatagramSession session) {
+		if (null != this.handler) {
+			this.handler.sessionOpened(session);
+		}
+	}
+
+	/**
+	 * 回调会话已创建。
+	 */
+	protected void fireSessionCreated(ReliableDatagramSession session) {
+		if (null != this.handler) {
+			this.handler.sessionCreated(session);
+		}
+	}
+
+	/**
+	 * 回调错误。
+	 */
+	protected void fireErrorOccurred(int errorCode, Session session, Message message) {
+		if (null != this.handler) {
+			this.handler.errorOccurred(errorCode, session, message);
+		}
+	}
+
+	/**
+	 * 接收循环。
+	 */
+	private void loopReceive() {
+		byte[] buf = new byte[RECEIVE_BUFFER_SIZE];
+		DatagramPacket packet = new DatagramPacket(buf, buf.length);
+		ArrayList<Message> received = new ArrayList<Message>();
+		ArrayList<Message> sent = new ArrayList<Message>();
+
+		while (this.running) {
+			DatagramSocket socket = this.socket;
+			if (null == socket) {
+				break;
+			}
+
+			packet.setLength(buf.length);
+			try {
+				socket.receive(packet);
+			} catch (SocketTimeoutException e) {
+				continue;
+			} catch (IOException e) {
+				if (this.running) {
+					Logger.log(ReliableDatagramService.class, e, LogLevel.DEBUG);
+				}
+				continue;
+			}
+
+			int length = packet.getLength();
+			if (length < ReliableDatagramSession.HEADER_LENGTH || buf[0] != ReliableDatagramSession.MAGIC) {
+				continue;
+			}
+
+			byte type = buf[1];
+			int conv = ReliableDatagramSession.readInt(buf, 2);
+			InetSocketAddress address = (InetSocketAddress) packet.getSocketAddress();
+
+			if (type == ReliableDatagramSession.TYPE_SYN || type == ReliableDatagramSession.TYPE_SYNACK) {
+				this.processHandshake(type, conv, buf, 0, length, address);
+				continue;
+			}
+
+			ReliableDatagramSession session = this.sessions.get(address);
+			if (null == session || session.getConv() != conv) {
+				continue;
+			}
+
+			boolean alive = true;
+			synchronized (session) {
+				alive = session.receive(type, buf, 0, length, System.nanoTime(), this, received, sent);
+			}
+
+			this.fireSent(session, sent);
+
+			for (int i = 0, size = received.size(); i < size; ++i) {
+				Message message = received.get(i);
+
+				if (!this.processRead(session, message)) {
+					continue;
+				}
+
+				if (null != this.interceptor && this.interceptor.interceptMessage(session, message)) {
+					continue;
+				}
+
+				if (null != this.handler) {
+					this.handler.messageReceived(session, message);
+				}
+			}
+			received.clear();
+
+			if (!alive) {
+				// 对端关闭连接
+				this.closeSession(session, 0, false);
+			}
+			else if (session.isFailed()) {
+				this.closeSession(session, session.getCloseCode(), true);
+			}
+			else {
+				// 确认可能推进了发送窗口或安排了延迟确认
+				this.wakeupPump();
+			}
+		}
+	}
+
+	/**
+	 * 发送循环。
+	 */
+	private void loopPump() {
+		ArrayList<ReliableDatagramSession> closed = new ArrayList<ReliableDatagramSession>();
+
+		while (this.running) {
+			this.pumpSignal.set(false);
+
+			long now = System.nanoTime();
+			long deadline = now + 1000L * 1000000L;
+
+			Iterator<ReliableDatagramSession> iter = this.sessions.values().iterator();
+			while (iter.hasNext()) {
+				ReliableDatagramSession session = iter.next();
+				long next = 0;
+				synchronized (session) {
+					next = session.pump(now, this);
+				}
+
+				if (session.isFailed()) {
+					closed.add(session);
+				}
+				else if (next - deadline < 0) {
+					deadline = next;
+				}
+			}
+
+			for (int i = 0, size = closed.size(); i < size; ++i) {
+				ReliableDatagramSession session = closed.get(i);
+				this.closeSession(session, session.getCloseCode(), session.getCloseCode() != MessageErrorCode.CONNECT_TIMEOUT);
+			}
+			closed.clear();
+
+			long wait = deadline - System.nanoTime();
+			if (wait > 0 && !this.pumpSignal.get()) {
+				LockSupport.parkNanos(this, wait);
+			}
+		}
+	}
+
+	/**
+	 * 回调消息已发送。
+	 */
+	private void fireSent(ReliableDatagramSession session, ArrayList<Message> sent) {
+		for (int i = 0, size = sent.size(); i < size; ++i) {
+			Message message = sent.get(i);
+			this.markSent(session, message);
+			if (null != this.handler) {
+				this.handler.messageSent(session, message);
+			}
+		}
+		sent.clear();
+	}
+
+}
@@ -0,0 +1,1015 @@
+/*
+-----------------------------------------------------------------------------
+This source file is part of Cell Cloud.
+
+Copyright (c) 2009-2017 Cell Cloud Team (www.cellcloud.net)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+-----------------------------------------------------------------------------
+*/
+
+package net.cellcloud.common;
+
+import java.io.ByteArrayOutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import net.cellcloud.util.MpscArrayQueue;
+
+/**
+ * 可靠数据报会话。
+ * 
+ * 维护一个对端的可靠传输状态：数据报按连接序号确认，接收端以累计确认和选择确认（SACK）应答；
+ * 发送端按拥塞窗口和对端接收窗口控制在途数据，并按平滑往返时间对发送进行节拍控制。
+ * 消息按流编号分别排序，一个流上的丢包不会阻塞其他流的消息递交。
+ * 
+ * 会话状态只在持有会话对象锁时访问。
+ * 
+ * @author Ambrose Xu
+ * 
+ */
+public class ReliableDatagramSession extends Session {
+
+	/** 数据报起始标识。 */
+	protected final static byte MAGIC = (byte) 0xCD;
+
+	/** 连接请求。 */
+	protected final static byte TYPE_SYN = 1;
+	/** 连接应答。 */
+	protected final static byte TYPE_SYNACK = 2;
+	/** 数据。 */
+	protected final static byte TYPE_DATA = 3;
+	/** 确认。 */
+	protected final static byte TYPE_ACK = 4;
+	/** 探测，对端以确认应答。 */
+	protected final static byte TYPE_PING = 5;
+	/** 关闭连接。 */
+	protected final static byte TYPE_FIN = 6;
+
+	/** 公共头长度：起始标识、类型、连接编号。 */
+	protected final static int HEADER_LENGTH = 6;
+	/** 数据报头长度：公共头、序号、流编号、流内序号、标志。 */
+	protected final static int DATA_HEADER_LENGTH = HEADER_LENGTH + 10;
+	/** 单个数据报承载的最大数据长度。 */
+	public final static int MAX_PAYLOAD = 1200;
+	/** 流数量。 */
+	public final static int STREAM_NUM = 4;
+
+	/** 会话状态：正在连接。 */
+	protected final static int STATE_CONNECTING = 0;
+	/** 会话状态：已连接。 */
+	protected final static int STATE_OPEN = 1;
+	/** 会话状态：已关闭。 */
+	protected final static int STATE_CLOSED = 2;
+
+	/** 接收窗口，单位为数据报个数。 */
+	private final static int RECEIVE_WINDOW = 512;
+	/** 每个流的待发送消息队列容量。 */
+	private final static int QUEUE_CAPACITY = 1024;
+	/** 确认包里最多携带的选择确认区间数。 */
+	private final static int MAX_SACK_BLOCKS = 16;
+	/** 判定丢包时需要后续已确认的数据报个数。 */
+	private final static int REORDER_THRESHOLD = 3;
+	/** 初始拥塞窗口。 */
+	private final static int INITIAL_CWND = 10;
+	/** 最小拥塞窗口。 */
+	private final static int MIN_CWND = 2;
+	/** 最大拥塞窗口。 */
+	private final static int MAX_CWND = RECEIVE_WINDOW;
+	/** 同一数据报的最大发送次数，超过后认为连接已断开。 */
+	private final static int MAX_TRANSMISSIONS = 10;
+	/** 节拍控制允许的突发数据报个数。 */
+	private final static int PACING_BURST = 4;
+
+	/** 初始往返时间，单位纳秒。 */
+	private final static long INITIAL_RTT = 100L * 1000000L;
+	/** 初始重传超时，单位纳秒。 */
+	private final static long INITIAL_RTO = 1000L * 1000000L;
+	/** 最小重传超时，单位纳秒。 */
+	private final static long MIN_RTO = 200L * 1000000L;
+	/** 最大重传超时，单位纳秒。 */
+	private final static long MAX_RTO = 10000L * 1000000L;
+	/** 最小探测超时，单位纳秒。 */
+	private final static long MIN_PTO = 10L * 1000000L;
+	/** 延迟确认时间，单位纳秒。 */
+	private final static long ACK_DELAY = 10L * 1000000L;
+	/** 空闲时发送探测的间隔，单位纳秒。 */
+	private final static long KEEPALIVE_INTERVAL = 5000L * 1000000L;
+
+	/** 连接编号。 */
+	private final int conv;
+	/** 会话状态。 */
+	private volatile int state;
+	/** 连接请求携带的握手数据。 */
+	private byte[] handshakeData;
+	/** 关闭会话时报告的错误码，为 <code>0</code> 表示正常关闭。 */
+	private int closeCode = 0;
+	/** 是否发生了需要关闭会话的错误。 */
+	private volatile boolean failed = false;
+
+	/** 连接超时时间点。 */
+	private long connectDeadline;
+	/** 下次发送连接请求的时间点。 */
+	private long synTime;
+	/** 空闲超时，单位纳秒。 */
+	private long idleTimeout;
+
+	/** 各流的待发送消息队列。 */
+	private MpscArrayQueue<Message>[] queues;
+	/** 轮询各流队列的游标。 */
+	private int streamCursor = 0;
+	/** 各流下一个流内序号。 */
+	private int[] streamSeqs;
+	/** 已分段未发送的数据报。 */
+	private ArrayDeque<Segment> sendQueue;
+	/** 已发送未确认的数据报，按序号排列。 */
+	private LinkedHashMap<Integer, Segment> unacked;
+	/** 判定为丢失等待重传的数据报。 */
+	private ArrayDeque<Segment> lostQueue;
+	/** 下一个数据报序号。 */
+	private int nextSeq = 0;
+
+	/** 拥塞窗口。 */
+	private int cwnd = INITIAL_CWND;
+	/** 拥塞避免阶段累计的确认数。 */
+	private int cwndCount = 0;
+	/** 慢启动阈值。 */
+	private int ssthresh = MAX_CWND;
+	/** 对端通告的接收窗口。 */
+	private int peerWindow = RECEIVE_WINDOW;
+	/** 是否处于快速恢复阶段，快速恢复阶段不增长拥塞窗口。 */
+	private boolean recovering = false;
+	/** 最近一次缩减拥塞窗口时的下一个序号，此前发送的数据报丢失不再缩减窗口。 */
+	private int recoveryPoint = 0;
+	/** 最近被确认的数据报里最大的序号。 */
+	private int deliveredSeq = -1;
+	/** 最近被确认的数据报里最晚的发送时间。 */
+	private long deliveredTime = 0;
+
+	/** 平滑往返时间。 */
+	private long srtt = 0;
+	/** 往返时间偏差。 */
+	private long rttvar = 0;
+	/** 重传超时。 */
+	private long rto = INITIAL_RTO;
+	/** 重传定时器到期时间点，为 <code>0</code> 时未启动。 */
+	private long rtoDeadline = 0;
+	/** 探测定时器到期时间点，为 <code>0</code> 时未启动。 */
+	private long probeDeadline = 0;
+	/** 节拍控制的下次发送时间点。 */
+	private long nextSendTime = 0;
+
+	/** 期望接收的下一个序号，即累计确认号。 */
+	private int cumAck = 0;
+	/** 已接收的乱序数据报序号。 */
+	private TreeSet<Integer> outOfOrder;
+	/** 各流的接收状态。 */
+	private ReceiveStream[] receiveStreams;
+	/** 是否有待发送的确认。 */
+	private boolean ackPending = false;
+	/** 延迟确认的发送时间点。 */
+	private long ackDeadline = 0;
+	/** 自上次确认后按序收到的数据报个数。 */
+	private int receivedSinceAck = 0;
+
+	/** 最近接收数据的时间点。 */
+	private long lastReceiveTime;
+	/** 最近发送数据的时间点。 */
+	private long lastSendTime;
+
+	/**
+	 * 构造函数。
+	 * 
+	 * @param service 指定所属服务。
+	 * @param address 指定对端地址。
+	 * @param conv 指定连接编号。
+	 * @param state 指定初始状态。
+	 */
+	@SuppressWarnings("unchecked")
+	protected ReliableDatagramSession(ReliableDatagramService service, InetSocketAddress address, int conv, int state) {
+		super(service, address);
+		this.conv = conv;
+		this.state = state;
+
+		this.queues = (MpscArrayQueue<Message>[]) new MpscArrayQueue<?>[STREAM_NUM];
+		this.receiveStreams = new ReceiveStream[STREAM_NUM];
+		for (int i = 0; i < STREAM_NUM; ++i) {
+			this.queues[i] = new MpscArrayQueue<Message>(QUEUE_CAPACITY);
+			this.receiveStreams[i] = new ReceiveStream();
+		}
+		this.streamSeqs = new int[STREAM_NUM];
+
+		this.sendQueue = new ArrayDeque<Segment>();
+		this.unacked = new LinkedHashMap<Integer, Segment>();
+		this.lostQueue = new ArrayDeque<Segment>();
+		this.outOfOrder = new TreeSet<Integer>();
+
+		long now = System.nanoTime();
+		this.lastReceiveTime = now;
+		this.lastSendTime = now;
+		this.idleTimeout = 30000L * 1000000L;
+	}
+
+	/**
+	 * 返回连接编号。
+	 */
+	public int getConv() {
+		return this.conv;
+	}
+
+	/**
+	 * 返回连接请求携带的握手数据。
+	 * 
+	 * @return 返回握手数据，没有握手数据时返回 <code>null</code> 。
+	 */
+	public byte[] getHandshakeData() {
+		return this.handshakeData;
+	}
+
+	protected void setHandshakeData(byte[] data) {
+		this.handshakeData = data;
+	}
+
+	/**
+	 * 是否已经建立连接。
+	 */
+	public boolean isOpen() {
+		return this.state == STATE_OPEN;
+	}
+
+	/**
+	 * 是否已经关闭。
+	 */
+	public boolean isClosed() {
+		return this.state == STATE_CLOSED;
+	}
+
+	/**
+	 * 返回平滑往返时间，单位毫秒。
+	 */
+	public long getRoundTripTime() {
+		synchronized (this) {
+			return (this.srtt == 0 ? INITIAL_RTT : this.srtt) / 1000000L;
+		}
+	}
+
+	/**
+	 * 返回当前拥塞窗口，单位为数据报个数。
+	 */
+	public int getCongestionWindow() {
+		synchronized (this) {
+			return this.cwnd;
+		}
+	}
+
+	/**
+	 * 是否发生了需要关闭会话的错误。
+	 */
+	protected boolean isFailed() {
+		return this.failed;
+	}
+
+	protected int getCloseCode() {
+		return this.closeCode;
+	}
+
+	/**
+	 * 记录需要关闭会话的错误，由服务关闭会话。
+	 */
+	private void fail(int errorCode) {
+		this.closeCode = errorCode;
+		this.failed = true;
+	}
+
+	protected void setIdleTimeout(long millis) {
+		this.idleTimeout = millis * 1000000L;
+	}
+
+	/**
+	 * 开始连接。
+	 * 
+	 * @param now 指定当前时间点。
+	 * @param timeout 指定以毫秒为单位的连接超时时间。
+	 */
+	protected void connecting(long now, long timeout) {
+		this.connectDeadline = now + timeout * 1000000L;
+		this.synTime = now;
+	}
+
+	/**
+	 * 连接已建立。
+	 * 
+	 * @param now 指定当前时间点。
+	 * @return 如果状态由正在连接变为已连接返回 <code>true</code> 。
+	 */
+	protected boolean open(long now) {
+		if (this.state != STATE_CONNECTING) {
+			return false;
+		}
+
+		this.state = STATE_OPEN;
+		this.lastReceiveTime = now;
+		this.rto = INITIAL_RTO;
+		return true;
+	}
+
+	/**
+	 * 标记会话已关闭。
+	 * 
+	 * @return 如果本次操作关闭了会话返回 <code>true</code> 。
+	 */
+	protected boolean markClosed() {
+		synchronized (this) {
+			if (this.state == STATE_CLOSED) {
+				return false;
+			}
+
+			this.state = STATE_CLOSED;
+			return true;
+		}
+	}
+
+	/**
+	 * 将消息放入指定流的待发送队列。
+	 * 
+	 * @param message 指定消息。
+	 * @param stream 指定流编号。
+	 * @return 队列已满时返回 <code>false</code> 。
+	 */
+	protected boolean offer(Message message, int stream) {
+		return this.queues[stream].offer(message);
+	}
+
+	/**
+	 * 清空所有待发送数据。
+	 */
+	protected void clearQueues() {
+		for (int i = 0; i < STREAM_NUM; ++i) {
+			this.queues[i].clear();
+		}
+		this.sendQueue.clear();
+		this.unacked.clear();
+		this.lostQueue.clear();
+		for (int i = 0; i < STREAM_NUM; ++i) {
+			this.receiveStreams[i].clear();
+		}
+		this.outOfOrder.clear();
+	}
+
+	/**
+	 * 执行定时任务并发送数据：连接请求、延迟确认、超时重传、按拥塞窗口和节拍发送数据以及空闲探测。
+	 * 
+	 * @param now 指定当前时间点。
+	 * @param service 指定所属服务。
+	 * @return 返回下一次需要执行的时间点。
+	 */
+	protected long pump(long now, ReliableDatagramService service) {
+		if (this.state == STATE_CLOSED || this.failed) {
+			return Long.MAX_VALUE;
+		}
+
+		if (this.state == STATE_CONNECTING) {
+			if (now - this.connectDeadline >= 0) {
+				this.fail(MessageErrorCode.CONNECT_TIMEOUT);
+				return Long.MAX_VALUE;
+			}
+
+			if (now - this.synTime >= 0) {
+				byte[] syn = this.makeControl(TYPE_SYN, this.handshakeData);
+				service.transmit(this, syn, syn.length);
+				this.synTime = now + this.rto;
+				this.rto = Math.min(this.rto * 2, MAX_RTO);
+			}
+
+			return Math.min(this.synTime, this.connectDeadline);
+		}
+
+		if (now - this.lastReceiveTime >= this.idleTimeout) {
+			// 对端长时间无响应
+			this.fail(MessageErrorCode.READ_TIMEOUT);
+			return Long.MAX_VALUE;
+		}
+
+		if (this.ackPending && now - this.ackDeadline >= 0) {
+			this.sendAck(now, service);
+		}
+
+		if (this.rtoDeadline != 0 && now - this.rtoDeadline >= 0) {
+			this.onRetransmissionTimeout();
+		}
+		else if (this.probeDeadline != 0 && now - this.probeDeadline >= 0) {
+			this.onProbeTimeout();
+		}
+
+		long deadline = now + KEEPALIVE_INTERVAL;
+
+		// 发送数据
+		int window = Math.min(this.cwnd, this.peerWindow);
+		while (this.unacked.size() - this.lostQueue.size() < window) {
+			Segment segment = this.lostQueue.peek();
+			boolean retransmission = (null != segment);
+			if (!retransmission) {
+				segment = this.sendQueue.peek();
+				if (null == segment) {
+					if (!this.segmentNext()) {
+						break;
+					}
+					segment = this.sendQueue.peek();
+				}
+			}
+
+			if (now - this.nextSendTime < 0) {
+				// 等待节拍
+				deadline = this.nextSendTime;
+				break;
+			}
+
+			if (retransmission) {
+				this.lostQueue.poll();
+				segment.lost = false;
+			}
+			else {
+				this.sendQueue.poll();
+				segment.seq = this.nextSeq++;
+				writeInt(segment.data, HEADER_LENGTH, segment.seq);
+				this.unacked.put(segment.seq, segment);
+			}
+
+			if (++segment.transmissions > MAX_TRANSMISSIONS) {
+				this.fail(MessageErrorCode.WRITE_TIMEOUT);
+				return Long.MAX_VALUE;
+			}
+
+			segment.sentTime = now;
+			service.transmit(this, segment.data, segment.data.length);
+			this.lastSendTime = now;
+
+			long interval = this.pacingInterval();
+			this.nextSendTime = Math.max(this.nextSendTime, now - (PACING_BURST - 1) * interval) + interval;
+
+			if (this.rtoDeadline == 0) {
+				this.rtoDeadline = now + this.rto;
+			}
+			if (this.probeDeadline == 0) {
+				this.probeDeadline = now + this.probeTimeout();
+			}
+		}
+
+		if (now - this.lastSendTime >= KEEPALIVE_INTERVAL) {
+			// 空闲探测
+			byte[] ping = this.makeControl(TYPE_PING, null);
+			service.transmit(this, ping, ping.length);
+			this.lastSendTime = now;
+		}
+
+		deadline = Math.min(deadline, this.lastSendTime + KEEPALIVE_INTERVAL);
+		deadline = Math.min(deadline, this.lastReceiveTime + this.idleTimeout);
+		if (this.ackPending) {
+			deadline = Math.min(deadline, this.ackDeadline);
+		}
+		if (this.rtoDeadline != 0) {
+			deadline = Math.min(deadline, this.rtoDeadline);
+		}
+		if (this.probeDeadline != 0) {
+			deadline = Math.min(deadline, this.probeDeadline);
+		}
+
+		return deadline;
+	}
+
+	/**
+	 * 处理接收到的数据报。
+	 * 
+	 * @param type 指定数据报类型。
+	 * @param data 指定数据。
+	 * @param offset 指定数据报起始位置。
+	 * @param length 指定数据报长度。
+	 * @param now 指定当前时间点。
+	 * @param service 指定所属服务。
+	 * @param received 指定存放按序递交的消息的列表。
+	 * @param sent 指定存放已被对端确认的消息的列表。
+	 * @return 收到关闭连接请求时返回 <code>false</code> 。
+	 */
+	protected boolean receive(byte type, byte[] data, int offset, int length, long now,
+			ReliableDatagramService service, List<Message> received, List<Message> sent) {
+		if (this.state != STATE_OPEN || this.failed) {
+			return this.state != STATE_CLOSED;
+		}
+
+		this.lastReceiveTime = now;
+
+		switch (type) {
+		case TYPE_DATA:
+			if (length >= DATA_HEADER_LENGTH) {
+				this.onData(data, offset, length, now, service, received);
+			}
+			break;
+		case TYPE_ACK:
+			if (length >= HEADER_LENGTH + 7) {
+				this.onAck(data, offset, length, now, sent);
+			}
+			break;
+		case TYPE_PING:
+			this.sendAck(now, service);
+			break;
+		case TYPE_FIN:
+			return false;
+		default:
+			break;
+		}
+
+		return true;
+	}
+
+	/**
+	 * 从各流队列轮流取出一条消息并分段。
+	 * 
+	 * @return 如果没有待发送的消息返回 <code>false</code> 。
+	 */
+	private boolean segmentNext() {
+		for (int i = 0; i < STREAM_NUM; ++i) {
+			int stream = (this.streamCursor + i) % STREAM_NUM;
+			Message message = this.queues[stream].poll();
+			if (null == message) {
+				continue;
+			}
+
+			this.streamCursor = stream + 1;
+
+			byte[] src = message.array();
+			int offset = message.offset();
+			int remaining = message.length();
+			do {
+				int size = Math.min(remaining, MAX_PAYLOAD);
+				boolean last = (size == remaining);
+
+				Segment segment = new Segment();
+				segment.data = new byte[DATA_HEADER_LENGTH + size];
+				this.writeHeader(segment.data, TYPE_DATA);
+				segment.data[HEADER_LENGTH + 4] = (byte) stream;
+				writeInt(segment.data, HEADER_LENGTH + 5, this.streamSeqs[stream]++);
+				segment.data[HEADER_LENGTH + 9] = (byte) (last ? 1 : 0);
+				System.arraycopy(src, offset, segment.data, DATA_HEADER_LENGTH, size);
+				if (last) {
+					segment.message = message;
+				}
+				this.sendQueue.add(segment);
+
+				offset += size;
+				remaining -= size;
+			} while (remaining > 0);
+
+			return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * 处理数据。
+	 */
+	private void onData(byte[] data, int offset, int length, long now,
+			ReliableDatagramService service, List<Message> received) {
+		int seq = readInt(data, offset + HEADER_LENGTH);
+		if (seq - this.cumAck < 0 || this.outOfOrder.contains(seq)) {
+			// 重复数据，确认可能已丢失
+			this.sendAck(now, service);
+			return;
+		}
+
+		if (seq - this.cumAck >= RECEIVE_WINDOW) {
+			// 超出接收窗口
+			return;
+		}
+
+		int stream = data[offset + HEADER_LENGTH + 4] & 0xFF;
+		if (stream >= STREAM_NUM) {
+			return;
+		}
+
+		boolean inOrder = (seq == this.cumAck);
+		if (inOrder) {
+			++this.cumAck;
+			while (!this.outOfOrder.isEmpty() && this.outOfOrder.first().intValue() == this.cumAck) {
+				this.outOfOrder.pollFirst();
+				++this.cumAck;
+			}
+		}
+		else {
+			this.outOfOrder.add(seq);
+		}
+
+		int streamSeq = readInt(data, offset + HEADER_LENGTH + 5);
+		boolean last = (data[offset + HEADER_LENGTH + 9] & 1) != 0;
+		int size = length - DATA_HEADER_LENGTH;
+		byte[] payload = new byte[size];
+		System.arraycopy(data, offset + DATA_HEADER_LENGTH, payload, 0, size);
+
+		if (!this.receiveStreams[stream].accept(streamSeq, payload, last, received)) {
+			// 消息长度超出限制
+			this.fail(MessageErrorCode.READ_FAILED);
+			return;
+		}
+
+		if (!inOrder || !this.outOfOrder.isEmpty() || ++this.receivedSinceAck >= 2) {
+			// 乱序时立即确认，按序时每两个数据报确认一次
+			this.sendAck(now, service);
+		}
+		else if (!this.ackPending) {
+			this.ackPending = true;
+			this.ackDeadline = now + ACK_DELAY;
+		}
+	}
+
+	/**
+	 * 处理确认。
+	 */
+	private void onAck(byte[] data, int offset, int length, long now, List<Message> sent) {
+		int index = offset + HEADER_LENGTH;
+		int ack = readInt(data, index);
+		int window = ((data[index + 4] & 0xFF) << 8) | (data[index + 5] & 0xFF);
+		int blocks = data[index + 6] & 0xFF;
+		index += 7;
+
+		// 接收窗口为 0 时保留一个数据报用于探测窗口
+		this.peerWindow = Math.max(window, 1);
+
+		int acked = 0;
+		long rtt = -1;
+
+		// 累计确认
+		Iterator<Segment> iter = this.unacked.values().iterator();
+		while (iter.hasNext()) {
+			Segment segment = iter.next();
+			if (segment.seq - ack >= 0) {
+				break;
+			}
+
+			iter.remove();
+			rtt = this.delivered(segment, now, rtt, sent);
+			++acked;
+		}
+
+		// 选择确认
+		for (int i = 0; i < blocks && index + 8 <= offset + length; ++i, index += 8) {
+			int start = readInt(data, index);
+			int end = readInt(data, index + 4);
+			if (end - start <= 0 || end - start > RECEIVE_WINDOW) {
+				continue;
+			}
+
+			for (int seq = start; seq != end; ++seq) {
+				Segment segment = this.unacked.remove(seq);
+				if (null != segment) {
+					rtt = this.delivered(segment, now, rtt, sent);
+					++acked;
+				}
+			}
+		}
+
+		if (acked == 0) {
+			return;
+		}
+
+		if (rtt >= 0) {
+			this.updateRtt(rtt);
+		}
+		else if (this.srtt != 0) {
+			// 确认推进时取消超时退避
+			this.rto = Math.max(MIN_RTO, Math.min(MAX_RTO, this.srtt + 4 * this.rttvar));
+		}
+
+		if (this.recovering && ack - this.recoveryPoint >= 0) {
+			this.recovering = false;
+		}
+
+		// 检测丢包：在已确认的数据报之前发送且序号落后足够多的数据报判定为丢失
+		boolean loss = false;
+		for (Segment segment : this.unacked.values()) {
+			if (this.deliveredSeq - segment.seq < REORDER_THRESHOLD) {
+				break;
+			}
+
+			if (!segment.lost && segment.sentTime - this.deliveredTime < 0) {
+				segment.lost = true;
+				this.lostQueue.add(segment);
+				if (segment.seq - this.recoveryPoint >= 0) {
+					loss = true;
+				}
+			}
+		}
+
+		if (loss) {
+			// 每个窗口最多缩减一次
+			this.recovering = true;
+			this.recoveryPoint = this.nextSeq;
+			this.ssthresh = Math.max(this.cwnd / 2, MIN_CWND);
+			this.cwnd = this.ssthresh;
+			this.cwndCount = 0;
+		}
+		else if (!this.recovering) {
+			if (this.cwnd < this.ssthresh) {
+				// 慢启动
+				this.cwnd = Math.min(this.cwnd + acked, MAX_CWND);
+			}
+			else {
+				// 拥塞避免
+				this.cwndCount += acked;
+				if (this.cwndCount >= this.cwnd) {
+					this.cwndCount -= this.cwnd;
+					this.cwnd = Math.min(this.cwnd + 1, MAX_CWND);
+				}
+			}
+		}
+
+		this.rtoDeadline = this.unacked.isEmpty() ? 0 : now + this.rto;
+		this.probeDeadline = this.unacked.isEmpty() ? 0 : now + this.probeTimeout();
+	}
+
+	/**
+	 * 数据报已被确认。
+	 */
+	private long delivered(Segment segment, long now, long rtt, List<Message> sent) {
+		if (segment.lost) {
+			segment.lost = false;
+			this.lostQueue.remove(segment);
+		}
+
+		if (segment.seq - this.deliveredSeq > 0) {
+			this.deliveredSeq = segment.seq;
+		}
+		if (segment.sentTime - this.deliveredTime > 0) {
+			this.deliveredTime = segment.sentTime;
+		}
+
+		if (null != segment.message) {
+			sent.add(segment.message);
+		}
+
+		// 只使用未重传的数据报采样往返时间
+		return (segment.transmissions == 1) ? now - segment.sentTime : rtt;
+	}
+
+	/**
+	 * 重传定时器到期，所有未确认的数据报判定为丢失。
+	 */
+	private void onRetransmissionTimeout() {
+		this.ssthresh = Math.max((this.unacked.size() - this.lostQueue.size()) / 2, MIN_CWND);
+		this.cwnd = MIN_CWND;
+		this.cwndCount = 0;
+		this.rto = Math.min(this.rto * 2, MAX_RTO);
+		// 超时后以慢启动恢复发送速率
+		this.recovering = false;
+		this.recoveryPoint = this.nextSeq;
+
+		for (Segment segment : this.unacked.values()) {
+			if (!segment.lost) {
+				segment.lost = true;
+				this.lostQueue.add(segment);
+			}
+		}
+
+		this.rtoDeadline = 0;
+		this.probeDeadline = 0;
+	}
+
+	/**
+	 * 探测定时器到期，在重传超时之前重传最早的未确认数据报，不缩减拥塞窗口。
+	 * 窗口较小时丢失的数据报没有后续确认可以触发快速重传，探测可以避免等待重传超时。
+	 */
+	private void onProbeTimeout() {
+		this.probeDeadline = 0;
+
+		Iterator<Segment> iter = this.unacked.values().iterator();
+		if (iter.hasNext()) {
+			Segment segment = iter.next();
+			if (!segment.lost) {
+				segment.lost = true;
+				this.lostQueue.addFirst(segment);
+			}
+		}
+	}
+
+	/**
+	 * 计算探测超时。
+	 */
+	private long probeTimeout() {
+		long rtt = (this.srtt == 0) ? INITIAL_RTT : this.srtt;
+		return Math.min(Math.max(2 * rtt, MIN_PTO), this.rto);
+	}
+
+	/**
+	 * 更新往返时间和重传超时。
+	 */
+	private void updateRtt(long rtt) {
+		if (this.srtt == 0) {
+			this.srtt = rtt;
+			this.rttvar = rtt / 2;
+		}
+		else {
+			this.rttvar = (3 * this.rttvar + Math.abs(this.srtt - rtt)) / 4;
+			this.srtt = (7 * this.srtt + rtt) / 8;
+		}
+
+		this.rto = Math.max(MIN_RTO, Math.min(MAX_RTO, this.srtt + 4 * this.rttvar));
+	}
+
+	/**
+	 * 计算节拍间隔，按 1.25 倍的 cwnd/srtt 速率发送。
+	 */
+	private long pacingInterval() {
+		long rtt = (this.srtt == 0) ? INITIAL_RTT : this.srtt;
+		return rtt * 4 / (this.cwnd * 5L);
+	}
+
+	/**
+	 * 发送确认。
+	 */
+	private void sendAck(long now, ReliableDatagramService service) {
+		// 将乱序序号合并为区间
+		int blocks = 0;
+		byte[] ranges = null;
+		if (!this.outOfOrder.isEmpty()) {
+			ranges = new byte[MAX_SACK_BLOCKS * 8];
+			int end = 0;
+			for (Integer value : this.outOfOrder) {
+				int seq = value.intValue();
+				if (blocks > 0 && seq == end) {
+					writeInt(ranges, (blocks - 1) * 8 + 4, ++end);
+					continue;
+				}
+
+				if (blocks == MAX_SACK_BLOCKS) {
+					break;
+				}
+
+				end = seq + 1;
+				writeInt(ranges, blocks * 8, seq);
+				writeInt(ranges, blocks * 8 + 4, end);
+				++blocks;
+			}
+		}
+
+		byte[] ack = new byte[HEADER_LENGTH + 7 + blocks * 8];
+		this.writeHeader(ack, TYPE_ACK);
+		writeInt(ack, HEADER_LENGTH, this.cumAck);
+		int window = Math.max(RECEIVE_WINDOW - this.outOfOrder.size(), 0);
+		ack[HEADER_LENGTH + 4] = (byte) (window >>> 8);
+		ack[HEADER_LENGTH + 5] = (byte) window;
+		ack[HEADER_LENGTH + 6] = (byte) blocks;
+		if (blocks > 0) {
+			System.arraycopy(ranges, 0, ack, HEADER_LENGTH + 7, blocks * 8);
+		}
+
+		service.transmit(this, ack, ack.length);
+
+		this.ackPending = false;
+		this.receivedSinceAck = 0;
+		this.lastSendTime = now;
+	}
+
+	/**
+	 * 生成控制数据报。
+	 */
+	protected byte[] makeControl(byte type, byte[] payload) {
+		int size = (null != payload) ? payload.length : 0;
+		byte[] data = new byte[HEADER_LENGTH + size];
+		this.writeHeader(data, type);
+		if (size > 0) {
+			System.arraycopy(payload, 0, data, HEADER_LENGTH, size);
+		}
+		return data;
+	}
+
+	private void writeHeader(byte[] data, byte type) {
+		data[0] = MAGIC;
+		data[1] = type;
+		writeInt(data, 2, this.conv);
+	}
+
+	protected static void writeInt(byte[] data, int index, int value) {
+		data[index] = (byte) (value >>> 24);
+		data[index + 1] = (byte) (value >>> 16);
+		data[index + 2] = (byte) (value >>> 8);
+		data[index + 3] = (byte) value;
+	}
+
+	protected static int readInt(byte[] data, int index) {
+		return ((data[index] & 0xFF) << 24) | ((data[index + 1] & 0xFF) << 16)
+				| ((data[index + 2] & 0xFF) << 8) | (data[index + 3] & 0xFF);
+	}
+
+	/**
+	 * 发送的数据报。
+	 */
+	private static class Segment {
+		/** 数据报数据。 */
+		private byte[] data;
+		/** 序号。 */
+		private int seq;
+		/** 最近一次发送的时间点。 */
+		private long sentTime;
+		/** 发送次数。 */
+		private int transmissions = 0;
+		/** 是否被判定为丢失。 */
+		private boolean lost = false;
+		/** 消息的最后一个分段关联的消息。 */
+		private Message message;
+	}
+
+	/**
+	 * 流的接收状态，按流内序号重组消息。
+	 */
+	private static class ReceiveStream {
+		/** 期望的下一个流内序号。 */
+		private int expected = 0;
+		/** 乱序到达的分段。 */
+		private TreeMap<Integer, byte[]> pending = new TreeMap<Integer, byte[]>();
+		/** 乱序到达的分段是否是消息的最后一个分段。 */
+		private TreeSet<Integer> lastMarks = new TreeSet<Integer>();
+		/** 正在重组的消息数据。 */
+		private ByteArrayOutputStream assembling = null;
+
+		/**
+		 * 接收分段，按序递交重组完成的消息。
+		 * 
+		 * @return 如果消息长度超出限制返回 <code>false</code> 。
+		 */
+		private boolean accept(int streamSeq, byte[] payload, boolean last, List<Message> received) {
+			if (streamSeq != this.expected) {
+				this.pending.put(streamSeq, payload);
+				if (last) {
+					this.lastMarks.add(streamSeq);
+				}
+				return true;
+			}
+
+			if (!this.append(payload, last, received)) {
+				return false;
+			}
+			++this.expected;
+
+			while (!this.pending.isEmpty() && this.pending.firstKey().intValue() == this.expected) {
+				byte[] next = this.pending.pollFirstEntry().getValue();
+				if (!this.append(next, this.lastMarks.remove(this.expected), received)) {
+					return false;
+				}
+				++this.expected;
+			}
+
+			return true;
+		}
+
+		private boolean append(byte[] payload, boolean last, List<Message> received) {
+			if (null == this.assembling) {
+				if (last) {
+					received.add(new Message(payload));
+					return true;
+				}
+
+				this.assembling = new ByteArrayOutputStream(payload.length * 4);
+			}
+
+			this.assembling.write(payload, 0, payload.length);
+
+			if (this.assembling.size() > MessageService.MAX_FRAME_LENGTH) {
+				return false;
+			}
+
+			if (last) {
+				received.add(new Message(this.assembling.toByteArray()));
+				this.assembling = null;
+			}
+
+			return true;
+		}
+
+		private void clear() {
+			this.pending.clear();
+			this.lastMarks.clear();
+			this.assembling = null;
+		}
+	}
+
+}
@@ -28,6 +28,9 @@ package net.cellcloud.common;
 
 import java.net.InetSocketAddress;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import net.cellcloud.util.Utils;
 
@@ -45,8 +48,38 @@ public class Session {
 
 	private byte[] secretKey;
 
-	protected byte[] cache;
-	protected int cacheCursor;
+	/** 接收数据的帧累加器。 */
+	private volatile FrameAccumulator accumulator;
+
+	/** 是否使用长度前缀帧发送数据。 */
+	private volatile boolean lengthFraming = false;
+
+	/** 是否对大消息进行分片发送。 */
+	private volatile boolean fragmentation = false;
+
+	/** 允许发送的最大消息长度。 */
+	private volatile int maxMessageSize = MessageService.DEFAULT_MAX_MESSAGE_SIZE;
+
+	/** 允许接收的最大消息长度。 */
+	private volatile int maxReceiveSize = MessageService.DEFAULT_MAX_MESSAGE_SIZE;
+
+	/** 发送数据的消息分片器。 */
+	private volatile MessageFragmenter fragmenter;
+
+	/** 消息压缩器。 */
+	private volatile MessageCompressor compressor;
+
+	/** 待写数据的字节数。 */
+	private AtomicLong pendingBytes = new AtomicLong(0);
+
+	/** 待写消息数量。 */
+	private AtomicInteger pendingMessages = new AtomicInteger(0);
+
+	/** 待写数据是否低于高水位。 */
+	private AtomicBoolean writable = new AtomicBoolean(true);
+
+	/** 会话传输指标，服务未启用指标时为 <code>null</code> 。 */
+	private volatile TransportMetrics metrics;
 
 	/** 属性映射，用于存储会话的属性。 */
 	private ConcurrentHashMap<String, Object> attributes;
@@ -56,9 +89,6 @@ public class Session {
 		this.service = service;
 		this.address = address;
 		this.secretKey = null;
-
-		this.cache = new byte[2048];
-		this.cacheCursor = 0;
 	}
 
 	public Session(long id, MessageService service, InetSocketAddress address) {
@@ -66,9 +96,6 @@ public class Session {
 		this.service = service;
 		this.address = address;
 		this.secretKey = null;
-
-		this.cache = new byte[2048];
-		this.cacheCursor = 0;
 	}
 
 	/**
@@ -135,6 +162,176 @@ public class Session {
 		return this.secretKey;
 	}
 
+	/**
+	 * 设置是否使用长度前缀帧发送数据。
+	 * 
+	 * 仅在双方协商支持后启用。接收数据时始终同时识别数据标记帧和长度前缀帧。
+	 * 
+	 * @param value 指定是否使用长度前缀帧。
+	 */
+	public void setLengthFraming(boolean value) {
+		this.lengthFraming = value;
+	}
+
+	/**
+	 * 是否使用长度前缀帧发送数据。
+	 * 
+	 * @return 如果使用长度前缀帧返回 <code>true</code> 。
+	 */
+	public boolean isLengthFraming() {
+		return this.lengthFraming;
+	}
+
+	/**
+	 * 设置是否对大消息进行分片发送。
+	 * 
+	 * 仅在双方协商支持后启用，且需要同时使用长度前缀帧。接收端总是能够重组分片。
+	 * 
+	 * @param value 指定是否分片发送。
+	 */
+	public void setFragmentation(boolean value) {
+		this.fragmentation = value;
+	}
+
+	/**
+	 * 是否对大消息进行分片发送。
+	 * 
+	 * @return 如果对大消息进行分片发送返回 <code>true</code> 。
+	 */
+	public boolean isFragmentation() {
+		return this.fragmentation && this.lengthFraming;
+	}
+
+	/**
+	 * 设置允许收发的最大消息长度。该值由双方协商确定，未协商时为 {@link MessageService#DEFAULT_MAX_MESSAGE_SIZE} 。
+	 * 
+	 * 接收到超过该长度的长度前缀帧或分片消息时会话将被关闭。
+	 * 
+	 * @param size 指定最大消息长度。
+	 */
+	public void setMaxMessageSize(int size) {
+		this.maxMessageSize = size;
+		this.setMaxReceiveSize(size);
+	}
+
+	/**
+	 * 返回允许发送的最大消息长度。
+	 * 
+	 * @return 返回允许发送的最大消息长度。
+	 */
+	public int getMaxMessageSize() {
+		return this.maxMessageSize;
+	}
+
+	/**
+	 * 只设置允许接收的最大消息长度。用于协商应答到达之前放宽接收限制，
+	 * 避免紧随应答到达的数据在应答处理之前被拒绝。
+	 * 
+	 * @param size 指定最大消息长度。
+	 */
+	public void setMaxReceiveSize(int size) {
+		this.maxReceiveSize = size;
+
+		FrameAccumulator accumulator = this.accumulator;
+		if (null != accumulator) {
+			accumulator.setMaxMessageSize(size);
+		}
+	}
+
+	/**
+	 * 返回允许接收的最大消息长度。
+	 * 
+	 * @return 返回允许接收的最大消息长度。
+	 */
+	public int getMaxReceiveSize() {
+		return this.maxReceiveSize;
+	}
+
+	/**
+	 * 是否可继续写入数据。
+	 * 
+	 * 待写数据超过服务的高水位后变为不可写，直到待写数据回落到低水位以下。
+	 * 不可写时写入的数据依然会被发送，但是调用者应当暂停生产数据，
+	 * 等待 {@link MessageHandler#sessionWritable(Session)} 回调后再继续写入。
+	 * 
+	 * @return 如果可继续写入返回 <code>true</code> 。
+	 */
+	public boolean isWritable() {
+		return this.writable.get();
+	}
+
+	/**
+	 * 返回待写数据的字节数。
+	 * 
+	 * @return 返回待写数据的字节数。
+	 */
+	public long getPendingBytes() {
+		return this.pendingBytes.get();
+	}
+
+	/**
+	 * 返回待写消息数量，即发送队列深度。
+	 * 
+	 * @return 返回待写消息数量。
+	 */
+	public int getPendingMessages() {
+		return this.pendingMessages.get();
+	}
+
+	/**
+	 * 增加待写数据。
+	 * 
+	 * @param bytes 指定增加的字节数。
+	 * @param highWatermark 指定高水位。
+	 * @return 如果本次操作使会话变为不可写返回 <code>true</code> 。
+	 */
+	protected boolean increasePending(int bytes, int highWatermark) {
+		this.pendingMessages.incrementAndGet();
+		long value = this.pendingBytes.addAndGet(bytes);
+		return (value >= highWatermark && this.writable.compareAndSet(true, false));
+	}
+
+	/**
+	 * 减少待写数据。
+	 * 
+	 * @param bytes 指定减少的字节数。
+	 * @param lowWatermark 指定低水位。
+	 * @return 如果本次操作使会话恢复为可写返回 <code>true</code> 。
+	 */
+	protected boolean decreasePending(int bytes, int lowWatermark) {
+		this.pendingMessages.decrementAndGet();
+		long value = this.pendingBytes.addAndGet(-bytes);
+		return (value <= lowWatermark && this.writable.compareAndSet(false, true));
+	}
+
+	/**
+	 * 返回会话传输指标。服务未启用指标时返回 <code>null</code> 。
+	 * 
+	 * 会话指标不记录发送延迟。
+	 * 
+	 * @return
+	 */
+	public TransportMetrics getMetrics() {
+		return this.metrics;
+	}
+
+	/**
+	 * 返回会话传输指标，不存在时创建。
+	 */
+	protected TransportMetrics ensureMetrics() {
+		TransportMetrics value = this.metrics;
+		if (null == value) {
+			synchronized (this) {
+				value = this.metrics;
+				if (null == value) {
+					value = new TransportMetrics(1, false);
+					this.metrics = value;
+				}
+			}
+		}
+		return value;
+	}
+
 	/** 向该会话写消息。
 	 */
 	public void write(Message message) {
@@ -153,43 +350,111 @@ public class Session {
 
 	@Override
 	public int hashCode() {
-		return this.id.intValue();
+		long value = this.id.longValue();
+		return (int) (value ^ (value >>> 32));
 	}
 
-	protected int getCacheSize() {
-		synchronized (this) {
-			return this.cache.length;
+	/**
+	 * 设置发送数据使用的压缩算法。
+	 * 
+	 * 仅在双方协商支持后启用。接收数据时始终识别并解压压缩数据。
+	 * 
+	 * @param algorithm 指定算法，见 {@link MessageCompressor} 。
+	 * @param threshold 指定压缩阈值，小于该长度的消息不压缩。
+	 */
+	public void setCompression(int algorithm, int threshold) {
+		if (algorithm == MessageCompressor.NONE && null == this.compressor) {
+			return;
 		}
+
+		this.getCompressor().setAlgorithm(algorithm, threshold);
 	}
 
-	protected void resetCache() {
-		synchronized (this) {
-			if (this.cache.length > 2048) {
-				this.cache = null;
-				this.cache = new byte[2048];
+	/**
+	 * 返回发送数据使用的压缩算法。
+	 * 
+	 * @return
+	 */
+	public int getCompression() {
+		MessageCompressor compressor = this.compressor;
+		return (null != compressor) ? compressor.getAlgorithm() : MessageCompressor.NONE;
+	}
+
+	/**
+	 * 返回消息压缩器，可用于获取压缩率和压缩耗时。
+	 * 
+	 * @return 返回消息压缩器。
+	 */
+	public MessageCompressor getCompressor() {
+		if (null == this.compressor) {
+			synchronized (this) {
+				if (null == this.compressor) {
+					this.compressor = new MessageCompressor();
+				}
 			}
+		}
 
-			this.cacheCursor = 0;
+		return this.compressor;
+	}
+
+	/**
+	 * 压缩待发送的消息。必须在唯一的发送线程里按发送顺序调用。
+	 * 
+	 * @param message 指定消息。
+	 */
+	protected void compress(Message message) {
+		MessageCompressor compressor = this.compressor;
+		if (null != compressor) {
+			compressor.compress(message);
 		}
 	}
 
-	protected void resetCacheSize(int newSize) {
-		synchronized (this) {
-			if (newSize <= this.cache.length) {
-				return;
-			}
+	/**
+	 * 解压接收到的消息。必须按接收顺序调用。
+	 * 
+	 * @param message 指定消息。
+	 * @return 如果数据损坏返回 <code>false</code> 。
+	 */
+	protected boolean decompress(Message message) {
+		if (!MessageCompressor.isCompressed(message)) {
+			return true;
+		}
 
-			if (this.cacheCursor > 0) {
-				byte[] cur = new byte[this.cacheCursor];
-				System.arraycopy(this.cache, 0, cur, 0, this.cacheCursor);
-				this.cache = new byte[newSize];
-				System.arraycopy(cur, 0, this.cache, 0, this.cacheCursor);
-				cur = null;
-			}
-			else {
-				this.cache = new byte[newSize];
+		return this.getCompressor().decompress(message);
+	}
+
+	/**
+	 * 返回接收数据的帧累加器。
+	 * 
+	 * @return 返回帧累加器。
+	 */
+	protected FrameAccumulator getAccumulator() {
+		FrameAccumulator accumulator = this.accumulator;
+		if (null == accumulator) {
+			accumulator = new FrameAccumulator();
+			this.accumulator = accumulator;
+			// 发布之后再读取限制，与并发的 setMaxReceiveSize 不会丢失更新
+			accumulator.setMaxMessageSize(this.maxReceiveSize);
+		}
+
+		return accumulator;
+	}
+
+	/**
+	 * 返回发送数据的消息分片器。
+	 * 
+	 * @return 返回消息分片器。
+	 */
+	protected MessageFragmenter getFragmenter() {
+		if (null == this.fragmenter) {
+			synchronized (this) {
+				if (null == this.fragmenter) {
+					this.fragmenter = new MessageFragmenter();
+				}
 			}
 		}
+
+		return this.fragmenter;
 	}
 
 	/**
@@ -0,0 +1,124 @@
+/*
+-----------------------------------------------------------------------------
+This source file is part of Cell Cloud.
+
+Copyright (c) 2009-2017 Cell Cloud Team (www.cellcloud.net)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+-----------------------------------------------------------------------------
+*/
+
+package net.cellcloud.common;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 分段计数器。
+ * 
+ * 不同线程按线程 ID 更新不同的分段，分段之间相隔一个缓存行，避免多线程同时计数时争用同一个变量。
+ * 读取时对所有分段求和，读取结果不保证是某一时刻的精确值。
+ * 
+ * @author Ambrose Xu
+ * 
+ */
+public final class StripedCounter {
+
+	/** 分段间隔，8 个 long 为一个缓存行。 */
+	private final static int PADDING = 8;
+
+	private final AtomicLongArray cells;
+	private final int mask;
+
+	/**
+	 * 构造函数。分段数量与处理器数量相当。
+	 */
+	public StripedCounter() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * 构造函数。
+	 * 
+	 * @param stripes 指定分段数量，会被调整为 2 的幂次。
+	 */
+	public StripedCounter(int stripes) {
+		int n = 1;
+		while (n < stripes) {
+			n <<= 1;
+		}
+		this.mask = n - 1;
+		this.cells = new AtomicLongArray(n * PADDING);
+	}
+
+	/**
+	 * 增加计数。
+	 * 
+	 * @param value 指定增加的值，可以为负数。
+	 */
+	public void add(long value) {
+		this.cells.addAndGet(this.index(), value);
+	}
+
+	/**
+	 * 计数加一。
+	 */
+	public void increment() {
+		this.cells.incrementAndGet(this.index());
+	}
+
+	/**
+	 * 计数减一。
+	 */
+	public void decrement() {
+		this.cells.decrementAndGet(this.index());
+	}
+
+	/**
+	 * 返回计数值。
+	 * 
+	 * @return
+	 */
+	public long sum() {
+		long sum = 0;
+		for (int i = 0, len = this.cells.length(); i < len; i += PADDING) {
+			sum += this.cells.get(i);
+		}
+		return sum;
+	}
+
+	/**
+	 * 重置计数。
+	 */
+	public void reset() {
+		for (int i = 0, len = this.cells.length(); i < len; i += PADDING) {
+			this.cells.set(i, 0);
+		}
+	}
+
+	private int index() {
+		if (this.mask == 0) {
+			return 0;
+		}
+
+		long id = Thread.currentThread().getId();
+		int hash = (int) ((id * 0x9E3779B97F4A7C15L) >>> 32);
+		return (hash & this.mask) * PADDING;
+	}
+
+}
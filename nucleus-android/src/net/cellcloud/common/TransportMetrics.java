@@ -0,0 +1,260 @@
+/*
+-----------------------------------------------------------------------------
+This source file is part of Cell Cloud.
+
+Copyright (c) 2009-2017 Cell Cloud Team (www.cellcloud.net)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+-----------------------------------------------------------------------------
+*/
+
+package net.cellcloud.common;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 传输指标。
+ * 
+ * 记录收发的消息数量和字节数、发送队列深度、帧解析错误、写阻塞、写失败、连接和重连次数，
+ * 以及消息从进入发送队列到写出的延迟。字节数按线路上的数据计算，即压缩和加密之后的数据。
+ * 
+ * @author Ambrose Xu
+ * 
+ */
+public final class TransportMetrics {
+
+	private final StripedCounter messagesIn;
+	private final StripedCounter bytesIn;
+	private final StripedCounter messagesOut;
+	private final StripedCounter bytesOut;
+	private final StripedCounter queuedMessages;
+	private final StripedCounter queuedBytes;
+	private final StripedCounter frameErrors;
+	private final StripedCounter writeStalls;
+	private final StripedCounter writeFailures;
+	private final StripedCounter connects;
+	private final StripedCounter reconnects;
+
+	/** 发送延迟，单位：微秒。会话级指标不记录。 */
+	private final LatencyHistogram writeLatency;
+
+	/**
+	 * 构造函数。用于服务级指标。
+	 */
+	public TransportMetrics() {
+		this(Runtime.getRuntime().availableProcessors(), true);
+	}
+
+	/**
+	 * 构造函数。
+	 * 
+	 * @param stripes 指定计数器分段数量。
+	 * @param latency 指定是否记录发送延迟。
+	 */
+	protected TransportMetrics(int stripes, boolean latency) {
+		this.messagesIn = new StripedCounter(stripes);
+		this.bytesIn = new StripedCounter(stripes);
+		this.messagesOut = new StripedCounter(stripes);
+		this.bytesOut = new StripedCounter(stripes);
+		this.queuedMessages = new StripedCounter(stripes);
+		this.queuedBytes = new StripedCounter(stripes);
+		this.frameErrors = new StripedCounter(1);
+		this.writeStalls = new StripedCounter(1);
+		this.writeFailures = new StripedCounter(1);
+		this.connects = new StripedCounter(1);
+		this.reconnects = new StripedCounter(1);
+		this.writeLatency = latency ? new LatencyHistogram() : null;
+	}
+
+	protected void recordQueued(int length) {
+		this.queuedMessages.increment();
+		this.queuedBytes.add(length);
+	}
+
+	protected void recordDequeued(int length) {
+		this.queuedMessages.decrement();
+		this.queuedBytes.add(-length);
+	}
+
+	protected void recordSent(int length, long latencyNanos) {
+		this.messagesOut.increment();
+		this.bytesOut.add(length);
+		if (null != this.writeLatency && latencyNanos >= 0) {
+			this.writeLatency.record(latencyNanos / 1000L);
+		}
+	}
+
+	protected void recordReceived(int length) {
+		this.messagesIn.increment();
+		this.bytesIn.add(length);
+	}
+
+	protected void recordFrameErrors(int count) {
+		this.frameErrors.add(count);
+	}
+
+	protected void recordWriteStall() {
+		this.writeStalls.increment();
+	}
+
+	protected void recordWriteFailure() {
+		this.writeFailures.increment();
+	}
+
+	protected void recordConnect() {
+		if (this.connects.sum() > 0) {
+			this.reconnects.increment();
+		}
+		this.connects.increment();
+	}
+
+	public long getMessagesIn() {
+		return this.messagesIn.sum();
+	}
+
+	public long getBytesIn() {
+		return this.bytesIn.sum();
+	}
+
+	public long getMessagesOut() {
+		return this.messagesOut.sum();
+	}
+
+	public long getBytesOut() {
+		return this.bytesOut.sum();
+	}
+
+	/**
+	 * 返回发送队列里的消息数量。
+	 * 
+	 * @return
+	 */
+	public long getQueuedMessages() {
+		return this.queuedMessages.sum();
+	}
+
+	/**
+	 * 返回发送队列里的字节数。
+	 * 
+	 * @return
+	 */
+	public long getQueuedBytes() {
+		return this.queuedBytes.sum();
+	}
+
+	/**
+	 * 返回帧解析时丢弃数据的次数。
+	 * 
+	 * @return
+	 */
+	public long getFrameErrors() {
+		return this.frameErrors.sum();
+	}
+
+	/**
+	 * 返回会话因待写数据超过高水位而变为不可写的次数。
+	 * 
+	 * @return
+	 */
+	public long getWriteStalls() {
+		return this.writeStalls.sum();
+	}
+
+	/**
+	 * 返回未能写出而被丢弃的消息数量。
+	 * 
+	 * @return
+	 */
+	public long getWriteFailures() {
+		return this.writeFailures.sum();
+	}
+
+	public long getConnects() {
+		return this.connects.sum();
+	}
+
+	public long getReconnects() {
+		return this.reconnects.sum();
+	}
+
+	/**
+	 * 返回发送延迟直方图快照，单位：微秒。会话级指标返回 <code>null</code> 。
+	 * 
+	 * @return
+	 */
+	public LatencyHistogram.Snapshot getWriteLatency() {
+		return (null != this.writeLatency) ? this.writeLatency.snapshot() : null;
+	}
+
+	/**
+	 * 重置累计的指标。队列深度不重置。
+	 */
+	public void reset() {
+		this.messagesIn.reset();
+		this.bytesIn.reset();
+		this.messagesOut.reset();
+		this.bytesOut.reset();
+		this.frameErrors.reset();
+		this.writeStalls.reset();
+		this.writeFailures.reset();
+		this.connects.reset();
+		this.reconnects.reset();
+		if (null != this.writeLatency) {
+			this.writeLatency.reset();
+		}
+	}
+
+	/**
+	 * 生成指标快照。
+	 * 
+	 * @return 返回按固定顺序排列的指标名和值。
+	 */
+	public Map<String, Long> snapshot() {
+		LinkedHashMap<String, Long> map = new LinkedHashMap<String, Long>();
+		map.put("messages.in", this.getMessagesIn());
+		map.put("bytes.in", this.getBytesIn());
+		map.put("messages.out", this.getMessagesOut());
+		map.put("bytes.out", this.getBytesOut());
+		map.put("queue.messages", this.getQueuedMessages());
+		map.put("queue.bytes", this.getQueuedBytes());
+		map.put("frame.errors", this.getFrameErrors());
+		map.put("write.stalls", this.getWriteStalls());
+		map.put("write.failures", this.getWriteFailures());
+		map.put("connects", this.getConnects());
+		map.put("reconnects", this.getReconnects());
+
+		LatencyHistogram.Snapshot latency = this.getWriteLatency();
+		if (null != latency) {
+			map.put("write.latency.count", latency.getCount());
+			map.put("write.latency.p50", latency.getValueAtPercentile(50));
+			map.put("write.latency.p99", latency.getValueAtPercentile(99));
+			map.put("write.latency.p999", latency.getValueAtPercentile(99.9));
+			map.put("write.latency.max", latency.getMax());
+		}
+
+		return map;
+	}
+
+	@Override
+	public String toString() {
+		return this.snapshot().toString();
+	}
+
+}
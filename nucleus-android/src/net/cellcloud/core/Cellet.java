@@ -86,6 +86,16 @@ public abstract class Cellet extends AbstractCellet {
 		return TalkService.getInstance().notice(targetTag, dialect, this, this.sandbox);
 	}
 
+	/**
+	 * 到指定消费端的连接是否可继续发送数据。待写数据超过高水位时应暂停发送。
+	 * 
+	 * @param targetTag 指定目标终端的内核标签。
+	 * @return 如果可继续发送数据返回 <code>true</code> 。
+	 */
+	public boolean isWritable(String targetTag) {
+		return TalkService.getInstance().isWritable(targetTag, this);
+	}
+
 	/**
 	 * 进行激活前准备。
 	 */
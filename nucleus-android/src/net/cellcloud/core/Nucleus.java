@@ -30,8 +30,10 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 
+import net.cellcloud.common.AndroidNetworkMonitor;
 import net.cellcloud.common.LogLevel;
 import net.cellcloud.common.Logger;
+import net.cellcloud.common.NetworkMonitor;
 import net.cellcloud.exception.CelletSandboxException;
 import net.cellcloud.exception.SingletonException;
 import net.cellcloud.talk.TalkService;
@@ -52,6 +54,7 @@ public final class Nucleus {
 	private NucleusContext context = null;
 
 	private Context appContext = null;
+	private NetworkMonitor networkMonitor = null;
 
 	// Talk 服务
 	private TalkService talkService = null;
@@ -69,8 +72,10 @@ public final class Nucleus {
 			Nucleus.instance = this;
 			// 设置配置
 			this.config = config;
-			// 设置 Android 上下文
+			// 设置 Android 上下文，没有上下文时认为网络始终可用
 			this.appContext = appContext;
+			this.networkMonitor = (null != appContext) ? new AndroidNetworkMonitor(appContext)
+					: NetworkMonitor.ALWAYS_CONNECTED;
 
 			// 生成标签
 			if (null != config.tag) {
@@ -112,6 +117,18 @@ public final class Nucleus {
 		return this.appContext;
 	}
 
+	/** 返回网络状态监视器。
+	 */
+	public NetworkMonitor getNetworkMonitor() {
+		return this.networkMonitor;
+	}
+
+	/** 设置网络状态监视器。
+	 */
+	public void setNetworkMonitor(NetworkMonitor monitor) {
+		this.networkMonitor = monitor;
+	}
+
 	/** 返回内核标签。 */
 	public NucleusTag getTag() {
 		return this.tag;
@@ -28,6 +28,7 @@ package net.cellcloud.talk;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -386,6 +387,25 @@ public class Primitive {
 		return stream;
 	}
 
+	/**
+	 * 将原语数据写入指定的输出流。
+	 * 
+	 * @param stream 指定输出流。
+	 */
+	public void write(OutputStream stream) {
+		PrimitiveSerializer.write(stream, this);
+	}
+
+	/**
+	 * 将原语数据以指定格式写入输出流。
+	 * 
+	 * @param stream 指定输出流。
+	 * @param format 指定格式，取值见 {@link PrimitiveSerializer} 。
+	 */
+	public void write(OutputStream stream, int format) {
+		PrimitiveSerializer.write(stream, this, format);
+	}
+
 	/**
 	 * 从序列化流读取原语数据。
 	 * 
@@ -27,7 +27,6 @@ THE SOFTWARE.
 package net.cellcloud.talk;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.List;
@@ -40,11 +39,17 @@ import net.cellcloud.common.BlockingConnector;
 import net.cellcloud.common.Cryptology;
 import net.cellcloud.common.Logger;
 import net.cellcloud.common.Message;
+import net.cellcloud.common.MessageCompressor;
 import net.cellcloud.common.MessageConnector;
+import net.cellcloud.common.MessageService;
 import net.cellcloud.common.Packet;
+import net.cellcloud.common.PacketWriter;
+import net.cellcloud.common.ReliableDatagramConnector;
+import net.cellcloud.common.ReliableDatagramService;
 import net.cellcloud.common.Session;
 import net.cellcloud.core.Nucleus;
 import net.cellcloud.talk.dialect.ChunkDialect;
+import net.cellcloud.talk.stuff.PrimitiveSerializer;
 import net.cellcloud.util.CachedQueueExecutor;
 import net.cellcloud.util.Utils;
 
@@ -56,15 +61,27 @@ import net.cellcloud.util.Utils;
  */
 public class Speaker implements Speakable {
 
+	/** 对话数据包为序列化原语预留的缓冲容量。 */
+	private static final int DIALOGUE_PAYLOAD_CAPACITY = 512;
+
 	/** 内核标签。 */
 	private byte[] nucleusTag;
 
+	/** 协商后的对话数据包格式版本。 */
+	private int packetVersion = 2;
+	/** 对话数据包标志位。 */
+	private int packetFlags = 0;
+	/** 协商后的原语序列化格式。 */
+	private int primitiveFormat = PrimitiveSerializer.FORMAT_TEXT;
+
 	/** 访问地址。 */
 	private InetSocketAddress address;
 	/** 对话者事件委派。 */
 	private SpeakerDelegate delegate;
 	/** 用于建立连接的阻塞连接器。 */
 	private BlockingConnector blockingConnector;
+	/** 可靠数据报连接器，协商启用后用于传输对话数据。 */
+	private volatile ReliableDatagramConnector datagramConnector;
 	/** 数据缓存区大小。 */
 	private int block;
 
@@ -74,6 +91,9 @@ public class Speaker implements Speakable {
 	/** 对话者协商的能力描述。 */
 	protected TalkCapacity capacity;
 
+	/** 最近一次协商的结果，本端配置的能力描述保持不变。 */
+	private TalkCapacity negotiated;
+
 	/** 从服务器获得密钥。 */
 	private byte[] secretKey = null;
 
@@ -196,7 +216,7 @@ public class Speaker implements Speakable {
 		}
 
 		if (null == this.blockingConnector) {
-			this.blockingConnector = new BlockingConnector(Nucleus.getInstance().getAppContext(), this.executor);
+			this.blockingConnector = new BlockingConnector(Nucleus.getInstance().getNetworkMonitor(), this.executor);
 			this.blockingConnector.setBlockSize(this.block);
 			this.blockingConnector.setConnectTimeout(null != this.capacity ? this.capacity.connectTimeout : 10000L);
 
@@ -212,6 +232,8 @@ public class Speaker implements Speakable {
 			}
 		}
 
+		this.closeDatagram();
+
 		// 设置状态
 		this.authenticated = false;
 		this.lost = false;
@@ -261,12 +283,18 @@ public class Speaker implements Speakable {
 			Session session = this.blockingConnector.getSession();
 			if (null != session) {
 				session.deactiveSecretKey();
+
+				if (Logger.isDebugLevel() && session.getCompression() != MessageCompressor.NONE) {
+					Logger.d(Speaker.class, "Compression " + this.address.toString() + " : " + session.getCompressor().toString());
+				}
 			}
 
 			this.blockingConnector.disconnect();
 			this.blockingConnector = null;
 		}
 
+		this.closeDatagram();
+
 		this.heartbeatTime = 0L;
 		this.lost = false;
 		this.authenticated = false;
@@ -297,22 +325,32 @@ public class Speaker implements Speakable {
 		// 设置对应的 Cellet Identifier
 		primitive.setCelletIdentifier(identifier);
 
-		// 序列化原语
-		ByteArrayOutputStream stream = primitive.write();
+		byte[] identifierData = Utils.string2Bytes(identifier);
 
-		// 封装数据包
-		Packet packet = new Packet(TalkDefinition.TPT_DIALOGUE, 99, 2, 0);
-		packet.appendSegment(stream.toByteArray());
-		packet.appendSegment(this.nucleusTag);
-		packet.appendSegment(Utils.string2Bytes(identifier));
+		// 原语直接序列化到数据包缓冲
+		PacketWriter writer = new PacketWriter(TalkDefinition.TPT_DIALOGUE, 99, this.packetVersion, 0, 3,
+				DIALOGUE_PAYLOAD_CAPACITY + this.nucleusTag.length + identifierData.length);
+		writer.setFlags(this.packetFlags);
+		writer.beginSegment();
+		primitive.write(writer, this.primitiveFormat);
+		writer.endSegment();
+		writer.writeSegment(this.nucleusTag);
+		writer.writeSegment(identifierData);
 
 		// 发送数据
-		byte[] data = Packet.pack(packet);
-		Message message = new Message(data);
+		Message message = writer.toMessage();
 		message.setContext(primitive);
 
+		boolean chunk = primitive.isDialectal() && primitive.getDialect().getName().equals(ChunkDialect.DIALECT_NAME);
+
+		ReliableDatagramConnector dc = this.datagramConnector;
+		if (null != dc && dc.isConnected()) {
+			// 区块数据使用独立的流，避免阻塞其他原语
+			return dc.write(message, chunk ? TalkDefinition.DATAGRAM_STREAM_CHUNK : ReliableDatagramService.STREAM_DEFAULT);
+		}
+
 		if (null != this.blockingConnector) {
-			if (primitive.isDialectal() && primitive.getDialect().getName().equals(ChunkDialect.DIALECT_NAME)) {
+			if (chunk) {
 				return this.blockingConnector.write(message, BlockingConnector.BlockingConnectorQueuePriority.Low);
 			}
 			else {
@@ -337,11 +375,33 @@ public class Speaker implements Speakable {
 	}
 
 	/**
-	 * 进入休眠模式。
+	 * 是否可继续发送数据。连接的待写数据超过高水位时返回 <code>false</code> 。
+	 * 
+	 * @return 如果可继续发送数据返回 <code>true</code> 。
+	 */
+	public boolean isWritable() {
+		ReliableDatagramConnector dc = this.datagramConnector;
+		if (null != dc && dc.isConnected()) {
+			Session session = dc.getSession();
+			return (null != session && session.isWritable());
+		}
+
+		BlockingConnector connector = this.blockingConnector;
+		if (null == connector) {
+			return false;
+		}
+
+		Session session = connector.getSession();
+		return (null != session && session.isWritable());
+	}
+
+	/**
+	 * 进入休眠模式。休眠模式下接收数据不受影响，发送数据会被延迟合并。
 	 */
 	protected void sleep() {
 		if (null != this.blockingConnector) {
 			this.blockingConnector.resetInterval(1000);
+			this.blockingConnector.setPowerSaving(true);
 		}
 	}
 
@@ -350,6 +410,7 @@ public class Speaker implements Speakable {
 	 */
 	protected void wakeup() {
 		if (null != this.blockingConnector) {
+			this.blockingConnector.setPowerSaving(false);
 			this.blockingConnector.resetInterval(200);
 		}
 	}
@@ -395,9 +456,8 @@ public class Speaker implements Speakable {
 				&& this.authenticated
 				&& !this.lost
 				&& this.blockingConnector.isConnected()) {
-			Packet packet = new Packet(TalkDefinition.TPT_HEARTBEAT, 9, 2, 0);
-			byte[] data = Packet.pack(packet);
-			Message message = new Message(data);
+			PacketWriter writer = new PacketWriter(TalkDefinition.TPT_HEARTBEAT, 9, 2, 0, 0, 0);
+			Message message = writer.toMessage();
 			return this.blockingConnector.write(message);
 		}
 
@@ -443,6 +503,9 @@ public class Speaker implements Speakable {
 		this.authenticated = false;
 		this.state = SpeakerState.HANGUP;
 
+		// 数据报连接依附于 TCP 连接
+		this.closeDatagram();
+
 		// 通知退出
 		ArrayList<String> identifiers = new ArrayList<String>(this.identifierList.size());
 		identifiers.addAll(this.identifierList);
@@ -487,6 +550,9 @@ public class Speaker implements Speakable {
 						blockingConnector.getSession().deactiveSecretKey();
 					}
 
+					// 启用可靠数据报传输
+					openDatagram();
+
 					// 更新心跳
 					heartbeatTime = System.currentTimeMillis();
 
@@ -601,12 +667,12 @@ public class Speaker implements Speakable {
 		byte[] plaintext = Cryptology.getInstance().simpleDecrypt(ciphertext, key);
 
 		// 发送响应数据
-		Packet response = new Packet(TalkDefinition.TPT_CHECK, 2, 2, 0);
-		response.appendSegment(plaintext);
-		response.appendSegment(this.nucleusTag);
+		PacketWriter response = new PacketWriter(TalkDefinition.TPT_CHECK, 2, 2, 0, 2,
+				plaintext.length + this.nucleusTag.length);
+		response.writeSegment(plaintext);
+		response.writeSegment(this.nucleusTag);
 		// 数据打包
-		byte[] data = Packet.pack(response);
-		Message message = new Message(data);
+		Message message = response.toMessage();
 		session.write(message);
 	}
 
@@ -619,16 +685,17 @@ public class Speaker implements Speakable {
 			this.capacity = new TalkCapacity();
 		}
 
-		// 包格式：源标签|能力描述序列化数据
-		Packet packet = new Packet(TalkDefinition.TPT_CONSULT, 4, 2, 0);
-		packet.appendSegment(this.nucleusTag);
-		packet.appendSegment(TalkCapacity.serialize(this.capacity));
+		this.prepareReceive(this.blockingConnector.getSession());
 
-		byte[] data = Packet.pack(packet);
-		if (null != data) {
-			Message message = new Message(data);
-			this.blockingConnector.write(message);
-		}
+		// 包格式：源标签|能力描述序列化数据
+		byte[] capacityData = TalkCapacity.serialize(this.capacity);
+		PacketWriter writer = new PacketWriter(TalkDefinition.TPT_CONSULT, 4, 2, 0, 2,
+				this.nucleusTag.length + capacityData.length);
+		writer.writeSegment(this.nucleusTag);
+		writer.writeSegment(capacityData);
+
+		Message message = writer.toMessage();
+		this.blockingConnector.write(message);
 	}
 
 	/**
@@ -640,12 +707,13 @@ public class Speaker implements Speakable {
 		// 包格式：Cellet标识串|标签
 
 		for (String celletIdentifier : this.identifierList) {
-			Packet packet = new Packet(TalkDefinition.TPT_REQUEST, 3, 2, 0);
-			packet.appendSegment(celletIdentifier.getBytes());
-			packet.appendSegment(this.nucleusTag);
+			byte[] identifierData = celletIdentifier.getBytes();
+			PacketWriter writer = new PacketWriter(TalkDefinition.TPT_REQUEST, 3, 2, 0, 2,
+					identifierData.length + this.nucleusTag.length);
+			writer.writeSegment(identifierData);
+			writer.writeSegment(this.nucleusTag);
 
-			byte[] data = Packet.pack(packet);
-			Message message = new Message(data);
+			Message message = writer.toMessage();
 			session.write(message);
 
 			try {
@@ -656,6 +724,149 @@ public class Speaker implements Speakable {
 		}
 	}
 
+	/**
+	 * 发送本端能力之前按本端声明的最大消息长度放宽接收限制。
+	 * 
+	 * 服务器在发送协商应答之后立即按协商结果发送数据，这些数据可能在应答处理之前就被提取，
+	 * 协商结果不会超过本端声明的长度，因此按本端声明的长度接收是安全的。
+	 * 
+	 * @param session 指定会话。
+	 */
+	private void prepareReceive(Session session) {
+		if (null != session && this.capacity.lengthFraming && this.capacity.maxMessageSize > 0) {
+			session.setMaxReceiveSize(Math.max(this.capacity.maxMessageSize, MessageService.DEFAULT_MAX_MESSAGE_SIZE));
+		}
+	}
+
+	/**
+	 * 根据协商后的能力设置会话的传输参数。
+	 * 
+	 * 双方均支持时使用长度前缀帧；双方均声明了最大消息长度时分片发送大消息，最大消息长度取双方的较小值。
+	 * 
+	 * @param session 指定会话。
+	 */
+	private void applyTransport(Session session) {
+		TalkCapacity capacity = this.negotiated;
+		session.setLengthFraming(capacity.lengthFraming);
+
+		boolean fragmentation = capacity.lengthFraming && capacity.maxMessageSize > 0;
+		session.setFragmentation(fragmentation);
+		session.setMaxMessageSize(fragmentation ?
+				Math.max(capacity.maxMessageSize, MessageService.DEFAULT_MAX_MESSAGE_SIZE)
+				: MessageService.DEFAULT_MAX_MESSAGE_SIZE);
+
+		// 双方选择相同算法时启用压缩，接收端总是能够识别压缩数据
+		session.setCompression(capacity.compression, capacity.compressionThreshold);
+
+		// 对话数据包使用双方均支持的格式版本
+		this.packetVersion = capacity.packetVersion;
+		this.packetFlags = (this.packetVersion == 3 && capacity.packetChecksum) ? Packet.FLAG_CHECKSUM : 0;
+
+		// 双方均选择二进制格式时使用二进制原语，接收端总是能够识别两种格式
+		this.primitiveFormat = capacity.primitiveFormat;
+	}
+
+	/**
+	 * 合并服务器返回的能力描述。
+	 * 
+	 * 协商结果保存为独立的能力描述，本端配置的能力保持不变，重新连接时依然按本端的配置发起协商。
+	 * 加密和重连参数由服务器决定，与此前一样写入本端的能力描述。
+	 * 
+	 * @param newCapacity 指定服务器返回的能力描述。
+	 */
+	private void mergeCapacity(TalkCapacity newCapacity) {
+		if (null == this.capacity) {
+			this.capacity = new TalkCapacity();
+		}
+
+		TalkCapacity local = this.capacity;
+		local.secure = newCapacity.secure;
+		local.retry = newCapacity.retry;
+		local.retryDelay = newCapacity.retryDelay;
+
+		TalkCapacity result = new TalkCapacity(newCapacity.secure, newCapacity.retry, newCapacity.retryDelay);
+		result.connectTimeout = local.connectTimeout;
+		result.blocking = local.blocking;
+		result.lengthFraming = local.lengthFraming && newCapacity.lengthFraming;
+		result.maxMessageSize = Math.min(local.maxMessageSize, newCapacity.maxMessageSize);
+		result.compression = (local.compression == newCapacity.compression)
+				? newCapacity.compression : MessageCompressor.NONE;
+		result.compressionThreshold = local.compressionThreshold;
+		result.packetVersion = Math.min(local.packetVersion, newCapacity.packetVersion);
+		result.packetChecksum = local.packetChecksum;
+		result.primitiveFormat = (local.primitiveFormat == newCapacity.primitiveFormat)
+				? newCapacity.primitiveFormat : PrimitiveSerializer.FORMAT_TEXT;
+
+		// 仅当本端请求且服务器提供端口时启用可靠数据报
+		result.reliableDatagram = local.reliableDatagram && newCapacity.reliableDatagram && newCapacity.datagramPort > 0;
+		if (result.reliableDatagram) {
+			result.setDatagram(newCapacity.datagramPort, newCapacity.datagramToken);
+		}
+
+		this.negotiated = result;
+	}
+
+	/**
+	 * 连接服务器的可靠数据报端口。连接建立前对话数据依然通过 TCP 连接发送。
+	 */
+	private synchronized void openDatagram() {
+		TalkCapacity capacity = this.negotiated;
+		if (null == capacity || capacity.datagramPort <= 0 || null != this.datagramConnector) {
+			return;
+		}
+
+		ReliableDatagramConnector connector = new ReliableDatagramConnector();
+		connector.setHandler(new SpeakerDatagramHandler(this));
+		connector.setHandshakeData(Utils.string2Bytes(Long.toString(capacity.datagramToken)));
+		connector.setConnectTimeout(capacity.connectTimeout);
+
+		InetSocketAddress target = new InetSocketAddress(this.address.getAddress(), capacity.datagramPort);
+		if (connector.connect(target)) {
+			this.datagramConnector = connector;
+		}
+		else {
+			Logger.w(Speaker.class, "Can not connect reliable datagram port " + target.toString());
+		}
+	}
+
+	/**
+	 * 关闭可靠数据报连接。
+	 */
+	private synchronized void closeDatagram() {
+		ReliableDatagramConnector connector = this.datagramConnector;
+		this.datagramConnector = null;
+		if (null != connector) {
+			connector.disconnect();
+		}
+	}
+
+	/**
+	 * 通知可靠数据报会话已建立，按协商结果激活链路加密。
+	 * 
+	 * @param session 指定数据报会话。
+	 */
+	protected void notifyDatagramOpened(Session session) {
+		TalkCapacity capacity = this.negotiated;
+		if (null != capacity && capacity.secure && null != this.secretKey) {
+			session.activeSecretKey(this.secretKey);
+		}
+
+		Logger.i(Speaker.class, "Reliable datagram opened: " + this.address.getAddress().getHostAddress()
+				+ ":" + ((null != capacity) ? capacity.datagramPort : 0));
+	}
+
+	/**
+	 * 通知可靠数据报会话已关闭，对话数据回退至 TCP 连接。
+	 * 
+	 * @param session 指定数据报会话。
+	 */
+	protected void notifyDatagramClosed(Session session) {
+		ReliableDatagramConnector connector = this.datagramConnector;
+		if (null != connector && connector.getSession() == session) {
+			this.datagramConnector = null;
+		}
+	}
+
 	/**
 	 * 执行协商操作。
 	 * 
@@ -671,25 +882,25 @@ public class Speaker implements Speakable {
 		}
 
 		// 更新能力
-		if (null == this.capacity) {
-			this.capacity = newCapacity;
-		}
-		else {
-			this.capacity.secure = newCapacity.secure;
-			this.capacity.retry = newCapacity.retry;
-			this.capacity.retryDelay = newCapacity.retryDelay;
-		}
+		this.mergeCapacity(newCapacity);
+
+		// 应用协商后的传输参数
+		this.applyTransport(session);
 
-		if (Logger.isDebugLevel() && null != this.capacity) {
+		if (Logger.isDebugLevel()) {
 			StringBuilder buf = new StringBuilder();
 			buf.append("Update talk capacity from '");
 			buf.append(this.remoteTag);
 			buf.append("' : secure=");
-			buf.append(this.capacity.secure);
+			buf.append(this.negotiated.secure);
 			buf.append(" attempts=");
-			buf.append(this.capacity.retry);
+			buf.append(this.negotiated.retry);
 			buf.append(" delay=");
-			buf.append(this.capacity.retryDelay);
+			buf.append(this.negotiated.retryDelay);
+			buf.append(" lengthFraming=");
+			buf.append(this.negotiated.lengthFraming);
+			buf.append(" maxMessageSize=");
+			buf.append(session.getMaxMessageSize());
 
 			Logger.d(Speaker.class, buf.toString());
 
@@ -754,8 +965,9 @@ public class Speaker implements Speakable {
 	protected void doDialogue(Packet packet, Session session) {
 		// 包格式：序列化的原语|Cellet
 
-		byte[] pridata = packet.getSegment(0);
-		ByteArrayInputStream stream = new ByteArrayInputStream(pridata);
+		// 直接读取数据段视图，避免复制原语数据
+		ByteArrayInputStream stream = new ByteArrayInputStream(packet.getSegmentArray(0),
+				packet.getSegmentOffset(0), packet.getSegmentLength(0));
 		String celletIdentifier = Utils.bytes2String(packet.getSegment(1));
 
 		// 反序列化原语
@@ -797,18 +1009,22 @@ public class Speaker implements Speakable {
 			this.capacity = new TalkCapacity();
 		}
 
+		this.prepareReceive(session);
+
 		// 包格式：明文|源标签|能力描述序列化数据|CelletIdentifiers
 		// 发送响应数据
-		Packet response = new Packet(TalkDefinition.TPT_QUICK, 2, 2, 0);
-		response.appendSegment(plaintext);
-		response.appendSegment(this.nucleusTag);
-		response.appendSegment(TalkCapacity.serialize(this.capacity));
-		for (String celletIdentifier : this.identifierList) {
-			response.appendSegment(celletIdentifier.getBytes());
+		byte[] capacityData = TalkCapacity.serialize(this.capacity);
+		List<String> identifiers = new ArrayList<String>(this.identifierList);
+		PacketWriter response = new PacketWriter(TalkDefinition.TPT_QUICK, 2, 2, 0, 3 + identifiers.size(),
+				plaintext.length + this.nucleusTag.length + capacityData.length + (identifiers.size() << 5));
+		response.writeSegment(plaintext);
+		response.writeSegment(this.nucleusTag);
+		response.writeSegment(capacityData);
+		for (String celletIdentifier : identifiers) {
+			response.writeSegment(celletIdentifier.getBytes());
 		}
 
-		byte[] data = Packet.pack(response);
-		Message message = new Message(data);
+		Message message = response.toMessage();
 		session.write(message);
 		message = null;
 
@@ -836,14 +1052,10 @@ public class Speaker implements Speakable {
 			// 更新能力
 			TalkCapacity newCapacity = TalkCapacity.deserialize(packet.getSegment(2));
 			if (null != newCapacity) {
-				if (null == this.capacity) {
-					this.capacity = newCapacity;
-				}
-				else {
-					this.capacity.secure = newCapacity.secure;
-					this.capacity.retry = newCapacity.retry;
-					this.capacity.retryDelay = newCapacity.retryDelay;
-				}
+				this.mergeCapacity(newCapacity);
+
+				// 应用协商后的传输参数
+				this.applyTransport(session);
 			}
 
 			// 变更状态
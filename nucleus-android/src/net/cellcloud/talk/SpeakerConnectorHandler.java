@@ -92,9 +92,9 @@ public final class SpeakerConnectorHandler implements MessageHandler {
 	 */
 	@Override
 	public void messageReceived(Session session, Message message) {
-		// 解包
+		// 解包，数据段直接引用消息数据，只在本方法内同步处理
 		try {
-			Packet packet = Packet.unpack(message.get());
+			Packet packet = Packet.unpack(message.array(), message.offset(), message.length());
 			if (null != packet) {
 				// 处理数据包
 				this.process(session, packet);
@@ -123,6 +123,24 @@ public final class SpeakerConnectorHandler implements MessageHandler {
 		}
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void sessionUnwritable(Session session) {
+		if (Logger.isDebugLevel()) {
+			Logger.d(SpeakerConnectorHandler.class, "sessionUnwritable : " + session.getId());
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void sessionWritable(Session session) {
+		TalkService.getInstance().resumeWriting();
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -0,0 +1,151 @@
+/*
+-----------------------------------------------------------------------------
+This source file is part of Cell Cloud.
+
+Copyright (c) 2009-2017 Cell Cloud Team (www.cellcloud.net)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+-----------------------------------------------------------------------------
+*/
+
+package net.cellcloud.talk;
+
+import net.cellcloud.common.LogLevel;
+import net.cellcloud.common.Logger;
+import net.cellcloud.common.Message;
+import net.cellcloud.common.MessageHandler;
+import net.cellcloud.common.Packet;
+import net.cellcloud.common.Session;
+
+/**
+ * Speaker 可靠数据报连接器处理器。数据报连接只承载对话数据。
+ * 
+ * @author Ambrose Xu
+ * 
+ */
+public final class SpeakerDatagramHandler implements MessageHandler {
+
+	/** 关联的对话者。 */
+	private Speaker speaker;
+
+	/**
+	 * 构造函数。
+	 * 
+	 * @param speaker 指定会话者实例。
+	 */
+	public SpeakerDatagramHandler(Speaker speaker) {
+		this.speaker = speaker;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void sessionCreated(Session session) {
+		// Nothing
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void sessionDestroyed(Session session) {
+		// Nothing
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void sessionOpened(Session session) {
+		this.speaker.notifyDatagramOpened(session);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void sessionClosed(Session session) {
+		this.speaker.notifyDatagramClosed(session);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void messageReceived(Session session, Message message) {
+		try {
+			// 数据段直接引用消息数据，只在本方法内同步处理
+			Packet packet = Packet.unpack(message.array(), message.offset(), message.length());
+			if (null == packet) {
+				Logger.d(this.getClass(), "Error packet format");
+				return;
+			}
+
+			byte[] tag = packet.getTag();
+			if (TalkDefinition.TPT_DIALOGUE[2] == tag[2]
+				&& TalkDefinition.TPT_DIALOGUE[3] == tag[3]) {
+				this.speaker.doDialogue(packet, session);
+			}
+		} catch (Exception e) {
+			Logger.log(this.getClass(), e, LogLevel.WARNING);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void messageSent(Session session, Message message) {
+		Object context = message.getContext();
+		if (null != context && context instanceof Primitive) {
+			this.speaker.doTalked((Primitive) context);
+			message.setContext(null);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void sessionUnwritable(Session session) {
+		if (Logger.isDebugLevel()) {
+			Logger.d(SpeakerDatagramHandler.class, "sessionUnwritable : " + session.getId());
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void sessionWritable(Session session) {
+		TalkService.getInstance().resumeWriting();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void errorOccurred(int errorCode, Session session, Message message) {
+		if (Logger.isDebugLevel()) {
+			Logger.d(SpeakerDatagramHandler.class, "errorOccurred : " + errorCode);
+		}
+	}
+
+}
@@ -39,6 +39,7 @@ import net.cellcloud.talk.command.ServerCheckCommand;
 import net.cellcloud.talk.command.ServerConsultCommand;
 import net.cellcloud.talk.command.ServerDialogueCommand;
 import net.cellcloud.talk.command.ServerHeartbeatCommand;
+import net.cellcloud.talk.command.ServerQuickCommand;
 import net.cellcloud.talk.command.ServerRequestCommand;
 
 /**
@@ -84,9 +85,11 @@ public final class TalkAcceptorHandler implements MessageHandler {
 
 	@Override
 	public void messageReceived(final Session session, final Message message) {
-		byte[] data = message.get();
-		final Packet packet = Packet.unpack(data);
+		// 直接在消息数据上解包，包交给线程池处理前只复制数据段
+		final Packet packet = Packet.unpack(message.array(), message.offset(), message.length());
 		if (null != packet) {
+			packet.detach();
+
 			this.talkService.executor.execute(new Runnable() {
 				@Override
 				public void run() {
@@ -101,6 +104,18 @@ public final class TalkAcceptorHandler implements MessageHandler {
 		// Nothing
 	}
 
+	@Override
+	public void sessionUnwritable(Session session) {
+		if (Logger.isDebugLevel()) {
+			Logger.d(TalkAcceptorHandler.class, "sessionUnwritable : " + session.getId());
+		}
+	}
+
+	@Override
+	public void sessionWritable(Session session) {
+		this.talkService.resumeWriting();
+	}
+
 	@Override
 	public void errorOccurred(int errorCode, Session session, Message message) {
 		// Nothing
@@ -154,6 +169,15 @@ public final class TalkAcceptorHandler implements MessageHandler {
 				Logger.log(TalkAcceptorHandler.class, e, LogLevel.ERROR);
 			}
 		}
+		else if (TalkDefinition.isQuick(tag)) {
+			try {
+				ServerQuickCommand cmd = new ServerQuickCommand(this.talkService, session, packet);
+				cmd.execute();
+				cmd = null;
+			} catch (Exception e) {
+				Logger.log(TalkAcceptorHandler.class, e, LogLevel.ERROR);
+			}
+		}
 	}
 
 	private ServerDialogueCommand borrowDialogueCommand(Session session, Packet packet) {
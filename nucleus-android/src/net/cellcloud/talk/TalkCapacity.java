@@ -29,6 +29,8 @@ package net.cellcloud.talk;
 import java.nio.charset.Charset;
 
 import net.cellcloud.Version;
+import net.cellcloud.common.MessageCompressor;
+import net.cellcloud.talk.stuff.PrimitiveSerializer;
 
 /**
  * 会话能力描述类。
@@ -44,6 +46,11 @@ public final class TalkCapacity {
 	/** 是否为加密会话。 */
 	protected boolean secure = false;
 
+	/** 压缩算法，取值见 {@link MessageCompressor} 。 */
+	protected int compression = MessageCompressor.NONE;
+	/** 压缩阈值，只在本端生效，不参与协商。 */
+	protected int compressionThreshold = MessageCompressor.DEFAULT_THRESHOLD;
+
 	/** 重复尝试连接的次数。 */
 	protected int retry = 0;
 	/** 两次连接中间隔时间，单位毫秒。 */
@@ -58,6 +65,32 @@ public final class TalkCapacity {
 	/** 内核的版本串号。 */
 	private int versionNumber = Version.VERSION_NUMBER;
 
+	/** 默认的最大消息长度。 */
+	public final static int DEFAULT_MAX_MESSAGE_SIZE = 4 * 1024 * 1024;
+
+	/** 是否使用长度前缀帧。 */
+	protected boolean lengthFraming = true;
+
+	/** 支持的最大消息长度，为 <code>0</code> 时表示不支持消息分片。 */
+	protected int maxMessageSize = DEFAULT_MAX_MESSAGE_SIZE;
+
+	/** 是否使用可靠数据报传输对话数据。 */
+	protected boolean reliableDatagram = false;
+
+	/** 服务器提供的可靠数据报端口，为 <code>0</code> 时表示不提供。 */
+	protected int datagramPort = 0;
+
+	/** 服务器分配的可靠数据报绑定令牌。 */
+	protected long datagramToken = 0;
+
+	/** 支持的最高数据包格式版本，对话数据包使用双方均支持的版本。 */
+	protected int packetVersion = 3;
+	/** 使用 3.X 版本数据包时是否附加校验和，只在本端生效，不参与协商。 */
+	protected boolean packetChecksum = false;
+
+	/** 原语序列化格式，取值见 {@link PrimitiveSerializer} 。 */
+	protected int primitiveFormat = PrimitiveSerializer.FORMAT_TEXT;
+
 	/**
 	 * 构造函数。
 	 */
@@ -108,6 +141,168 @@ public final class TalkCapacity {
 		this.blocking = blocking;
 	}
 
+	/**
+	 * 设置是否使用长度前缀帧。仅在对端也支持时生效。
+	 * 
+	 * @param lengthFraming
+	 */
+	public void setLengthFraming(boolean lengthFraming) {
+		this.lengthFraming = lengthFraming;
+	}
+
+	/**
+	 * 是否使用长度前缀帧。
+	 * 
+	 * @return
+	 */
+	public boolean isLengthFraming() {
+		return this.lengthFraming;
+	}
+
+	/**
+	 * 设置支持的最大消息长度。超过 16 KB 的消息需要双方都支持消息分片。
+	 * 
+	 * @param maxMessageSize 指定最大消息长度，为 <code>0</code> 时不使用消息分片。
+	 */
+	public void setMaxMessageSize(int maxMessageSize) {
+		this.maxMessageSize = maxMessageSize;
+	}
+
+	/**
+	 * 返回支持的最大消息长度。
+	 * 
+	 * @return
+	 */
+	public int getMaxMessageSize() {
+		return this.maxMessageSize;
+	}
+
+	/**
+	 * 设置数据压缩算法。双方协商一致后，对话数据在加密前进行压缩。
+	 * 
+	 * @param algorithm 指定算法，取值见 {@link MessageCompressor} 。
+	 * @param threshold 指定压缩阈值，小于该长度的消息不压缩。
+	 */
+	public void setCompression(int algorithm, int threshold) {
+		this.compression = (algorithm == MessageCompressor.DEFLATE || algorithm == MessageCompressor.LZ)
+				? algorithm : MessageCompressor.NONE;
+		this.compressionThreshold = threshold;
+	}
+
+	/**
+	 * 返回数据压缩算法。
+	 * 
+	 * @return
+	 */
+	public int getCompression() {
+		return this.compression;
+	}
+
+	/**
+	 * 返回压缩阈值。
+	 * 
+	 * @return
+	 */
+	public int getCompressionThreshold() {
+		return this.compressionThreshold;
+	}
+
+	/**
+	 * 设置对话数据包格式版本。
+	 * 
+	 * @param version 指定支持的最高版本，取值 2 或 3 。
+	 * @param checksum 指定使用 3.X 版本时是否附加 CRC-32C 校验和。
+	 */
+	public void setPacketVersion(int version, boolean checksum) {
+		this.packetVersion = (version >= 3) ? 3 : 2;
+		this.packetChecksum = checksum;
+	}
+
+	/**
+	 * 获得对话数据包格式版本。
+	 * 
+	 * @return 返回对话数据包格式版本。
+	 */
+	public int getPacketVersion() {
+		return this.packetVersion;
+	}
+
+	/**
+	 * 是否为 3.X 版本数据包附加校验和。
+	 * 
+	 * @return 附加校验和返回 <code>true</code> 。
+	 */
+	public boolean isPacketChecksum() {
+		return this.packetChecksum;
+	}
+
+	/**
+	 * 设置原语序列化格式。双方均选择二进制格式时使用二进制格式，否则使用文本格式。
+	 * 
+	 * @param format 指定格式，取值见 {@link PrimitiveSerializer} 。
+	 */
+	public void setPrimitiveFormat(int format) {
+		this.primitiveFormat = (format == PrimitiveSerializer.FORMAT_BINARY)
+				? PrimitiveSerializer.FORMAT_BINARY : PrimitiveSerializer.FORMAT_TEXT;
+	}
+
+	/**
+	 * 返回原语序列化格式。
+	 * 
+	 * @return
+	 */
+	public int getPrimitiveFormat() {
+		return this.primitiveFormat;
+	}
+
+	/**
+	 * 设置是否使用可靠数据报传输对话数据。仅在服务器提供可靠数据报服务时生效，
+	 * 握手、协商和心跳依然使用 TCP 连接。
+	 * 
+	 * @param reliableDatagram
+	 */
+	public void setReliableDatagram(boolean reliableDatagram) {
+		this.reliableDatagram = reliableDatagram;
+	}
+
+	/**
+	 * 是否使用可靠数据报传输对话数据。
+	 * 
+	 * @return
+	 */
+	public boolean isReliableDatagram() {
+		return this.reliableDatagram;
+	}
+
+	/**
+	 * 设置服务器提供的可靠数据报端口和绑定令牌。
+	 * 
+	 * @param port 指定端口，为 <code>0</code> 时表示不提供。
+	 * @param token 指定绑定令牌。
+	 */
+	public void setDatagram(int port, long token) {
+		this.datagramPort = port;
+		this.datagramToken = token;
+	}
+
+	/**
+	 * 返回服务器提供的可靠数据报端口。
+	 * 
+	 * @return
+	 */
+	public int getDatagramPort() {
+		return this.datagramPort;
+	}
+
+	/**
+	 * 返回服务器分配的可靠数据报绑定令牌。
+	 * 
+	 * @return
+	 */
+	public long getDatagramToken() {
+		return this.datagramToken;
+	}
+
 	/**
 	 * 重置描述版本号。
 	 * 
@@ -166,6 +361,9 @@ public final class TalkCapacity {
 			buf.append(capacity.versionNumber);
 		}
 
+		// 扩展能力
+		TalkCapacity.serializeExtensions(buf, capacity);
+
 		byte[] bytes = buf.toString().getBytes();
 		buf = null;
 
@@ -186,6 +384,12 @@ public final class TalkCapacity {
 		}
 
 		TalkCapacity cap = new TalkCapacity();
+		// 对端未声明的扩展能力均视为不支持
+		cap.lengthFraming = false;
+		cap.maxMessageSize = 0;
+		cap.reliableDatagram = false;
+		cap.packetVersion = 2;
+		cap.primitiveFormat = PrimitiveSerializer.FORMAT_TEXT;
 		cap.version = Integer.parseInt(array[0]);
 		if (cap.version == 1) {
 			cap.secure = array[1].equalsIgnoreCase("Y") ? true : false;
@@ -216,7 +420,104 @@ public final class TalkCapacity {
 			}
 		}
 
+		// 扩展能力
+		TalkCapacity.deserializeExtensions(cap, array);
+
 		return cap;
 	}
 
+	/**
+	 * 序列化扩展能力。扩展能力以 <code>键=值</code> 的形式追加在基础字段之后，旧版本解析时会忽略这些字段。
+	 * 
+	 * @param buf 指定输出缓存。
+	 * @param capacity 指定 TalkCapacity 实例。
+	 */
+	private static void serializeExtensions(StringBuilder buf, TalkCapacity capacity) {
+		buf.append("|LF=");
+		buf.append(capacity.lengthFraming ? "Y" : "N");
+		buf.append("|MS=");
+		buf.append(capacity.maxMessageSize);
+		buf.append("|CP=");
+		buf.append(capacity.compression);
+		buf.append("|RD=");
+		buf.append(capacity.reliableDatagram ? "Y" : "N");
+		buf.append("|PV=");
+		buf.append(capacity.packetVersion);
+		buf.append("|PF=");
+		buf.append(capacity.primitiveFormat);
+		if (capacity.datagramPort > 0) {
+			buf.append("|DP=");
+			buf.append(capacity.datagramPort);
+			buf.append("|DT=");
+			buf.append(capacity.datagramToken);
+		}
+	}
+
+	/**
+	 * 反序列化扩展能力。
+	 * 
+	 * @param cap 指定 TalkCapacity 实例。
+	 * @param array 指定分割后的字段。
+	 */
+	private static void deserializeExtensions(TalkCapacity cap, String[] array) {
+		for (int i = 4; i < array.length; ++i) {
+			String item = array[i];
+			int index = item.indexOf('=');
+			if (index <= 0) {
+				continue;
+			}
+
+			String key = item.substring(0, index);
+			String value = item.substring(index + 1);
+			if (key.equals("LF")) {
+				cap.lengthFraming = value.equalsIgnoreCase("Y");
+			}
+			else if (key.equals("MS")) {
+				try {
+					cap.maxMessageSize = Math.max(0, Integer.parseInt(value));
+				} catch (NumberFormatException e) {
+					cap.maxMessageSize = 0;
+				}
+			}
+			else if (key.equals("CP")) {
+				try {
+					cap.setCompression(Integer.parseInt(value), cap.compressionThreshold);
+				} catch (NumberFormatException e) {
+					cap.compression = MessageCompressor.NONE;
+				}
+			}
+			else if (key.equals("RD")) {
+				cap.reliableDatagram = value.equalsIgnoreCase("Y");
+			}
+			else if (key.equals("PV")) {
+				try {
+					cap.setPacketVersion(Integer.parseInt(value), cap.packetChecksum);
+				} catch (NumberFormatException e) {
+					cap.packetVersion = 2;
+				}
+			}
+			else if (key.equals("PF")) {
+				try {
+					cap.setPrimitiveFormat(Integer.parseInt(value));
+				} catch (NumberFormatException e) {
+					cap.primitiveFormat = PrimitiveSerializer.FORMAT_TEXT;
+				}
+			}
+			else if (key.equals("DP")) {
+				try {
+					cap.datagramPort = Math.max(0, Integer.parseInt(value));
+				} catch (NumberFormatException e) {
+					cap.datagramPort = 0;
+				}
+			}
+			else if (key.equals("DT")) {
+				try {
+					cap.datagramToken = Long.parseLong(value);
+				} catch (NumberFormatException e) {
+					cap.datagramPort = 0;
+				}
+			}
+		}
+	}
+
 }
@@ -0,0 +1,121 @@
+/*
+-----------------------------------------------------------------------------
+This source file is part of Cell Cloud.
+
+Copyright (c) 2009-2017 Cell Cloud Team (www.cellcloud.net)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+-----------------------------------------------------------------------------
+*/
+
+package net.cellcloud.talk;
+
+import net.cellcloud.common.LogLevel;
+import net.cellcloud.common.Logger;
+import net.cellcloud.common.Message;
+import net.cellcloud.common.MessageHandler;
+import net.cellcloud.common.Packet;
+import net.cellcloud.common.Session;
+import net.cellcloud.talk.command.ServerDialogueCommand;
+
+/**
+ * Talk 可靠数据报服务句柄。数据报会话通过握手令牌绑定到已完成协商的 TCP 会话，只承载对话数据。
+ * 
+ * @author Ambrose Xu
+ * 
+ */
+public final class TalkDatagramHandler implements MessageHandler {
+
+	/** Talk 服务实例。 */
+	private TalkService talkService;
+
+	/**
+	 * 构造函数。
+	 * 
+	 * @param talkService 指定 Talk 服务。
+	 */
+	public TalkDatagramHandler(TalkService talkService) {
+		this.talkService = talkService;
+	}
+
+	@Override
+	public void sessionCreated(Session session) {
+		// Nothing
+	}
+
+	@Override
+	public void sessionDestroyed(Session session) {
+		// Nothing
+	}
+
+	@Override
+	public void sessionOpened(Session session) {
+		this.talkService.bindDatagramSession(session);
+	}
+
+	@Override
+	public void sessionClosed(Session session) {
+		this.talkService.unbindDatagramSession(session);
+	}
+
+	@Override
+	public void messageReceived(Session session, Message message) {
+		Session owner = this.talkService.getDatagramOwner(session);
+		if (null == owner) {
+			return;
+		}
+
+		// 数据段直接引用消息数据，只在本方法内同步处理
+		Packet packet = Packet.unpack(message.array(), message.offset(), message.length());
+		if (null == packet || !TalkDefinition.isDialogue(packet.getTag())) {
+			return;
+		}
+
+		// 在接收线程内处理，保持同一流内原语的顺序
+		try {
+			ServerDialogueCommand cmd = new ServerDialogueCommand(this.talkService, owner, packet);
+			cmd.execute();
+		} catch (Exception e) {
+			Logger.log(TalkDatagramHandler.class, e, LogLevel.ERROR);
+		}
+	}
+
+	@Override
+	public void messageSent(Session session, Message message) {
+		// Nothing
+	}
+
+	@Override
+	public void sessionUnwritable(Session session) {
+		if (Logger.isDebugLevel()) {
+			Logger.d(TalkDatagramHandler.class, "sessionUnwritable : " + session.getId());
+		}
+	}
+
+	@Override
+	public void sessionWritable(Session session) {
+		this.talkService.resumeWriting();
+	}
+
+	@Override
+	public void errorOccurred(int errorCode, Session session, Message message) {
+		// Nothing
+	}
+
+}
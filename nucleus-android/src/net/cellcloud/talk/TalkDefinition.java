@@ -65,6 +65,10 @@ public final class TalkDefinition {
 	/** 未找到 Cellet 状态码。 */
 	public static final byte[] SC_FAILURE_NOCELLET = {'0', '0', '1', '0'};
 
+
+	/** 可靠数据报传输区块数据使用的流编号。 */
+	public static final int DATAGRAM_STREAM_CHUNK = 1;
+
 	/**
 	 * 判断是否是 INTERROGATE 包。
 	 * 
@@ -26,13 +26,13 @@ THE SOFTWARE.
 
 package net.cellcloud.talk;
 
-import java.io.ByteArrayOutputStream;
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
 import java.util.Vector;
 import java.util.concurrent.ConcurrentHashMap;
@@ -45,8 +45,13 @@ import net.cellcloud.common.Cryptology;
 import net.cellcloud.common.LogLevel;
 import net.cellcloud.common.Logger;
 import net.cellcloud.common.Message;
+import net.cellcloud.common.MessageCompressor;
 import net.cellcloud.common.NonblockingAcceptor;
 import net.cellcloud.common.Packet;
+import net.cellcloud.common.PacketWriter;
+import net.cellcloud.common.ReliableDatagramAcceptor;
+import net.cellcloud.common.ReliableDatagramService;
+import net.cellcloud.common.ReliableDatagramSession;
 import net.cellcloud.common.Service;
 import net.cellcloud.common.Session;
 import net.cellcloud.core.Cellet;
@@ -62,13 +67,14 @@ import net.cellcloud.talk.dialect.ChunkDialectFactory;
 import net.cellcloud.talk.dialect.Dialect;
 import net.cellcloud.talk.dialect.DialectEnumerator;
 import net.cellcloud.talk.stuff.PrimitiveSerializer;
-import net.cellcloud.util.Network;
 import net.cellcloud.util.TimeReceiver;
 import net.cellcloud.util.Utils;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import android.content.Context;
+
 /**
  * 会话服务。
  * 
@@ -82,8 +88,15 @@ public final class TalkService implements Service, SpeakerDelegate {
 
 	private static TalkService instance = null;
 
+	/** 对话数据包为序列化原语预留的缓冲容量。 */
+	private static final int DIALOGUE_PAYLOAD_CAPACITY = 512;
+
 	private int port;
 	private int block;
+	/** 最大连接数。 */
+	private int maxConnections = 20;
+	/** 使用 3.X 版本对话数据包时是否附加校验和。 */
+	private boolean packetChecksum = false;
 
 	private long sessionTimeout;
 
@@ -91,6 +104,19 @@ public final class TalkService implements Service, SpeakerDelegate {
 	private NucleusContext nucleusContext;
 	private TalkAcceptorHandler talkHandler;
 
+	/** 可靠数据报服务端口，为 <code>0</code> 时不提供可靠数据报服务。 */
+	private int datagramPort = 0;
+	/** 可靠数据报接收器。 */
+	private ReliableDatagramAcceptor datagramAcceptor;
+	/** 待绑定的数据报令牌对应的 TCP 会话。 */
+	private ConcurrentHashMap<Long, Session> datagramTokens;
+	/** TCP 会话 ID 对应的数据报会话。 */
+	private ConcurrentHashMap<Long, Session> datagramSessions;
+	/** 数据报会话 ID 对应的 TCP 会话。 */
+	private ConcurrentHashMap<Long, Session> datagramOwners;
+	/** 用于生成数据报令牌的随机数发生器。 */
+	private Random datagramRandom;
+
 	/** 线程执行器。 */
 	protected ExecutorService executor;
 
@@ -158,7 +184,6 @@ public final class TalkService implements Service, SpeakerDelegate {
 			this.callbackListener = DialectEnumerator.getInstance();
 			this.delegate = DialectEnumerator.getInstance();
 
-			this.receiver = new TimeReceiver();
 			this.orderedTasks = new LinkedList<Runnable>();
 			this.taskRunning = new AtomicBoolean(false);
 		}
@@ -216,11 +241,15 @@ public final class TalkService implements Service, SpeakerDelegate {
 		}
 
 		// 最大连接数
-		this.acceptor.setMaxConnectNum(20);
+		this.acceptor.setMaxConnectNum(this.maxConnections);
 
 		boolean succeeded = this.acceptor.bind(this.port);
 		if (succeeded) {
 			this.startDaemon();
+
+			if (this.datagramPort > 0) {
+				this.startDatagram();
+			}
 		}
 
 		return succeeded;
@@ -235,6 +264,13 @@ public final class TalkService implements Service, SpeakerDelegate {
 			this.acceptor.unbind();
 		}
 
+		if (null != this.datagramAcceptor) {
+			this.datagramAcceptor.unbind();
+			this.datagramTokens.clear();
+			this.datagramSessions.clear();
+			this.datagramOwners.clear();
+		}
+
 		stopDaemon();
 
 		if (null != this.executor) {
@@ -267,6 +303,88 @@ public final class TalkService implements Service, SpeakerDelegate {
 		return this.port;
 	}
 
+	/**
+	 * 设置最大连接数。
+	 * 
+	 * 在 {@link TalkService#startup()} 之前设置才能生效。
+	 * 
+	 * @param num 指定最大连接数。
+	 */
+	public void setMaxConnections(int num) {
+		this.maxConnections = num;
+	}
+
+	/**
+	 * 返回最大连接数。
+	 * 
+	 * @return 返回最大连接数。
+	 */
+	public int getMaxConnections() {
+		return this.maxConnections;
+	}
+
+	/**
+	 * 设置使用 3.X 版本对话数据包时是否附加 CRC-32C 校验和。
+	 * 
+	 * @param checksum 指定是否附加校验和。
+	 */
+	public void setPacketChecksum(boolean checksum) {
+		this.packetChecksum = checksum;
+	}
+
+	/**
+	 * 使用 3.X 版本对话数据包时是否附加校验和。
+	 * 
+	 * @return 附加校验和返回 <code>true</code> 。
+	 */
+	public boolean isPacketChecksum() {
+		return this.packetChecksum;
+	}
+
+	/**
+	 * 设置可靠数据报服务端口。协商时终端请求可靠数据报传输，服务器才会提供该端口。
+	 * 
+	 * 在 {@link TalkService#startup()} 之前设置才能生效。
+	 * 
+	 * @param port 指定服务端口，为 <code>0</code> 时不提供可靠数据报服务。
+	 */
+	public void setDatagramPort(int port) {
+		if (null != this.datagramAcceptor && this.datagramAcceptor.isRunning()) {
+			throw new InvalidException("Can't set the datagram port in talk service after the start");
+		}
+
+		this.datagramPort = port;
+	}
+
+	/**
+	 * 返回可靠数据报服务端口。
+	 * 
+	 * @return 返回可靠数据报服务端口。
+	 */
+	public int getDatagramPort() {
+		return this.datagramPort;
+	}
+
+	/**
+	 * 启动可靠数据报服务。
+	 */
+	private void startDatagram() {
+		if (null == this.datagramAcceptor) {
+			this.datagramAcceptor = new ReliableDatagramAcceptor();
+			this.datagramAcceptor.setHandler(new TalkDatagramHandler(this));
+			this.datagramTokens = new ConcurrentHashMap<Long, Session>();
+			this.datagramSessions = new ConcurrentHashMap<Long, Session>();
+			this.datagramOwners = new ConcurrentHashMap<Long, Session>();
+			this.datagramRandom = new Random(System.currentTimeMillis());
+		}
+
+		this.datagramAcceptor.setMaxConnectNum(this.acceptor.getMaxConnectNum());
+
+		if (!this.datagramAcceptor.bind(this.datagramPort)) {
+			Logger.w(TalkService.class, "Can not bind reliable datagram port " + this.datagramPort);
+		}
+	}
+
 	/**
 	 * 设置适配器缓存块大小。
 	 * 
@@ -281,8 +399,18 @@ public final class TalkService implements Service, SpeakerDelegate {
 	 */
 	public void startDaemon() {
 		if (null == this.daemon) {
-			this.daemon = new TalkServiceDaemon(false);
-			this.receiver.registerReceiver(Nucleus.getInstance().getAppContext(), this.daemon);
+			// 没有 Android 上下文时不注册时间广播，由守护任务自身的定时器驱动
+			Context appContext = Nucleus.getInstance().getAppContext();
+			this.daemon = new TalkServiceDaemon(null == appContext);
+			if (null != appContext) {
+				if (null == this.receiver) {
+					this.receiver = new TimeReceiver();
+				}
+				this.receiver.registerReceiver(appContext, this.daemon);
+			}
+			else {
+				this.daemon.wakeup();
+			}
 		}
 
 		// 启动所有方言工厂
@@ -295,7 +423,9 @@ public final class TalkService implements Service, SpeakerDelegate {
 	public void stopDaemon() {
 		if (null != this.daemon) {
 			this.daemon.stop();
-			this.receiver.unregisterReceiver(Nucleus.getInstance().getAppContext());
+			if (null != this.receiver) {
+				this.receiver.unregisterReceiver(Nucleus.getInstance().getAppContext());
+			}
 			this.daemon = null;
 		}
 
@@ -533,10 +663,19 @@ public final class TalkService implements Service, SpeakerDelegate {
 					}
 
 					// 打包
-					message = this.packetDialogue(cellet, primitive, session);
+					message = this.packetDialogue(cellet, primitive, session, cap);
 
 					if (null != message) {
-						session.write(message);
+						Session ds = this.getDatagramSession(session);
+						if (null != ds) {
+							// 区块数据使用独立的流，避免阻塞其他原语
+							boolean chunk = primitive.isDialectal() && primitive.getDialect().getName().equals(ChunkDialect.DIALECT_NAME);
+							this.datagramAcceptor.write(ds, message,
+									chunk ? TalkDefinition.DATAGRAM_STREAM_CHUNK : ReliableDatagramService.STREAM_DEFAULT);
+						}
+						else {
+							session.write(message);
+						}
 					}
 					else {
 						Logger.e(this.getClass(), "Packet error");
@@ -774,6 +913,68 @@ public final class TalkService implements Service, SpeakerDelegate {
 		return false;
 	}
 
+	/**
+	 * 与指定 Cellet 的连接是否可继续发送数据。
+	 * 
+	 * 连接的待写数据超过高水位时返回 <code>false</code> ，此时应暂停发送，直到连接恢复为可写。
+	 * 未找到对应连接时返回 <code>true</code> ，由发送操作报告错误。
+	 * 
+	 * @param identifier 指定目标 Cellet 的标识。
+	 * @return 如果可继续发送数据返回 <code>true</code> 。
+	 */
+	public boolean isWritable(String identifier) {
+		if (null != this.speakerMap) {
+			Speaker speaker = this.speakerMap.get(identifier);
+			if (null != speaker && speaker.isCalled()) {
+				return speaker.isWritable();
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * 指定 Cellet 到目标终端的会话是否可继续发送数据。
+	 * 
+	 * @param targetTag 指定目标终端的内核标签。
+	 * @param cellet 指定 Cellet 。
+	 * @return 如果所有会话均可继续发送数据返回 <code>true</code> 。
+	 */
+	public boolean isWritable(String targetTag, Cellet cellet) {
+		if (null == this.tagContexts) {
+			return true;
+		}
+
+		TalkSessionContext context = this.tagContexts.get(targetTag);
+		if (null == context) {
+			return true;
+		}
+
+		synchronized (context) {
+			for (Session session : context.getSessions()) {
+				TalkTracker tracker = context.getTracker(session);
+				if (null != tracker && tracker.hasCellet(cellet)) {
+					Session ds = this.getDatagramSession(session);
+					if (!(null != ds ? ds : session).isWritable()) {
+						return false;
+					}
+				}
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * 连接恢复为可写时，继续发送被暂停的数据。
+	 */
+	protected void resumeWriting() {
+		ChunkDialectFactory fact = (ChunkDialectFactory) DialectEnumerator.getInstance().getFactory(ChunkDialect.DIALECT_NAME);
+		if (null != fact) {
+			fact.resume();
+		}
+	}
+
 	/**
 	 * 是否已经与 Cellet 建立服务。
 	 * 
@@ -797,7 +998,7 @@ public final class TalkService implements Service, SpeakerDelegate {
 		if (null != this.speakerMap) {
 			Speaker speaker = this.speakerMap.get(identifier);
 			if (null != speaker) {
-				ret = speaker.isCalled() && Network.isConnectedOrConnecting(Nucleus.getInstance().getAppContext());
+				ret = speaker.isCalled() && Nucleus.getInstance().getNetworkMonitor().isConnectedOrConnecting();
 
 				if (ret && millis > 0) {
 					long time = System.currentTimeMillis();
@@ -978,6 +1179,10 @@ public final class TalkService implements Service, SpeakerDelegate {
 		cert.plaintext = Utils.randomString(16);
 		this.unidentifiedSessions.put(sid, cert);
 
+		// 立即发送质询，守护任务只负责清理超时的会话
+		cert.checked = true;
+		this.deliverChecking(session, cert.plaintext, cert.key);
+
 		return cert;
 	}
 
@@ -1031,6 +1236,108 @@ public final class TalkService implements Service, SpeakerDelegate {
 
 		// 清理未授权表
 		this.unidentifiedSessions.remove(session.getId());
+
+		if (Logger.isDebugLevel() && session.getCompression() != MessageCompressor.NONE) {
+			Logger.d(this.getClass(), "Compression " + session.getAddress().getHostString() + " : " + session.getCompressor().toString());
+		}
+
+		// 关闭绑定的数据报会话
+		if (null != this.datagramAcceptor) {
+			Iterator<Session> iter = this.datagramTokens.values().iterator();
+			while (iter.hasNext()) {
+				if (iter.next() == session) {
+					iter.remove();
+				}
+			}
+
+			final Session ds = this.datagramSessions.remove(session.getId());
+			if (null != ds) {
+				this.datagramOwners.remove(ds.getId());
+				if (!this.executor.isShutdown()) {
+					this.executor.execute(new Runnable() {
+						@Override
+						public void run() {
+							datagramAcceptor.close(ds);
+						}
+					});
+				}
+			}
+		}
+	}
+
+	/**
+	 * 按握手令牌将数据报会话绑定到对应的 TCP 会话。令牌无效时关闭数据报会话。
+	 * 
+	 * @param session 指定数据报会话。
+	 */
+	protected void bindDatagramSession(Session session) {
+		Session owner = null;
+		byte[] data = ((ReliableDatagramSession) session).getHandshakeData();
+		if (null != data) {
+			try {
+				owner = this.datagramTokens.remove(Long.parseLong(Utils.bytes2String(data)));
+			} catch (NumberFormatException e) {
+				// Nothing
+			}
+		}
+
+		TalkTracker tracker = null;
+		if (null != owner) {
+			String tag = this.sessionTagMap.get(owner.getId());
+			TalkSessionContext ctx = (null != tag) ? this.tagContexts.get(tag) : null;
+			tracker = (null != ctx) ? ctx.getTracker(owner) : null;
+		}
+
+		if (null == tracker) {
+			Logger.w(TalkService.class, "Reject datagram session: " + session.getAddress().getHostString());
+			this.datagramAcceptor.close(session);
+			return;
+		}
+
+		// 与 TCP 会话使用相同的密钥
+		TalkCapacity cap = tracker.getCapacity();
+		if (null != cap && cap.secure) {
+			session.activeSecretKey((byte[]) owner.getAttribute("key"));
+		}
+
+		Session old = this.datagramSessions.put(owner.getId(), session);
+		if (null != old && old != session) {
+			this.datagramOwners.remove(old.getId());
+			this.datagramAcceptor.close(old);
+		}
+		this.datagramOwners.put(session.getId(), owner);
+	}
+
+	/**
+	 * 解除数据报会话的绑定，对话数据回退至 TCP 会话。
+	 * 
+	 * @param session 指定数据报会话。
+	 */
+	protected void unbindDatagramSession(Session session) {
+		Session owner = this.datagramOwners.remove(session.getId());
+		if (null != owner) {
+			this.datagramSessions.remove(owner.getId(), session);
+		}
+	}
+
+	/**
+	 * 返回数据报会话绑定的 TCP 会话。
+	 * 
+	 * @param session 指定数据报会话。
+	 * @return 返回绑定的 TCP 会话，未绑定时返回 <code>null</code> 。
+	 */
+	protected Session getDatagramOwner(Session session) {
+		return this.datagramOwners.get(session.getId());
+	}
+
+	/**
+	 * 返回 TCP 会话绑定的数据报会话。
+	 * 
+	 * @param session 指定 TCP 会话。
+	 * @return 返回绑定的数据报会话，未绑定时返回 <code>null</code> 。
+	 */
+	private Session getDatagramSession(Session session) {
+		return (null != this.datagramAcceptor) ? this.datagramSessions.get(session.getId()) : null;
 	}
 
 	/**
@@ -1146,6 +1453,19 @@ public final class TalkService implements Service, SpeakerDelegate {
 			return null;
 		}
 
+		// 协商可靠数据报传输
+		capacity.setDatagram(0, 0);
+		if (capacity.isReliableDatagram()) {
+			if (null != this.datagramAcceptor && this.datagramAcceptor.isRunning()) {
+				long token = this.datagramRandom.nextLong();
+				this.datagramTokens.put(token, session);
+				capacity.setDatagram(this.datagramPort, token);
+			}
+			else {
+				capacity.setReliableDatagram(false);
+			}
+		}
+
 		// 协商终端能力
 		TalkTracker tracker = ctx.getTracker(session);
 		if (null != tracker) {
@@ -1381,20 +1701,18 @@ public final class TalkService implements Service, SpeakerDelegate {
 
 		// 包格式：密文|密钥
 
-		byte[] ciphertext = Cryptology.getInstance().simpleEncrypt(text.getBytes(), key.getBytes());
+		byte[] keyData = key.getBytes();
+		byte[] ciphertext = Cryptology.getInstance().simpleEncrypt(text.getBytes(), keyData);
 
-		Packet packet = new Packet(TalkDefinition.TPT_INTERROGATE, 1, 2, 0);
-		packet.appendSegment(ciphertext);
-		packet.appendSegment(key.getBytes());
+		PacketWriter writer = new PacketWriter(TalkDefinition.TPT_INTERROGATE, 1, 2, 0, 2,
+				ciphertext.length + keyData.length);
+		writer.writeSegment(ciphertext);
+		writer.writeSegment(keyData);
 
-		byte[] data = Packet.pack(packet);
-		if (null != data) {
-			Message message = new Message(data);
-			this.acceptor.write(session, message);
-			message = null;
-		}
-
-		packet = null;
+		Message message = writer.toMessage();
+		this.acceptor.write(session, message);
+		message = null;
+		writer = null;
 	}
 
 	/**
@@ -1402,10 +1720,11 @@ public final class TalkService implements Service, SpeakerDelegate {
 	 * 
 	 * @param cellet 指定源 Cellet 。
 	 * @param primitive 指定原语数据。
-	 * @param jsonFormat 指定是否使用 JSON 格式。
+	 * @param session 指定目标会话，为 <code>null</code> 时使用 JSON 格式。
+	 * @param capacity 指定协商后的会话能力，为 <code>null</code> 时使用 2.X 版本数据包和文本格式原语。
 	 * @return 返回生成的消息对象。
 	 */
-	private Message packetDialogue(Cellet cellet, Primitive primitive, Session session) {
+	private Message packetDialogue(Cellet cellet, Primitive primitive, Session session, TalkCapacity capacity) {
 		Message message = null;
 
 		if (null == session) {
@@ -1430,17 +1749,23 @@ public final class TalkService implements Service, SpeakerDelegate {
 		else {
 			// 包格式：原语序列|Cellet
 
-			// 序列化原语
-			ByteArrayOutputStream stream = primitive.write();
+			byte[] identifierData = Utils.string2Bytes(cellet.getFeature().getIdentifier());
 
-			// 封装数据包
-			Packet packet = new Packet(TalkDefinition.TPT_DIALOGUE, 99, 2, 0);
-			packet.appendSegment(stream.toByteArray());
-			packet.appendSegment(Utils.string2Bytes(cellet.getFeature().getIdentifier()));
+			// 使用双方均支持的数据包格式版本
+			int version = (null != capacity) ? capacity.getPacketVersion() : 2;
+
+			// 原语直接序列化到数据包缓冲
+			PacketWriter writer = new PacketWriter(TalkDefinition.TPT_DIALOGUE, 99, version, 0, 2,
+					DIALOGUE_PAYLOAD_CAPACITY + identifierData.length);
+			if (version == 3 && this.packetChecksum) {
+				writer.setFlags(Packet.FLAG_CHECKSUM);
+			}
+			writer.beginSegment();
+			primitive.write(writer, (null != capacity) ? capacity.getPrimitiveFormat() : PrimitiveSerializer.FORMAT_TEXT);
+			writer.endSegment();
+			writer.writeSegment(identifierData);
 
-			// 打包数据
-			byte[] data = Packet.pack(packet);
-			message = new Message(data);
+			message = writer.toMessage();
 		}
 
 		return message;
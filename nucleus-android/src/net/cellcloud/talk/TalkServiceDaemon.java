@@ -310,7 +310,7 @@ public final class TalkServiceDaemon extends TimerTask implements TimeListener {
 		}
 
 		// 处理未识别 Session
-		// service.processUnidentifiedSessions(this.tickTime);
+		service.processUnidentifiedSessions(this.tickTime);
 	}
 
 }
@@ -32,6 +32,7 @@ import net.cellcloud.common.LogLevel;
 import net.cellcloud.common.Logger;
 import net.cellcloud.common.Message;
 import net.cellcloud.common.Packet;
+import net.cellcloud.common.PacketWriter;
 import net.cellcloud.common.Session;
 import net.cellcloud.core.Nucleus;
 import net.cellcloud.talk.TalkDefinition;
@@ -103,15 +104,14 @@ public final class ServerCheckCommand extends ServerCommand {
 			// 包格式：成功码|内核标签
 
 			// 数据打包
-			Packet packet = new Packet(TalkDefinition.TPT_CHECK, 2, 2, 0);
-			packet.appendSegment(TalkDefinition.SC_SUCCESS);
-			packet.appendSegment(Nucleus.getInstance().getTagAsString().getBytes());
-
-			byte[] data = Packet.pack(packet);
-			if (null != data) {
-				Message message = new Message(data);
-				this.session.write(message);
-			}
+			byte[] nucleusTag = Nucleus.getInstance().getTagAsString().getBytes();
+			PacketWriter writer = new PacketWriter(TalkDefinition.TPT_CHECK, 2, 2, 0, 2,
+					TalkDefinition.SC_SUCCESS.length + nucleusTag.length);
+			writer.writeSegment(TalkDefinition.SC_SUCCESS);
+			writer.writeSegment(nucleusTag);
+
+			Message message = writer.toMessage();
+			this.session.write(message);
 		}
 		else {
 			log.append(" checkout.");
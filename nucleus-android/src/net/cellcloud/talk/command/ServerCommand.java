@@ -26,8 +26,10 @@ THE SOFTWARE.
 
 package net.cellcloud.talk.command;
 
+import net.cellcloud.common.MessageService;
 import net.cellcloud.common.Packet;
 import net.cellcloud.common.Session;
+import net.cellcloud.talk.TalkCapacity;
 import net.cellcloud.talk.TalkService;
 
 /**
@@ -60,4 +62,24 @@ public abstract class ServerCommand {
 	 */
 	public abstract void execute();
 
+	/**
+	 * 按协商结果设置会话的传输参数。应在发送应答之后调用。
+	 * 
+	 * @param capacity 指定协商后的能力描述。
+	 */
+	protected void applyTransport(TalkCapacity capacity) {
+		// 对端支持时使用长度前缀帧，接收端总是同时识别两种帧格式
+		this.session.setLengthFraming(capacity.isLengthFraming());
+
+		// 对端声明了最大消息长度时分片发送大消息
+		boolean fragmentation = capacity.isLengthFraming() && capacity.getMaxMessageSize() > 0;
+		this.session.setFragmentation(fragmentation);
+		this.session.setMaxMessageSize(fragmentation ?
+				Math.max(capacity.getMaxMessageSize(), MessageService.DEFAULT_MAX_MESSAGE_SIZE)
+				: MessageService.DEFAULT_MAX_MESSAGE_SIZE);
+
+		// 对端选择的压缩算法，接收端总是能够识别压缩数据
+		this.session.setCompression(capacity.getCompression(), capacity.getCompressionThreshold());
+	}
+
 }
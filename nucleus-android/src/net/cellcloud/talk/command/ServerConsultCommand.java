@@ -29,6 +29,7 @@ package net.cellcloud.talk.command;
 import net.cellcloud.common.Logger;
 import net.cellcloud.common.Message;
 import net.cellcloud.common.Packet;
+import net.cellcloud.common.PacketWriter;
 import net.cellcloud.common.Session;
 import net.cellcloud.talk.TalkCapacity;
 import net.cellcloud.talk.TalkDefinition;
@@ -81,17 +82,23 @@ public final class ServerConsultCommand extends ServerCommand {
 		// 应答		
 		// 包格式：源标签|能力描述序列化数据
 
+		// 最大消息长度不超过本端支持的长度
+		if (ret.getMaxMessageSize() > TalkCapacity.DEFAULT_MAX_MESSAGE_SIZE) {
+			ret.setMaxMessageSize(TalkCapacity.DEFAULT_MAX_MESSAGE_SIZE);
+		}
+
 		byte[] capdata = TalkCapacity.serialize(ret);
 
-		Packet response = new Packet(TalkDefinition.TPT_CONSULT, 4, 2, 0);
-		response.appendSegment(this.packet.getSegment(0));
-		response.appendSegment(capdata);
+		PacketWriter response = new PacketWriter(TalkDefinition.TPT_CONSULT, 4, 2, 0, 2,
+				this.packet.getSegmentLength(0) + capdata.length);
+		response.writeSegment(this.packet.getSegmentArray(0), this.packet.getSegmentOffset(0),
+				this.packet.getSegmentLength(0));
+		response.writeSegment(capdata);
 
-		byte[] data = Packet.pack(response);
-		if (null != data) {
-			Message message = new Message(data);
-			this.session.write(message);
-		}
+		Message message = response.toMessage();
+		this.session.write(message);
+
+		this.applyTransport(ret);
 	}
 
 }
@@ -75,8 +75,9 @@ public final class ServerDialogueCommand extends ServerCommand {
 			return;
 		}
 
-		byte[] priData = this.packet.getSegment(0);
-		ByteArrayInputStream stream = new ByteArrayInputStream(priData);
+		// 直接读取数据段视图，避免复制原语数据
+		ByteArrayInputStream stream = new ByteArrayInputStream(this.packet.getSegmentArray(0),
+				this.packet.getSegmentOffset(0), this.packet.getSegmentLength(0));
 
 		byte[] tagData = this.packet.getSegment(1);
 		String speakerTag = Utils.bytes2String(tagData);
@@ -0,0 +1,147 @@
+/*
+-----------------------------------------------------------------------------
+This source file is part of Cell Cloud.
+
+Copyright (c) 2009-2017 Cell Cloud Team (www.cellcloud.net)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+-----------------------------------------------------------------------------
+*/
+
+package net.cellcloud.talk.command;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+
+import net.cellcloud.common.LogLevel;
+import net.cellcloud.common.Logger;
+import net.cellcloud.common.Message;
+import net.cellcloud.common.Packet;
+import net.cellcloud.common.PacketWriter;
+import net.cellcloud.common.Session;
+import net.cellcloud.core.Nucleus;
+import net.cellcloud.talk.TalkCapacity;
+import net.cellcloud.talk.TalkDefinition;
+import net.cellcloud.talk.TalkService;
+import net.cellcloud.talk.TalkService.Certificate;
+import net.cellcloud.talk.TalkTracker;
+import net.cellcloud.util.Utils;
+
+/**
+ * 对话 quick 命令。一次完成校验、协商和请求 Cellet 。
+ * 
+ * @author Ambrose Xu
+ * 
+ */
+public final class ServerQuickCommand extends ServerCommand {
+
+	/**
+	 * 构造函数。
+	 * 
+	 * @param service
+	 * @param session
+	 * @param packet
+	 */
+	public ServerQuickCommand(TalkService service, Session session, Packet packet) {
+		super(service, session, packet);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void execute() {
+		// 包格式：明文|源标签|能力描述序列化数据|CelletIdentifiers
+
+		Certificate cert = this.service.getCertificate(this.session);
+		if (null == cert) {
+			return;
+		}
+
+		byte[] plaintext = this.packet.getSegment(0);
+		if (null == plaintext) {
+			return;
+		}
+
+		String pt = "";
+		try {
+			pt = new String(plaintext, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			Logger.log(ServerQuickCommand.class, e, LogLevel.ERROR);
+		}
+
+		if (!pt.equals(cert.plaintext)) {
+			if (Logger.isDebugLevel()) {
+				Logger.d(ServerQuickCommand.class, "Session (" + this.session.getId() + ") checkout.");
+			}
+			this.service.rejectSession(this.session);
+			return;
+		}
+
+		byte[] tagData = this.packet.getSegment(1);
+		String tag = Utils.bytes2String(tagData);
+		this.service.acceptSession(this.session, tag);
+
+		// 协商能力
+		TalkCapacity capacity = TalkCapacity.deserialize(this.packet.getSegment(2));
+		if (null == capacity) {
+			Logger.w(ServerQuickCommand.class, "Error talk capacity data format: tag=" + tag);
+			capacity = new TalkCapacity();
+		}
+
+		TalkCapacity ret = this.service.processConsult(this.session, tag, capacity);
+		if (ret.getMaxMessageSize() > TalkCapacity.DEFAULT_MAX_MESSAGE_SIZE) {
+			ret.setMaxMessageSize(TalkCapacity.DEFAULT_MAX_MESSAGE_SIZE);
+		}
+
+		// 请求 Cellet
+		ArrayList<byte[]> identifiers = new ArrayList<byte[]>();
+		for (int i = 3, size = this.packet.numSegments(); i < size; ++i) {
+			byte[] identifier = this.packet.getSegment(i);
+			TalkTracker tracker = this.service.processRequest(this.session, tag, Utils.bytes2String(identifier));
+			if (null != tracker) {
+				identifiers.add(identifier);
+			}
+		}
+
+		// 包格式：状态码|源标签|能力描述序列化数据|CelletIdentifiers
+
+		byte[] code = identifiers.isEmpty() ? TalkDefinition.SC_FAILURE_NOCELLET : TalkDefinition.SC_SUCCESS;
+		byte[] nucleusTag = Nucleus.getInstance().getTagAsString().getBytes();
+		byte[] capdata = TalkCapacity.serialize(ret);
+		int payloadLength = code.length + nucleusTag.length + capdata.length;
+		for (byte[] identifier : identifiers) {
+			payloadLength += identifier.length;
+		}
+
+		PacketWriter response = new PacketWriter(TalkDefinition.TPT_QUICK, 2, 2, 0, 3 + identifiers.size(), payloadLength);
+		response.writeSegment(code);
+		response.writeSegment(nucleusTag);
+		response.writeSegment(capdata);
+		for (byte[] identifier : identifiers) {
+			response.writeSegment(identifier);
+		}
+
+		Message message = response.toMessage();
+		this.session.write(message);
+
+		this.applyTransport(ret);
+	}
+
+}
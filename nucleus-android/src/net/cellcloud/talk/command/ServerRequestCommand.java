@@ -28,6 +28,7 @@ package net.cellcloud.talk.command;
 
 import net.cellcloud.common.Message;
 import net.cellcloud.common.Packet;
+import net.cellcloud.common.PacketWriter;
 import net.cellcloud.common.Session;
 import net.cellcloud.core.Cellet;
 import net.cellcloud.talk.TalkDefinition;
@@ -68,35 +69,39 @@ public final class ServerRequestCommand extends ServerCommand {
 		// 成功：请求方标签|成功码|Cellet识别串|Cellet版本
 		// 失败：请求方标签|失败码
 
-		Packet packet = new Packet(TalkDefinition.TPT_REQUEST, 3, 2, 0);
-		// 请求方标签
-		packet.appendSegment(talkTag);
-
 		// 请求 Cellet
 		TalkTracker tracker = this.service.processRequest(this.session,
 				Utils.bytes2String(talkTag), Utils.bytes2String(identifier));
 
+		PacketWriter writer = null;
+
 		if (null != tracker) {
 			Cellet cellet = tracker.getCellet(Utils.bytes2String(identifier));
+			byte[] version = Utils.string2Bytes(cellet.getFeature().getVersion().toString());
 
+			writer = new PacketWriter(TalkDefinition.TPT_REQUEST, 3, 2, 0, 4,
+					talkTag.length + TalkDefinition.SC_SUCCESS.length + identifier.length + version.length);
+			// 请求方标签
+			writer.writeSegment(talkTag);
 			// 成功码
-			packet.appendSegment(TalkDefinition.SC_SUCCESS);
+			writer.writeSegment(TalkDefinition.SC_SUCCESS);
 			// Cellet识别串
-			packet.appendSegment(identifier);
+			writer.writeSegment(identifier);
 			// Cellet版本
-			packet.appendSegment(Utils.string2Bytes(cellet.getFeature().getVersion().toString()));
+			writer.writeSegment(version);
 		}
 		else {
+			writer = new PacketWriter(TalkDefinition.TPT_REQUEST, 3, 2, 0, 2,
+					talkTag.length + TalkDefinition.SC_FAILURE_NOCELLET.length);
+			// 请求方标签
+			writer.writeSegment(talkTag);
 			// 失败码
-			packet.appendSegment(TalkDefinition.SC_FAILURE_NOCELLET);
+			writer.writeSegment(TalkDefinition.SC_FAILURE_NOCELLET);
 		}
 
 		// 打包数据
-		byte[] data = Packet.pack(packet);
-		if (null != data) {
-			Message message = new Message(data);
-			this.session.write(message);
-		}
+		Message message = writer.toMessage();
+		this.session.write(message);
 	}
 
 }
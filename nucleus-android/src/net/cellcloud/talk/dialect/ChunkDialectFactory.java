@@ -186,6 +186,29 @@ public class ChunkDialectFactory extends DialectFactory {
 		}
 	}
 
+	/**
+	 * 继续发送被暂停且仍有配额的区块列表。
+	 */
+	public void resume() {
+		if (null != this.cListMap) {
+			this.resume(this.cListMap);
+		}
+
+		if (null != this.sListMap) {
+			this.resume(this.sListMap);
+		}
+	}
+
+	private void resume(ConcurrentHashMap<String, ChunkList> listMap) {
+		Iterator<ChunkList> iter = listMap.values().iterator();
+		while (iter.hasNext()) {
+			ChunkList list = iter.next();
+			if (!list.isComplete() && list.remaining.get() > 0 && list.running.compareAndSet(false, true)) {
+				this.executor.execute(list);
+			}
+		}
+	}
+
 	/**
 	 * 获得当前内存缓存大小。
 	 * 
@@ -754,8 +777,26 @@ public class ChunkDialectFactory extends DialectFactory {
 			}
 		}
 
+		/**
+		 * 目标连接是否可继续发送数据。
+		 */
+		private boolean isWritable() {
+			if (null == this.cellet) {
+				return TalkService.getInstance().isWritable(this.target);
+			}
+			else {
+				return this.cellet.isWritable(this.target);
+			}
+		}
+
 		@Override
 		public void run() {
+			if (!this.isWritable()) {
+				// 连接待写数据超过高水位，暂停发送，连接恢复可写后继续
+				this.running.set(false);
+				return;
+			}
+
 			// 判断剩余配额
 			long qr = this.remaining.get();
 			if (qr > 0) {
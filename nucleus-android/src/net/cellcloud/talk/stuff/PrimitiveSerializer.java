@@ -29,13 +29,14 @@ package net.cellcloud.talk.stuff;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.nio.ByteBuffer;
-import java.util.Iterator;
 import java.util.List;
 
 import net.cellcloud.common.LogLevel;
 import net.cellcloud.common.Logger;
+import net.cellcloud.common.MessageService;
 import net.cellcloud.talk.Primitive;
+import net.cellcloud.talk.dialect.ActionDialect;
+import net.cellcloud.talk.dialect.ChunkDialect;
 import net.cellcloud.talk.dialect.Dialect;
 import net.cellcloud.talk.dialect.DialectEnumerator;
 import net.cellcloud.util.Base64;
@@ -130,6 +131,15 @@ public final class PrimitiveSerializer {
 	private static final byte[] STUFFTYPE_ATTRIBUTIVE_BYTES = STUFFTYPE_ATTRIBUTIVE.getBytes();
 	private static final byte[] STUFFTYPE_COMPLEMENT_BYTES = STUFFTYPE_COMPLEMENT.getBytes();
 
+	/** 语素类型表，下标即写入顺序，与 {@link #stuffs(Primitive, int)} 对应。 */
+	private static final byte[][] STUFFTYPE_TABLE = new byte[][] {
+		STUFFTYPE_SUBJECT_BYTES, STUFFTYPE_PREDICATE_BYTES, STUFFTYPE_OBJECTIVE_BYTES,
+		STUFFTYPE_ADVERBIAL_BYTES, STUFFTYPE_ATTRIBUTIVE_BYTES, STUFFTYPE_COMPLEMENT_BYTES
+	};
+
+	private static final byte[] VERSION_V2_BYTES = new byte[] { '0', '0', '2', '0', '0' };
+	private static final byte[] VERSION_V3_BYTES = new byte[] { '0', '3' };
+
 	private static final String JSONKEY_VERSION = "version";
 	private static final String JSONKEY_STUFFS = "stuffs";
 	private static final String JSONKEY_STUFFTYPE = "type";
@@ -142,9 +152,63 @@ public final class PrimitiveSerializer {
 	// 64 KB
 	private static final int BLOCK = 65536;
 
+	/** 文本格式解析时每个线程复用的输入缓冲。 */
+	private static final ThreadLocal<byte[]> INPUT = new ThreadLocal<byte[]>() {
+		@Override
+		protected byte[] initialValue() {
+			return new byte[4096];
+		}
+	};
+
+	/** 文本格式解析时每个线程复用的缓冲，按需增长。 */
+	private static final ThreadLocal<byte[]> SCRATCH = new ThreadLocal<byte[]>() {
+		@Override
+		protected byte[] initialValue() {
+			return new byte[1024];
+		}
+	};
+
+	/** 文本格式。 */
+	public static final int FORMAT_TEXT = 0;
+	/** 二进制格式。 */
+	public static final int FORMAT_BINARY = 1;
+
+	/** 二进制格式的起始标识，文本格式总是以 '[' 或 '{' 开头。 */
+	private static final int BINARY_MAGIC = 0xB7;
+	/** 二进制格式的方言记录标识，语素记录使用语素类型值。 */
+	private static final int BINARY_TAG_DIALECT = 0x7F;
+
+	/** 二进制格式的字面义编码，下标即编码值。 */
+	private static final LiteralBase[] BINARY_LITERALS = new LiteralBase[] {
+		LiteralBase.STRING, LiteralBase.INT, LiteralBase.UINT, LiteralBase.LONG,
+		LiteralBase.ULONG, LiteralBase.FLOAT, LiteralBase.DOUBLE, LiteralBase.BOOL,
+		LiteralBase.JSON, LiteralBase.BIN, LiteralBase.XML
+	};
+
+	/** 二进制格式的内置方言名表，下标加一即编码值，<code>0</code> 表示名称直接写入。 */
+	private static final String[] BINARY_DIALECTS = new String[] {
+		ActionDialect.DIALECT_NAME, ChunkDialect.DIALECT_NAME
+	};
+
 	private PrimitiveSerializer() {
 	}
 
+	/**
+	 * 将原语以指定格式写入数据流。
+	 * 
+	 * @param stream 输出原语数据的输出流。
+	 * @param primitive 待处理原语。
+	 * @param format 指定格式，{@link #FORMAT_TEXT} 或 {@link #FORMAT_BINARY} 。
+	 */
+	public static void write(OutputStream stream, Primitive primitive, int format) {
+		if (format == FORMAT_BINARY) {
+			writeBinary(stream, primitive);
+		}
+		else {
+			write(stream, primitive);
+		}
+	}
+
 	/**
 	 * 将原语写入数据流。
 	 * 
@@ -164,141 +228,23 @@ public final class PrimitiveSerializer {
 			// 版本
 			boolean v3 = (primitive.version == 3);
 			stream.write((int)TOKEN_OPEN_BRACKET);
-			byte[] version = null;
-			if (v3) {
-				version = new byte[]{'0', '3'};
-			}
-			else {
-				version = new byte[]{'0', '0', '2', '0', '0'};
-			}
-			stream.write(version);
+			stream.write(v3 ? VERSION_V3_BYTES : VERSION_V2_BYTES);
 			stream.write((int)TOKEN_CLOSE_BRACKET);
 
-			ByteBuffer buf = ByteBuffer.allocate(BLOCK);
-			int bufLength = 0;
-
 			// 语素
-			List<SubjectStuff> subjects = primitive.subjects();
-			if (null != subjects) {
-				Iterator<SubjectStuff> iter = subjects.iterator();
-				while (iter.hasNext()) {
-					SubjectStuff stuff = iter.next();
-					stream.write((int)TOKEN_OPEN_BRACE);
-					stream.write(STUFFTYPE_SUBJECT_BYTES);
-					stream.write((int)TOKEN_OPERATE_ASSIGN);
-
-					bufLength = reviseValue(buf, stuff.value);
-					buf.flip();
-					byte[] d = new byte[bufLength];
-					buf.get(d, 0, bufLength);
-					stream.write(d);
-					buf.clear();
-
-					stream.write((int)TOKEN_OPERATE_DECLARE);
-					stream.write(parseLiteralBase(stuff.literalBase, v3));
-					stream.write((int)TOKEN_CLOSE_BRACE);
+			for (int t = 0; t < STUFFTYPE_TABLE.length; ++t) {
+				List<? extends Stuff> stuffs = stuffs(primitive, t);
+				if (null == stuffs) {
+					continue;
 				}
-			}
-			List<PredicateStuff> predicates = primitive.predicates();
-			if (null != predicates) {
-				Iterator<PredicateStuff> iter = predicates.iterator();
-				while (iter.hasNext()) {
-					PredicateStuff stuff = iter.next();
-					stream.write((int)TOKEN_OPEN_BRACE);
-					stream.write(STUFFTYPE_PREDICATE_BYTES);
-					stream.write((int)TOKEN_OPERATE_ASSIGN);
-
-					bufLength = reviseValue(buf, stuff.value);
-					buf.flip();
-					byte[] d = new byte[bufLength];
-					buf.get(d, 0, bufLength);
-					stream.write(d);
-					buf.clear();
 
-					stream.write((int)TOKEN_OPERATE_DECLARE);
-					stream.write(parseLiteralBase(stuff.literalBase, v3));
-					stream.write((int)TOKEN_CLOSE_BRACE);
-				}
-			}
-			List<ObjectiveStuff> objectives = primitive.objectives();
-			if (null != objectives) {
-				Iterator<ObjectiveStuff> iter = objectives.iterator();
-				while (iter.hasNext()) {
-					ObjectiveStuff stuff = iter.next();
+				byte[] type = STUFFTYPE_TABLE[t];
+				for (int i = 0, size = stuffs.size(); i < size; ++i) {
+					Stuff stuff = stuffs.get(i);
 					stream.write((int)TOKEN_OPEN_BRACE);
-					stream.write(STUFFTYPE_OBJECTIVE_BYTES);
+					stream.write(type);
 					stream.write((int)TOKEN_OPERATE_ASSIGN);
-
-					bufLength = reviseValue(buf, stuff.value);
-					buf.flip();
-					byte[] d = new byte[bufLength];
-					buf.get(d, 0, bufLength);
-					stream.write(d);
-					buf.clear();
-
-					stream.write((int)TOKEN_OPERATE_DECLARE);
-					stream.write(parseLiteralBase(stuff.literalBase, v3));
-					stream.write((int)TOKEN_CLOSE_BRACE);
-				}
-			}
-			List<AdverbialStuff> adverbials = primitive.adverbials();
-			if (null != adverbials) {
-				Iterator<AdverbialStuff> iter = adverbials.iterator();
-				while (iter.hasNext()) {
-					AdverbialStuff stuff = iter.next();
-					stream.write((int)TOKEN_OPEN_BRACE);
-					stream.write(STUFFTYPE_ADVERBIAL_BYTES);
-					stream.write((int)TOKEN_OPERATE_ASSIGN);
-
-					bufLength = reviseValue(buf, stuff.value);
-					buf.flip();
-					byte[] d = new byte[bufLength];
-					buf.get(d, 0, bufLength);
-					stream.write(d);
-					buf.clear();
-
-					stream.write((int)TOKEN_OPERATE_DECLARE);
-					stream.write(parseLiteralBase(stuff.literalBase, v3));
-					stream.write((int)TOKEN_CLOSE_BRACE);
-				}
-			}
-			List<AttributiveStuff> attributives = primitive.attributives();
-			if (null != attributives) {
-				Iterator<AttributiveStuff> iter = attributives.iterator();
-				while (iter.hasNext()) {
-					AttributiveStuff stuff = iter.next();
-					stream.write((int)TOKEN_OPEN_BRACE);
-					stream.write(STUFFTYPE_ATTRIBUTIVE_BYTES);
-					stream.write((int)TOKEN_OPERATE_ASSIGN);
-
-					bufLength = reviseValue(buf, stuff.value);
-					buf.flip();
-					byte[] d = new byte[bufLength];
-					buf.get(d, 0, bufLength);
-					stream.write(d);
-					buf.clear();
-
-					stream.write((int)TOKEN_OPERATE_DECLARE);
-					stream.write(parseLiteralBase(stuff.literalBase, v3));
-					stream.write((int)TOKEN_CLOSE_BRACE);
-				}
-			}
-			List<ComplementStuff> complements = primitive.complements();
-			if (null != complements) {
-				Iterator<ComplementStuff> iter = complements.iterator();
-				while (iter.hasNext()) {
-					ComplementStuff stuff = iter.next();
-					stream.write((int)TOKEN_OPEN_BRACE);
-					stream.write(STUFFTYPE_COMPLEMENT_BYTES);
-					stream.write((int)TOKEN_OPERATE_ASSIGN);
-
-					bufLength = reviseValue(buf, stuff.value);
-					buf.flip();
-					byte[] d = new byte[bufLength];
-					buf.get(d, 0, bufLength);
-					stream.write(d);
-					buf.clear();
-
+					reviseValue(stream, stuff.value);
 					stream.write((int)TOKEN_OPERATE_DECLARE);
 					stream.write(parseLiteralBase(stuff.literalBase, v3));
 					stream.write((int)TOKEN_CLOSE_BRACE);
@@ -309,21 +255,20 @@ public final class PrimitiveSerializer {
 			Dialect dialect = primitive.getDialect();
 			if (null != dialect) {
 				stream.write(TOKEN_OPEN_BRACKET);
-				stream.write(dialect.getName().getBytes("UTF-8"));
+				writeUTF8(stream, dialect.getName());
 				stream.write(TOKEN_AT);
-				stream.write(dialect.getTracker().getBytes("UTF-8"));
+				writeUTF8(stream, dialect.getTracker());
 				stream.write(TOKEN_CLOSE_BRACKET);
 			}
 
 			stream.flush();
-			buf = null;
 		} catch (IOException e) {
 			Logger.log(PrimitiveSerializer.class, e, LogLevel.ERROR);
 		}
 	}
 
 	/**
-	 * 从数据流中读取原语。
+	 * 从数据流中读取原语。根据首字节自动识别文本格式和二进制格式。
 	 * 
 	 * @param primitive 从数据流中读取到的原语。
 	 * @param stream 待处理的输入流。
@@ -339,163 +284,200 @@ public final class PrimitiveSerializer {
 
 		try {
 			byte phase = PARSE_PHASE_UNKNOWN;
-			int read = 0;
+			int read = stream.read();
+			if (read == BINARY_MAGIC) {
+				readBinary(primitive, stream);
+				return;
+			}
+			else if (read == TOKEN_OPEN_BRACKET) {
+				phase = PARSE_PHASE_VERSION;
+			}
+			else if (read == TOKEN_OPEN_BRACE) {
+				phase = PARSE_PHASE_TYPE;
+			}
 
-			ByteBuffer buf = ByteBuffer.allocate(BLOCK);
+			byte[] input = INPUT.get();
+			byte[] buf = SCRATCH.get();
 			byte[] version = null;
 			byte[] type = new byte[3];
 			byte[] value = null;
 			byte[] literal = null;
 			int length = 0;
-
-			while ((read = stream.read()) >= 0) {
-
-				// 判断处理阶段
-				switch (phase) {
-
-				case PARSE_PHASE_VALUE:
-					// 判断转义
-					if (read == TOKEN_ESCAPE) {
-						// 读取下一个字符
-						int next = stream.read();
-						if (next == TOKEN_OPEN_BRACE
-							|| next == TOKEN_CLOSE_BRACE
-							|| next == TOKEN_OPERATE_ASSIGN
-							|| next == TOKEN_OPERATE_DECLARE
-							|| next == TOKEN_ESCAPE) {
-							buf.put((byte)next);
-							++length;
+			boolean escaped = false;
+			int count = 0;
+
+			// 文本格式总是读到流结束，因此按块读取后再逐字节解析
+			while ((count = stream.read(input, 0, input.length)) >= 0) {
+				for (int i = 0; i < count; ++i) {
+					read = input[i] & 0xFF;
+
+					if (escaped) {
+						// 转义符的下一个字符
+						escaped = false;
+						if (read == TOKEN_OPEN_BRACE
+							|| read == TOKEN_CLOSE_BRACE
+							|| read == TOKEN_OPERATE_ASSIGN
+							|| read == TOKEN_OPERATE_DECLARE
+							|| read == TOKEN_ESCAPE) {
+							if (length == buf.length) {
+								buf = growScratch(buf);
+							}
+							buf[length++] = (byte) read;
 						}
 						else {
-							buf.put((byte)read);
-							buf.put((byte)next);
-							length += 2;
+							if (length + 2 > buf.length) {
+								buf = growScratch(buf);
+							}
+							buf[length++] = TOKEN_ESCAPE;
+							buf[length++] = (byte) read;
 						}
 
 						// 继续下一个字节
 						continue;
 					}
 
-					if (read == TOKEN_OPERATE_DECLARE) {
-						// 数值结束
-						buf.flip();
-						value = new byte[length];
-						buf.get(value, 0, length);
-						buf.clear();
-
-						phase = PARSE_PHASE_LITERAL;
-						length = 0;
-						continue;
-					}
+					// 判断处理阶段
+					switch (phase) {
 
-					buf.put((byte)read);
-					++length;
-					break;
+					case PARSE_PHASE_VALUE:
+						// 判断转义
+						if (read == TOKEN_ESCAPE) {
+							escaped = true;
+							continue;
+						}
 
-				case PARSE_PHASE_TYPE:
-					if (read == TOKEN_OPERATE_ASSIGN) {
-						// 类型结束
-						buf.flip();
-						buf.get(type);
-						buf.clear();
+						if (read == TOKEN_OPERATE_DECLARE) {
+							// 数值结束
+							value = new byte[length];
+							System.arraycopy(buf, 0, value, 0, length);
 
-						phase = PARSE_PHASE_VALUE;
-						length = 0;
-						continue;
-					}
-					// 写入语素类型
-					buf.put((byte)read);
-					break;
+							phase = PARSE_PHASE_LITERAL;
+							length = 0;
+							continue;
+						}
 
-				case PARSE_PHASE_LITERAL:
-					if (read == TOKEN_CLOSE_BRACE) {
-						// 字面义结束
-						buf.flip();
-						literal = new byte[length];
-						buf.get(literal, 0, length);
-						buf.clear();
+						if (length == buf.length) {
+							buf = growScratch(buf);
+						}
+						buf[length++] = (byte) read;
+						break;
 
-						// 注入语素
-						injectStuff(primitive, type, value, literal);
+					case PARSE_PHASE_TYPE:
+						if (read == TOKEN_OPERATE_ASSIGN) {
+							// 类型结束
+							System.arraycopy(buf, 0, type, 0, Math.min(length, type.length));
 
-						phase = PARSE_PHASE_DIALECT;
-						length = 0;
-						continue;
-					}
-					buf.put((byte)read);
-					++length;
-					break;
+							phase = PARSE_PHASE_VALUE;
+							length = 0;
+							continue;
+						}
+						// 写入语素类型
+						if (length == buf.length) {
+							buf = growScratch(buf);
+						}
+						buf[length++] = (byte) read;
+						break;
 
-				case PARSE_PHASE_STUFF:
-					if (read == TOKEN_OPEN_BRACE) {
-						// 进入解析语素阶段
-						phase = PARSE_PHASE_TYPE;
-						buf.clear();
-					}
-					break;
+					case PARSE_PHASE_LITERAL:
+						if (read == TOKEN_CLOSE_BRACE) {
+							// 字面义结束
+							literal = new byte[length];
+							System.arraycopy(buf, 0, literal, 0, length);
 
-				case PARSE_PHASE_VERSION:
-					if (read == TOKEN_CLOSE_BRACKET) {
-						version = new byte[length];
-						// 解析版本结束
-						buf.flip();
-						buf.get(version, 0, length);
-						buf.clear();
+							// 注入语素
+							injectStuff(primitive, type, value, literal);
 
-						if (version.length > 2 && version[2] == '2') {
-							primitive.version = 2;
+							phase = PARSE_PHASE_DIALECT;
+							length = 0;
+							continue;
 						}
+						if (length == buf.length) {
+							buf = growScratch(buf);
+						}
+						buf[length++] = (byte) read;
+						break;
+
+					case PARSE_PHASE_STUFF:
+						if (read == TOKEN_OPEN_BRACE) {
+							// 进入解析语素阶段
+							phase = PARSE_PHASE_TYPE;
+							length = 0;
+						}
+						break;
 
-						phase = PARSE_PHASE_STUFF;
-						length = 0;
-						continue;
-					}
-					buf.put((byte)read);
-					++length;
-					break;
+					case PARSE_PHASE_VERSION:
+						if (read == TOKEN_CLOSE_BRACKET) {
+							version = new byte[length];
+							// 解析版本结束
+							System.arraycopy(buf, 0, version, 0, length);
 
-				case PARSE_PHASE_DIALECT:
-					if (read == TOKEN_OPEN_BRACE) {
-						phase = PARSE_PHASE_TYPE;
-						buf.clear();
-					}
-					else if (read == TOKEN_OPEN_BRACKET) {
-						// 解析方言开始
-						buf.clear();
-					}
-					else if (read == TOKEN_CLOSE_BRACKET) {
-						// 解析方言结束
-						buf.flip();
-						deserializeDialect(primitive, new String(buf.array(), 0, length, "UTF-8"));
-						buf.clear();
-					}
-					else {
-						// 记录数据
-						buf.put((byte)read);
-						++length;
-					}
-					break;
+							if (version.length > 2 && version[2] == '2') {
+								primitive.version = 2;
+							}
 
-				default:
-					if (read == TOKEN_OPEN_BRACE) {
-						phase = PARSE_PHASE_TYPE;
-						buf.clear();
-					}
-					else if (read == TOKEN_OPEN_BRACKET) {
-						phase = PARSE_PHASE_VERSION;
-						buf.clear();
+							phase = PARSE_PHASE_STUFF;
+							length = 0;
+							continue;
+						}
+						if (length == buf.length) {
+							buf = growScratch(buf);
+						}
+						buf[length++] = (byte) read;
+						break;
+
+					case PARSE_PHASE_DIALECT:
+						if (read == TOKEN_OPEN_BRACE) {
+							phase = PARSE_PHASE_TYPE;
+							length = 0;
+						}
+						else if (read == TOKEN_OPEN_BRACKET) {
+							// 解析方言开始
+							length = 0;
+						}
+						else if (read == TOKEN_CLOSE_BRACKET) {
+							// 解析方言结束
+							deserializeDialect(primitive, new String(buf, 0, length, "UTF-8"));
+							length = 0;
+						}
+						else {
+							// 记录数据
+							if (length == buf.length) {
+								buf = growScratch(buf);
+							}
+							buf[length++] = (byte) read;
+						}
+						break;
+
+					default:
+						if (read == TOKEN_OPEN_BRACE) {
+							phase = PARSE_PHASE_TYPE;
+							length = 0;
+						}
+						else if (read == TOKEN_OPEN_BRACKET) {
+							phase = PARSE_PHASE_VERSION;
+							length = 0;
+						}
+						break;
 					}
-					break;
 				}
 			}
-
-			buf.clear();
-			buf = null;
 		} catch (IOException e) {
 			Logger.log(PrimitiveSerializer.class, e, LogLevel.ERROR);
 		}
 	}
 
+	/**
+	 * 将解析缓冲扩大一倍。不超过 64 KB 的缓冲留给当前线程复用，更大的只用于本次解析。
+	 */
+	private static byte[] growScratch(byte[] buf) {
+		byte[] grown = new byte[buf.length << 1];
+		System.arraycopy(buf, 0, grown, 0, buf.length);
+		if (grown.length <= BLOCK) {
+			SCRATCH.set(grown);
+		}
+		return grown;
+	}
+
 	/**
 	 * 将数据数组解析为语素，并注入原语。
 	 */
@@ -542,10 +524,32 @@ public final class PrimitiveSerializer {
 	}
 
 	/**
-	 * 进行数据内容转义。
+	 * 返回指定下标对应的语素列表，下标与 {@link #STUFFTYPE_TABLE} 对应。
 	 */
-	private static int reviseValue(ByteBuffer buf, byte[] input) {
-		int length = 0;
+	private static List<? extends Stuff> stuffs(Primitive primitive, int index) {
+		switch (index) {
+		case 0:
+			return primitive.subjects();
+		case 1:
+			return primitive.predicates();
+		case 2:
+			return primitive.objectives();
+		case 3:
+			return primitive.adverbials();
+		case 4:
+			return primitive.attributives();
+		case 5:
+			return primitive.complements();
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * 进行数据内容转义并直接写入数据流。不需要转义的连续数据整段写入。
+	 */
+	private static void reviseValue(OutputStream stream, byte[] input) throws IOException {
+		int start = 0;
 		int inputLength = input.length;
 
 		for (int i = 0; i < inputLength; ++i) {
@@ -555,15 +559,51 @@ public final class PrimitiveSerializer {
 				|| b == TOKEN_OPERATE_ASSIGN
 				|| b == TOKEN_OPERATE_DECLARE
 				|| b == TOKEN_ESCAPE) {
-				buf.put(TOKEN_ESCAPE);
-				++length;
+				if (i > start) {
+					stream.write(input, start, i - start);
+				}
+				stream.write(TOKEN_ESCAPE);
+				stream.write(b);
+				start = i + 1;
 			}
+		}
 
-			buf.put(b);
-			++length;
+		if (inputLength > start) {
+			stream.write(input, start, inputLength - start);
 		}
+	}
 
-		return length;
+	/**
+	 * 以 UTF-8 编码写入字符串，不生成中间数组。
+	 */
+	private static void writeUTF8(OutputStream stream, String str) throws IOException {
+		for (int i = 0, length = str.length(); i < length; ++i) {
+			int c = str.charAt(i);
+			if (c < 0x80) {
+				stream.write(c);
+			}
+			else if (c < 0x800) {
+				stream.write(0xC0 | (c >> 6));
+				stream.write(0x80 | (c & 0x3F));
+			}
+			else if (Character.isHighSurrogate((char) c) && i + 1 < length
+					&& Character.isLowSurrogate(str.charAt(i + 1))) {
+				int cp = Character.toCodePoint((char) c, str.charAt(++i));
+				stream.write(0xF0 | (cp >> 18));
+				stream.write(0x80 | ((cp >> 12) & 0x3F));
+				stream.write(0x80 | ((cp >> 6) & 0x3F));
+				stream.write(0x80 | (cp & 0x3F));
+			}
+			else if (Character.isSurrogate((char) c)) {
+				// 不成对的代理字符按 String.getBytes 的方式替换为 '?'
+				stream.write('?');
+			}
+			else {
+				stream.write(0xE0 | (c >> 12));
+				stream.write(0x80 | ((c >> 6) & 0x3F));
+				stream.write(0x80 | (c & 0x3F));
+			}
+		}
 	}
 
 	/**
@@ -612,7 +652,10 @@ public final class PrimitiveSerializer {
 	 * 解析字面义。
 	 */
 	private static LiteralBase parseLiteralBase(byte[] literal) {
-		if (literal.length <= 2) {
+		if (literal.length == 0) {
+			return null;
+		}
+		else if (literal.length <= 2) {
 			if (literal[0] == LITERALBASE_STRING_M_BYTES[0]) {
 				return LiteralBase.STRING;
 			}
@@ -699,9 +742,13 @@ public final class PrimitiveSerializer {
 			return;
 		}
 
-		String dialectName = sections[0];
-		String tracker = sections[1];
+		deserializeDialect(primitive, sections[0], sections[1]);
+	}
 
+	/**
+	 * 反序列化方言。
+	 */
+	private static void deserializeDialect(Primitive primitive, String dialectName, String tracker) {
 		// 创建方言
 		Dialect dialect = DialectEnumerator.getInstance().createDialect(dialectName, tracker);
 		if (null == dialect) {
@@ -709,11 +756,274 @@ public final class PrimitiveSerializer {
 			return;
 		}
 
+		// 分析数据，语素与方言不符时丢弃方言，异常不能离开解析器
+		try {
+			dialect.construct(primitive);
+		} catch (RuntimeException e) {
+			Logger.w(PrimitiveSerializer.class, "Can't construct '" + dialectName + "' dialect: " + e.toString());
+			return;
+		}
+
 		// 关联
 		primitive.capture(dialect);
+	}
+
+	/**
+	 * 将原语以二进制格式写入数据流。
+	 */
+	private static void writeBinary(OutputStream stream, Primitive primitive) {
+		/*
+		原语二进制格式：
+		[magic][version]{stuff}...{stuff}[dialect]
+		语素：类型(1 字节)|字面义(1 字节)|数据长度(varint)|数据
+		方言：0x7F|方言名编号(varint)|[方言名长度(varint)|方言名]|追踪器长度(varint)|追踪器
+		数据不需要转义，方言名编号为 0 时方言名直接写入。
+		*/
+
+		try {
+			stream.write(BINARY_MAGIC);
+			stream.write(primitive.version);
+
+			for (int t = 0; t < STUFFTYPE_TABLE.length; ++t) {
+				writeBinaryStuffs(stream, stuffs(primitive, t));
+			}
 
-		// 分析数据
-		dialect.construct(primitive);
+			// 方言
+			Dialect dialect = primitive.getDialect();
+			if (null != dialect) {
+				stream.write(BINARY_TAG_DIALECT);
+
+				String name = dialect.getName();
+				int index = 0;
+				for (int i = 0; i < BINARY_DIALECTS.length; ++i) {
+					if (BINARY_DIALECTS[i].equals(name)) {
+						index = i + 1;
+						break;
+					}
+				}
+				writeVarint(stream, index);
+				if (index == 0) {
+					writeBinaryString(stream, name);
+				}
+				writeBinaryString(stream, dialect.getTracker());
+			}
+
+			stream.flush();
+		} catch (IOException e) {
+			Logger.log(PrimitiveSerializer.class, e, LogLevel.ERROR);
+		}
+	}
+
+	/**
+	 * 以二进制格式写入语素列表。
+	 */
+	private static void writeBinaryStuffs(OutputStream stream, List<? extends Stuff> stuffs) throws IOException {
+		if (null == stuffs) {
+			return;
+		}
+
+		for (int i = 0, size = stuffs.size(); i < size; ++i) {
+			Stuff stuff = stuffs.get(i);
+			int literal = -1;
+			for (int n = 0; n < BINARY_LITERALS.length; ++n) {
+				if (BINARY_LITERALS[n] == stuff.literalBase) {
+					literal = n;
+					break;
+				}
+			}
+			if (literal < 0) {
+				continue;
+			}
+
+			stream.write(stuff.getType().getType());
+			stream.write(literal);
+			writeBinaryBytes(stream, stuff.value);
+		}
+	}
+
+	/**
+	 * 写入带长度前缀的数据。
+	 */
+	private static void writeBinaryBytes(OutputStream stream, byte[] data) throws IOException {
+		writeVarint(stream, data.length);
+		stream.write(data, 0, data.length);
+	}
+
+	/**
+	 * 写入带长度前缀的 UTF-8 字符串，不生成中间数组。
+	 */
+	private static void writeBinaryString(OutputStream stream, String str) throws IOException {
+		writeVarint(stream, utf8Length(str));
+		writeUTF8(stream, str);
+	}
+
+	/**
+	 * 计算字符串的 UTF-8 编码长度，与 {@link #writeUTF8(OutputStream, String)} 的输出一致。
+	 */
+	private static int utf8Length(String str) {
+		int bytes = 0;
+		for (int i = 0, length = str.length(); i < length; ++i) {
+			char c = str.charAt(i);
+			if (c < 0x80) {
+				bytes += 1;
+			}
+			else if (c < 0x800) {
+				bytes += 2;
+			}
+			else if (Character.isHighSurrogate(c) && i + 1 < length
+					&& Character.isLowSurrogate(str.charAt(i + 1))) {
+				bytes += 4;
+				++i;
+			}
+			else if (Character.isSurrogate(c)) {
+				bytes += 1;
+			}
+			else {
+				bytes += 3;
+			}
+		}
+		return bytes;
+	}
+
+	/**
+	 * 以 varint 编码写入非负整数。
+	 */
+	private static void writeVarint(OutputStream stream, int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			stream.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		stream.write(value);
+	}
+
+	/**
+	 * 从数据流中读取二进制格式的原语，起始标识已被读取。
+	 */
+	private static void readBinary(Primitive primitive, InputStream stream) throws IOException {
+		int version = stream.read();
+		if (version < 0) {
+			return;
+		}
+		primitive.version = version;
+
+		int tag = 0;
+		while ((tag = stream.read()) >= 0) {
+			if (tag == BINARY_TAG_DIALECT) {
+				int index = readVarint(stream);
+				String name = null;
+				if (index == 0) {
+					byte[] data = readBinaryBytes(stream);
+					if (null == data) {
+						break;
+					}
+					name = new String(data, "UTF-8");
+				}
+				else if (index > 0 && index <= BINARY_DIALECTS.length) {
+					name = BINARY_DIALECTS[index - 1];
+				}
+				else {
+					Logger.w(PrimitiveSerializer.class, "Primitive binary format error: dialect " + index);
+					break;
+				}
+
+				byte[] tracker = readBinaryBytes(stream);
+				if (null == tracker) {
+					break;
+				}
+
+				deserializeDialect(primitive, name, new String(tracker, "UTF-8"));
+				continue;
+			}
+
+			int literal = stream.read();
+			byte[] value = readBinaryBytes(stream);
+			if (literal < 0 || literal >= BINARY_LITERALS.length || null == value) {
+				Logger.w(PrimitiveSerializer.class, "Primitive binary format error");
+				break;
+			}
+
+			LiteralBase lb = BINARY_LITERALS[literal];
+			if (tag == StuffType.SUBJECT.getType()) {
+				SubjectStuff subject = new SubjectStuff(value);
+				subject.literalBase = lb;
+				primitive.commit(subject);
+			}
+			else if (tag == StuffType.PREDICATE.getType()) {
+				PredicateStuff predicate = new PredicateStuff(value);
+				predicate.literalBase = lb;
+				primitive.commit(predicate);
+			}
+			else if (tag == StuffType.OBJECTIVE.getType()) {
+				ObjectiveStuff objective = new ObjectiveStuff(value);
+				objective.literalBase = lb;
+				primitive.commit(objective);
+			}
+			else if (tag == StuffType.ATTRIBUTIVE.getType()) {
+				AttributiveStuff attributive = new AttributiveStuff(value);
+				attributive.literalBase = lb;
+				primitive.commit(attributive);
+			}
+			else if (tag == StuffType.ADVERBIAL.getType()) {
+				AdverbialStuff adverbial = new AdverbialStuff(value);
+				adverbial.literalBase = lb;
+				primitive.commit(adverbial);
+			}
+			else if (tag == StuffType.COMPLEMENT.getType()) {
+				ComplementStuff complement = new ComplementStuff(value);
+				complement.literalBase = lb;
+				primitive.commit(complement);
+			}
+		}
+	}
+
+	/**
+	 * 读取带长度前缀的数据。
+	 * 
+	 * @return 数据不完整时返回 <code>null</code> 。
+	 */
+	private static byte[] readBinaryBytes(InputStream stream) throws IOException {
+		int length = readVarint(stream);
+		if (length < 0 || length > MessageService.MAX_FRAME_LENGTH) {
+			return null;
+		}
+
+		// 长度前缀不可信，数组随实际读到的数据增长，不按声明长度一次分配
+		byte[] data = new byte[Math.min(length, BLOCK)];
+		int offset = 0;
+		while (offset < length) {
+			if (offset == data.length) {
+				byte[] grown = new byte[(int) Math.min((long) length, (long) data.length << 1)];
+				System.arraycopy(data, 0, grown, 0, offset);
+				data = grown;
+			}
+
+			int n = stream.read(data, offset, data.length - offset);
+			if (n < 0) {
+				return null;
+			}
+			offset += n;
+		}
+		return data;
+	}
+
+	/**
+	 * 读取 varint 编码的非负整数。
+	 * 
+	 * @return 数据不完整或超出范围时返回 <code>-1</code> 。
+	 */
+	private static int readVarint(InputStream stream) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			int b = stream.read();
+			if (b < 0) {
+				return -1;
+			}
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		return -1;
 	}
 
 	/**
@@ -0,0 +1,150 @@
+/*
+-----------------------------------------------------------------------------
+This source file is part of Cell Cloud.
+
+Copyright (c) 2009-2017 Cell Cloud Team (www.cellcloud.net)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+-----------------------------------------------------------------------------
+*/
+
+package net.cellcloud.util;
+
+import java.util.zip.Checksum;
+
+/**
+ * CRC-32C（Castagnoli）校验和。
+ * 
+ * Android 平台不提供 <code>java.util.zip.CRC32C</code> ，此实现使用 8 路查表法，每次处理 8 个字节。
+ * 
+ * @author Ambrose Xu
+ * 
+ */
+public final class CRC32C implements Checksum {
+
+	/** 反射形式的 Castagnoli 多项式。 */
+	private static final int POLY = 0x82F63B78;
+
+	/** 查找表，第 k 张表对应向后移动 k 个字节的余数。 */
+	private static final int[][] TABLES = new int[8][256];
+
+	static {
+		for (int i = 0; i < 256; ++i) {
+			int crc = i;
+			for (int j = 0; j < 8; ++j) {
+				crc = (crc & 1) != 0 ? (crc >>> 1) ^ POLY : crc >>> 1;
+			}
+			TABLES[0][i] = crc;
+		}
+
+		for (int i = 0; i < 256; ++i) {
+			int crc = TABLES[0][i];
+			for (int k = 1; k < 8; ++k) {
+				crc = TABLES[0][crc & 0xFF] ^ (crc >>> 8);
+				TABLES[k][i] = crc;
+			}
+		}
+	}
+
+	/** 当前余数，按位取反存储。 */
+	private int crc = 0xFFFFFFFF;
+
+	/**
+	 * 构造函数。
+	 */
+	public CRC32C() {
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void update(int b) {
+		this.crc = TABLES[0][(this.crc ^ b) & 0xFF] ^ (this.crc >>> 8);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void update(byte[] b, int off, int len) {
+		this.crc = CRC32C.update(this.crc, b, off, len);
+	}
+
+	/**
+	 * 使用指定数组更新校验和。
+	 * 
+	 * @param b 指定数据。
+	 */
+	public void update(byte[] b) {
+		this.crc = CRC32C.update(this.crc, b, 0, b.length);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long getValue() {
+		return (~this.crc) & 0xFFFFFFFFL;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void reset() {
+		this.crc = 0xFFFFFFFF;
+	}
+
+	/**
+	 * 计算指定数据的校验和。
+	 * 
+	 * @param b 指定数据所在的数组。
+	 * @param off 指定数据起始位置。
+	 * @param len 指定数据长度。
+	 * @return 返回 32 位校验和。
+	 */
+	public static int compute(byte[] b, int off, int len) {
+		return ~CRC32C.update(0xFFFFFFFF, b, off, len);
+	}
+
+	private static int update(int crc, byte[] b, int off, int len) {
+		int[] t0 = TABLES[0], t1 = TABLES[1], t2 = TABLES[2], t3 = TABLES[3];
+		int[] t4 = TABLES[4], t5 = TABLES[5], t6 = TABLES[6], t7 = TABLES[7];
+
+		int i = off;
+		int end = off + len;
+
+		while (end - i >= 8) {
+			int lo = crc ^ ((b[i] & 0xFF) | ((b[i + 1] & 0xFF) << 8)
+					| ((b[i + 2] & 0xFF) << 16) | ((b[i + 3] & 0xFF) << 24));
+			crc = t7[lo & 0xFF] ^ t6[(lo >>> 8) & 0xFF] ^ t5[(lo >>> 16) & 0xFF] ^ t4[lo >>> 24]
+					^ t3[b[i + 4] & 0xFF] ^ t2[b[i + 5] & 0xFF] ^ t1[b[i + 6] & 0xFF] ^ t0[b[i + 7] & 0xFF];
+			i += 8;
+		}
+
+		while (i < end) {
+			crc = t0[(crc ^ b[i]) & 0xFF] ^ (crc >>> 8);
+			++i;
+		}
+
+		return crc;
+	}
+
+}
@@ -0,0 +1,338 @@
+/*
+-----------------------------------------------------------------------------
+This source file is part of Cell Cloud.
+
+Copyright (c) 2009-2017 Cell Cloud Team (www.cellcloud.net)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+-----------------------------------------------------------------------------
+*/
+
+package net.cellcloud.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 以 long 为键的并发哈希表。
+ * 
+ * 键直接以原始类型存储，不产生装箱对象。表被划分为多个段，每个段使用线性探测的开放寻址数组，
+ * 写操作只锁定所在的段。
+ * 
+ * @author Ambrose Xu
+ * 
+ */
+public final class ConcurrentLongHashMap<V> {
+
+	/** 默认段数量。 */
+	private static final int DEFAULT_SEGMENTS = 16;
+
+	/** 段数组。 */
+	private final Segment<V>[] segments;
+
+	/** 段掩码。 */
+	private final int segmentMask;
+
+	/**
+	 * 构造函数。
+	 */
+	public ConcurrentLongHashMap() {
+		this(DEFAULT_SEGMENTS * 8);
+	}
+
+	/**
+	 * 构造函数。
+	 * 
+	 * @param expectedSize 指定预期的元素数量。
+	 */
+	@SuppressWarnings("unchecked")
+	public ConcurrentLongHashMap(int expectedSize) {
+		// 不能创建泛型数组，数组只保存 Segment<V> 且不对外暴露，转换是安全的
+		this.segments = (Segment<V>[]) new Segment<?>[DEFAULT_SEGMENTS];
+		this.segmentMask = DEFAULT_SEGMENTS - 1;
+
+		int perSegment = Math.max(4, expectedSize / DEFAULT_SEGMENTS);
+		for (int i = 0; i < DEFAULT_SEGMENTS; ++i) {
+			this.segments[i] = new Segment<V>(perSegment);
+		}
+	}
+
+	/**
+	 * 返回指定键对应的值。
+	 * 
+	 * @param key 指定键。
+	 * @return 返回对应的值，没有对应的值时返回 <code>null</code> 。
+	 */
+	public V get(long key) {
+		int hash = ConcurrentLongHashMap.hash(key);
+		return this.segments[hash & this.segmentMask].get(key, hash);
+	}
+
+	/**
+	 * 是否包含指定键。
+	 * 
+	 * @param key 指定键。
+	 * @return 如果包含指定键返回 <code>true</code> 。
+	 */
+	public boolean containsKey(long key) {
+		return null != this.get(key);
+	}
+
+	/**
+	 * 添加键值对。
+	 * 
+	 * @param key 指定键。
+	 * @param value 指定值，不能为 <code>null</code> 。
+	 * @return 返回该键之前对应的值。
+	 */
+	public V put(long key, V value) {
+		if (null == value) {
+			throw new NullPointerException();
+		}
+
+		int hash = ConcurrentLongHashMap.hash(key);
+		return this.segments[hash & this.segmentMask].put(key, hash, value, false);
+	}
+
+	/**
+	 * 当指定键没有对应的值时添加键值对。
+	 * 
+	 * @param key 指定键。
+	 * @param value 指定值，不能为 <code>null</code> 。
+	 * @return 返回该键已经对应的值，添加成功时返回 <code>null</code> 。
+	 */
+	public V putIfAbsent(long key, V value) {
+		if (null == value) {
+			throw new NullPointerException();
+		}
+
+		int hash = ConcurrentLongHashMap.hash(key);
+		return this.segments[hash & this.segmentMask].put(key, hash, value, true);
+	}
+
+	/**
+	 * 删除指定键。
+	 * 
+	 * @param key 指定键。
+	 * @return 返回被删除的值，没有对应的值时返回 <code>null</code> 。
+	 */
+	public V remove(long key) {
+		int hash = ConcurrentLongHashMap.hash(key);
+		return this.segments[hash & this.segmentMask].remove(key, hash);
+	}
+
+	/**
+	 * 返回元素数量。
+	 * 
+	 * @return 返回元素数量。
+	 */
+	public int size() {
+		int size = 0;
+		for (Segment<V> segment : this.segments) {
+			size += segment.size;
+		}
+		return size;
+	}
+
+	/**
+	 * 是否为空。
+	 * 
+	 * @return 如果没有元素返回 <code>true</code> 。
+	 */
+	public boolean isEmpty() {
+		for (Segment<V> segment : this.segments) {
+			if (segment.size > 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * 返回所有值的快照。
+	 * 
+	 * @return 返回所有值的列表。
+	 */
+	public List<V> values() {
+		ArrayList<V> list = new ArrayList<V>(this.size());
+		for (Segment<V> segment : this.segments) {
+			segment.collect(list);
+		}
+		return list;
+	}
+
+	/**
+	 * 清空所有元素。
+	 */
+	public void clear() {
+		for (Segment<V> segment : this.segments) {
+			segment.clear();
+		}
+	}
+
+	/**
+	 * 计算键的散列值。
+	 */
+	private static int hash(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	/**
+	 * 段。
+	 */
+	private static final class Segment<V> {
+
+		private long[] keys;
+		private Object[] values;
+		private volatile int size;
+
+		private Segment(int expectedSize) {
+			int capacity = 8;
+			while (capacity < expectedSize * 2) {
+				capacity <<= 1;
+			}
+			this.keys = new long[capacity];
+			this.values = new Object[capacity];
+			this.size = 0;
+		}
+
+		@SuppressWarnings("unchecked")
+		private synchronized V get(long key, int hash) {
+			int mask = this.keys.length - 1;
+			int index = (hash >>> 4) & mask;
+			while (true) {
+				Object value = this.values[index];
+				if (null == value) {
+					return null;
+				}
+				if (this.keys[index] == key) {
+					return (V) value;
+				}
+				index = (index + 1) & mask;
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		private synchronized V put(long key, int hash, V value, boolean onlyIfAbsent) {
+			int mask = this.keys.length - 1;
+			int index = (hash >>> 4) & mask;
+			while (true) {
+				Object current = this.values[index];
+				if (null == current) {
+					break;
+				}
+				if (this.keys[index] == key) {
+					if (!onlyIfAbsent) {
+						this.values[index] = value;
+					}
+					return (V) current;
+				}
+				index = (index + 1) & mask;
+			}
+
+			this.keys[index] = key;
+			this.values[index] = value;
+			this.size = this.size + 1;
+
+			// 负载超过一半时扩容
+			if (this.size * 2 > this.keys.length) {
+				this.rehash(this.keys.length << 1);
+			}
+
+			return null;
+		}
+
+		@SuppressWarnings("unchecked")
+		private synchronized V remove(long key, int hash) {
+			int mask = this.keys.length - 1;
+			int index = (hash >>> 4) & mask;
+			while (true) {
+				Object current = this.values[index];
+				if (null == current) {
+					return null;
+				}
+				if (this.keys[index] == key) {
+					break;
+				}
+				index = (index + 1) & mask;
+			}
+
+			V removed = (V) this.values[index];
+
+			// 回移后续元素，保持探测序列连续
+			int gap = index;
+			int next = (gap + 1) & mask;
+			while (null != this.values[next]) {
+				int ideal = (ConcurrentLongHashMap.hash(this.keys[next]) >>> 4) & mask;
+				// 判断 ideal 是否不在 (gap, next] 区间内
+				if (((next - ideal) & mask) >= ((next - gap) & mask)) {
+					this.keys[gap] = this.keys[next];
+					this.values[gap] = this.values[next];
+					gap = next;
+				}
+				next = (next + 1) & mask;
+			}
+			this.keys[gap] = 0;
+			this.values[gap] = null;
+			this.size = this.size - 1;
+
+			return removed;
+		}
+
+		@SuppressWarnings("unchecked")
+		private synchronized void collect(List<V> list) {
+			for (int i = 0; i < this.values.length; ++i) {
+				Object value = this.values[i];
+				if (null != value) {
+					list.add((V) value);
+				}
+			}
+		}
+
+		private synchronized void clear() {
+			for (int i = 0; i < this.values.length; ++i) {
+				this.keys[i] = 0;
+				this.values[i] = null;
+			}
+			this.size = 0;
+		}
+
+		private void rehash(int capacity) {
+			long[] oldKeys = this.keys;
+			Object[] oldValues = this.values;
+			this.keys = new long[capacity];
+			this.values = new Object[capacity];
+
+			int mask = capacity - 1;
+			for (int i = 0; i < oldValues.length; ++i) {
+				Object value = oldValues[i];
+				if (null != value) {
+					int index = (ConcurrentLongHashMap.hash(oldKeys[i]) >>> 4) & mask;
+					while (null != this.values[index]) {
+						index = (index + 1) & mask;
+					}
+					this.keys[index] = oldKeys[i];
+					this.values[index] = value;
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,219 @@
+/*
+-----------------------------------------------------------------------------
+This source file is part of Cell Cloud.
+
+Copyright (c) 2009-2017 Cell Cloud Team (www.cellcloud.net)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+-----------------------------------------------------------------------------
+*/
+
+package net.cellcloud.util;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 有界无锁多生产者单消费者队列。
+ * 
+ * 生产者通过 CAS 竞争写入位置，不使用锁；消费者每次从环形数组里批量取出已发布的元素，
+ * 一批元素只发布一次消费位置。{@link #poll()}、{@link #drain(Collection, int)} 和 {@link #clear()}
+ * 只能由唯一的消费者线程调用。
+ * 
+ * @author Ambrose Xu
+ * 
+ */
+public final class MpscArrayQueue<E> {
+
+	/** 消费者单次批量取出的最大元素数量。 */
+	private static final int BATCH_SIZE = 64;
+
+	/** 环形数组。 */
+	private final AtomicReferenceArray<E> buffer;
+
+	/** 容量掩码。 */
+	private final int mask;
+
+	/** 容量。 */
+	private final int capacity;
+
+	/** 生产位置。 */
+	private final AtomicLong producerIndex;
+
+	/** 消费位置。 */
+	private final AtomicLong consumerIndex;
+
+	/** 消费者已取出但尚未返回的元素。 */
+	private final Object[] batch;
+
+	/** 批次读位置。 */
+	private int batchHead;
+
+	/** 批次元素数量。 */
+	private int batchTail;
+
+	/**
+	 * 构造函数。
+	 * 
+	 * @param capacity 指定队列容量，会被调整为 2 的幂次。
+	 */
+	public MpscArrayQueue(int capacity) {
+		int size = 2;
+		while (size < capacity) {
+			size <<= 1;
+		}
+
+		this.buffer = new AtomicReferenceArray<E>(size);
+		this.mask = size - 1;
+		this.capacity = size;
+		this.producerIndex = new AtomicLong(0);
+		this.consumerIndex = new AtomicLong(0);
+		this.batch = new Object[Math.min(BATCH_SIZE, size)];
+		this.batchHead = 0;
+		this.batchTail = 0;
+	}
+
+	/**
+	 * 返回队列容量。
+	 * 
+	 * @return 返回队列容量。
+	 */
+	public int capacity() {
+		return this.capacity;
+	}
+
+	/**
+	 * 添加元素。可由任意线程调用。
+	 * 
+	 * @param e 指定元素，不能为 <code>null</code> 。
+	 * @return 队列已满时返回 <code>false</code> 。
+	 */
+	public boolean offer(E e) {
+		if (null == e) {
+			throw new NullPointerException();
+		}
+
+		while (true) {
+			long p = this.producerIndex.get();
+			if (p - this.consumerIndex.get() >= this.capacity) {
+				// 队列已满
+				return false;
+			}
+
+			if (this.producerIndex.compareAndSet(p, p + 1)) {
+				this.buffer.lazySet((int) p & this.mask, e);
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * 取出队首元素。只能由消费者线程调用。
+	 * 
+	 * @return 返回队首元素，队列为空时返回 <code>null</code> 。
+	 */
+	@SuppressWarnings("unchecked")
+	public E poll() {
+		if (this.batchHead == this.batchTail && this.fillBatch() == 0) {
+			return null;
+		}
+
+		E e = (E) this.batch[this.batchHead];
+		this.batch[this.batchHead++] = null;
+		return e;
+	}
+
+	/**
+	 * 批量取出元素。只能由消费者线程调用。
+	 * 
+	 * @param out 指定输出集合。
+	 * @param limit 指定最多取出的元素数量。
+	 * @return 返回取出的元素数量。
+	 */
+	public int drain(Collection<? super E> out, int limit) {
+		int count = 0;
+		E e = null;
+		while (count < limit && null != (e = this.poll())) {
+			out.add(e);
+			++count;
+		}
+		return count;
+	}
+
+	/**
+	 * 队列是否为空。
+	 * 
+	 * @return 如果队列为空返回 <code>true</code> 。
+	 */
+	public boolean isEmpty() {
+		return this.batchHead == this.batchTail
+			&& this.consumerIndex.get() == this.producerIndex.get();
+	}
+
+	/**
+	 * 返回元素数量的估计值。
+	 * 
+	 * @return 返回元素数量。
+	 */
+	public int size() {
+		long size = this.producerIndex.get() - this.consumerIndex.get();
+		return (int) Math.min(Integer.MAX_VALUE, size + (this.batchTail - this.batchHead));
+	}
+
+	/**
+	 * 清空队列。只能由消费者线程调用，或在消费者停止后调用。
+	 */
+	public void clear() {
+		while (null != this.poll()) {
+			// Nothing
+		}
+	}
+
+	/**
+	 * 从环形数组里批量取出已发布的元素。
+	 * 
+	 * @return 返回取出的元素数量。
+	 */
+	private int fillBatch() {
+		long c = this.consumerIndex.get();
+		int n = 0;
+		while (n < this.batch.length) {
+			int index = (int) (c + n) & this.mask;
+			E e = this.buffer.get(index);
+			if (null == e) {
+				// 尚未发布或已取完
+				break;
+			}
+
+			this.buffer.lazySet(index, null);
+			this.batch[n++] = e;
+		}
+
+		this.batchHead = 0;
+		this.batchTail = n;
+
+		if (n > 0) {
+			this.consumerIndex.lazySet(c + n);
+		}
+
+		return n;
+	}
+
+}
@@ -0,0 +1,287 @@
+/*
+-----------------------------------------------------------------------------
+This source file is part of Cell Cloud.
+
+Copyright (c) 2009-2017 Cell Cloud Team (www.cellcloud.net)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+-----------------------------------------------------------------------------
+*/
+
+package net.cellcloud.common;
+
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 压缩会话的分片顺序测试。
+ * 
+ * 在回环地址上发送超过分片长度的大消息并紧跟若干小消息，消息内容互相重复，
+ * 压缩器的流式字典会跨消息引用。接收端必须按发送顺序得到与原始数据完全一致的字节。
+ * 分别覆盖阻塞连接器、非阻塞连接器和接收器发送三条路径，以及 Deflate 和 LZ 两种算法。
+ * 
+ * @author Ambrose Xu
+ * 
+ */
+public final class FragmentCompressionTest {
+
+	private static final int ROUNDS = 20;
+	private static final int SMALL_MESSAGES = 12;
+
+	/** 协商的最大消息长度，收发双方都需要设置。 */
+	private static final int MAX_MESSAGE_SIZE = 4 * 1024 * 1024;
+
+	/** 与会话服务相同，连接器和接收器只在定义数据标记时解析帧。 */
+	private static final byte[] HEAD_MARK = new byte[] { 0x20, 0x10, 0x11, 0x10 };
+	private static final byte[] TAIL_MARK = new byte[] { 0x19, 0x78, 0x10, 0x04 };
+
+	private static final String[] WORDS = { "cell", "cloud", "talk", "primitive", "dialect",
+		"nucleus", "speaker", "session", "fragment", "compress", "{", "}", "=", ":" };
+
+	private final Random random = new Random(20170601L);
+
+	private NonblockingAcceptor acceptor;
+	private final LinkedBlockingQueue<byte[]> serverReceived = new LinkedBlockingQueue<byte[]>();
+	private final LinkedBlockingQueue<Session> serverSessions = new LinkedBlockingQueue<Session>();
+
+	public static void main(String[] args) throws Exception {
+		LogManager.getInstance().setLevel(LogLevel.WARNING);
+
+		FragmentCompressionTest test = new FragmentCompressionTest();
+		int port = test.startAcceptor();
+		ExecutorService executor = Executors.newCachedThreadPool();
+		try {
+			int[] algorithms = { MessageCompressor.DEFLATE, MessageCompressor.LZ };
+			for (int algorithm : algorithms) {
+				test.testBlockingConnector(port, executor, algorithm);
+				test.testNonblockingConnector(port, algorithm);
+				test.testAcceptor(port, executor, algorithm);
+			}
+		} finally {
+			test.acceptor.unbind();
+			executor.shutdownNow();
+		}
+
+		System.out.println("FragmentCompressionTest passed");
+		System.exit(0);
+	}
+
+	private int startAcceptor() throws Exception {
+		ServerSocket probe = new ServerSocket(0);
+		int port = probe.getLocalPort();
+		probe.close();
+
+		this.acceptor = new NonblockingAcceptor();
+		this.acceptor.defineDataMark(HEAD_MARK, TAIL_MARK);
+		this.acceptor.setHandler(new Handler(this.serverReceived, null) {
+			@Override
+			public void sessionOpened(Session session) {
+				serverSessions.add(session);
+			}
+		});
+		check(this.acceptor.bind(new InetSocketAddress("127.0.0.1", port)), "bind " + port);
+		return port;
+	}
+
+	private void testBlockingConnector(int port, ExecutorService executor, int algorithm) throws Exception {
+		CountDownLatch opened = new CountDownLatch(1);
+		BlockingConnector connector = new BlockingConnector(NetworkMonitor.ALWAYS_CONNECTED, executor);
+		connector.defineDataMark(HEAD_MARK, TAIL_MARK);
+		connector.setHandler(new Handler(new LinkedBlockingQueue<byte[]>(), opened));
+		check(connector.connect(new InetSocketAddress("127.0.0.1", port)), "blocking connect");
+		check(opened.await(10, TimeUnit.SECONDS), "blocking session opened");
+		Session serverSession = this.serverSessions.poll(10, TimeUnit.SECONDS);
+
+		configure(connector.getSession(), algorithm);
+		serverSession.setMaxMessageSize(MAX_MESSAGE_SIZE);
+		List<byte[]> sent = this.makeRounds();
+		for (byte[] data : sent) {
+			connector.write(copy(data));
+		}
+		this.expect("BlockingConnector/" + algorithm, sent, this.serverReceived);
+
+		connector.disconnect();
+		this.acceptor.close(serverSession);
+	}
+
+	private void testNonblockingConnector(int port, int algorithm) throws Exception {
+		CountDownLatch opened = new CountDownLatch(1);
+		NonblockingConnector connector = new NonblockingConnector(NetworkMonitor.ALWAYS_CONNECTED);
+		connector.defineDataMark(HEAD_MARK, TAIL_MARK);
+		connector.setHandler(new Handler(new LinkedBlockingQueue<byte[]>(), opened));
+		check(connector.connect(new InetSocketAddress("127.0.0.1", port)), "nonblocking connect");
+		check(opened.await(10, TimeUnit.SECONDS), "nonblocking session opened");
+		Session serverSession = this.serverSessions.poll(10, TimeUnit.SECONDS);
+
+		configure(connector.getSession(), algorithm);
+		serverSession.setMaxMessageSize(MAX_MESSAGE_SIZE);
+		List<byte[]> sent = this.makeRounds();
+		for (byte[] data : sent) {
+			connector.write(copy(data));
+		}
+		this.expect("NonblockingConnector/" + algorithm, sent, this.serverReceived);
+
+		connector.disconnect();
+		this.acceptor.close(serverSession);
+	}
+
+	private void testAcceptor(int port, ExecutorService executor, int algorithm) throws Exception {
+		CountDownLatch opened = new CountDownLatch(1);
+		LinkedBlockingQueue<byte[]> clientReceived = new LinkedBlockingQueue<byte[]>();
+		BlockingConnector connector = new BlockingConnector(NetworkMonitor.ALWAYS_CONNECTED, executor);
+		connector.defineDataMark(HEAD_MARK, TAIL_MARK);
+		connector.setHandler(new Handler(clientReceived, opened));
+		check(connector.connect(new InetSocketAddress("127.0.0.1", port)), "acceptor connect");
+		check(opened.await(10, TimeUnit.SECONDS), "acceptor session opened");
+		Session serverSession = this.serverSessions.poll(10, TimeUnit.SECONDS);
+		check(null != serverSession, "acceptor session");
+
+		configure(serverSession, algorithm);
+		connector.getSession().setMaxMessageSize(MAX_MESSAGE_SIZE);
+		List<byte[]> sent = this.makeRounds();
+		for (byte[] data : sent) {
+			this.acceptor.write(serverSession, copy(data));
+		}
+		this.expect("NonblockingAcceptor/" + algorithm, sent, clientReceived);
+
+		connector.disconnect();
+	}
+
+	private static void configure(Session session, int algorithm) {
+		session.setLengthFraming(true);
+		session.setFragmentation(true);
+		session.setMaxMessageSize(MAX_MESSAGE_SIZE);
+		session.setCompression(algorithm, MessageCompressor.DEFAULT_THRESHOLD);
+	}
+
+	/**
+	 * 生成消息数据。每一轮先是一条大消息，随后是若干小消息，连续写入时小消息在大消息分片期间排队。
+	 */
+	private List<byte[]> makeRounds() {
+		List<byte[]> sent = new ArrayList<byte[]>();
+		for (int round = 0; round < ROUNDS; ++round) {
+			// 压缩后依然超过分片长度
+			sent.add(this.text(MessageFragmenter.FRAGMENT_SIZE * 12 + this.random.nextInt(1000)));
+			for (int i = 0; i < SMALL_MESSAGES; ++i) {
+				sent.add(this.text(100 + this.random.nextInt(400)));
+			}
+		}
+		return sent;
+	}
+
+	/**
+	 * 生成待写入的消息。消息数据会被过滤器替换，因此使用副本。
+	 */
+	private static Message copy(byte[] data) {
+		return new Message(Arrays.copyOf(data, data.length));
+	}
+
+	private void expect(String name, List<byte[]> sent, LinkedBlockingQueue<byte[]> received) throws Exception {
+		for (int i = 0; i < sent.size(); ++i) {
+			byte[] data = received.poll(20, TimeUnit.SECONDS);
+			check(null != data, name + ": message " + i + " not received");
+			check(Arrays.equals(sent.get(i), data), name + ": message " + i + " differs (length "
+					+ sent.get(i).length + " / " + data.length + ")");
+		}
+		byte[] extra = received.poll(200, TimeUnit.MILLISECONDS);
+		check(null == extra, name + ": unexpected extra message");
+		System.out.println(name + ": " + sent.size() + " messages ok");
+	}
+
+	private byte[] text(int length) {
+		StringBuilder buf = new StringBuilder(length + 16);
+		while (buf.length() < length) {
+			buf.append(WORDS[this.random.nextInt(WORDS.length)]);
+			buf.append(this.random.nextInt(100));
+			buf.append(' ');
+		}
+		buf.setLength(length);
+		return buf.toString().getBytes();
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			throw new AssertionError(message);
+		}
+	}
+
+	/**
+	 * 记录收到的消息数据。
+	 */
+	private static class Handler implements MessageHandler {
+
+		private final LinkedBlockingQueue<byte[]> received;
+		private final CountDownLatch opened;
+
+		protected Handler(LinkedBlockingQueue<byte[]> received, CountDownLatch opened) {
+			this.received = received;
+			this.opened = opened;
+		}
+
+		@Override
+		public void sessionCreated(Session session) {
+		}
+
+		@Override
+		public void sessionDestroyed(Session session) {
+		}
+
+		@Override
+		public void sessionOpened(Session session) {
+			if (null != this.opened) {
+				this.opened.countDown();
+			}
+		}
+
+		@Override
+		public void sessionClosed(Session session) {
+		}
+
+		@Override
+		public void messageReceived(Session session, Message message) {
+			this.received.add(message.get());
+		}
+
+		@Override
+		public void messageSent(Session session, Message message) {
+		}
+
+		@Override
+		public void sessionUnwritable(Session session) {
+		}
+
+		@Override
+		public void sessionWritable(Session session) {
+		}
+
+		@Override
+		public void errorOccurred(int errorCode, Session session, Message message) {
+		}
+	}
+
+}
@@ -0,0 +1,344 @@
+/*
+-----------------------------------------------------------------------------
+This source file is part of Cell Cloud.
+
+Copyright (c) 2009-2017 Cell Cloud Team (www.cellcloud.net)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+-----------------------------------------------------------------------------
+*/
+
+package net.cellcloud.common;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import net.cellcloud.talk.TalkCapacity;
+import net.cellcloud.util.CRC32C;
+
+/**
+ * 数据包编解码测试。
+ * 
+ * 覆盖 {@link PacketWriter} 和 {@link Packet} 写出的 v2 、 v3 数据包的往返一致性，
+ * 以及截断的帧、错误的 CRC-32C 校验和、超出数据范围的长度前缀和 v2 、 v3 对端混合时的解码。
+ * v1 、 v3 解码器对畸形数据返回 <code>null</code> ，v2 解码器返回 <code>null</code>
+ * 或者抛出 {@link ArrayIndexOutOfBoundsException} ，不能返回数据段错位的包。
+ * 
+ * @author Ambrose Xu
+ * 
+ */
+public final class PacketCodecTest {
+
+	private static final byte[] TAG = new byte[] { 'D', 'I', 'A', 'L' };
+
+	/** 覆盖变长编码 1 至 3 字节边界的数据段长度。 */
+	private static final int[] SEGMENT_LENGTHS = { 0, 1, 127, 128, 300, 16383, 16384, 70000 };
+
+	private final Random random = new Random(20170601L);
+
+	public static void main(String[] args) throws Exception {
+		LogManager.getInstance().setLevel(LogLevel.ERROR);
+
+		PacketCodecTest test = new PacketCodecTest();
+		test.testRoundTrip();
+		test.testTruncated();
+		test.testBadChecksum();
+		test.testOversizedLength();
+		test.testMixedPeers();
+
+		System.out.println("PacketCodecTest passed");
+		System.exit(0);
+	}
+
+	/**
+	 * 写入器和打包的输出一致，解包得到相同的序号和数据段，解包不依赖数据在数组里的位置。
+	 */
+	private void testRoundTrip() {
+		int[] sns = { 0, 1, 99, 0x7FFF, 0x12345678, Integer.MAX_VALUE, -1 };
+		for (int major = 1; major <= 3; ++major) {
+			for (int flags = 0; flags <= (major == 3 ? Packet.FLAG_CHECKSUM : 0); ++flags) {
+				for (int sn : sns) {
+					if (major < 3 && (sn < 0 || sn > 0x7FFF)) {
+						// v1 和 v2 的序号只有 4 位十进制数或者 16 位
+						continue;
+					}
+					if (major == 1 && sn > 9999) {
+						continue;
+					}
+
+					List<byte[]> segments = this.segments(major == 1 ? 6 : SEGMENT_LENGTHS.length);
+					String name = "v" + major + " flags=" + flags + " sn=" + sn;
+
+					Packet packet = new Packet(TAG, sn, major, 0);
+					for (byte[] segment : segments) {
+						packet.appendSegment(segment);
+					}
+					packet.setFlags(flags);
+					byte[] packed = Packet.pack(packet);
+					check(packed.length == Packet.packedLength(packet), name + ": packed length");
+
+					if (major >= 2) {
+						Message message = write(major, flags, sn, segments);
+						check(Arrays.equals(packed, message.get()), name + ": writer output differs from pack");
+					}
+
+					// 放入更大的数组，前后填充无关数据
+					byte[] padded = new byte[packed.length + 64];
+					Arrays.fill(padded, (byte) 0x5A);
+					System.arraycopy(packed, 0, padded, 32, packed.length);
+
+					expect(name, Packet.unpack(packed), major, sn, segments);
+					expect(name + " offset", Packet.unpack(padded, 32, packed.length), major, sn, segments);
+				}
+			}
+		}
+		System.out.println("round trip ok");
+	}
+
+	/**
+	 * 任意长度的截断都不能解出数据包。
+	 */
+	private void testTruncated() {
+		List<byte[]> segments = this.segments(4);
+		for (int flags = 0; flags <= Packet.FLAG_CHECKSUM; ++flags) {
+			byte[] data = write(3, flags, 7, segments).get();
+			for (int length = 0; length < data.length; ++length) {
+				rejected("v3 flags=" + flags + " truncated to " + length, Arrays.copyOf(data, length));
+			}
+		}
+
+		byte[] data = write(2, 0, 7, segments).get();
+		for (int length = 0; length < data.length; ++length) {
+			rejected("v2 truncated to " + length, Arrays.copyOf(data, length));
+		}
+
+		// 空数据段之后截断到只剩包头
+		List<byte[]> empty = new ArrayList<byte[]>();
+		empty.add(new byte[0]);
+		empty.add(new byte[0]);
+		byte[] headerOnly = write(3, 0, 7, empty).get();
+		rejected("v3 empty segments truncated", Arrays.copyOf(headerOnly, headerOnly.length - 1));
+		System.out.println("truncated ok");
+	}
+
+	/**
+	 * 带校验和的数据包任意一位出错都被拒绝。版本字节出错时由其他版本的解码器处理，不在此列。
+	 */
+	private void testBadChecksum() {
+		List<byte[]> segments = this.segments(3);
+		byte[] data = write(3, Packet.FLAG_CHECKSUM, 0x12345678, segments).get();
+		check(null != Packet.unpack(data), "checksum packet");
+
+		for (int i = Packet.PFB_VERSION; i < data.length; ++i) {
+			for (int bit = 0; bit < 8; ++bit) {
+				byte[] corrupted = Arrays.copyOf(data, data.length);
+				corrupted[i] ^= (byte) (1 << bit);
+				rejected("bit " + bit + " of byte " + i + " flipped", corrupted);
+			}
+		}
+
+		// 清除校验标志位，校验和成为多余数据
+		byte[] unflagged = Arrays.copyOf(data, data.length);
+		unflagged[Packet.PFB_VERSION] = 0;
+		rejected("checksum flag cleared", unflagged);
+
+		// 未定义的标志位
+		byte[] flagged = write(3, 0, 1, segments).get();
+		flagged[Packet.PFB_VERSION] = (byte) Packet.FLAG_COMPRESSED;
+		rejected("unsupported flags", flagged);
+		System.out.println("bad checksum ok");
+	}
+
+	/**
+	 * 长度前缀超出实际数据时立即拒绝，不按声明的长度分配内存。
+	 */
+	private void testOversizedLength() {
+		int[] lengths = { 1 << 20, Integer.MAX_VALUE };
+		byte[] payload = this.bytes(100);
+
+		for (int length : lengths) {
+			// v3 数据段数量
+			byte[] data = v3(7, length, new int[0], payload, false);
+			rejected("v3 segment number " + length, data);
+			rejected("v3 segment number " + length + " with checksum", v3(7, length, new int[0], payload, true));
+
+			// v3 数据段长度
+			data = v3(7, 1, new int[] { length }, payload, false);
+			rejected("v3 segment length " + length, data);
+			rejected("v3 segment length " + length + " with checksum", v3(7, 1, new int[] { length }, payload, true));
+
+			// v2 数据段长度
+			data = write(2, 0, 7, this.segments(2)).get();
+			int cursor = Packet.PFB_VERSION + Packet.PFB_RES + Packet.PFB_TAG + Packet.PFB_SN + Packet.PFB_SEGMENT_NUM;
+			Packet.writeInt(length, data, cursor + Packet.PFB_SEGMENT_LENGTH);
+			rejected("v2 segment length " + length, data);
+		}
+
+		// v2 负数长度和超出数据的数据段数量
+		byte[] data = write(2, 0, 7, this.segments(2)).get();
+		int cursor = Packet.PFB_VERSION + Packet.PFB_RES + Packet.PFB_TAG + Packet.PFB_SN;
+		Packet.writeInt(-1, data, cursor + Packet.PFB_SEGMENT_NUM);
+		rejected("v2 negative segment length", data);
+		data = write(2, 0, 7, this.segments(2)).get();
+		data[cursor] = (byte) 0x7F;
+		data[cursor + 1] = (byte) 0xFF;
+		rejected("v2 segment number 32767", data);
+
+		// v3 变长编码超过 5 字节
+		byte[] overlong = v3(7, 1, new int[] { 1 }, payload, false);
+		for (int i = 0; i < 6; ++i) {
+			overlong[Packet.PV3_HEADER + 1 + i] = (byte) 0xFF;
+		}
+		rejected("v3 overlong varint", overlong);
+		System.out.println("oversized length ok");
+	}
+
+	/**
+	 * v2 对端和 v3 对端的数据包在同一个解码入口按版本字节解码，能力协商对未声明数据包版本的对端使用 v2 。
+	 */
+	private void testMixedPeers() {
+		List<Message> frames = new ArrayList<Message>();
+		List<List<byte[]>> sent = new ArrayList<List<byte[]>>();
+		List<Integer> versions = new ArrayList<Integer>();
+		for (int i = 0; i < 60; ++i) {
+			int kind = this.random.nextInt(3);
+			int major = (kind == 0) ? 2 : 3;
+			int flags = (kind == 2) ? Packet.FLAG_CHECKSUM : 0;
+			List<byte[]> segments = this.segments(1 + this.random.nextInt(4));
+			frames.add(write(major, flags, i, segments));
+			sent.add(segments);
+			versions.add(major);
+		}
+
+		for (int i = 0; i < frames.size(); ++i) {
+			Message frame = frames.get(i);
+			Packet packet = Packet.unpack(frame.array(), frame.offset(), frame.length());
+			expect("mixed frame " + i, packet, versions.get(i), i, sent.get(i));
+		}
+
+		// 不支持 v3 的对端不声明数据包版本
+		TalkCapacity legacy = TalkCapacity.deserialize("2|N|0|5000|130|LF=Y|MS=1048576".getBytes());
+		check(null != legacy && legacy.getPacketVersion() == 2, "legacy peer packet version");
+
+		TalkCapacity local = new TalkCapacity();
+		local.setPacketVersion(3, true);
+		TalkCapacity remote = TalkCapacity.deserialize(TalkCapacity.serialize(local));
+		check(remote.getPacketVersion() == 3, "v3 peer packet version");
+		check(Math.min(local.getPacketVersion(), legacy.getPacketVersion()) == 2, "negotiated packet version");
+
+		TalkCapacity unknown = TalkCapacity.deserialize("2|N|0|5000|130|PV=x".getBytes());
+		check(unknown.getPacketVersion() == 2, "malformed packet version");
+		System.out.println("mixed peers ok");
+	}
+
+	/**
+	 * 使用写入器生成数据包。
+	 */
+	private static Message write(int major, int flags, int sn, List<byte[]> segments) {
+		int capacity = 0;
+		for (byte[] segment : segments) {
+			capacity += segment.length;
+		}
+
+		PacketWriter writer = new PacketWriter(TAG, sn, major, 0, segments.size(), capacity / 2);
+		writer.setFlags(flags);
+		for (byte[] segment : segments) {
+			if (segment.length > 2) {
+				// 分两次写入同一个数据段
+				writer.beginSegment();
+				writer.write(segment, 0, 2);
+				writer.write(segment, 2, segment.length - 2);
+				writer.endSegment();
+			}
+			else {
+				writer.writeSegment(segment);
+			}
+		}
+		return writer.toMessage();
+	}
+
+	/**
+	 * 按指定的数据段数量和长度前缀直接构造 v3 数据包，长度前缀可以与数据不符。
+	 */
+	private static byte[] v3(int sn, int smn, int[] lengths, byte[] payload, boolean checksum) {
+		byte[] data = new byte[Packet.PV3_HEADER + (lengths.length + 1) * Packet.VARINT_MAX
+				+ payload.length + Packet.PV3_CHECKSUM];
+		data[0] = 3;
+		data[1] = (byte) (checksum ? Packet.FLAG_CHECKSUM : 0);
+		System.arraycopy(TAG, 0, data, Packet.PFB_VERSION + Packet.PV3_FLAGS, Packet.PFB_TAG);
+		int cursor = Packet.writeInt(sn, data, Packet.PFB_VERSION + Packet.PV3_FLAGS + Packet.PFB_TAG);
+		cursor = Packet.writeVarint(smn, data, cursor);
+		for (int length : lengths) {
+			cursor = Packet.writeVarint(length, data, cursor);
+		}
+		System.arraycopy(payload, 0, data, cursor, payload.length);
+		cursor += payload.length;
+		if (checksum) {
+			cursor = Packet.writeInt(CRC32C.compute(data, 0, cursor), data, cursor);
+		}
+		return Arrays.copyOf(data, cursor);
+	}
+
+	private static void expect(String name, Packet packet, int major, int sn, List<byte[]> segments) {
+		check(null != packet, name + ": not unpacked");
+		check(packet.getMajorVersion() == major, name + ": version " + packet.getMajorVersion());
+		check(packet.getSequenceNumber() == sn, name + ": sn " + packet.getSequenceNumber());
+		check(Arrays.equals(packet.getTag(), TAG), name + ": tag");
+		check(packet.numSegments() == segments.size(), name + ": segments " + packet.numSegments());
+		for (int i = 0; i < segments.size(); ++i) {
+			check(Arrays.equals(segments.get(i), packet.getSegment(i)), name + ": segment " + i + " differs");
+		}
+	}
+
+	/**
+	 * 畸形数据返回 <code>null</code> 或者抛出解码方法声明的 {@link ArrayIndexOutOfBoundsException} 。
+	 */
+	private static void rejected(String name, byte[] data) {
+		Packet packet = null;
+		try {
+			packet = Packet.unpack(data);
+		} catch (ArrayIndexOutOfBoundsException e) {
+			return;
+		}
+		check(null == packet, name + ": accepted");
+	}
+
+	private List<byte[]> segments(int num) {
+		List<byte[]> list = new ArrayList<byte[]>(num);
+		for (int i = 0; i < num; ++i) {
+			list.add(this.bytes(SEGMENT_LENGTHS[i % SEGMENT_LENGTHS.length]));
+		}
+		return list;
+	}
+
+	private byte[] bytes(int length) {
+		byte[] data = new byte[length];
+		this.random.nextBytes(data);
+		return data;
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			throw new AssertionError(message);
+		}
+	}
+
+}
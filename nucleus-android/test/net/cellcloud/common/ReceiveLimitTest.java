@@ -0,0 +1,307 @@
+/*
+-----------------------------------------------------------------------------
+This source file is part of Cell Cloud.
+
+Copyright (c) 2009-2017 Cell Cloud Team (www.cellcloud.net)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+-----------------------------------------------------------------------------
+*/
+
+package net.cellcloud.common;
+
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 接收限制测试。
+ * 
+ * 接收端只接受不超过协商长度的长度前缀帧和分片消息，超出时报告
+ * {@link MessageErrorCode#READ_OUTOFBOUNDS} 并关闭会话。
+ * 同时验证发送端交错发送的大消息数量不超过接收端允许同时重组的数量。
+ * 
+ * @author Ambrose Xu
+ * 
+ */
+public final class ReceiveLimitTest {
+
+	/** 与会话服务相同，连接器和接收器只在定义数据标记时解析帧。 */
+	private static final byte[] HEAD_MARK = new byte[] { 0x20, 0x10, 0x11, 0x10 };
+	private static final byte[] TAIL_MARK = new byte[] { 0x19, 0x78, 0x10, 0x04 };
+
+	/** 接收端的最大消息长度。 */
+	private static final int LIMIT = 64 * 1024;
+
+	private final Random random = new Random(20170615L);
+
+	private NonblockingAcceptor acceptor;
+	private final LinkedBlockingQueue<byte[]> serverReceived = new LinkedBlockingQueue<byte[]>();
+	private final LinkedBlockingQueue<Session> serverSessions = new LinkedBlockingQueue<Session>();
+	private final LinkedBlockingQueue<Integer> serverErrors = new LinkedBlockingQueue<Integer>();
+
+	public static void main(String[] args) throws Exception {
+		LogManager.getInstance().setLevel(LogLevel.ERROR);
+
+		ReceiveLimitTest test = new ReceiveLimitTest();
+		int port = test.startAcceptor();
+		ExecutorService executor = Executors.newCachedThreadPool();
+		try {
+			test.testInterleaved(port, executor);
+			test.testOversizedFrame(port, executor);
+			test.testOversizedFragments(port, executor);
+		} finally {
+			test.acceptor.unbind();
+			executor.shutdownNow();
+		}
+
+		System.out.println("ReceiveLimitTest passed");
+		System.exit(0);
+	}
+
+	private int startAcceptor() throws Exception {
+		ServerSocket probe = new ServerSocket(0);
+		int port = probe.getLocalPort();
+		probe.close();
+
+		this.acceptor = new NonblockingAcceptor();
+		this.acceptor.defineDataMark(HEAD_MARK, TAIL_MARK);
+		this.acceptor.setHandler(new Handler(this.serverReceived, null, null) {
+			@Override
+			public void sessionOpened(Session session) {
+				// 模拟协商完成后的接收端
+				session.setMaxMessageSize(LIMIT);
+				serverSessions.add(session);
+			}
+
+			@Override
+			public void errorOccurred(int errorCode, Session session, Message message) {
+				serverErrors.add(errorCode);
+			}
+		});
+		check(this.acceptor.bind(new InetSocketAddress("127.0.0.1", port)), "bind " + port);
+		return port;
+	}
+
+	/**
+	 * 多条不压缩的大消息连续写入，发送端交错发送，接收端全部重组成功。
+	 */
+	private void testInterleaved(int port, ExecutorService executor) throws Exception {
+		Client client = this.connect(port, executor);
+		Session session = client.connector.getSession();
+		session.setLengthFraming(true);
+		session.setFragmentation(true);
+		session.setMaxMessageSize(LIMIT);
+
+		List<byte[]> sent = new ArrayList<byte[]>();
+		for (int i = 0; i < 6; ++i) {
+			sent.add(this.bytes(LIMIT - this.random.nextInt(1000)));
+			sent.add(this.bytes(100 + this.random.nextInt(400)));
+		}
+		sent.add(this.bytes(LIMIT));
+		for (byte[] data : sent) {
+			client.connector.write(new Message(Arrays.copyOf(data, data.length)));
+		}
+
+		// 小消息可以越过正在分片的大消息，只比较内容
+		List<byte[]> received = new ArrayList<byte[]>();
+		for (int i = 0; i < sent.size(); ++i) {
+			byte[] data = this.serverReceived.poll(20, TimeUnit.SECONDS);
+			check(null != data, "interleaved: message " + i + " not received");
+			received.add(data);
+		}
+		check(sameContent(sent, received), "interleaved: received data differs");
+		check(this.serverErrors.isEmpty(), "interleaved: unexpected error " + this.serverErrors.peek());
+		check(!client.closed.await(200, TimeUnit.MILLISECONDS), "interleaved: session closed");
+		System.out.println("interleaved: " + sent.size() + " messages ok");
+
+		client.connector.disconnect();
+		this.acceptor.close(client.serverSession);
+	}
+
+	/**
+	 * 长度前缀帧超过接收端的最大消息长度。
+	 */
+	private void testOversizedFrame(int port, ExecutorService executor) throws Exception {
+		Client client = this.connect(port, executor);
+		Session session = client.connector.getSession();
+		session.setLengthFraming(true);
+		session.setMaxMessageSize(LIMIT * 4);
+
+		// 帧头到达后即拒绝，不等待帧数据接收完整
+		client.connector.write(new Message(this.bytes(LIMIT + 1)));
+		this.expectClosed("oversized frame", client);
+	}
+
+	/**
+	 * 分片消息的总长度超过接收端的最大消息长度。
+	 */
+	private void testOversizedFragments(int port, ExecutorService executor) throws Exception {
+		Client client = this.connect(port, executor);
+		Session session = client.connector.getSession();
+		session.setLengthFraming(true);
+		session.setFragmentation(true);
+		session.setMaxMessageSize(LIMIT * 4);
+
+		client.connector.write(new Message(this.bytes(LIMIT * 2)));
+		this.expectClosed("oversized fragments", client);
+	}
+
+	private void expectClosed(String name, Client client) throws Exception {
+		Integer error = this.serverErrors.poll(10, TimeUnit.SECONDS);
+		check(null != error && error.intValue() == MessageErrorCode.READ_OUTOFBOUNDS, name + ": error " + error);
+		check(client.closed.await(10, TimeUnit.SECONDS), name + ": session not closed");
+		check(this.serverReceived.isEmpty(), name + ": oversized message delivered");
+		System.out.println(name + ": session closed");
+
+		client.connector.disconnect();
+	}
+
+	private Client connect(int port, ExecutorService executor) throws Exception {
+		Client client = new Client();
+		CountDownLatch opened = new CountDownLatch(1);
+		client.connector = new BlockingConnector(NetworkMonitor.ALWAYS_CONNECTED, executor);
+		client.connector.defineDataMark(HEAD_MARK, TAIL_MARK);
+		client.connector.setHandler(new Handler(new LinkedBlockingQueue<byte[]>(), opened, client.closed));
+		check(client.connector.connect(new InetSocketAddress("127.0.0.1", port)), "connect");
+		check(opened.await(10, TimeUnit.SECONDS), "session opened");
+		client.serverSession = this.serverSessions.poll(10, TimeUnit.SECONDS);
+		check(null != client.serverSession, "server session");
+		return client;
+	}
+
+	private byte[] bytes(int length) {
+		byte[] data = new byte[length];
+		this.random.nextBytes(data);
+		return data;
+	}
+
+	private static boolean sameContent(List<byte[]> a, List<byte[]> b) {
+		Comparator<byte[]> order = new Comparator<byte[]>() {
+			@Override
+			public int compare(byte[] x, byte[] y) {
+				if (x.length != y.length) {
+					return x.length - y.length;
+				}
+				for (int i = 0; i < x.length; ++i) {
+					if (x[i] != y[i]) {
+						return x[i] - y[i];
+					}
+				}
+				return 0;
+			}
+		};
+
+		List<byte[]> x = new ArrayList<byte[]>(a);
+		List<byte[]> y = new ArrayList<byte[]>(b);
+		Collections.sort(x, order);
+		Collections.sort(y, order);
+		for (int i = 0; i < x.size(); ++i) {
+			if (!Arrays.equals(x.get(i), y.get(i))) {
+				return false;
+			}
+		}
+		return x.size() == y.size();
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			throw new AssertionError(message);
+		}
+	}
+
+	/**
+	 * 客户端连接。
+	 */
+	private static final class Client {
+		protected BlockingConnector connector;
+		protected Session serverSession;
+		protected final CountDownLatch closed = new CountDownLatch(1);
+	}
+
+	/**
+	 * 记录收到的消息数据。
+	 */
+	private static class Handler implements MessageHandler {
+
+		private final LinkedBlockingQueue<byte[]> received;
+		private final CountDownLatch opened;
+		private final CountDownLatch closed;
+
+		protected Handler(LinkedBlockingQueue<byte[]> received, CountDownLatch opened, CountDownLatch closed) {
+			this.received = received;
+			this.opened = opened;
+			this.closed = closed;
+		}
+
+		@Override
+		public void sessionCreated(Session session) {
+		}
+
+		@Override
+		public void sessionDestroyed(Session session) {
+		}
+
+		@Override
+		public void sessionOpened(Session session) {
+			if (null != this.opened) {
+				this.opened.countDown();
+			}
+		}
+
+		@Override
+		public void sessionClosed(Session session) {
+			if (null != this.closed) {
+				this.closed.countDown();
+			}
+		}
+
+		@Override
+		public void messageReceived(Session session, Message message) {
+			this.received.add(message.get());
+		}
+
+		@Override
+		public void messageSent(Session session, Message message) {
+		}
+
+		@Override
+		public void sessionUnwritable(Session session) {
+		}
+
+		@Override
+		public void sessionWritable(Session session) {
+		}
+
+		@Override
+		public void errorOccurred(int errorCode, Session session, Message message) {
+		}
+	}
+
+}
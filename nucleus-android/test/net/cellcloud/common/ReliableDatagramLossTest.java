@@ -0,0 +1,314 @@
+/*
+-----------------------------------------------------------------------------
+This source file is part of Cell Cloud.
+
+Copyright (c) 2009-2017 Cell Cloud Team (www.cellcloud.net)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+-----------------------------------------------------------------------------
+*/
+
+package net.cellcloud.common;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 可靠数据报的丢包和乱序测试。
+ * 
+ * 在回环地址上连接可靠数据报接收器和连接器，双方的发送器按比例丢弃、延迟和重复数据报。
+ * 连接器在多个流上发送长度不一的消息，接收器原样回送。两端都必须按流内的写入顺序
+ * 得到与原始数据完全一致的消息，且没有重复。
+ * 
+ * @author Ambrose Xu
+ * 
+ */
+public final class ReliableDatagramLossTest {
+
+	/** 丢包率、乱序率和消息数量。 */
+	private static final double[][] SCENARIOS = {
+		{ 0.0, 0.0, 2000 },
+		{ 0.01, 0.02, 2000 },
+		{ 0.05, 0.05, 1000 },
+		{ 0.2, 0.1, 300 }
+	};
+
+	/** 消息头：流编号和流内序号。 */
+	private static final int HEADER = 5;
+
+	private static final long SEED = 20170601L;
+
+	public static void main(String[] args) throws Exception {
+		LogManager.getInstance().setLevel(LogLevel.WARNING);
+
+		ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+		try {
+			for (double[] scenario : SCENARIOS) {
+				new ReliableDatagramLossTest().run(timer, scenario[0], scenario[1], (int) scenario[2]);
+			}
+		} finally {
+			timer.shutdownNow();
+		}
+
+		System.out.println("ReliableDatagramLossTest passed");
+		System.exit(0);
+	}
+
+	private void run(ScheduledExecutorService timer, double loss, double reorder, int count) throws Exception {
+		String name = "loss " + (int) (loss * 100) + "%, reorder " + (int) (reorder * 100) + "%";
+		long seed = SEED + count;
+
+		final ReliableDatagramAcceptor acceptor = new ReliableDatagramAcceptor();
+		acceptor.setDatagramSender(new LossySender(timer, new Random(seed), loss, reorder));
+		final Checker serverChecker = new Checker(count);
+		acceptor.setHandler(new Handler(null) {
+			@Override
+			public void messageReceived(Session session, Message message) {
+				byte[] data = message.get();
+				serverChecker.accept(data);
+				// 原样回送到同一个流
+				acceptor.write(session, new Message(Arrays.copyOf(data, data.length)), data[0]);
+			}
+		});
+		check(acceptor.bind(new InetSocketAddress("127.0.0.1", 0)), name + ": bind");
+
+		CountDownLatch opened = new CountDownLatch(1);
+		ReliableDatagramConnector connector = new ReliableDatagramConnector();
+		connector.setDatagramSender(new LossySender(timer, new Random(~seed), loss, reorder));
+		final Checker clientChecker = new Checker(count);
+		connector.setHandler(new Handler(opened) {
+			@Override
+			public void messageReceived(Session session, Message message) {
+				clientChecker.accept(message.get());
+			}
+		});
+
+		try {
+			check(connector.connect(new InetSocketAddress("127.0.0.1", acceptor.getBindAddress().getPort())),
+					name + ": connect");
+			check(opened.await(20, TimeUnit.SECONDS), name + ": session opened");
+
+			long start = System.nanoTime();
+			int[] seqs = new int[ReliableDatagramSession.STREAM_NUM];
+			Random random = new Random(seed);
+			for (int i = 0; i < count; ++i) {
+				int stream = random.nextInt(ReliableDatagramSession.STREAM_NUM);
+				byte[] data = makeMessage(stream, seqs[stream]++);
+				// 队列满时稍后重试
+				while (!connector.write(new Message(data), stream)) {
+					Thread.sleep(5);
+				}
+			}
+
+			serverChecker.await(name + ": server");
+			clientChecker.await(name + ": client");
+
+			long elapsed = (System.nanoTime() - start) / 1000000L;
+			System.out.println(name + ": " + count + " messages echoed in " + elapsed + " ms");
+		} finally {
+			connector.disconnect();
+			acceptor.unbind();
+		}
+	}
+
+	/**
+	 * 生成消息。消息内容由流编号和序号决定，接收端据此校验。
+	 */
+	private static byte[] makeMessage(int stream, int seq) {
+		Random random = new Random(SEED * 31 + stream * 1000003L + seq);
+		// 多数消息小于一个数据报，少数消息需要拆分为多个数据报
+		int length = HEADER + ((random.nextInt(10) == 0) ? 2000 + random.nextInt(20000) : random.nextInt(1200));
+		byte[] data = new byte[length];
+		random.nextBytes(data);
+		data[0] = (byte) stream;
+		data[1] = (byte) (seq >>> 24);
+		data[2] = (byte) (seq >>> 16);
+		data[3] = (byte) (seq >>> 8);
+		data[4] = (byte) seq;
+		return data;
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			throw new AssertionError(message);
+		}
+	}
+
+	/**
+	 * 校验每个流上的消息顺序和内容。
+	 */
+	private static final class Checker {
+
+		private final int expected;
+		private final int[] next = new int[ReliableDatagramSession.STREAM_NUM];
+		private final LinkedBlockingQueue<String> failures = new LinkedBlockingQueue<String>();
+		private final CountDownLatch done;
+
+		protected Checker(int expected) {
+			this.expected = expected;
+			this.done = new CountDownLatch(expected);
+		}
+
+		protected synchronized void accept(byte[] data) {
+			if (data.length < HEADER || data[0] < 0 || data[0] >= ReliableDatagramSession.STREAM_NUM) {
+				this.failures.add("malformed message, length " + data.length);
+				return;
+			}
+
+			int stream = data[0];
+			int seq = ((data[1] & 0xFF) << 24) | ((data[2] & 0xFF) << 16) | ((data[3] & 0xFF) << 8) | (data[4] & 0xFF);
+			if (seq != this.next[stream]) {
+				this.failures.add("stream " + stream + ": expected " + this.next[stream] + ", got " + seq);
+			}
+			else if (!Arrays.equals(makeMessage(stream, seq), data)) {
+				this.failures.add("stream " + stream + ": message " + seq + " differs");
+			}
+			this.next[stream] = seq + 1;
+
+			this.done.countDown();
+		}
+
+		protected void await(String name) throws InterruptedException {
+			boolean completed = this.done.await(120, TimeUnit.SECONDS);
+			String failure = this.failures.peek();
+			check(null == failure, name + ": " + failure);
+			check(completed, name + ": received " + (this.expected - this.done.getCount()) + " of " + this.expected);
+		}
+	}
+
+	/**
+	 * 模拟丢包、乱序和重复的发送器。延迟发送的数据报使用数据副本。
+	 */
+	private static final class LossySender implements DatagramSender {
+
+		private final ScheduledExecutorService timer;
+		private final Random random;
+		private final double loss;
+		private final double reorder;
+
+		protected LossySender(ScheduledExecutorService timer, Random random, double loss, double reorder) {
+			this.timer = timer;
+			this.random = random;
+			this.loss = loss;
+			this.reorder = reorder;
+		}
+
+		@Override
+		public void send(final DatagramSocket socket, DatagramPacket packet) throws IOException {
+			double dice;
+			long delay;
+			boolean duplicate;
+			synchronized (this.random) {
+				dice = this.random.nextDouble();
+				delay = 1 + this.random.nextInt(20);
+				duplicate = this.random.nextInt(100) == 0;
+			}
+
+			if (dice < this.loss) {
+				// 丢弃
+				return;
+			}
+
+			if (dice < this.loss + this.reorder) {
+				// 延迟发送，后续的数据报先到达
+				final DatagramPacket copy = new DatagramPacket(Arrays.copyOfRange(packet.getData(),
+						packet.getOffset(), packet.getOffset() + packet.getLength()), packet.getLength(),
+						packet.getSocketAddress());
+				this.timer.schedule(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							socket.send(copy);
+						} catch (IOException e) {
+							// 连接已关闭
+						}
+					}
+				}, delay, TimeUnit.MILLISECONDS);
+				return;
+			}
+
+			socket.send(packet);
+
+			if (duplicate) {
+				socket.send(packet);
+			}
+		}
+	}
+
+	/**
+	 * 会话事件处理器。
+	 */
+	private static class Handler implements MessageHandler {
+
+		private final CountDownLatch opened;
+
+		protected Handler(CountDownLatch opened) {
+			this.opened = opened;
+		}
+
+		@Override
+		public void sessionCreated(Session session) {
+		}
+
+		@Override
+		public void sessionDestroyed(Session session) {
+		}
+
+		@Override
+		public void sessionOpened(Session session) {
+			if (null != this.opened) {
+				this.opened.countDown();
+			}
+		}
+
+		@Override
+		public void sessionClosed(Session session) {
+		}
+
+		@Override
+		public void messageReceived(Session session, Message message) {
+		}
+
+		@Override
+		public void messageSent(Session session, Message message) {
+		}
+
+		@Override
+		public void sessionUnwritable(Session session) {
+		}
+
+		@Override
+		public void sessionWritable(Session session) {
+		}
+
+		@Override
+		public void errorOccurred(int errorCode, Session session, Message message) {
+		}
+	}
+
+}
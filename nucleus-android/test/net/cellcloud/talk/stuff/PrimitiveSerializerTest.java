@@ -0,0 +1,593 @@
+/*
+-----------------------------------------------------------------------------
+This source file is part of Cell Cloud.
+
+Copyright (c) 2009-2017 Cell Cloud Team (www.cellcloud.net)
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+-----------------------------------------------------------------------------
+*/
+
+package net.cellcloud.talk.stuff;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import net.cellcloud.common.LogLevel;
+import net.cellcloud.common.LogManager;
+import net.cellcloud.common.MessageService;
+import net.cellcloud.talk.Primitive;
+import net.cellcloud.talk.TalkCapacity;
+import net.cellcloud.talk.dialect.ActionDialect;
+import net.cellcloud.talk.dialect.ActionDialectFactory;
+import net.cellcloud.talk.dialect.ChunkDialect;
+import net.cellcloud.talk.dialect.ChunkDialectFactory;
+import net.cellcloud.talk.dialect.Dialect;
+import net.cellcloud.talk.dialect.DialectEnumerator;
+
+/**
+ * 原语序列化测试。
+ * 
+ * 覆盖二进制格式和文本格式各类语素、字面义和方言的往返一致性，以及截断的数据、超出数据范围的长度前缀、
+ * 错误的编码和与方言不符的语素。畸形数据不能让异常离开解析器，已完整读取的语素保持不变。
+ * 文本格式按块读取，转义符跨块时依然正确解析。文本格式和二进制格式的对端按首字节自动识别。
+ * 
+ * @author Ambrose Xu
+ * 
+ */
+public final class PrimitiveSerializerTest {
+
+	/** 二进制格式的起始标识。 */
+	private static final int BINARY_MAGIC = 0xB7;
+	/** 二进制格式的方言记录标识。 */
+	private static final int BINARY_TAG_DIALECT = 0x7F;
+
+	private final Random random = new Random(20170601L);
+
+	public static void main(String[] args) throws Exception {
+		LogManager.getInstance().setLevel(LogLevel.ERROR);
+
+		ExecutorService executor = Executors.newCachedThreadPool();
+		DialectEnumerator.getInstance().addFactory(new ActionDialectFactory(executor));
+		DialectEnumerator.getInstance().addFactory(new ChunkDialectFactory(executor));
+
+		PrimitiveSerializerTest test = new PrimitiveSerializerTest();
+		try {
+			test.testBinaryRoundTrip();
+			test.testBinaryDialects();
+			test.testBinaryTruncated();
+			test.testBinaryOversizedLength();
+			test.testBinaryMalformed();
+			test.testTextRoundTrip();
+			test.testTextFormat();
+			test.testTextChunked();
+			test.testTextTruncated();
+			test.testTextMalformed();
+			test.testMixedPeers();
+		} finally {
+			executor.shutdownNow();
+		}
+
+		System.out.println("PrimitiveSerializerTest passed");
+		System.exit(0);
+	}
+
+	/**
+	 * 各类语素和字面义、所有字节取值、超过读取块长度的数据在二进制格式下原样往返，数据不转义。
+	 */
+	private void testBinaryRoundTrip() {
+		for (int version = 2; version <= 3; ++version) {
+			Primitive primitive = this.makePrimitive(true);
+			primitive.version = version;
+
+			byte[] data = encode(primitive, PrimitiveSerializer.FORMAT_BINARY);
+			check((data[0] & 0xFF) == BINARY_MAGIC, "binary magic");
+
+			Primitive result = decode(data);
+			check(result.version == version, "binary version " + result.version);
+			expect("binary v" + version, flatten(primitive), flatten(result), false);
+		}
+
+		// 需要转义的字节在二进制格式里只占一个字节
+		byte[] tokens = "{}=:\\{}=:\\".getBytes();
+		Primitive primitive = new Primitive();
+		primitive.commit(new SubjectStuff(tokens));
+		byte[] data = encode(primitive, PrimitiveSerializer.FORMAT_BINARY);
+		check(data.length == 2 + 2 + 1 + tokens.length, "binary escaping overhead: " + data.length);
+		expect("binary tokens", flatten(primitive), flatten(decode(data)), false);
+		System.out.println("binary round trip ok");
+	}
+
+	/**
+	 * 内置方言以编号写入，其他方言写入名称，解析器无法创建的方言被忽略，语素保留。
+	 */
+	private void testBinaryDialects() {
+		ActionDialect action = new ActionDialect("tracker-云", "update");
+		action.appendParam("name", "cell{cloud}");
+		action.appendParam("count", 42);
+		action.appendParam("ratio", 0.25d);
+		Primitive primitive = action.reconstruct();
+
+		Primitive result = decode(encode(primitive, PrimitiveSerializer.FORMAT_BINARY));
+		check(result.getDialect() instanceof ActionDialect, "action dialect");
+		ActionDialect decoded = (ActionDialect) result.getDialect();
+		check(decoded.getTracker().equals("tracker-云"), "action tracker " + decoded.getTracker());
+		check(decoded.getAction().equals("update"), "action " + decoded.getAction());
+		check(decoded.getParamAsString("name").equals("cell{cloud}"), "action param name");
+		check(decoded.getParamAsInt("count") == 42, "action param count");
+		check(decoded.getParamAsDouble("ratio") == 0.25d, "action param ratio");
+
+		byte[] chunk = this.bytes(5000);
+		primitive = new ChunkDialect("tracker", "sign", 12345L, 1, 3, chunk, chunk.length).reconstruct();
+		result = decode(encode(primitive, PrimitiveSerializer.FORMAT_BINARY));
+		check(result.getDialect() instanceof ChunkDialect, "chunk dialect");
+		ChunkDialect decodedChunk = (ChunkDialect) result.getDialect();
+		check(decodedChunk.getSign().equals("sign") && decodedChunk.getChunkIndex() == 1
+				&& decodedChunk.getChunkNum() == 3 && decodedChunk.getTotalLength() == 12345L, "chunk fields");
+		check(decodedChunk.getLength() == chunk.length, "chunk length");
+		expect("chunk", flatten(primitive), flatten(result), false);
+
+		primitive = this.makePrimitive(false);
+		primitive.capture(new UnknownDialect());
+		byte[] data = encode(primitive, PrimitiveSerializer.FORMAT_BINARY);
+		check(indexOf(data, UnknownDialect.NAME.getBytes()) > 0, "unknown dialect name written");
+		result = decode(data);
+		check(null == result.getDialect(), "unknown dialect ignored");
+		expect("unknown dialect", flatten(primitive), flatten(result), false);
+		System.out.println("binary dialects ok");
+	}
+
+	/**
+	 * 任意长度截断的数据只解析出完整的语素。
+	 */
+	private void testBinaryTruncated() {
+		ActionDialect action = new ActionDialect("tracker", "truncated");
+		action.appendParam("a", "value");
+		action.appendParam("b", 7);
+		Primitive[] primitives = { this.makePrimitive(false), action.reconstruct() };
+
+		for (Primitive primitive : primitives) {
+			List<Stuff> expected = flatten(primitive);
+			byte[] data = encode(primitive, PrimitiveSerializer.FORMAT_BINARY);
+			for (int length = 0; length < data.length; ++length) {
+				Primitive result = decode(Arrays.copyOf(data, length));
+				expect("binary truncated to " + length, expected, flatten(result), true);
+				check(null == result.getDialect(), "binary truncated to " + length + ": dialect");
+			}
+		}
+		System.out.println("binary truncated ok");
+	}
+
+	/**
+	 * 长度前缀超出实际数据时停止解析，不按声明的长度分配内存。
+	 */
+	private void testBinaryOversizedLength() {
+		Primitive primitive = new Primitive();
+		primitive.commit(new SubjectStuff("kept"));
+		byte[] prefix = encode(primitive, PrimitiveSerializer.FORMAT_BINARY);
+		List<Stuff> expected = flatten(primitive);
+
+		int[] lengths = { MessageService.MAX_FRAME_LENGTH, MessageService.MAX_FRAME_LENGTH + 1, Integer.MAX_VALUE };
+		for (int length : lengths) {
+			ByteArrayOutputStream buf = new ByteArrayOutputStream();
+			buf.write(prefix, 0, prefix.length);
+			buf.write(StuffType.PREDICATE.getType());
+			buf.write(0);
+			writeVarint(buf, length);
+			buf.write(this.bytes(100), 0, 100);
+
+			Primitive result = decode(buf.toByteArray());
+			expect("binary length " + length, expected, flatten(result), false);
+
+			// 方言名和追踪器的长度前缀
+			buf = new ByteArrayOutputStream();
+			buf.write(prefix, 0, prefix.length);
+			buf.write(BINARY_TAG_DIALECT);
+			buf.write(0);
+			writeVarint(buf, length);
+			buf.write('A');
+			result = decode(buf.toByteArray());
+			expect("binary dialect name length " + length, expected, flatten(result), false);
+			check(null == result.getDialect(), "binary dialect name length " + length + ": dialect");
+		}
+		System.out.println("binary oversized length ok");
+	}
+
+	/**
+	 * 错误的字面义、方言编号和变长编码，以及与方言不符的语素。
+	 */
+	private void testBinaryMalformed() {
+		Primitive primitive = new Primitive();
+		primitive.commit(new SubjectStuff("kept"));
+		byte[] prefix = encode(primitive, PrimitiveSerializer.FORMAT_BINARY);
+		List<Stuff> expected = flatten(primitive);
+
+		byte[][] tails = {
+			// 未定义的字面义编码
+			{ (byte) StuffType.PREDICATE.getType(), 0x40, 1, 'x' },
+			// 未定义的方言编号
+			{ (byte) BINARY_TAG_DIALECT, 9, 0 },
+			// 变长编码超过 5 字节
+			{ (byte) StuffType.PREDICATE.getType(), 0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x01, 'x' },
+			// 动作方言没有谓语
+			{ (byte) BINARY_TAG_DIALECT, 1, 1, 't' },
+			// 区块方言缺少语素
+			{ (byte) BINARY_TAG_DIALECT, 2, 1, 't' }
+		};
+
+		for (int i = 0; i < tails.length; ++i) {
+			byte[] data = Arrays.copyOf(prefix, prefix.length + tails[i].length);
+			System.arraycopy(tails[i], 0, data, prefix.length, tails[i].length);
+			Primitive result = decode(data);
+			expect("binary malformed " + i, expected, flatten(result), false);
+			check(null == result.getDialect(), "binary malformed " + i + ": dialect");
+		}
+
+		// 动作方言的参数名多于参数值
+		byte[] data = encode(this.makePrimitive(false), PrimitiveSerializer.FORMAT_BINARY);
+		data = Arrays.copyOf(data, data.length + 4);
+		data[data.length - 4] = (byte) BINARY_TAG_DIALECT;
+		data[data.length - 3] = 1;
+		data[data.length - 2] = 1;
+		data[data.length - 1] = 't';
+		check(null == decode(data).getDialect(), "binary action dialect without values");
+		System.out.println("binary malformed ok");
+	}
+
+	/**
+	 * 各类语素和字面义、需要转义的字节、超过解析缓冲长度的数据在文本格式 v2 和 v3 下往返一致。
+	 */
+	private void testTextRoundTrip() {
+		for (int version = 2; version <= 3; ++version) {
+			Primitive primitive = this.makePrimitive(true);
+			primitive.version = version;
+
+			byte[] data = encode(primitive, PrimitiveSerializer.FORMAT_TEXT);
+			check(data[0] == '[', "text version token");
+
+			Primitive result = decode(data);
+			check(result.version == version, "text version " + result.version);
+			expect("text v" + version, flatten(primitive), flatten(result), false);
+		}
+
+		ActionDialect action = new ActionDialect("tracker-云", "update");
+		action.appendParam("name", "{a=b:c}\\");
+		action.appendParam("flag", true);
+		Primitive result = decode(encode(action.reconstruct(), PrimitiveSerializer.FORMAT_TEXT));
+		check(result.getDialect() instanceof ActionDialect, "text action dialect");
+		check(((ActionDialect) result.getDialect()).getParamAsString("name").equals("{a=b:c}\\"), "text action param");
+		System.out.println("text round trip ok");
+	}
+
+	/**
+	 * 文本格式的输出与语法一致，并能解析早期版本的长字面义和没有版本的数据。
+	 */
+	private void testTextFormat() throws Exception {
+		Primitive primitive = new Primitive();
+		primitive.commit(new SubjectStuff("cloud"));
+		primitive.commit(new SubjectStuff("a{b}=c:d\\"));
+		primitive.commit(new PredicateStuff("update"));
+		check(new String(encode(primitive, PrimitiveSerializer.FORMAT_TEXT), "UTF-8").equals(
+				"[03]{sub=cloud:s}{sub=a\\{b\\}\\=c\\:d\\\\:s}{pre=update:s}"), "text v3 output");
+
+		primitive.version = 2;
+		check(new String(encode(primitive, PrimitiveSerializer.FORMAT_TEXT), "UTF-8").equals(
+				"[00200]{sub=cloud:string}{sub=a\\{b\\}\\=c\\:d\\\\:string}{pre=update:string}"), "text v2 output");
+
+		Primitive result = decode("[01000]{pre=update:string}{obj=7:long}[ActionDialect@Ambrose]".getBytes("UTF-8"));
+		check(result.predicates().get(0).getLiteralBase() == LiteralBase.STRING, "legacy literal string");
+		check(result.objectives().get(0).getLiteralBase() == LiteralBase.LONG
+				&& result.objectives().get(0).getValueAsString().equals("7"), "legacy literal long");
+		check(result.getDialect() instanceof ActionDialect
+				&& ((ActionDialect) result.getDialect()).getAction().equals("update"), "legacy dialect");
+
+		result = decode("{sub=cloud:s}{pre=1:i}".getBytes("UTF-8"));
+		check(result.subjects().size() == 1 && result.predicates().size() == 1, "text without version");
+
+		// 转义符后不是记号时保留转义符
+		result = decode("[03]{sub=a\\qb:s}".getBytes("UTF-8"));
+		check(result.subjects().get(0).getValueAsString().equals("a\\qb"), "text plain escape");
+		System.out.println("text format ok");
+	}
+
+	/**
+	 * 数据流每次只返回少量字节时，跨块的转义符、记号和多字节字符依然正确解析。
+	 */
+	private void testTextChunked() {
+		ActionDialect action = new ActionDialect("tracker-云", "chunked");
+		action.appendParam("escaped", "\\{}=:\\{}=:\\");
+		Primitive[] primitives = { this.makePrimitive(true), action.reconstruct() };
+		int[] chunks = { 1, 2, 3, 4095, 4097 };
+
+		for (Primitive primitive : primitives) {
+			byte[] data = encode(primitive, PrimitiveSerializer.FORMAT_TEXT);
+			for (int chunk : chunks) {
+				Primitive result = new Primitive();
+				PrimitiveSerializer.read(result, new TrickleInputStream(data, chunk));
+				expect("text chunk " + chunk, flatten(primitive), flatten(result), false);
+				check((null == primitive.getDialect()) == (null == result.getDialect()), "text chunk " + chunk + ": dialect");
+			}
+		}
+		System.out.println("text chunked ok");
+	}
+
+	/**
+	 * 任意长度截断的数据只解析出完整的语素，方言在结束记号之后才创建。
+	 */
+	private void testTextTruncated() {
+		ActionDialect action = new ActionDialect("tracker", "truncated");
+		action.appendParam("a", "v{a}l=u:e");
+		action.appendParam("b", 7);
+		Primitive[] primitives = { this.makePrimitive(false), action.reconstruct() };
+
+		for (Primitive primitive : primitives) {
+			List<Stuff> expected = flatten(primitive);
+			byte[] data = encode(primitive, PrimitiveSerializer.FORMAT_TEXT);
+			for (int length = 0; length < data.length; ++length) {
+				Primitive result = decode(Arrays.copyOf(data, length));
+				expect("text truncated to " + length, expected, flatten(result), true);
+				check(null == result.getDialect(), "text truncated to " + length + ": dialect");
+			}
+		}
+		System.out.println("text truncated ok");
+	}
+
+	/**
+	 * 畸形的文本数据跳过无法识别的语素和方言，不抛出异常。
+	 */
+	private void testTextMalformed() throws Exception {
+		String[] inputs = {
+			"", "[03", "}}}:::===\\", "[03]{sub=x:}", "[03]{sub=x:zz}", "[03]{sub=abc\\",
+			"[03]{sub=:s}{xyz=abc:s}", "[03]{sub=a:s}[ActionDialect@t]", "[03]{pre=go:s}[ActionDialect]",
+			"[03]{pre=go:s}[NoSuchDialect@t]", "[03]{pre=go:s}[ActionDialect@t@u]", "[03]{sub=a:s}[ChunkDialect@t]"
+		};
+		int[] stuffs = { 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 1, 1 };
+
+		for (int i = 0; i < inputs.length; ++i) {
+			Primitive result = decode(inputs[i].getBytes("UTF-8"));
+			check(flatten(result).size() == stuffs[i], "text malformed '" + inputs[i] + "': " + flatten(result).size() + " stuffs");
+			check(null == result.getDialect(), "text malformed '" + inputs[i] + "': dialect");
+		}
+
+		// 随机改写合法数据中的字节
+		ActionDialect action = new ActionDialect("tracker", "fuzz");
+		action.appendParam("a", "value");
+		action.appendParam("b", 7);
+		byte[] data = encode(action.reconstruct(), PrimitiveSerializer.FORMAT_TEXT);
+		byte[] tokens = "{}=:\\[]@".getBytes("UTF-8");
+		for (int n = 0; n < 20000; ++n) {
+			byte[] mutated = Arrays.copyOf(data, data.length);
+			for (int k = 1 + this.random.nextInt(4); k > 0; --k) {
+				int index = this.random.nextInt(mutated.length);
+				mutated[index] = this.random.nextBoolean() ? tokens[this.random.nextInt(tokens.length)]
+						: (byte) this.random.nextInt(256);
+			}
+			decode(Arrays.copyOf(mutated, 1 + this.random.nextInt(mutated.length)));
+		}
+		System.out.println("text malformed ok");
+	}
+
+	/**
+	 * 同一个解析入口按首字节识别文本格式和二进制格式，能力协商对未声明原语格式的对端使用文本格式。
+	 */
+	private void testMixedPeers() {
+		ActionDialect action = new ActionDialect("tracker", "mixed");
+		action.appendParam("text", "{a=b:c}\\");
+		action.appendParam("value", 3L);
+		Primitive[] primitives = { this.makePrimitive(false), action.reconstruct() };
+
+		for (int i = 0; i < 20; ++i) {
+			Primitive primitive = primitives[i % primitives.length];
+			int format = this.random.nextBoolean() ? PrimitiveSerializer.FORMAT_BINARY : PrimitiveSerializer.FORMAT_TEXT;
+			Primitive result = decode(encode(primitive, format));
+			expect("mixed " + i + " format " + format, flatten(primitive), flatten(result), false);
+			check((null == primitive.getDialect()) == (null == result.getDialect()), "mixed " + i + ": dialect");
+		}
+
+		TalkCapacity legacy = TalkCapacity.deserialize("2|N|0|5000|130|LF=Y|PV=3".getBytes());
+		check(legacy.getPrimitiveFormat() == PrimitiveSerializer.FORMAT_TEXT, "legacy peer primitive format");
+
+		TalkCapacity local = new TalkCapacity();
+		local.setPrimitiveFormat(PrimitiveSerializer.FORMAT_BINARY);
+		TalkCapacity remote = TalkCapacity.deserialize(TalkCapacity.serialize(local));
+		check(remote.getPrimitiveFormat() == PrimitiveSerializer.FORMAT_BINARY, "binary peer primitive format");
+
+		TalkCapacity unknown = TalkCapacity.deserialize("2|N|0|5000|130|PF=9".getBytes());
+		check(unknown.getPrimitiveFormat() == PrimitiveSerializer.FORMAT_TEXT, "unknown primitive format");
+		System.out.println("mixed peers ok");
+	}
+
+	/**
+	 * 生成包含全部语素类型和字面义的原语。
+	 * 
+	 * @param large 是否包含超过读取块长度的数据。
+	 */
+	private Primitive makePrimitive(boolean large) {
+		byte[] all = new byte[256];
+		for (int i = 0; i < all.length; ++i) {
+			all[i] = (byte) i;
+		}
+
+		Primitive primitive = new Primitive();
+		primitive.commit(new SubjectStuff("cloud"));
+		primitive.commit(new SubjectStuff(""));
+		primitive.commit(new SubjectStuff("{sub=value:s}\\[03]"));
+		primitive.commit(new SubjectStuff("云端 é 😀"));
+		primitive.commit(new PredicateStuff(Integer.MIN_VALUE));
+		primitive.commit(new PredicateStuff(Long.MAX_VALUE));
+		primitive.commit(new ObjectiveStuff(all));
+		primitive.commit(new ObjectiveStuff(-1.5f));
+		primitive.commit(new AdverbialStuff(Math.PI));
+		primitive.commit(new AdverbialStuff(true));
+		primitive.commit(new AttributiveStuff(false));
+		primitive.commit(new ComplementStuff(0));
+
+		// 其他字面义只改变标识，数据原样传输
+		LiteralBase[] literals = { LiteralBase.UINT, LiteralBase.ULONG, LiteralBase.JSON, LiteralBase.XML };
+		String[] values = { "4294967295", "18446744073709551615", "{\"a\":[1,2]}", "<a b=\"c\"/>" };
+		for (int i = 0; i < literals.length; ++i) {
+			ComplementStuff stuff = new ComplementStuff(values[i]);
+			stuff.literalBase = literals[i];
+			primitive.commit(stuff);
+		}
+
+		if (large) {
+			primitive.commit(new ObjectiveStuff(this.bytes(70000)));
+			primitive.commit(new AttributiveStuff(this.bytes(200000)));
+		}
+		return primitive;
+	}
+
+	private static byte[] encode(Primitive primitive, int format) {
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		PrimitiveSerializer.write(buf, primitive, format);
+		return buf.toByteArray();
+	}
+
+	private static Primitive decode(byte[] data) {
+		Primitive primitive = new Primitive();
+		PrimitiveSerializer.read(primitive, new ByteArrayInputStream(data));
+		return primitive;
+	}
+
+	/**
+	 * 按序列化顺序列出原语的全部语素。
+	 */
+	private static List<Stuff> flatten(Primitive primitive) {
+		List<Stuff> list = new ArrayList<Stuff>();
+		addAll(list, primitive.subjects());
+		addAll(list, primitive.predicates());
+		addAll(list, primitive.objectives());
+		addAll(list, primitive.adverbials());
+		addAll(list, primitive.attributives());
+		addAll(list, primitive.complements());
+		return list;
+	}
+
+	private static void addAll(List<Stuff> list, List<? extends Stuff> stuffs) {
+		if (null != stuffs) {
+			list.addAll(stuffs);
+		}
+	}
+
+	/**
+	 * 比较语素列表。
+	 * 
+	 * @param prefix 是否只要求解析结果是期望列表的前缀。
+	 */
+	private static void expect(String name, List<Stuff> expected, List<Stuff> actual, boolean prefix) {
+		if (prefix) {
+			check(actual.size() <= expected.size(), name + ": " + actual.size() + " stuffs");
+		}
+		else {
+			check(actual.size() == expected.size(), name + ": " + actual.size() + " stuffs, expected " + expected.size());
+		}
+
+		for (int i = 0; i < actual.size(); ++i) {
+			Stuff e = expected.get(i);
+			Stuff a = actual.get(i);
+			check(e.getType() == a.getType(), name + ": stuff " + i + " type " + a.getType());
+			check(e.getLiteralBase() == a.getLiteralBase(), name + ": stuff " + i + " literal " + a.getLiteralBase());
+			check(Arrays.equals(e.getValue(), a.getValue()), name + ": stuff " + i + " value differs (length "
+					+ e.getValue().length + " / " + a.getValue().length + ")");
+		}
+	}
+
+	private static void writeVarint(ByteArrayOutputStream buf, int value) {
+		while ((value & ~0x7F) != 0) {
+			buf.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buf.write(value);
+	}
+
+	private static int indexOf(byte[] data, byte[] target) {
+		for (int i = 0; i + target.length <= data.length; ++i) {
+			if (Arrays.equals(Arrays.copyOfRange(data, i, i + target.length), target)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private byte[] bytes(int length) {
+		byte[] data = new byte[length];
+		this.random.nextBytes(data);
+		return data;
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			throw new AssertionError(message);
+		}
+	}
+
+	/**
+	 * 每次最多返回指定字节数的输入流。
+	 */
+	private static class TrickleInputStream extends InputStream {
+
+		private final ByteArrayInputStream stream;
+		private final int chunk;
+
+		protected TrickleInputStream(byte[] data, int chunk) {
+			this.stream = new ByteArrayInputStream(data);
+			this.chunk = chunk;
+		}
+
+		@Override
+		public int read() {
+			return this.stream.read();
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			return this.stream.read(b, off, Math.min(len, this.chunk));
+		}
+	}
+
+	/**
+	 * 对端未注册的方言。
+	 */
+	private static class UnknownDialect extends Dialect {
+
+		protected static final String NAME = "UnknownDialect";
+
+		protected UnknownDialect() {
+			super(NAME, "tracker");
+		}
+
+		@Override
+		public Primitive reconstruct() {
+			return null;
+		}
+
+		@Override
+		public void construct(Primitive primitive) {
+		}
+	}
+
+}